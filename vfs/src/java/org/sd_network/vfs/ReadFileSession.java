@@ -17,9 +17,11 @@ package org.sd_network.vfs;
 
 import java.io.InputStream;
 import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
+import org.sd_network.vfs.db.SectorRefDB;
 import org.sd_network.vfs.db.VfsFile;
 import org.sd_network.vfs.sector.SectorDriver;
 import org.sd_network.vfs.sector.SectorDriverManager;
@@ -41,6 +43,9 @@ public class ReadFileSession
     /** Instance of input stream. */
     private InputStream _iStream;
 
+    /** ID of the sectors of the file to read. */
+    private final String _sectorID;
+
     //////////////////////////////////////////////////////////// 
     // Constructors.
 
@@ -48,9 +53,10 @@ public class ReadFileSession
         throws VfsIOException
     {
         super(sessionID, vfsFile, FileSession.Mode.READ);
+        _sectorID = SectorRefDB.getSectorID(vfsFile.getID());
         try {
             SectorDriver driver = SectorDriverManager.getSectorDriver();
-            _iStream = driver.getInputStream(vfsFile.getID());
+            _iStream = driver.getInputStream(_sectorID);
         } catch (SectorException e) {
             throw new VfsIOException(e);
         }
@@ -100,4 +106,60 @@ public class ReadFileSession
             throw new VfsIOException(e);
         }
     }
+
+    /**
+     * Move the read position to <tt>position</tt> of the file.
+     * The stream is reopened at the position by the sector driver, so
+     * the data before the position is not read.
+     *
+     * @param position  number of bytes from the beginning of the file.
+     *
+     * @throws  VfsIOException
+     *          Throws if the position is negative or could not move.
+     */
+    public void seek(long position)
+        throws VfsIOException
+    {
+        checkClosed();
+        if (position < 0)
+            throw new VfsIOException("position is negative.");
+
+        try {
+            // close first, because the driver holds one read lock per file.
+            _iStream.close();
+            SectorDriver driver = SectorDriverManager.getSectorDriver();
+            _iStream = driver.getInputStream(_sectorID, position);
+        } catch (IOException e) {
+            _closed = true;
+            throw new VfsIOException(e);
+        } catch (SectorException e) {
+            _closed = true;
+            throw new VfsIOException(e);
+        }
+    }
+
+    /**
+     * Write all data of the file to <tt>target</tt> by the sector driver,
+     * so the data is not copied through a caller's buffer. The whole file
+     * is transferred regardless of the read position, and the read
+     * position is not moved.
+     *
+     * @param target    the channel that the data is written to.
+     *
+     * @return  number of bytes transferred.
+     *
+     * @throws  VfsIOException
+     *          Throws if the data could not transfer.
+     */
+    public long transferTo(WritableByteChannel target)
+        throws VfsIOException
+    {
+        checkClosed();
+        try {
+            SectorDriver driver = SectorDriverManager.getSectorDriver();
+            return driver.transferTo(_sectorID, target);
+        } catch (SectorException e) {
+            throw new VfsIOException(e);
+        }
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Locks of the sectors by sector ID, that keep a copy from sharing
+ * sectors being written or deleted.
+ *
+ * <p> A sector ID is guarded by one of a fixed number of lock objects,
+ * chosen by its hash code, so operations on different sectors seldom wait
+ * for each other. While holding the lock of a sector ID, a caller checks
+ * and changes the references to the sectors, and claims the sectors that
+ * it writes or deletes. The sector driver is called after the lock is
+ * released, while the sectors are claimed; a copy does not share claimed
+ * sectors.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+final class SectorLocks
+{
+    /** Number of lock objects. */
+    private static final int _STRIPES = 64;
+
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** Lock objects. */
+    private static final Object[] _locks = new Object[_STRIPES];
+
+    static {
+        for (int idx = 0; idx < _locks.length; idx++)
+            _locks[idx] = new Object();
+    }
+
+    /** Sector IDs being written or deleted. */
+    private static final Set<String> _claimedSet = new HashSet<String>();
+
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    private SectorLocks() {
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Package methods.
+
+    /**
+     * Return the lock object of the sector ID.
+     */
+    static Object getLock(String sectorID) {
+        if (sectorID == null)
+            throw new NullPointerException("sectorID");
+        return _locks[(sectorID.hashCode() & 0x7fffffff) % _STRIPES];
+    }
+
+    /**
+     * Claim the sectors to write or delete them. The caller must hold the
+     * lock of the sector ID.
+     *
+     * @return  true if claimed, or false if the sectors are already
+     *          claimed by other.
+     */
+    static boolean claim(String sectorID) {
+        synchronized (_claimedSet) {
+            return _claimedSet.add(sectorID);
+        }
+    }
+
+    /**
+     * Return true if the sectors are claimed. The caller must hold the
+     * lock of the sector ID.
+     */
+    static boolean isClaimed(String sectorID) {
+        synchronized (_claimedSet) {
+            return _claimedSet.contains(sectorID);
+        }
+    }
+
+    /**
+     * Release the claim of the sectors.
+     */
+    static void release(String sectorID) {
+        synchronized (_claimedSet) {
+            _claimedSet.remove(sectorID);
+        }
+    }
+}
@@ -117,8 +117,32 @@ public class UserSession
      * @throws  VfsIOException
      *          Throws if created file session already max.
      */
+    public String newFileSession(VfsFile targetFile, FileSession.Mode mode)
+        throws VfsIOException
+    {
+        return newFileSession(targetFile, mode, -1L);
+    }
+
+    /**
+     * Create file session and return it.
+     * If number of file session that is created is already max, throws
+     * VfsIOException.
+     * <tt>sizeHint</tt> is the expected size of the file that is written
+     * by a session of WRITE mode, and it is ignored by the other modes.
+     *
+     * <p> This method is synchronized.
+     *
+     * @param targetFile    The target file.
+     * @param mode          Session mode.
+     * @param sizeHint      expected number of bytes, or -1 if unknown.
+     *
+     * @return  Created file session iD.
+     *
+     * @throws  VfsIOException
+     *          Throws if created file session already max.
+     */
     public synchronized String newFileSession(VfsFile targetFile,
-            FileSession.Mode mode)
+            FileSession.Mode mode, long sizeHint)
         throws VfsIOException
     {
         if (targetFile == null)
@@ -141,9 +165,10 @@ public class UserSession
         if (mode == FileSession.Mode.READ)
             fileSession = new ReadFileSession(fileSessionID, targetFile);
         else if (mode == FileSession.Mode.WRITE)
-            fileSession = new WriteFileSession(fileSessionID, targetFile);
+            fileSession = new WriteFileSession(
+                    fileSessionID, targetFile, false, sizeHint);
         else if (mode == FileSession.Mode.APPEND)
-            throw new UnsupportedOperationException("Fix this.");
+            fileSession = new WriteFileSession(fileSessionID, targetFile, true);
         else
             throw new UnsupportedOperationException("Fix this.");
         _fileSessionMap.put(fileSessionID, fileSession);
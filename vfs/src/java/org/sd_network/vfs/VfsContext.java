@@ -82,8 +82,13 @@ public class VfsContext
             Schema.setup();
 
             // SectorDriverManager initialization.
-            SectorDriverManager.setSectorDriver(
-                    config.getProperty("org.sd_network.vfs.SectorDriver"));
+            String driverNames =
+                config.getProperty("org.sd_network.vfs.SectorDrivers");
+            if (driverNames != null)
+                SectorDriverManager.setSectorDrivers(driverNames);
+            else
+                SectorDriverManager.setSectorDriver(
+                        config.getProperty("org.sd_network.vfs.SectorDriver"));
 
             _service = new VfsService();
 
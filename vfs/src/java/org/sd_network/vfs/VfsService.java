@@ -15,6 +15,8 @@
  */
 package org.sd_network.vfs;
 
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.List;
@@ -23,6 +25,7 @@ import java.util.logging.Level;
 
 import org.sd_network.db.DBException;
 import org.sd_network.db.ConnectionPool;
+import org.sd_network.vfs.db.SectorRefDB;
 import org.sd_network.vfs.db.User;
 import org.sd_network.vfs.db.UserDB;
 import org.sd_network.vfs.db.VfsFile;
@@ -250,6 +253,132 @@ public class VfsService
         throw new UnsupportedOperationException("Please implement.");
     }
 
+    /**
+     * Copy the file to other parent, and return the instance of VfsFile
+     * of the copy.
+     *
+     * <p> The copy refers to the sectors of the original file, so no data
+     * is copied and the cost does not depend on the file size. Sharing is
+     * per file, not per sector: when the original or the copy is later
+     * appended to, the whole existing data is first duplicated to new
+     * sectors of that file, and when it is overwritten, it just starts
+     * from new empty sectors. The other file keeps the shared sectors,
+     * which are deleted when the last file referring to them is deleted.
+     * See {@link SectorRefDB}.
+     *
+     * @param sessionID     user session ID that is logged in.
+     * @param fileID        the fileID of the file to copy.
+     * @param newParentID   the fileID of the parent of the copy.
+     * @param newName       the name of the copy.
+     *
+     * @return  the instance of VfsFile of the copy.
+     *
+     * @throws  VfsIOException
+     *          Throws if specified file was not found, was a directory or
+     *          being written or deleted, the name was too long or already
+     *          used, or other error occurred.
+     *
+     * @throws  SessionException
+     *          Throws if the session is invalidated or timeout.
+     */
+    public VfsFile copyObject(String sessionID, String fileID,
+            String newParentID, String newName)
+        throws VfsIOException, SessionException
+    {
+        // check parameters.
+        if (sessionID == null || sessionID.trim().length() == 0)
+            throw new IllegalArgumentException("sessionID is empty.");
+        if (fileID == null || fileID.trim().length() == 0)
+            throw new IllegalArgumentException("fileID is empty.");
+        if (newParentID == null || newParentID.trim().length() == 0)
+            throw new IllegalArgumentException("newParentID is empty.");
+        if (newName == null || newName.trim().length() == 0)
+            throw new IllegalArgumentException("newName is empty.");
+
+        // check length of filename.
+        SystemInfo systemInfo = getSystemInfo();
+        if (newName.length() > systemInfo.getFileNameLength())
+            throw new VfsIOException("The name is too long.");
+
+        // retrive user from session.
+        UserSessionManager usm = UserSessionManager.getInstance();
+        UserSession session = usm.getUserSession(sessionID);
+        if (session == null)
+            throw new SessionException("Invalid session.");
+        User user = session.getUser();
+
+        // check whether file exists.
+        VfsFile source = VfsFileDB.get(fileID, user.getID());
+        if (source == null)
+            throw new VfsIOException("The object not found.");
+        if (source.isDirectory())
+            throw new VfsIOException("The object is a directory.");
+
+        // retrive parent object.
+        VfsFile parent = VfsFileDB.get(newParentID, user.getID());
+        if (parent == null)
+            throw new VfsIOException("The parent not found.");
+
+        // check already exists same name.
+        if (VfsFileDB.get(parent.getID(), newName, user.getID()) != null)
+            throw new VfsIOException("The name is already used.");
+
+        // check number of child object.
+        int childCount = VfsFileDB.countChild(parent.getID(), user.getID());
+        if (childCount >= systemInfo.getChildObjectsPerParent())
+            throw new VfsIOException("Could not create object any more.");
+
+        // create the copy that shares sectors of the file. the size of
+        // the file is fixed while its sectors are not claimed.
+        String sectorID = SectorRefDB.getSectorID(source.getID());
+        synchronized (SectorLocks.getLock(sectorID)) {
+            if (!sectorID.equals(SectorRefDB.getSectorID(source.getID())))
+                throw new VfsIOException(
+                        "The file was written by other session.");
+            if (SectorLocks.isClaimed(sectorID))
+                throw new VfsIOException(
+                        "The file is being written or deleted.");
+            source = VfsFileDB.get(fileID, user.getID());
+            if (source == null)
+                throw new VfsIOException("The object not found.");
+            long size = source.getSize();
+
+            ConnectionPool pool = ConnectionPool.getInstance("vfs");
+            Connection con = pool.engageConnection(10);
+            try {
+                con.setAutoCommit(false);
+                VfsFile copy = VfsFileDB.createFile(
+                        con, newName, parent.getID(), size, user.getID());
+                SectorRefDB.share(con, source.getID(), copy.getID());
+                con.commit();
+                return copy;
+            } catch (SQLException e) {
+                try {
+                    con.rollback();
+                } catch (SQLException e1) {
+                    _log.log(Level.SEVERE,
+                            "Connection could not rollback.",e1);
+                }
+                throw new DBException(e);
+            } catch (DBException e) {
+                try {
+                    con.rollback();
+                } catch (SQLException e1) {
+                    _log.log(Level.SEVERE,
+                            "Connection could not rollback.",e1);
+                }
+                throw e;
+            } finally {
+                try {
+                    if (con != null)
+                        con.close();
+                } catch (SQLException e1) {
+                    _log.log(Level.WARNING, "Connection could not close.",e1);
+                }
+            }
+        }
+    }
+
     /**
      * Delete database entry of specified VfsFile.
      *
@@ -290,16 +419,35 @@ public class VfsService
         if (childList.size() > 0)
             throw new VfsIOException("The object has child object.");
 
-        // delete sectors related to specified fileID.
-        try {
-            SectorDriver sectorDriver = SectorDriverManager.getSectorDriver();
-            sectorDriver.deleteSectors(fileID);
-        } catch (SectorException e) {
-            throw new VfsIOException(e.getMessage(), e);
+        // the sectors related to specified fileID are deleted, unless
+        // they are shared with copies of the file. they are claimed while
+        // deleted, out of the lock.
+        String sectorID = SectorRefDB.getSectorID(fileID);
+        synchronized (SectorLocks.getLock(sectorID)) {
+            if (!sectorID.equals(SectorRefDB.getSectorID(fileID)))
+                throw new VfsIOException(
+                        "The file was written by other session.");
+            if (SectorRefDB.countReferences(sectorID) > 1) {
+                deleteFileEntry(fileID, user.getID());
+                return;
+            }
+            if (!SectorLocks.claim(sectorID))
+                throw new VfsIOException(
+                        "The file is being written or deleted.");
         }
 
-        // delete file entry.
-        VfsFileDB.delete(fileID, user.getID());
+        try {
+            try {
+                SectorDriver sectorDriver =
+                    SectorDriverManager.getSectorDriver();
+                sectorDriver.deleteSectors(sectorID);
+            } catch (SectorException e) {
+                throw new VfsIOException(e.getMessage(), e);
+            }
+            deleteFileEntry(fileID, user.getID());
+        } finally {
+            SectorLocks.release(sectorID);
+        }
     }
 
     /**
@@ -450,6 +598,37 @@ public class VfsService
     public String createFileSession(String sessionID, String fileID,
             FileSession.Mode mode)
         throws VfsIOException, SessionException
+    {
+        return createFileSession(sessionID, fileID, mode, -1L);
+    }
+
+    /**
+     * Create file session specified <code>fileID</code> for specified
+     * <code>mode</code>, as {@link #createFileSession(String, String,
+     * FileSession.Mode)}. For WRITE mode, <code>sizeHint</code> is the
+     * expected size of the file, for example the size of a local file
+     * that is uploaded, and the sector driver sizes the sectors of the
+     * file by it. It is ignored by the other modes.
+     *
+     * @param sessionID user session ID that is logged in.
+     * @param fileID    target file ID.
+     * @param mode      session mode.
+     * @param sizeHint  expected number of bytes, or -1 if unknown.
+     *
+     * @return  created file session ID.
+     *
+     * @throws  NullPointerException
+     *          Throws if these parameters was null.
+     *
+     * @throws  VfsIOException
+     *          Throws if could not create by an error or system limitation.
+     *
+     * @throws  SessionException
+     *          Throws if the session is invalidated or timeout.
+     */
+    public String createFileSession(String sessionID, String fileID,
+            FileSession.Mode mode, long sizeHint)
+        throws VfsIOException, SessionException
     {
         // check parameters.
         if (sessionID == null)
@@ -471,7 +650,7 @@ public class VfsService
         if (targetFile == null)
             throw new VfsIOException("Invalid fileID.");
 
-        return userSession.newFileSession(targetFile, mode);
+        return userSession.newFileSession(targetFile, mode, sizeHint);
     }
 
     /**
@@ -533,6 +712,99 @@ public class VfsService
         return ((ReadFileSession) fileSession).read(data, count);
     }
 
+    /**
+     * Move the read position of the file that is specified by
+     * fileSessionID. The following {@link #readData} reads from the
+     * position.
+     *
+     * @param sessionID     user session ID.
+     * @param fileSessionID file session ID for read.
+     * @param position      number of bytes from the beginning of the file.
+     *
+     * @throws  NullPointerException
+     *          Throws if these parameters was null.
+     *
+     * @throws  VfsIOException
+     *          Throws if the position is negative or could not move.
+     *
+     * @throws  SessionException
+     *          Throws if the session is invalidated or timeout.
+     */
+    public void seekData(String sessionID, String fileSessionID,
+            long position)
+        throws VfsIOException, SessionException
+    {
+        // check parameters.
+        if (sessionID == null)
+            throw new NullPointerException("sessionID");
+        if (fileSessionID == null)
+            throw new NullPointerException("fileSessionID");
+
+        // retrieve session.
+        UserSessionManager usm = UserSessionManager.getInstance();
+        UserSession userSession = usm.getUserSession(sessionID);
+        if (userSession == null)
+            throw new SessionException("Invalid session.");
+
+        // retrieve read file session.
+        FileSession fileSession = userSession.getFileSession(fileSessionID);
+        if (fileSession == null)
+            throw new VfsIOException("The read file session not found.");
+        if (!(fileSession instanceof ReadFileSession))
+            throw new VfsIOException("The file session is not for read.");
+
+        ((ReadFileSession) fileSession).seek(position);
+    }
+
+    /**
+     * Write all data of the file that is specified by fileSessionID
+     * to <tt>target</tt>. The data is written to the channel by the sector
+     * driver, so bulk copies skip the buffers of {@link #readData}. The
+     * whole file is transferred regardless of the read position.
+     *
+     * @param sessionID     user session ID.
+     * @param fileSessionID file session ID for read.
+     * @param target        the channel that the data is written to.
+     *
+     * @return  number of bytes transferred.
+     *
+     * @throws  NullPointerException
+     *          Throws if these parameters was null.
+     *
+     * @throws  VfsIOException
+     *          Throws if the data could not transfer.
+     *
+     * @throws  SessionException
+     *          Throws if the session is invalidated or timeout.
+     */
+    public long transferTo(String sessionID, String fileSessionID,
+            WritableByteChannel target)
+        throws VfsIOException, SessionException
+    {
+        // check parameters.
+        if (sessionID == null)
+            throw new NullPointerException("sessionID");
+        if (fileSessionID == null)
+            throw new NullPointerException("fileSessionID");
+        if (target == null)
+            throw new NullPointerException("target");
+
+        // retrieve session.
+        UserSessionManager usm = UserSessionManager.getInstance();
+        UserSession userSession = usm.getUserSession(sessionID);
+        if (userSession == null)
+            throw new SessionException("Invalid session.");
+
+        // retrieve read file session.
+        FileSession fileSession = userSession.getFileSession(fileSessionID);
+        if (fileSession == null)
+            throw new VfsIOException("The read file session not found.");
+        if (!(fileSession instanceof ReadFileSession))
+            throw new VfsIOException("The file session is not for read.");
+
+        return ((ReadFileSession) fileSession).transferTo(target);
+    }
+
     /**
      * Write data to the file that is specified by fileSessionID.
      *
@@ -595,6 +867,57 @@ public class VfsService
         return size;
     }
 
+    /**
+     * Write data read from <tt>src</tt> until end of stream to the
+     * file that is specified by fileSessionID, after the data written so
+     * far. The data is read from the channel by the sector driver, so bulk
+     * copies skip the buffers of {@link #writeData}. If this fails, the
+     * data read before the failure is still written to the file, and
+     * {@link #getVfsFile} tells its size after the session is closed.
+     *
+     * @param sessionID     user session ID.
+     * @param fileSessionID file session ID for write or append.
+     * @param src           the channel that the data is read from.
+     *
+     * @return  number of bytes transferred.
+     *
+     * @throws  NullPointerException
+     *          Throws if these parameters was null.
+     *
+     * @throws  VfsIOException
+     *          Throws if the data could not transfer.
+     *
+     * @throws  SessionException
+     *          Throws if the session is invalidated or timeout.
+     */
+    public long transferFrom(String sessionID, String fileSessionID,
+            ReadableByteChannel src)
+        throws VfsIOException, SessionException
+    {
+        // check parameters.
+        if (sessionID == null)
+            throw new NullPointerException("sessionID");
+        if (fileSessionID == null)
+            throw new NullPointerException("fileSessionID");
+        if (src == null)
+            throw new NullPointerException("src");
+
+        // retrieve session.
+        UserSessionManager usm = UserSessionManager.getInstance();
+        UserSession userSession = usm.getUserSession(sessionID);
+        if (userSession == null)
+            throw new SessionException("Invalid session.");
+
+        // retrieve write file session.
+        FileSession fileSession = userSession.getFileSession(fileSessionID);
+        if (fileSession == null)
+            throw new VfsIOException("The write file session not found.");
+        if (!(fileSession instanceof WriteFileSession))
+            throw new VfsIOException("The file session is not for write.");
+
+        return ((WriteFileSession) fileSession).transferFrom(src);
+    }
+
     /**
      * Close specified file session related to specified user session.
      *
@@ -814,4 +1137,43 @@ public class VfsService
             }
         }
     }
+
+    //////////////////////////////////////////////////////////// 
+    // Private methods.
+
+    /**
+     * Delete database entry of the file, and its reference to the
+     * sectors, in a transaction.
+     */
+    private static void deleteFileEntry(String fileID, String userID) {
+        ConnectionPool pool = ConnectionPool.getInstance("vfs");
+        Connection con = pool.engageConnection(10);
+        try {
+            con.setAutoCommit(false);
+            SectorRefDB.unlink(con, fileID);
+            VfsFileDB.delete(con, fileID, userID);
+            con.commit();
+        } catch (SQLException e) {
+            try {
+                con.rollback();
+            } catch (SQLException e1) {
+                _log.log(Level.SEVERE, "Connection could not rollback.",e1);
+            }
+            throw new DBException(e);
+        } catch (DBException e) {
+            try {
+                con.rollback();
+            } catch (SQLException e1) {
+                _log.log(Level.SEVERE, "Connection could not rollback.",e1);
+            }
+            throw e;
+        } finally {
+            try {
+                if (con != null)
+                    con.close();
+            } catch (SQLException e1) {
+                _log.log(Level.WARNING, "Connection could not close.",e1);
+            }
+        }
+    }
 }
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+
+import org.sd_network.util.Config;
+import org.sd_network.vfs.db.Schema;
+import org.sd_network.vfs.db.SectorRefDB;
+import org.sd_network.vfs.db.VfsFile;
+import org.sd_network.vfs.sector.SectorDriver;
+import org.sd_network.vfs.sector.SectorDriverManager;
+
+/**
+ * VfsServicẽt@C̃Rs[ƁARs[̏݁A폜̒P̃eXg
+ * P[X`܂BSectorDriverɂ́AꎞfBNg
+ * LocalFileDrivergp܂B
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class VfsServiceTest
+    extends VfsTestCase
+{
+    /** eXgΏۂ̃T[rX */
+    private VfsService _service;
+
+    /** OCZbVID */
+    private String _sessionID;
+
+    /** eXgɎgpt@C̐efBNg */
+    private VfsFile _dir;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors and Initializations.
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        Config config = Config.getInstance();
+        config.setProperty(
+                "org.sd_network.vfs.sector.LocalFileDriver.Directory",
+                createTempDirectory().getPath());
+        SectorDriverManager.setSectorDriver(
+                "org.sd_network.vfs.sector.LocalFileDriver");
+        Schema.setup();
+
+        _service = new VfsService();
+        _sessionID = _service.login("administrator", "password");
+        VfsFile home = _service.getVfsFile(_sessionID, "-1", "Home");
+        _dir = _service.createDirectory(_sessionID, home.getID(), getName());
+    }
+
+    public void tearDown()
+        throws Exception
+    {
+        _service.logout(_sessionID);
+        Config config = Config.getInstance();
+        config.remove("org.sd_network.vfs.sector.LocalFileDriver.Directory");
+        super.tearDown();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Test Cases.
+
+    /**
+     * Rs[f[^𕡐ɁÃt@C̃ZN^[L邱Ƃ
+     * eXg܂B
+     */
+    public void testCopyObject()
+        throws Exception
+    {
+        byte[] data = newFileData(3000);
+        VfsFile file = createFile("file1", data);
+
+        VfsFile copy = _service.copyObject(
+                _sessionID, file.getID(), _dir.getID(), "copy1");
+        assertEquals((long) data.length, copy.getSize());
+        assertEquals(data, read(copy.getID()));
+        assertEquals(data, read(file.getID()));
+
+        String sectorID = SectorRefDB.getSectorID(file.getID());
+        assertEquals(sectorID, SectorRefDB.getSectorID(copy.getID()));
+        assertEquals(2, SectorRefDB.countReferences(sectorID));
+        assertEquals((long) data.length, getDriver().getUsedBytes());
+    }
+
+    /**
+     * Rs[ɒǋLꍇɁAǋLt@CύXA
+     * t@CςȂƂeXg܂B
+     */
+    public void testAppendAfterCopy()
+        throws Exception
+    {
+        byte[] data = newFileData(3000);
+        byte[] tail = newFileData(500);
+        VfsFile file = createFile("file1", data);
+        VfsFile copy = _service.copyObject(
+                _sessionID, file.getID(), _dir.getID(), "copy1");
+
+        write(copy.getID(), tail, FileSession.Mode.APPEND);
+        assertEquals(concat(data, tail), read(copy.getID()));
+        assertEquals(data, read(file.getID()));
+        assertFalse(SectorRefDB.isShared(
+                    SectorRefDB.getSectorID(file.getID())));
+
+        // the original is appended to on its own sectors.
+        write(file.getID(), tail, FileSession.Mode.APPEND);
+        assertEquals(concat(data, tail), read(file.getID()));
+        assertEquals(concat(data, tail), read(copy.getID()));
+        assertEquals(2L * (data.length + tail.length),
+                getDriver().getUsedBytes());
+    }
+
+    /**
+     * Rs[Ɍ̃t@C㏑ꍇɁARs[ςȂƂ
+     * eXg܂B
+     */
+    public void testOverwriteAfterCopy()
+        throws Exception
+    {
+        byte[] data = newFileData(3000);
+        byte[] other = newFileData(100);
+        VfsFile file = createFile("file1", data);
+        VfsFile copy = _service.copyObject(
+                _sessionID, file.getID(), _dir.getID(), "copy1");
+
+        write(file.getID(), other, FileSession.Mode.WRITE);
+        assertEquals(other, read(file.getID()));
+        assertEquals(data, read(copy.getID()));
+        assertFalse(SectorRefDB.getSectorID(file.getID()).equals(
+                    SectorRefDB.getSectorID(copy.getID())));
+    }
+
+    /**
+     * LĂZN^[AŌɎQƂt@C폜ɂ
+     * 폜邱ƂeXg܂B
+     */
+    public void testDeleteAfterCopy()
+        throws Exception
+    {
+        byte[] data = newFileData(3000);
+        VfsFile file = createFile("file1", data);
+        VfsFile copy1 = _service.copyObject(
+                _sessionID, file.getID(), _dir.getID(), "copy1");
+        VfsFile copy2 = _service.copyObject(
+                _sessionID, copy1.getID(), _dir.getID(), "copy2");
+        String sectorID = SectorRefDB.getSectorID(file.getID());
+        assertEquals(3, SectorRefDB.countReferences(sectorID));
+
+        _service.deleteObject(_sessionID, file.getID());
+        assertEquals(2, SectorRefDB.countReferences(sectorID));
+        assertEquals((long) data.length, getDriver().getFileSize(sectorID));
+        assertEquals(data, read(copy1.getID()));
+
+        _service.deleteObject(_sessionID, copy2.getID());
+        assertEquals(1, SectorRefDB.countReferences(sectorID));
+        assertEquals((long) data.length, getDriver().getFileSize(sectorID));
+        assertEquals(data, read(copy1.getID()));
+
+        _service.deleteObject(_sessionID, copy1.getID());
+        assertEquals(0, SectorRefDB.countReferences(sectorID));
+        assertEquals(0L, getDriver().getFileSize(sectorID));
+        assertEquals(0L, getDriver().getUsedBytes());
+    }
+
+    /**
+     * ݒ̃t@CRs[łȂƂeXg܂B
+     */
+    public void testCopyWhileWriting()
+        throws Exception
+    {
+        VfsFile file = createFile("file1", newFileData(100));
+        String fileSessionID = _service.createFileSession(
+                _sessionID, file.getID(), FileSession.Mode.APPEND);
+        try {
+            _service.copyObject(
+                    _sessionID, file.getID(), _dir.getID(), "copy1");
+            fail("VfsIOException not thrown.");
+        } catch (VfsIOException e) {
+            // expected.
+        } finally {
+            _service.closeFileSession(_sessionID, fileSessionID);
+        }
+
+        VfsFile copy = _service.copyObject(
+                _sessionID, file.getID(), _dir.getID(), "copy1");
+        assertEquals(newFileData(100), read(copy.getID()));
+    }
+
+    /**
+     * ]ɎsꍇɁA܂łɓǂݍ񂾃f[^t@CɎcA
+     * ZbV̃t@C̑傫ɔf邱ƂeXg
+     * ܂B
+     */
+    public void testTransferFromFailure()
+        throws Exception
+    {
+        byte[] data = newFileData(3000);
+        VfsFile file = createFile("file1", copy(data, 0, 1000));
+        InputStream broken = new FilterInputStream(
+                new ByteArrayInputStream(data, 1000, 2000)) {
+            public int read(byte[] b, int off, int len)
+                throws IOException
+            {
+                int count = super.read(b, off, len);
+                if (count == -1)
+                    throw new IOException("The channel is broken.");
+                return count;
+            }
+        };
+
+        String fileSessionID = _service.createFileSession(
+                _sessionID, file.getID(), FileSession.Mode.APPEND);
+        try {
+            _service.transferFrom(_sessionID, fileSessionID,
+                    Channels.newChannel(broken));
+            fail("VfsIOException not thrown.");
+        } catch (VfsIOException e) {
+            // expected.
+        } finally {
+            _service.closeFileSession(_sessionID, fileSessionID);
+        }
+        assertEquals((long) data.length, _service.getVfsFile(
+                    _sessionID, _dir.getID(), "file1").getSize());
+        assertEquals(data, read(file.getID()));
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    private static SectorDriver getDriver()
+        throws Exception
+    {
+        return SectorDriverManager.getSectorDriver();
+    }
+
+    private VfsFile createFile(String name, byte[] data)
+        throws Exception
+    {
+        VfsFile file = _service.createFile(_sessionID, _dir.getID(), name);
+        write(file.getID(), data, FileSession.Mode.WRITE);
+        return _service.getVfsFile(_sessionID, _dir.getID(), name);
+    }
+
+    private void write(String fileID, byte[] data, FileSession.Mode mode)
+        throws Exception
+    {
+        String fileSessionID =
+            _service.createFileSession(_sessionID, fileID, mode);
+        try {
+            _service.writeData(_sessionID, fileSessionID, data, data.length);
+        } finally {
+            _service.closeFileSession(_sessionID, fileSessionID);
+        }
+    }
+
+    private byte[] read(String fileID)
+        throws Exception
+    {
+        String fileSessionID = _service.createFileSession(
+                _sessionID, fileID, FileSession.Mode.READ);
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int count = 0;
+            while ((count = _service.readData(
+                            _sessionID, fileSessionID, buf, buf.length)) > 0)
+                bos.write(buf, 0, count);
+            return bos.toByteArray();
+        } finally {
+            _service.closeFileSession(_sessionID, fileSessionID);
+        }
+    }
+
+    private static byte[] newFileData(int length) {
+        byte[] data = new byte[length];
+        for (int idx = 0; idx < data.length; idx++)
+            data[idx] = (byte) (idx * 7 + length);
+        return data;
+    }
+
+    private static byte[] copy(byte[] data, int offset, int length) {
+        byte[] part = new byte[length];
+        System.arraycopy(data, offset, part, 0, length);
+        return part;
+    }
+
+    private static byte[] concat(byte[] head, byte[] tail) {
+        byte[] data = new byte[head.length + tail.length];
+        System.arraycopy(head, 0, data, 0, head.length);
+        System.arraycopy(tail, 0, data, head.length, tail.length);
+        return data;
+    }
+}
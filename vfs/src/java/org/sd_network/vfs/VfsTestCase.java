@@ -0,0 +1,116 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import junit.framework.TestCase;
+
+/**
+ * vfspbP[W̃eXgP[X̃x[XNXłB
+ * eXgP[X`ꍇÃNXhĂB
+ *
+ * <p> {@link #createTempDirectory()} ō쐬ꎞfBNǵA
+ * {@link #tearDown()} ō폜܂B
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public abstract class VfsTestCase
+    extends TestCase
+{
+    /** Logger. */
+    private static final Logger _log = Logger.getLogger(
+            VfsTestCase.class.getName());
+
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** eXgP[Xō쐬ꎞfBNg */
+    private final List<File> _tempDirectories = new ArrayList<File>();
+
+    ////////////////////////////////////////////////////////////
+    // Constructors and Initializations.
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        _log.log(Level.FINE, "--- Run test case [" + getName() + "]");
+    }
+
+    public void tearDown()
+        throws Exception
+    {
+        for (File dir : _tempDirectories)
+            delete(dir);
+        _tempDirectories.clear();
+        super.tearDown();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Protected methods.
+
+    protected void assertEquals(byte[] exp, byte[] act) {
+        if (exp.length != act.length)
+            fail("array size unmatched.");
+        for (int idx = 0; idx < exp.length; idx++) {
+            if (exp[idx] != act[idx])
+                fail("byte unmatched at No." + idx);
+        }
+    }
+
+    /**
+     * w̃oCg̃eXgf[^Ԃ܂B
+     */
+    protected static byte[] newData(int size) {
+        byte[] data = new byte[size];
+        for (int idx = 0; idx < size; idx++)
+            data[idx] = (byte) (idx % 251);
+        return data;
+    }
+
+    /**
+     * eXgP[X̏Iɍ폜ÄꎞfBNg쐬܂B
+     */
+    protected File createTempDirectory()
+        throws IOException
+    {
+        File dir = File.createTempFile(getClass().getSimpleName(), "");
+        if (!dir.delete() || !dir.mkdir())
+            throw new IOException("Could not create directory " + dir);
+        _tempDirectories.add(dir);
+        return dir;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null)
+            for (int idx = 0; idx < children.length; idx++)
+                delete(children[idx]);
+        if (!file.delete())
+            _log.log(Level.WARNING, "Could not delete " + file);
+    }
+}
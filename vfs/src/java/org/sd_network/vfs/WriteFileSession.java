@@ -15,11 +15,15 @@
  */
 package org.sd_network.vfs;
 
+import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
+import org.sd_network.vfs.db.SectorRefDB;
 import org.sd_network.vfs.db.VfsFile;
 import org.sd_network.vfs.sector.SectorDriverManager;
 import org.sd_network.vfs.sector.SectorDriver;
@@ -38,6 +42,9 @@ public class WriteFileSession
     //////////////////////////////////////////////////////////// 
     // Private fields.
 
+    /** ID of the sectors of the file to write, claimed by this session. */
+    private String _sectorID;
+
     /** Wrote file size. */
     private long _fileSize;
 
@@ -50,15 +57,115 @@ public class WriteFileSession
     WriteFileSession(String sessionID, VfsFile vfsFile)
         throws VfsIOException
     {
-        super(sessionID, vfsFile, FileSession.Mode.WRITE);
-        _fileSize = 0;
-        vfsFile.resizeTo(_fileSize);
+        this(sessionID, vfsFile, false);
+    }
+
+    /**
+     * Create a session that writes the file.
+     * If <tt>append</tt> is true, the data is written after the existing
+     * data of the file. Otherwise, the existing data is deleted.
+     *
+     * <p> If the sectors of the file are shared with its copies, the file
+     * is moved to sectors of its own before it is written. In append mode
+     * the whole existing data is duplicated to them first; otherwise they
+     * start empty. The copies keep referring to the shared sectors.
+     *
+     * <p> The sectors to write are claimed in {@link SectorLocks} until
+     * the session is closed, so they are not shared by a copy meanwhile.
+     *
+     * @param sessionID     file session ID.
+     * @param vfsFile       the target file.
+     * @param append        true if append mode.
+     *
+     * @throws  VfsIOException
+     *          Throws if the output stream could not open.
+     */
+    WriteFileSession(String sessionID, VfsFile vfsFile, boolean append)
+        throws VfsIOException
+    {
+        this(sessionID, vfsFile, append, -1L);
+    }
+
+    /**
+     * Create a session that writes the file, as
+     * {@link #WriteFileSession(String, VfsFile, boolean)}. If not
+     * <tt>append</tt>, the output stream is opened with
+     * <tt>sizeHint</tt>, so the sector driver can size the sectors by the
+     * expected size of the file.
+     *
+     * @param sessionID     file session ID.
+     * @param vfsFile       the target file.
+     * @param append        true if append mode.
+     * @param sizeHint      expected number of bytes, or -1 if unknown.
+     *
+     * @throws  VfsIOException
+     *          Throws if the output stream could not open.
+     */
+    WriteFileSession(String sessionID, VfsFile vfsFile, boolean append,
+            long sizeHint)
+        throws VfsIOException
+    {
+        super(sessionID, vfsFile,
+                append ? FileSession.Mode.APPEND : FileSession.Mode.WRITE);
+        String fileID = vfsFile.getID();
+        String newSectorID = null;
+        String oldSectorID = null;
         try {
             SectorDriver driver = SectorDriverManager.getSectorDriver();
-            driver.deleteSectors(vfsFile.getID());
-            _oStream = driver.getOutputStream(vfsFile.getID());
+            String sectorID = SectorRefDB.getSectorID(fileID);
+            if (SectorRefDB.isShared(sectorID)) {
+                // shared sectors are never rewritten, so write to new
+                // sectors. the data is duplicated out of the lock.
+                newSectorID = SectorRefDB.getFreeSectorID(fileID);
+                if (append)
+                    copySectors(driver, sectorID, newSectorID);
+            }
+
+            synchronized (SectorLocks.getLock(sectorID)) {
+                if (!sectorID.equals(SectorRefDB.getSectorID(fileID)) ||
+                        (newSectorID == null &&
+                         SectorRefDB.isShared(sectorID)))
+                    throw new VfsIOException(
+                            "The file was copied or written by other " +
+                            "session.");
+                String claimed = (newSectorID == null) ?
+                    sectorID : newSectorID;
+                if (!SectorLocks.claim(claimed))
+                    throw new VfsIOException(
+                            "The file is being written or deleted by " +
+                            "other session.");
+                _sectorID = claimed;
+                if (newSectorID != null) {
+                    SectorRefDB.relink(fileID, _sectorID);
+                    newSectorID = null;
+                    if (SectorRefDB.countReferences(sectorID) == 0 &&
+                            SectorLocks.claim(sectorID))
+                        oldSectorID = sectorID;
+                }
+            }
+
+            if (append) {
+                _fileSize = driver.getFileSize(_sectorID);
+                _oStream = driver.getOutputStream(_sectorID, true);
+            } else {
+                _fileSize = 0;
+                vfsFile.resizeTo(_fileSize);
+                driver.deleteSectors(_sectorID);
+                _oStream = driver.getOutputStream(_sectorID, sizeHint);
+            }
         } catch (SectorException e) {
             throw new VfsIOException(e);
+        } finally {
+            // new sectors that were not linked to the file.
+            if (newSectorID != null)
+                deleteSectors(newSectorID);
+            // old sectors that no file refers to any more.
+            if (oldSectorID != null) {
+                deleteSectors(oldSectorID);
+                SectorLocks.release(oldSectorID);
+            }
+            if (_oStream == null && _sectorID != null)
+                SectorLocks.release(_sectorID);
         }
     }
 
@@ -73,12 +180,14 @@ public class WriteFileSession
         try {
             _oStream.close();
             SectorDriver driver = SectorDriverManager.getSectorDriver();
-            _vfsFile.resizeTo(driver.getFileSize(_vfsFile.getID()));
+            _vfsFile.resizeTo(driver.getFileSize(_sectorID));
             _closed = true;
         } catch (IOException e) {
             throw new VfsIOException(e);
         } catch (SectorException e) {
             throw new VfsIOException(e);
+        } finally {
+            SectorLocks.release(_sectorID);
         }
     }
 
@@ -92,13 +201,20 @@ public class WriteFileSession
         try {
             _oStream.close();
             SectorDriver driver = SectorDriverManager.getSectorDriver();
-            driver.deleteSectors(_vfsFile.getID());
-            _vfsFile.resizeTo(0);
+            if (getMode() == FileSession.Mode.APPEND) {
+                // keep the data that was appended before destroy.
+                _vfsFile.resizeTo(driver.getFileSize(_sectorID));
+            } else {
+                driver.deleteSectors(_sectorID);
+                _vfsFile.resizeTo(0);
+            }
             _closed = true;
         } catch (IOException e) {
             throw new VfsIOException(e);
         } catch (SectorException e) {
             throw new VfsIOException(e);
+        } finally {
+            SectorLocks.release(_sectorID);
         }
     }
 
@@ -119,4 +235,83 @@ public class WriteFileSession
             throw new VfsIOException(e);
         }
     }
+
+    /**
+     * Write data read from <tt>src</tt> until end of stream by the sector
+     * driver, after the data written so far, so the data is not copied
+     * through a caller's buffer. The driver allows one writer of a file,
+     * so the output stream of this session is closed while the data is
+     * transferred, and reopened in append mode after that.
+     *
+     * <p> If the transfer fails, the data read before the failure is kept
+     * by the driver, and is a part of the file when this session is
+     * closed. The written size is taken from the driver either way.
+     *
+     * @param src   the channel that the data is read from.
+     *
+     * @return  number of bytes transferred.
+     *
+     * @throws  VfsIOException
+     *          Throws if the data could not transfer.
+     */
+    public long transferFrom(ReadableByteChannel src)
+        throws VfsIOException
+    {
+        checkClosed();
+        try {
+            SectorDriver driver = SectorDriverManager.getSectorDriver();
+            _oStream.close();
+            long count = 0;
+            try {
+                count = driver.transferFrom(_sectorID, src, true);
+            } finally {
+                try {
+                    _fileSize = driver.getFileSize(_sectorID);
+                } finally {
+                    _oStream = driver.getOutputStream(_sectorID, true);
+                }
+            }
+            return count;
+        } catch (IOException e) {
+            throw new VfsIOException(e);
+        } catch (SectorException e) {
+            throw new VfsIOException(e);
+        }
+    }
+
+    //////////////////////////////////////////////////////////// 
+    // Private methods.
+
+    /**
+     * Duplicate the data of the sectors to the new sectors.
+     */
+    private static void copySectors(SectorDriver driver, String sectorID,
+            String newSectorID)
+        throws SectorException
+    {
+        InputStream is = driver.getInputStream(sectorID);
+        try {
+            driver.transferFrom(newSectorID, Channels.newChannel(is));
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                _log.log(Level.WARNING, "InputStream could not close.", e);
+            }
+        }
+    }
+
+    /**
+     * Delete the sectors that no file refers to. Sectors that could not
+     * be deleted are left, since the file is already written to other
+     * sectors.
+     */
+    private static void deleteSectors(String sectorID) {
+        try {
+            SectorDriverManager.getSectorDriver().deleteSectors(sectorID);
+        } catch (SectorException e) {
+            _log.log(Level.WARNING,
+                    "Sectors [" + sectorID + "] could not be deleted.", e);
+        }
+    }
 }
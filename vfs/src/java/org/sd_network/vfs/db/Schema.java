@@ -62,6 +62,20 @@ public class Schema
                 " REFERENCES user(user_id) " +
                 ");");
 
+        // setup SectorRef table.
+        DBUtil.execute(
+                "vfs",
+                "CREATE TABLE IF NOT EXISTS sector_ref (" +
+                " file_id VARCHAR(36) NOT NULL PRIMARY KEY, " +
+                " sector_id VARCHAR(36) NOT NULL, " +
+                "FOREIGN KEY (file_id) " +
+                " REFERENCES vfs_file(file_id) " +
+                ");");
+        DBUtil.execute(
+                "vfs",
+                "CREATE INDEX IF NOT EXISTS sector_ref_sector_id " +
+                " ON sector_ref(sector_id);");
+
         // setup StorageInfo table.
         DBUtil.execute(
                 "vfs",
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+import org.sd_network.db.DBUtil;
+import org.sd_network.db.ConnectionPool;
+import org.sd_network.db.DBException;
+
+/**
+ * The class for managing which sectors each file refers to.
+ *
+ * <p> The content of a file is stored by the sector driver under its
+ * sector ID. The sector ID is usually the fileID itself. When a file is
+ * copied, the copy refers to the same sectors as the original, and each
+ * file that refers to them gets a row in table <tt>sector_ref</tt>. The
+ * number of rows for a sector ID is the reference count of the sectors.
+ * A file without a row refers to the sectors of its own fileID.
+ *
+ * <p> Shared sectors are never rewritten. A file that is written while
+ * its sectors are shared is moved to sectors of its own by
+ * {@link #relink(String, String)}, and the sectors are deleted when no
+ * file refers to them any more.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class SectorRefDB
+{
+    /** Logger */
+    private static final Logger _log = Logger.getLogger(
+            SectorRefDB.class.getName());
+
+    //////////////////////////////////////////////////////////// 
+    // Public methods.
+
+    /**
+     * Return the sector ID that the file refers to.
+     *
+     * @param fileID    ID of target file.
+     *
+     * @return  the sector ID.
+     */
+    public static final String getSectorID(String fileID) {
+        if (fileID == null || fileID.trim().length() == 0)
+            throw new IllegalArgumentException("fileID is empty.");
+
+        ConnectionPool pool = ConnectionPool.getInstance("vfs");
+        Connection con = pool.engageConnection(10);
+        try {
+            return getSectorID(con, fileID);
+        } catch (SQLException e) {
+            throw new DBException(e);
+        } finally {
+            try {
+                if (con != null)
+                    con.close();
+            } catch (SQLException e) {
+                _log.log(Level.WARNING, "Connection could not close.",e);
+            }
+        }
+    }
+
+    /**
+     * Return number of files that refer to the sectors through rows of
+     * table <tt>sector_ref</tt>. It is zero if the sectors are referred
+     * only by the file of the same ID, or not referred at all.
+     *
+     * @param sectorID  target sector ID.
+     *
+     * @return  number of references.
+     */
+    public static final int countReferences(String sectorID) {
+        if (sectorID == null || sectorID.trim().length() == 0)
+            throw new IllegalArgumentException("sectorID is empty.");
+
+        ConnectionPool pool = ConnectionPool.getInstance("vfs");
+        Connection con = pool.engageConnection(10);
+        try {
+            return countReferences(con, sectorID);
+        } catch (SQLException e) {
+            throw new DBException(e);
+        } finally {
+            try {
+                if (con != null)
+                    con.close();
+            } catch (SQLException e) {
+                _log.log(Level.WARNING, "Connection could not close.",e);
+            }
+        }
+    }
+
+    /**
+     * Return true if the sectors are referred by more than one file.
+     *
+     * @param sectorID  target sector ID.
+     */
+    public static final boolean isShared(String sectorID) {
+        return countReferences(sectorID) > 1;
+    }
+
+    /**
+     * Make the new file refer to the sectors of the file.
+     *
+     * <p> This method do not commit or rollback transaction automatically,
+     * these function depend on the autocommit mode of specified connection.
+     *
+     * @param con       Database connection object.
+     * @param fileID    ID of the file that is copied.
+     * @param newFileID ID of the new file.
+     *
+     * @return  the shared sector ID.
+     */
+    public static final String share(Connection con, String fileID,
+            String newFileID)
+    {
+        if (con == null)
+            throw new IllegalArgumentException("con is null.");
+        if (fileID == null || fileID.trim().length() == 0)
+            throw new IllegalArgumentException("fileID is empty.");
+        if (newFileID == null || newFileID.trim().length() == 0)
+            throw new IllegalArgumentException("newFileID is empty.");
+
+        try {
+            String sectorID = getSectorID(con, fileID);
+            if (sectorID.equals(fileID))
+                DBUtil.update(
+                        con,
+                        "INSERT INTO sector_ref (file_id, sector_id) " +
+                        "VALUES (?,?)",
+                        new Object[] {fileID, sectorID});
+            DBUtil.update(
+                    con,
+                    "INSERT INTO sector_ref (file_id, sector_id) " +
+                    "VALUES (?,?)",
+                    new Object[] {newFileID, sectorID});
+            return sectorID;
+        } catch (SQLException e) {
+            throw new DBException(e);
+        }
+    }
+
+    /**
+     * Return a sector ID that no file refers to, to move the file to
+     * sectors of its own. It is the fileID if it is not used by other
+     * files, or a new ID otherwise.
+     *
+     * @param fileID    ID of target file.
+     *
+     * @return  the sector ID.
+     */
+    public static final String getFreeSectorID(String fileID) {
+        if (!fileID.equals(getSectorID(fileID)) &&
+                countReferences(fileID) == 0)
+            return fileID;
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Make the file refer to the specified sectors. The reference to the
+     * sectors that the file referred before is removed.
+     *
+     * <p> This method commit transaction automatically.
+     *
+     * @param fileID    ID of target file.
+     * @param sectorID  the sector ID that the file refers to.
+     */
+    public static final void relink(String fileID, String sectorID) {
+        if (fileID == null || fileID.trim().length() == 0)
+            throw new IllegalArgumentException("fileID is empty.");
+        if (sectorID == null || sectorID.trim().length() == 0)
+            throw new IllegalArgumentException("sectorID is empty.");
+
+        ConnectionPool pool = ConnectionPool.getInstance("vfs");
+        Connection con = pool.engageConnection(10);
+        try {
+            con.setAutoCommit(false);
+            unlink(con, fileID);
+            if (!sectorID.equals(fileID))
+                DBUtil.update(
+                        con,
+                        "INSERT INTO sector_ref (file_id, sector_id) " +
+                        "VALUES (?,?)",
+                        new Object[] {fileID, sectorID});
+            con.commit();
+        } catch (SQLException e) {
+            try {
+                con.rollback();
+            } catch (SQLException e1) {
+                _log.log(Level.SEVERE, "Connection could not rollback.",e1);
+            }
+            throw new DBException(e);
+        } finally {
+            try {
+                if (con != null)
+                    con.close();
+            } catch (SQLException e) {
+                _log.log(Level.WARNING, "Connection could not close.",e);
+            }
+        }
+    }
+
+    /**
+     * Remove the reference of the file to its sectors. It must be called
+     * before the file entry is deleted.
+     *
+     * <p> This method do not commit or rollback transaction automatically,
+     * these function depend on the autocommit mode of specified connection.
+     *
+     * @param con       Database connection object.
+     * @param fileID    ID of target file.
+     */
+    public static final void unlink(Connection con, String fileID) {
+        if (con == null)
+            throw new IllegalArgumentException("con is null.");
+        if (fileID == null)
+            throw new IllegalArgumentException("fileID is empty.");
+
+        DBUtil.update(
+                con,
+                "DELETE FROM sector_ref WHERE file_id=?",
+                new Object[] {fileID});
+    }
+
+    /**
+     * Return all sector IDs that files refer to, of all users.
+     *
+     * @return  list of sector IDs.
+     */
+    public static final List<String> getSectorIDList() {
+        ConnectionPool pool = ConnectionPool.getInstance("vfs");
+        Connection con = pool.engageConnection(10);
+        try {
+            PreparedStatement stmt = con.prepareStatement(
+                    "SELECT f.file_id AS sector_id " +
+                    "FROM vfs_file f LEFT JOIN sector_ref r " +
+                    " ON f.file_id=r.file_id " +
+                    "WHERE r.file_id IS NULL AND f.type_id<>? " +
+                    "UNION " +
+                    "SELECT DISTINCT sector_id FROM sector_ref");
+            stmt.setInt(1, VfsFile.FileType.DIRECTORY.getValue());
+            ResultSet rs = stmt.executeQuery();
+            List<String> sectorIDList = new ArrayList<String>();
+            while (rs.next()) {
+                sectorIDList.add(rs.getString("sector_id"));
+            }
+            return sectorIDList;
+        } catch (SQLException e) {
+            throw new DBException(e);
+        } finally {
+            try {
+                if (con != null)
+                    con.close();
+            } catch (SQLException e) {
+                _log.log(Level.WARNING, "Connection could not close.",e);
+            }
+        }
+    }
+
+    //////////////////////////////////////////////////////////// 
+    // Private methods.
+
+    private static final String getSectorID(Connection con, String fileID)
+        throws SQLException
+    {
+        PreparedStatement stmt = con.prepareStatement(
+                "SELECT sector_id FROM sector_ref WHERE file_id=?");
+        stmt.setString(1, fileID);
+        ResultSet rs = stmt.executeQuery();
+        if (rs.next())
+            return rs.getString("sector_id");
+        return fileID;
+    }
+
+    private static final int countReferences(Connection con,
+            String sectorID)
+        throws SQLException
+    {
+        PreparedStatement stmt = con.prepareStatement(
+                "SELECT count(*) AS number_of_ref " +
+                "FROM sector_ref WHERE sector_id=?");
+        stmt.setString(1, sectorID);
+        ResultSet rs = stmt.executeQuery();
+        rs.next();
+        return rs.getInt("number_of_ref");
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs.db;
+
+import java.sql.Connection;
+import java.util.List;
+
+import org.sd_network.db.ConnectionPool;
+import org.sd_network.vfs.VfsTestCase;
+
+/**
+ * SectorRefDB̒P̃eXgP[X`܂B
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class SectorRefDBTest
+    extends VfsTestCase
+{
+    /** eXgɎgp郆[U[ */
+    private User _user;
+
+    /** eXgɎgpt@C̐efBNg */
+    private VfsFile _dir;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors and Initializations.
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        Schema.setup();
+        _user = UserDB.get("administrator", "password");
+        VfsFile home = VfsFileDB.get("-1", "Home", _user.getID());
+        _dir = VfsFileDB.createDirectory(
+                getName(), home.getID(), _user.getID());
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Test Cases.
+
+    /**
+     * Rs[ĂȂt@CAt@CIDƓZN^[QƂA
+     * QƃJEg0ł邱ƂeXg܂B
+     */
+    public void testNoReference() {
+        VfsFile file = createFile("file1");
+
+        assertEquals(file.getID(), SectorRefDB.getSectorID(file.getID()));
+        assertEquals(0, SectorRefDB.countReferences(file.getID()));
+        assertFalse(SectorRefDB.isShared(file.getID()));
+        assertTrue(SectorRefDB.getSectorIDList().contains(file.getID()));
+    }
+
+    /**
+     * ZN^[Lt@CƂɁAQƃJEg邱ƂeXg
+     * ܂B
+     */
+    public void testShare()
+        throws Exception
+    {
+        VfsFile file1 = createFile("file1");
+        VfsFile file2 = createFile("file2");
+        VfsFile file3 = createFile("file3");
+
+        share(file1.getID(), file2.getID());
+        assertEquals(2, SectorRefDB.countReferences(file1.getID()));
+        assertTrue(SectorRefDB.isShared(file1.getID()));
+        assertEquals(file1.getID(), SectorRefDB.getSectorID(file2.getID()));
+
+        // the copy of a copy refers to the same sectors.
+        share(file2.getID(), file3.getID());
+        assertEquals(3, SectorRefDB.countReferences(file1.getID()));
+        assertEquals(file1.getID(), SectorRefDB.getSectorID(file3.getID()));
+
+        List<String> sectorIDList = SectorRefDB.getSectorIDList();
+        assertEquals(sectorIDList.indexOf(file1.getID()),
+                sectorIDList.lastIndexOf(file1.getID()));
+        assertFalse(sectorIDList.contains(file2.getID()));
+        assertFalse(sectorIDList.contains(file3.getID()));
+    }
+
+    /**
+     * LĂt@Cʂ̃ZN^[ɈڂAQƂ폜ꍇɁA
+     * QƃJEg邱ƂeXg܂B
+     */
+    public void testRelinkAndUnlink()
+        throws Exception
+    {
+        VfsFile file1 = createFile("file1");
+        VfsFile file2 = createFile("file2");
+        share(file1.getID(), file2.getID());
+
+        // the sectors of file1 are used by file2.
+        String sectorID = SectorRefDB.getFreeSectorID(file1.getID());
+        assertFalse(sectorID.equals(file1.getID()));
+        SectorRefDB.relink(file1.getID(), sectorID);
+        assertEquals(sectorID, SectorRefDB.getSectorID(file1.getID()));
+        assertEquals(1, SectorRefDB.countReferences(sectorID));
+        assertEquals(1, SectorRefDB.countReferences(file1.getID()));
+        assertFalse(SectorRefDB.isShared(file1.getID()));
+
+        // file2 can move to the sectors of its own fileID.
+        assertEquals(file2.getID(),
+                SectorRefDB.getFreeSectorID(file2.getID()));
+
+        Connection con =
+            ConnectionPool.getInstance("vfs").engageConnection(10);
+        try {
+            con.setAutoCommit(false);
+            SectorRefDB.unlink(con, file2.getID());
+            con.commit();
+        } finally {
+            con.close();
+        }
+        assertEquals(0, SectorRefDB.countReferences(file1.getID()));
+        assertEquals(file2.getID(), SectorRefDB.getSectorID(file2.getID()));
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    private VfsFile createFile(String name) {
+        return VfsFileDB.createFile(name, _dir.getID(), 0, _user.getID());
+    }
+
+    private static void share(String fileID, String newFileID)
+        throws Exception
+    {
+        Connection con =
+            ConnectionPool.getInstance("vfs").engageConnection(10);
+        try {
+            con.setAutoCommit(false);
+            SectorRefDB.share(con, fileID, newFileID);
+            con.commit();
+        } finally {
+            con.close();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs.sector;
+
+import java.nio.ByteBuffer;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import org.sd_network.vfs.VfsTestCase;
+
+/**
+ * AsyncSectorDriverAdapter̒P̃eXgP[X`܂B
+ * Ϗ̃hCo[ɂ́AꎞfBNgLocalFileDrivergp܂B
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class AsyncSectorDriverAdapterTest
+    extends VfsTestCase
+{
+    /** eXgΏۂAsyncSectorDriver */
+    private AsyncSectorDriverAdapter _driver;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors and Initializations.
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        Properties properties = new Properties();
+        properties.setProperty(
+                "org.sd_network.vfs.sector.LocalFileDriver.Directory",
+                createTempDirectory().getPath());
+        _driver = new AsyncSectorDriverAdapter(
+                new LocalFileDriver(properties), 2);
+        _driver.initDriver();
+    }
+
+    public void tearDown()
+        throws Exception
+    {
+        _driver.shutdown();
+        super.tearDown();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Test Cases.
+
+    /**
+     * ݁Aǂݍ݁A폜̌ʂCompletableFutureŒʒm邱Ƃ
+     * eXg܂B
+     */
+    public void testCompleted()
+        throws Exception
+    {
+        byte[] data = newData(3000);
+
+        CompletableFuture<Long> written = _driver.writeAsync(
+                "fileID1", ByteBuffer.wrap(data, 0, 2000), false);
+        assertEquals(Long.valueOf(2000), get(written));
+
+        // zȂobt@[̒ǋLB
+        ByteBuffer direct = ByteBuffer.allocateDirect(1000);
+        direct.put(data, 2000, 1000);
+        direct.flip();
+        assertEquals(Long.valueOf(1000),
+                get(_driver.writeAsync("fileID1", direct, true)));
+        assertEquals(3000L, _driver.getFileSize("fileID1"));
+
+        ByteBuffer result = get(_driver.readAsync("fileID1", 0L, 3000));
+        assertEquals(data, toArray(result));
+
+        // t@C̎c蒷ǂݍ݂́Ac̑傫̃obt@[
+        // ǂݍ܂B
+        result = get(_driver.readAsync("fileID1", 1000L, 1000000));
+        assertEquals(2000, result.capacity());
+        assertEquals(2000, result.remaining());
+        result = get(_driver.readAsync("fileID1", 5000L, 100));
+        assertEquals(0, result.remaining());
+
+        get(_driver.deleteAsync("fileID1"));
+        assertEquals(0L, _driver.getFileSize("fileID1"));
+    }
+
+    /**
+     * 삪ĂяõXbhő҂ɘAłAA
+     * hCo[̃f[XbhŎs邱ƂeXg܂B
+     */
+    public void testChained()
+        throws Exception
+    {
+        final byte[] data = newData(1000);
+        final AtomicBoolean daemon = new AtomicBoolean();
+        CompletableFuture<ByteBuffer> copied = _driver.writeAsync(
+                "fileID1", ByteBuffer.wrap(data), false)
+            .thenCompose(new Function<Long, CompletableFuture<ByteBuffer>>() {
+                public CompletableFuture<ByteBuffer> apply(Long written) {
+                    return _driver.readAsync(
+                            "fileID1", 0L, written.intValue());
+                }
+            })
+            .thenCompose(new Function<ByteBuffer, CompletableFuture<Long>>() {
+                public CompletableFuture<Long> apply(ByteBuffer read) {
+                    daemon.set(Thread.currentThread().isDaemon());
+                    return _driver.writeAsync("fileID2", read, false);
+                }
+            })
+            .thenCompose(new Function<Long, CompletableFuture<ByteBuffer>>() {
+                public CompletableFuture<ByteBuffer> apply(Long written) {
+                    return _driver.readAsync("fileID2", 0L, data.length);
+                }
+            });
+        assertEquals(data, toArray(get(copied)));
+        assertTrue(daemon.get());
+    }
+
+    /**
+     * s삪ASectorExceptionŗOIɊ邱ƂeXg܂B
+     */
+    public void testFailed()
+        throws Exception
+    {
+        // ݂Ȃt@CLocalFileDriverł͓ǂݍ߂ȂB
+        CompletableFuture<ByteBuffer> future =
+            _driver.readAsync("fileID1", 0L, 100);
+        try {
+            get(future);
+            fail("ExecutionException was not thrown.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SectorException);
+        }
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    /**
+     * shutdowňɊJnꂽ삪AɎs邱ƂeXg܂B
+     */
+    public void testShutdown()
+        throws Exception
+    {
+        get(_driver.writeAsync("fileID1", ByteBuffer.wrap(newData(100)),
+                    false));
+
+        _driver.shutdown();
+        CompletableFuture<Void> future = _driver.deleteAsync("fileID1");
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail("ExecutionException was not thrown.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SectorException);
+        }
+        assertEquals(100L, _driver.getFileSize("fileID1"));
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    private static <V> V get(CompletableFuture<V> future)
+        throws Exception
+    {
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.duplicate().get(data);
+        return data;
+    }
+}
@@ -0,0 +1,697 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs.sector;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SectorDriver that places files on several named SectorDrivers by
+ * consistent hashing of the fileID.
+ *
+ * <p> The drivers are given already initialized, with their weights, by
+ * {@link SectorDriverManager}. Each file belongs to one driver, chosen by
+ * {@link HashRing}, and all calls for the file are sent to the driver.
+ *
+ * <p> When a driver is added, only the files that now belong to the new
+ * driver change their driver, which are about the weight share of the new
+ * driver of all files. Until those files are moved by
+ * {@link #rebalance(Iterator, long)}, the driver is in rebalancing state:
+ * a file that is not found on its driver is read from the driver that
+ * holds it, and a file that is replaced or deleted is also deleted from
+ * the other drivers.
+ *
+ * <p> A file is moved by copying it to its own driver, and then deleting
+ * the old copy. While it is moved, the file is read from the old driver,
+ * and calls that write or delete the file wait until the move ends. The
+ * move is given up if the file is opened on the old driver meanwhile.
+ *
+ * <p> The monitor of this driver guards only the ring and the state of
+ * the moves; the drivers are called without holding it.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class DistributedSectorDriver
+    implements SectorDriver
+{
+    /** Logger. */
+    private static final Logger _log = Logger.getLogger(
+            DistributedSectorDriver.class.getName());
+
+    /** Number of bytes of the buffer to copy a file. */
+    private static final int _COPY_BUFFER_SIZE = 65536;
+
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** Drivers by name. */
+    private final Map<String, SectorDriver> _drivers =
+        new LinkedHashMap<String, SectorDriver>();
+
+    /** Weights of the drivers by name. */
+    private final Map<String, Integer> _weights =
+        new LinkedHashMap<String, Integer>();
+
+    /** The ring of the drivers. */
+    private HashRing _ring;
+
+    /** True while files may be on other drivers than their own. */
+    private boolean _rebalancing = false;
+
+    /** Incremented each time a driver is added. */
+    private int _generation = 0;
+
+    /**
+     * Files being moved by rebalancing, with the driver to read them
+     * from. The driver is null while the move is started or finished,
+     * when the file can not be read.
+     */
+    private final Map<String, SectorDriver> _movingMap =
+        new HashMap<String, SectorDriver>();
+
+    /**
+     * Number of calls by fileID that choose or use a driver of the file,
+     * which must not be moved meanwhile.
+     */
+    private final Map<String, Integer> _pinCounts =
+        new HashMap<String, Integer>();
+
+    /** Number of files moved by rebalancing. */
+    private final AtomicLong _movedFiles = new AtomicLong();
+
+    /** Bytes of the files moved by rebalancing. */
+    private final AtomicLong _movedBytes = new AtomicLong();
+
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    /**
+     * Create a driver over the specified drivers.
+     *
+     * @param drivers   initialized drivers by name.
+     * @param weights   weight of each driver by name.
+     * @param balanced  false if files may be on other drivers than their
+     *                  own, and must be found by rebalancing.
+     */
+    public DistributedSectorDriver(Map<String, SectorDriver> drivers,
+            Map<String, Integer> weights, boolean balanced)
+    {
+        if (!drivers.keySet().equals(weights.keySet()))
+            throw new IllegalArgumentException(
+                    "Names of drivers and weights unmatched.");
+        _drivers.putAll(drivers);
+        _weights.putAll(weights);
+        _ring = new HashRing(_weights);
+        _rebalancing = !balanced;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Implements SectorDriver.
+
+    public OutputStream getOutputStream(String fileID)
+        throws SectorException
+    {
+        return getOutputStream(fileID, false);
+    }
+
+    public OutputStream getOutputStream(String fileID, boolean append)
+        throws SectorException
+    {
+        SectorDriver driver = pinWriteDriver(fileID, append);
+        try {
+            return driver.getOutputStream(fileID, append);
+        } finally {
+            unpin(fileID);
+        }
+    }
+
+    public OutputStream getOutputStream(String fileID, long sizeHint)
+        throws SectorException
+    {
+        SectorDriver driver = pinWriteDriver(fileID, false);
+        try {
+            return driver.getOutputStream(fileID, sizeHint);
+        } finally {
+            unpin(fileID);
+        }
+    }
+
+    public InputStream getInputStream(String fileID)
+        throws SectorException
+    {
+        return getInputStream(fileID, 0);
+    }
+
+    public InputStream getInputStream(String fileID, long offset)
+        throws SectorException
+    {
+        SectorDriver driver = pinReadDriver(fileID);
+        try {
+            return driver.getInputStream(fileID, offset);
+        } finally {
+            unpin(fileID);
+        }
+    }
+
+    /**
+     * Write all data of the file by the driver that holds the file. The
+     * file is not moved by rebalancing while it is transferred.
+     */
+    public long transferTo(String fileID, WritableByteChannel target)
+        throws SectorException
+    {
+        SectorDriver driver = pinReadDriver(fileID);
+        try {
+            return driver.transferTo(fileID, target);
+        } finally {
+            unpin(fileID);
+        }
+    }
+
+    public long transferFrom(String fileID, ReadableByteChannel src)
+        throws SectorException
+    {
+        return transferFrom(fileID, src, false);
+    }
+
+    public long transferFrom(String fileID, ReadableByteChannel src,
+            boolean append)
+        throws SectorException
+    {
+        SectorDriver driver = pinWriteDriver(fileID, append);
+        try {
+            return driver.transferFrom(fileID, src, append);
+        } finally {
+            unpin(fileID);
+        }
+    }
+
+    public boolean isWriteLocked(String fileID) {
+        for (SectorDriver driver : getDrivers())
+            if (driver.isWriteLocked(fileID))
+                return true;
+        return false;
+    }
+
+    public boolean isReadLocked(String fileID) {
+        for (SectorDriver driver : getDrivers())
+            if (driver.isReadLocked(fileID))
+                return true;
+        return false;
+    }
+
+    /**
+     * Delete the file. If the file is being moved, this waits until the
+     * move ends.
+     */
+    public void deleteSectors(String fileID)
+        throws SectorException
+    {
+        SectorDriver owner;
+        List<SectorDriver> drivers;
+        boolean rebalancing;
+        synchronized (this) {
+            awaitMoved(fileID);
+            owner = getOwner(fileID);
+            drivers = getDrivers();
+            rebalancing = _rebalancing;
+            pin(fileID);
+        }
+        try {
+            if (!rebalancing) {
+                owner.deleteSectors(fileID);
+                return;
+            }
+            for (SectorDriver driver : drivers)
+                driver.deleteSectors(fileID);
+        } finally {
+            unpin(fileID);
+        }
+    }
+
+    /**
+     * Do nothing, since the drivers are initialized by
+     * {@link SectorDriverManager}.
+     */
+    public void initDriver() {
+        // do nothing.
+    }
+
+    public long getFileSize(String fileID)
+        throws SectorException
+    {
+        SectorDriver driver = pinReadDriver(fileID);
+        try {
+            return driver.getFileSize(fileID);
+        } finally {
+            unpin(fileID);
+        }
+    }
+
+    /**
+     * Return sum of available bytes of the drivers.
+     */
+    public long getAvailableBytes()
+        throws SectorException
+    {
+        long bytes = 0;
+        for (SectorDriver driver : getDrivers())
+            bytes += driver.getAvailableBytes();
+        return bytes;
+    }
+
+    /**
+     * Return sum of used bytes of the drivers.
+     */
+    public long getUsedBytes()
+        throws SectorException
+    {
+        long bytes = 0;
+        for (SectorDriver driver : getDrivers())
+            bytes += driver.getUsedBytes();
+        return bytes;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Public methods.
+
+    /**
+     * Add an initialized driver. Files that belong to the new driver are
+     * found on the old drivers until they are moved by
+     * {@link #rebalance(Iterator, long)}.
+     *
+     * @param name      name of the driver.
+     * @param driver    the driver.
+     * @param weight    weight of the driver.
+     *
+     * @throws  IllegalArgumentException
+     *          Throws if a driver of the name is already added.
+     */
+    public synchronized void addDriver(String name, SectorDriver driver,
+            int weight)
+    {
+        if (_drivers.containsKey(name))
+            throw new IllegalArgumentException(
+                    "Driver [" + name + "] is already added.");
+        Map<String, Integer> weights =
+            new LinkedHashMap<String, Integer>(_weights);
+        weights.put(name, Integer.valueOf(weight));
+        _ring = new HashRing(weights);
+        _weights.put(name, Integer.valueOf(weight));
+        _drivers.put(name, driver);
+        _rebalancing = true;
+        _generation++;
+    }
+
+    /**
+     * Return names of the drivers.
+     */
+    public synchronized String[] getDriverNames() {
+        return _drivers.keySet().toArray(new String[_drivers.size()]);
+    }
+
+    /**
+     * Return true while files may be on other drivers than their own.
+     */
+    public synchronized boolean isRebalancing() {
+        return _rebalancing;
+    }
+
+    /**
+     * Move each of the specified files to its own driver, if it is on
+     * another driver. A file that is opened is skipped. The copy rate is
+     * limited to the specified bytes per second.
+     *
+     * @param fileIDs           all files stored by this driver.
+     * @param bytesPerSecond    maximum bytes per second to copy, or 0 if
+     *                          unlimited.
+     *
+     * @return  true if all files are on their own drivers, and the
+     *          rebalancing state is ended. false if some files were
+     *          skipped, or a driver was added during this run.
+     *
+     * @throws  InterruptedException
+     *          Throws if the thread is interrupted while throttled.
+     */
+    public boolean rebalance(Iterator<String> fileIDs, long bytesPerSecond)
+        throws InterruptedException
+    {
+        int generation;
+        synchronized (this) {
+            if (!_rebalancing)
+                return true;
+            generation = _generation;
+        }
+
+        long start = System.nanoTime();
+        long copied = 0;
+        boolean skipped = false;
+        while (fileIDs.hasNext()) {
+            String fileID = fileIDs.next();
+            try {
+                long bytes = move(fileID);
+                if (bytes < 0) {
+                    skipped = true;
+                    continue;
+                }
+                copied += bytes;
+            } catch (SectorException e) {
+                _log.log(Level.WARNING, "Could not move " + fileID + ".", e);
+                skipped = true;
+            }
+            throttle(start, copied, bytesPerSecond);
+        }
+
+        if (skipped)
+            return false;
+        synchronized (this) {
+            if (generation != _generation)
+                return false;
+            _rebalancing = false;
+        }
+        return true;
+    }
+
+    /**
+     * Return number of files moved by rebalancing.
+     */
+    public long getMovedFileCount() {
+        return _movedFiles.get();
+    }
+
+    /**
+     * Return bytes of the files moved by rebalancing.
+     */
+    public long getMovedBytes() {
+        return _movedBytes.get();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    /**
+     * Return the driver that the file belongs to. The caller must hold
+     * the monitor.
+     */
+    private SectorDriver getOwner(String fileID) {
+        if (fileID == null)
+            throw new NullPointerException("fileID");
+        return _drivers.get(_ring.getNode(fileID));
+    }
+
+    /**
+     * Return a copy of the list of the drivers.
+     */
+    private synchronized List<SectorDriver> getDrivers() {
+        return new ArrayList<SectorDriver>(_drivers.values());
+    }
+
+    /**
+     * Return the driver that holds data of the file, and pin the file.
+     * While the file is moved, this is the driver that it is moved from.
+     * While rebalancing, this is not the own driver if only another
+     * driver has the data. The caller must unpin the file after using
+     * the driver.
+     */
+    private SectorDriver pinReadDriver(String fileID)
+        throws SectorException
+    {
+        SectorDriver source;
+        SectorDriver owner;
+        List<SectorDriver> drivers;
+        boolean rebalancing;
+        synchronized (this) {
+            while (_movingMap.containsKey(fileID) &&
+                    _movingMap.get(fileID) == null)
+                await();
+            source = _movingMap.get(fileID);
+            owner = getOwner(fileID);
+            drivers = getDrivers();
+            rebalancing = _rebalancing;
+            pin(fileID);
+        }
+        if (source != null)
+            return source;
+        try {
+            if (!rebalancing || owner.getFileSize(fileID) > 0)
+                return owner;
+            SectorDriver holder = findHolder(fileID, owner, drivers);
+            return (holder == null) ? owner : holder;
+        } catch (SectorException e) {
+            unpin(fileID);
+            throw e;
+        } catch (RuntimeException e) {
+            unpin(fileID);
+            throw e;
+        }
+    }
+
+    /**
+     * Return the driver that the file is written to, and pin the file.
+     * If the file is being moved, this waits until the move ends. Data
+     * appended to a file is written to the driver that holds it. New
+     * contents are written to the own driver, and the file is deleted
+     * from the other drivers while rebalancing. The caller must unpin the
+     * file after using the driver.
+     */
+    private SectorDriver pinWriteDriver(String fileID, boolean append)
+        throws SectorException
+    {
+        SectorDriver owner;
+        List<SectorDriver> drivers;
+        boolean rebalancing;
+        synchronized (this) {
+            awaitMoved(fileID);
+            owner = getOwner(fileID);
+            drivers = getDrivers();
+            rebalancing = _rebalancing;
+            pin(fileID);
+        }
+        try {
+            if (!rebalancing)
+                return owner;
+            if (append) {
+                if (owner.getFileSize(fileID) > 0)
+                    return owner;
+                SectorDriver holder = findHolder(fileID, owner, drivers);
+                return (holder == null) ? owner : holder;
+            }
+            if (owner.isReadLocked(fileID) || owner.isWriteLocked(fileID))
+                throw new SectorException(
+                        "Specified file have been locked.");
+            for (SectorDriver driver : drivers)
+                if (driver != owner)
+                    driver.deleteSectors(fileID);
+            return owner;
+        } catch (SectorException e) {
+            unpin(fileID);
+            throw e;
+        } catch (RuntimeException e) {
+            unpin(fileID);
+            throw e;
+        }
+    }
+
+    /**
+     * Return a driver other than the owner that has data of the file, or
+     * null if not found.
+     */
+    private static SectorDriver findHolder(String fileID,
+            SectorDriver owner, List<SectorDriver> drivers)
+        throws SectorException
+    {
+        for (SectorDriver driver : drivers)
+            if (driver != owner && driver.getFileSize(fileID) > 0)
+                return driver;
+        return null;
+    }
+
+    /**
+     * Move the file to its own driver if it is on another driver. The
+     * file is read from the old driver until the copy is completed and
+     * the old copy is deleted.
+     *
+     * @return  number of bytes moved, or -1 if the file is opened.
+     */
+    private long move(String fileID)
+        throws SectorException
+    {
+        SectorDriver owner;
+        List<SectorDriver> drivers;
+        synchronized (this) {
+            if (_movingMap.containsKey(fileID) ||
+                    _pinCounts.containsKey(fileID))
+                return -1;
+            owner = getOwner(fileID);
+            drivers = getDrivers();
+            _movingMap.put(fileID, null);
+        }
+
+        try {
+            for (SectorDriver driver : drivers)
+                if (driver.isWriteLocked(fileID))
+                    return -1;
+            SectorDriver holder = findHolder(fileID, owner, drivers);
+            if (holder == null)
+                return 0;
+            synchronized (this) {
+                _movingMap.put(fileID, holder);
+                notifyAll();
+            }
+
+            long bytes;
+            boolean copied = false;
+            try {
+                bytes = copy(fileID, holder, owner);
+                copied = true;
+            } catch (IOException e) {
+                throw new SectorException(e);
+            } finally {
+                if (!copied)
+                    owner.deleteSectors(fileID);
+            }
+
+            // readers that opened the file on the holder meanwhile keep
+            // it, and new readers wait until the old copy is deleted.
+            boolean used;
+            synchronized (this) {
+                used = _pinCounts.containsKey(fileID);
+                if (!used)
+                    _movingMap.put(fileID, null);
+            }
+            if (used || holder.isReadLocked(fileID)) {
+                owner.deleteSectors(fileID);
+                return -1;
+            }
+            holder.deleteSectors(fileID);
+            _movedFiles.incrementAndGet();
+            _movedBytes.addAndGet(bytes);
+            return bytes;
+        } finally {
+            synchronized (this) {
+                _movingMap.remove(fileID);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Copy the file from the source driver to the target driver.
+     *
+     * @return  number of bytes copied.
+     */
+    private static long copy(String fileID, SectorDriver source,
+            SectorDriver target)
+        throws SectorException, IOException
+    {
+        InputStream is = source.getInputStream(fileID);
+        try {
+            OutputStream os = target.getOutputStream(
+                    fileID, source.getFileSize(fileID));
+            try {
+                byte[] buf = new byte[_COPY_BUFFER_SIZE];
+                long bytes = 0;
+                int count = 0;
+                while ((count = is.read(buf, 0, buf.length)) != -1) {
+                    os.write(buf, 0, count);
+                    bytes += count;
+                }
+                return bytes;
+            } finally {
+                os.close();
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Sleep until the copied bytes are within the rate.
+     */
+    private static void throttle(long start, long copied,
+            long bytesPerSecond)
+        throws InterruptedException
+    {
+        if (bytesPerSecond <= 0)
+            return;
+        long expected = copied * 1000L / bytesPerSecond;
+        long elapsed = (System.nanoTime() - start) / 1000000L;
+        if (expected > elapsed)
+            Thread.sleep(expected - elapsed);
+    }
+
+    /**
+     * Mark the file used by a call, which is not seen by the locks of the
+     * drivers until its stream is opened. The caller must hold the
+     * monitor.
+     */
+    private void pin(String fileID) {
+        Integer count = _pinCounts.get(fileID);
+        _pinCounts.put(fileID,
+                Integer.valueOf((count == null) ? 1 : count.intValue() + 1));
+    }
+
+    private synchronized void unpin(String fileID) {
+        Integer count = _pinCounts.get(fileID);
+        if (count == null)
+            return;
+        if (count.intValue() > 1)
+            _pinCounts.put(fileID,
+                    Integer.valueOf(count.intValue() - 1));
+        else
+            _pinCounts.remove(fileID);
+    }
+
+    /**
+     * Wait until the file is not moved. The caller must hold the monitor.
+     */
+    private void awaitMoved(String fileID)
+        throws SectorException
+    {
+        while (_movingMap.containsKey(fileID))
+            await();
+    }
+
+    /**
+     * Wait until a move ends or its state changes. The caller must hold
+     * the monitor.
+     */
+    private void await()
+        throws SectorException
+    {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SectorException(
+                    "Interrupted while the file is moved.", e);
+        }
+    }
+}
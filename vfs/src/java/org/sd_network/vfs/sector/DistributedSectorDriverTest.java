@@ -0,0 +1,469 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs.sector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.sd_network.vfs.VfsTestCase;
+
+/**
+ * DistributedSectorDriver̒P̃eXgP[X`܂B
+ * ehCo[ɂ́AꎞfBNgLocalFileDrivergp܂B
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class DistributedSectorDriverTest
+    extends VfsTestCase
+{
+    /** eXgɎgpt@C̐ */
+    private static final int _FILES = 40;
+
+    /** OƂ̃hCo[ */
+    private Map<String, SectorDriver> _drivers;
+
+    /** OƂ̏d */
+    private Map<String, Integer> _weights;
+
+    /** eXgΏۂSectorDriver */
+    private DistributedSectorDriver _driver;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors and Initializations.
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        _drivers = new LinkedHashMap<String, SectorDriver>();
+        _weights = new LinkedHashMap<String, Integer>();
+        _drivers.put("a", newLocalDriver());
+        _drivers.put("b", newLocalDriver());
+        _weights.put("a", Integer.valueOf(1));
+        _weights.put("b", Integer.valueOf(1));
+        _driver = new DistributedSectorDriver(_drivers, _weights, true);
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Test Cases.
+
+    /**
+     * et@CAHashRingŌ܂hCo[ɕۑ邱Ƃ
+     * eXg܂B
+     */
+    public void testRouting()
+        throws Exception
+    {
+        HashRing ring = new HashRing(_weights);
+        for (int idx = 0; idx < _FILES; idx++)
+            write(_driver, "fileID" + idx, newFileData(idx), false);
+
+        for (int idx = 0; idx < _FILES; idx++) {
+            String fileID = "fileID" + idx;
+            String owner = ring.getNode(fileID);
+            for (Map.Entry<String, SectorDriver> entry : _drivers.entrySet())
+                assertEquals(entry.getKey().equals(owner) ?
+                        (long) newFileData(idx).length : 0L,
+                        entry.getValue().getFileSize(fileID));
+            assertEquals(newFileData(idx), read(_driver, fileID));
+        }
+        assertFalse(_driver.isRebalancing());
+
+        _driver.deleteSectors("fileID0");
+        assertEquals(0L, _driver.getFileSize("fileID0"));
+    }
+
+    /**
+     * hCo[ǉꍇɁAĔzuO͌̃hCo[ǂݍ܂A
+     * Ĕzu͐VhCo[ɈړĂ邱ƂeXg܂B
+     */
+    public void testAddDriverAndRebalance()
+        throws Exception
+    {
+        List<String> fileIDs = new ArrayList<String>();
+        for (int idx = 0; idx < _FILES; idx++) {
+            fileIDs.add("fileID" + idx);
+            write(_driver, "fileID" + idx, newFileData(idx), false);
+        }
+
+        SectorDriver added = newLocalDriver();
+        _driver.addDriver("c", added, 1);
+        _weights.put("c", Integer.valueOf(1));
+        HashRing ring = new HashRing(_weights);
+        assertTrue(_driver.isRebalancing());
+        assertEquals(3, _driver.getDriverNames().length);
+
+        int moving = 0;
+        for (int idx = 0; idx < _FILES; idx++) {
+            String fileID = "fileID" + idx;
+            if (ring.getNode(fileID).equals("c"))
+                moving++;
+            assertEquals(newFileData(idx), read(_driver, fileID));
+        }
+        assertTrue(moving > 0);
+        assertEquals(0L, added.getUsedBytes());
+
+        assertTrue(_driver.rebalance(fileIDs.iterator(), 0));
+        assertFalse(_driver.isRebalancing());
+        assertEquals((long) moving, _driver.getMovedFileCount());
+        for (int idx = 0; idx < _FILES; idx++) {
+            String fileID = "fileID" + idx;
+            boolean owned = ring.getNode(fileID).equals("c");
+            for (Map.Entry<String, SectorDriver> entry : _drivers.entrySet())
+                if (!entry.getKey().equals(ring.getNode(fileID)))
+                    assertEquals(0L, entry.getValue().getFileSize(fileID));
+            assertEquals(owned ? (long) newFileData(idx).length : 0L,
+                    added.getFileSize(fileID));
+            assertEquals(newFileData(idx), read(_driver, fileID));
+        }
+    }
+
+    /**
+     * ړ̃t@C̃hCo[犮Sɓǂݍ߂邱ƁAړ
+     * ǋLړ̊܂ő҂邱ƂeXg܂B
+     */
+    public void testReadDuringMove()
+        throws Exception
+    {
+        BlockingDriver added = new BlockingDriver(newLocalDriver());
+        String fileID = findMovingFile();
+        byte[] data = newFileData(10000);
+        write(_driver, fileID, data, false);
+        _driver.addDriver("c", added, 1);
+
+        List<String> fileIDs = Arrays.asList(new String[] {fileID});
+        Rebalancer rebalancer = new Rebalancer(fileIDs);
+        rebalancer.start();
+        assertTrue(added._started.await(10, TimeUnit.SECONDS));
+
+        // the copy is stopped, while the file is read from the old driver.
+        assertEquals((long) data.length, _driver.getFileSize(fileID));
+        assertEquals(data, read(_driver, fileID));
+
+        Appender appender = new Appender(fileID, "tail".getBytes());
+        appender.start();
+        appender.join(200);
+        assertTrue(appender.isAlive());
+
+        added._resume.countDown();
+        rebalancer.join(10000);
+        appender.join(10000);
+        assertNull(appender._error);
+        assertTrue(rebalancer._result);
+        assertEquals(1L, _driver.getMovedFileCount());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(data);
+        expected.write("tail".getBytes());
+        assertEquals((long) expected.size(), added.getFileSize(fileID));
+        assertEquals(expected.toByteArray(), read(_driver, fileID));
+        for (SectorDriver driver : _drivers.values())
+            assertEquals(0L, driver.getFileSize(fileID));
+    }
+
+    /**
+     * ړɌ̃hCo[Ńt@CJꂽꍇAړ~A
+     * t@C̃hCo[Ɏc邱ƂeXg܂B
+     */
+    public void testMoveGivenUpWhileRead()
+        throws Exception
+    {
+        BlockingDriver added = new BlockingDriver(newLocalDriver());
+        String fileID = findMovingFile();
+        byte[] data = newFileData(10000);
+        write(_driver, fileID, data, false);
+        _driver.addDriver("c", added, 1);
+
+        List<String> fileIDs = Arrays.asList(new String[] {fileID});
+        Rebalancer rebalancer = new Rebalancer(fileIDs);
+        rebalancer.start();
+        assertTrue(added._started.await(10, TimeUnit.SECONDS));
+
+        InputStream is = _driver.getInputStream(fileID);
+        added._resume.countDown();
+        rebalancer.join(10000);
+        assertFalse(rebalancer._result);
+        assertTrue(_driver.isRebalancing());
+        assertEquals(0L, added.getFileSize(fileID));
+
+        byte[] buf = new byte[data.length];
+        int count = 0;
+        int read = 0;
+        while (read < buf.length &&
+                (count = is.read(buf, read, buf.length - read)) != -1)
+            read += count;
+        is.close();
+        assertEquals(data, buf);
+        assertEquals(data, read(_driver, fileID));
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    private SectorDriver newLocalDriver()
+        throws Exception
+    {
+        Properties properties = new Properties();
+        properties.setProperty(
+                "org.sd_network.vfs.sector.LocalFileDriver.Directory",
+                createTempDirectory().getPath());
+        properties.setProperty(
+                "org.sd_network.vfs.sector.LocalFileDriver.AvailableBytes",
+                "1048576");
+        SectorDriver driver = new LocalFileDriver(properties);
+        driver.initDriver();
+        return driver;
+    }
+
+    /**
+     * hCo["c"ǉꍇɁA"c"Ɉړt@CIDԂ܂B
+     */
+    private String findMovingFile() {
+        Map<String, Integer> weights =
+            new LinkedHashMap<String, Integer>(_weights);
+        weights.put("c", Integer.valueOf(1));
+        HashRing ring = new HashRing(weights);
+        for (int idx = 0; ; idx++)
+            if (ring.getNode("fileID" + idx).equals("c"))
+                return "fileID" + idx;
+    }
+
+    private static byte[] newFileData(int length) {
+        byte[] data = new byte[length + 1];
+        for (int idx = 0; idx < data.length; idx++)
+            data[idx] = (byte) (idx * 31 + length);
+        return data;
+    }
+
+    private static void write(SectorDriver driver, String fileID,
+            byte[] data, boolean append)
+        throws Exception
+    {
+        OutputStream os = driver.getOutputStream(fileID, append);
+        try {
+            os.write(data);
+        } finally {
+            os.close();
+        }
+    }
+
+    private static byte[] read(SectorDriver driver, String fileID)
+        throws Exception
+    {
+        InputStream is = driver.getInputStream(fileID);
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int count = 0;
+            while ((count = is.read(buf, 0, buf.length)) != -1)
+                bos.write(buf, 0, count);
+            return bos.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Inner classes.
+
+    /**
+     * ĔzusXbhłB
+     */
+    private class Rebalancer
+        extends Thread
+    {
+        private final List<String> _fileIDs;
+
+        private volatile boolean _result;
+
+        private Rebalancer(List<String> fileIDs) {
+            _fileIDs = fileIDs;
+        }
+
+        public void run() {
+            try {
+                _result = _driver.rebalance(_fileIDs.iterator(), 0);
+            } catch (InterruptedException e) {
+                _result = false;
+            }
+        }
+    }
+
+    /**
+     * t@CɒǋLXbhłB
+     */
+    private class Appender
+        extends Thread
+    {
+        private final String _fileID;
+
+        private final byte[] _data;
+
+        private volatile Exception _error;
+
+        private Appender(String fileID, byte[] data) {
+            _fileID = fileID;
+            _data = data;
+        }
+
+        public void run() {
+            try {
+                write(_driver, _fileID, _data, true);
+            } catch (Exception e) {
+                _error = e;
+            }
+        }
+    }
+
+    /**
+     * ŏ݂̏ŁAĊJ܂Œ~OutputStreamԂ
+     * SectorDriverłB
+     */
+    private static class BlockingDriver
+        implements SectorDriver
+    {
+        private final SectorDriver _driver;
+
+        /** ݂~Ƃb` */
+        private final CountDownLatch _started = new CountDownLatch(1);
+
+        /** ݂ĊJ郉b` */
+        private final CountDownLatch _resume = new CountDownLatch(1);
+
+        private BlockingDriver(SectorDriver driver) {
+            _driver = driver;
+        }
+
+        public OutputStream getOutputStream(String fileID)
+            throws SectorException
+        {
+            return getOutputStream(fileID, false);
+        }
+
+        public OutputStream getOutputStream(String fileID, boolean append)
+            throws SectorException
+        {
+            return block(_driver.getOutputStream(fileID, append));
+        }
+
+        public OutputStream getOutputStream(String fileID, long sizeHint)
+            throws SectorException
+        {
+            return block(_driver.getOutputStream(fileID, sizeHint));
+        }
+
+        public InputStream getInputStream(String fileID)
+            throws SectorException
+        {
+            return _driver.getInputStream(fileID);
+        }
+
+        public InputStream getInputStream(String fileID, long offset)
+            throws SectorException
+        {
+            return _driver.getInputStream(fileID, offset);
+        }
+
+        public long transferTo(String fileID, WritableByteChannel target)
+            throws SectorException
+        {
+            return _driver.transferTo(fileID, target);
+        }
+
+        public long transferFrom(String fileID, ReadableByteChannel src)
+            throws SectorException
+        {
+            return _driver.transferFrom(fileID, src);
+        }
+
+        public long transferFrom(String fileID, ReadableByteChannel src,
+                boolean append)
+            throws SectorException
+        {
+            return _driver.transferFrom(fileID, src, append);
+        }
+
+        public boolean isWriteLocked(String fileID) {
+            return _driver.isWriteLocked(fileID);
+        }
+
+        public boolean isReadLocked(String fileID) {
+            return _driver.isReadLocked(fileID);
+        }
+
+        public void deleteSectors(String fileID)
+            throws SectorException
+        {
+            _driver.deleteSectors(fileID);
+        }
+
+        public void initDriver()
+            throws SectorException
+        {
+            _driver.initDriver();
+        }
+
+        public long getFileSize(String fileID)
+            throws SectorException
+        {
+            return _driver.getFileSize(fileID);
+        }
+
+        public long getAvailableBytes()
+            throws SectorException
+        {
+            return _driver.getAvailableBytes();
+        }
+
+        public long getUsedBytes()
+            throws SectorException
+        {
+            return _driver.getUsedBytes();
+        }
+
+        private OutputStream block(OutputStream os) {
+            return new FilterOutputStream(os) {
+                public void write(byte[] b, int off, int len)
+                    throws IOException
+                {
+                    _started.countDown();
+                    try {
+                        _resume.await();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                    out.write(b, off, len);
+                }
+            };
+        }
+    }
+}
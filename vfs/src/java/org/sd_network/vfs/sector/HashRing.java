@@ -0,0 +1,107 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs.sector;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring that places a file on one of named nodes.
+ *
+ * <p> Each node is put on the ring at points, as many as its weight times
+ * {@link #POINTS_PER_WEIGHT}, and a file belongs to the first point at or
+ * after the hash of its fileID. So the share of files of a node is
+ * proportional to its weight, and when a node is added, only files that
+ * fall to the points of the new node change their node.
+ *
+ * <p> Hash values are taken from MD5, so the ring is the same in any JVM.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+class HashRing
+{
+    /** Number of points on the ring per weight of a node. */
+    static final int POINTS_PER_WEIGHT = 64;
+
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** Node names by point. */
+    private final TreeMap<Long, String> _points = new TreeMap<Long, String>();
+
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    /**
+     * Create a ring of the specified nodes.
+     *
+     * @param weights   weight of each node by name. Weights must be
+     *                  positive.
+     */
+    HashRing(Map<String, Integer> weights) {
+        if (weights.isEmpty())
+            throw new IllegalArgumentException("weights is empty.");
+        for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+            int weight = entry.getValue().intValue();
+            if (weight <= 0)
+                throw new IllegalArgumentException(
+                        "Weight of " + entry.getKey() + " is not positive.");
+            for (int idx = 0; idx < weight * POINTS_PER_WEIGHT; idx++)
+                _points.put(Long.valueOf(hash(entry.getKey() + "#" + idx)),
+                        entry.getKey());
+        }
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Package methods.
+
+    /**
+     * Return name of the node that the file belongs to.
+     */
+    String getNode(String fileID) {
+        SortedMap<Long, String> tail =
+            _points.tailMap(Long.valueOf(hash(fileID)));
+        return tail.isEmpty() ?
+            _points.get(_points.firstKey()) : tail.get(tail.firstKey());
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    /**
+     * Return the first 8 bytes of MD5 of the key.
+     */
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(
+                    key.getBytes("UTF-8"));
+            long value = 0;
+            for (int idx = 0; idx < 8; idx++)
+                value = (value << 8) | (digest[idx] & 0xff);
+            return value;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+}
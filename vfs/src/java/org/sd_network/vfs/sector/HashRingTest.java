@@ -0,0 +1,154 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs.sector;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.sd_network.vfs.VfsTestCase;
+
+/**
+ * HashRing̒P̃eXgP[X`܂B
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class HashRingTest
+    extends VfsTestCase
+{
+    /** eXgɎgpt@CID̐ */
+    private static final int _FILES = 30000;
+
+    ////////////////////////////////////////////////////////////
+    // Test Cases.
+
+    /**
+     * d݂̃m[hɁAt@Cقڋϓɔzu邱ƂeXg܂B
+     */
+    public void testBalance() {
+        HashRing ring = new HashRing(newWeights(
+                    new String[] {"a", "b", "c"}, new int[] {1, 1, 1}));
+        Map<String, Integer> counts = count(ring);
+
+        assertEquals(3, counts.size());
+        for (Integer count : counts.values()) {
+            assertTrue(count.intValue() > _FILES / 3 * 0.8);
+            assertTrue(count.intValue() < _FILES / 3 * 1.2);
+        }
+    }
+
+    /**
+     * m[hɔzut@C̊Ad݂ɔႷ邱ƂeXg܂B
+     */
+    public void testWeights() {
+        HashRing ring = new HashRing(newWeights(
+                    new String[] {"a", "b"}, new int[] {1, 3}));
+        Map<String, Integer> counts = count(ring);
+
+        double share = counts.get("b").doubleValue() / _FILES;
+        assertTrue(share > 0.65);
+        assertTrue(share < 0.85);
+    }
+
+    /**
+     * m[hǉꍇɁAǉm[hɔzut@C
+     * ړ邱ƂeXg܂B
+     */
+    public void testAddNode() {
+        Map<String, Integer> weights = newWeights(
+                new String[] {"a", "b", "c"}, new int[] {1, 1, 1});
+        HashRing before = new HashRing(weights);
+        weights.put("d", Integer.valueOf(1));
+        HashRing after = new HashRing(weights);
+
+        int moved = 0;
+        for (int idx = 0; idx < _FILES; idx++) {
+            String fileID = "fileID" + idx;
+            String node = after.getNode(fileID);
+            if (!node.equals(before.getNode(fileID))) {
+                assertEquals("d", node);
+                moved++;
+            }
+        }
+        assertTrue(moved > _FILES * 0.15);
+        assertTrue(moved < _FILES * 0.35);
+    }
+
+    /**
+     * m[h폜ꍇɁA폜m[h̃t@Cړ邱
+     * eXg܂B
+     */
+    public void testRemoveNode() {
+        HashRing before = new HashRing(newWeights(
+                    new String[] {"a", "b", "c"}, new int[] {1, 1, 1}));
+        HashRing after = new HashRing(newWeights(
+                    new String[] {"a", "b"}, new int[] {1, 1}));
+
+        for (int idx = 0; idx < _FILES; idx++) {
+            String fileID = "fileID" + idx;
+            String node = before.getNode(fileID);
+            if (!node.equals("c"))
+                assertEquals(node, after.getNode(fileID));
+        }
+    }
+
+    /**
+     * sȏd݂w肵ꍇɁAO邱ƂeXg܂B
+     */
+    public void testInvalidWeights() {
+        try {
+            new HashRing(new HashMap<String, Integer>());
+            fail("IllegalArgumentException not thrown.");
+        } catch (IllegalArgumentException e) {
+            // expected.
+        }
+        try {
+            new HashRing(newWeights(
+                        new String[] {"a", "b"}, new int[] {1, 0}));
+            fail("IllegalArgumentException not thrown.");
+        } catch (IllegalArgumentException e) {
+            // expected.
+        }
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    private static Map<String, Integer> newWeights(String[] names,
+            int[] weights)
+    {
+        Map<String, Integer> map = new LinkedHashMap<String, Integer>();
+        for (int idx = 0; idx < names.length; idx++)
+            map.put(names[idx], Integer.valueOf(weights[idx]));
+        return map;
+    }
+
+    /**
+     * m[hƂɁAzut@C̐Ԃ܂B
+     */
+    private static Map<String, Integer> count(HashRing ring) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int idx = 0; idx < _FILES; idx++) {
+            String node = ring.getNode("fileID" + idx);
+            Integer count = counts.get(node);
+            counts.put(node, Integer.valueOf(
+                        (count == null) ? 1 : count.intValue() + 1));
+        }
+        return counts;
+    }
+}
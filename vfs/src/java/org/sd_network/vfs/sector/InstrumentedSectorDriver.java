@@ -0,0 +1,582 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs.sector;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * SectorDriver that records latencies, bytes and number of running calls
+ * of another SectorDriver, and exposes them as MBeans.
+ *
+ * <p> Following operations are recorded separately as
+ * {@link SectorOperationStats}.
+ * <ul>
+ *  <li> open - getInputStream and getOutputStream.
+ *  <li> read - each read call of the InputStreams.
+ *  <li> write - each write call of the OutputStreams.
+ *  <li> transfer - transferTo and transferFrom.
+ *  <li> delete - deleteSectors.
+ *  <li> size - getFileSize.
+ * </ul>
+ *
+ * <p> By {@link #registerMBeans(String)}, the driver is registered to the
+ * platform MBeanServer as
+ * <tt>org.sd_network.vfs:type=SectorDriver,name=<i>name</i></tt>, and
+ * each operation as
+ * <tt>org.sd_network.vfs:type=SectorDriver,name=<i>name</i>,
+ * operation=<i>operation</i></tt>, where <i>name</i> is quoted by
+ * {@link ObjectName#quote(String)}.
+ *
+ * <p> Running calls of the driver, including reads, writes and closes of
+ * its streams, are counted by {@link #getInFlightOperations()}.
+ *
+ * <p> Only methods of SectorDriver are delegated, so methods specific to
+ * the instrumented driver, such as the asynchronous methods of
+ * {@link AsyncSectorDriver}, are not available through this driver.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class InstrumentedSectorDriver
+    implements SectorDriver, InstrumentedSectorDriverMBean
+{
+    /** Domain of the names of the MBeans. */
+    private static final String _DOMAIN = "org.sd_network.vfs";
+
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** The instrumented driver. */
+    private final SectorDriver _driver;
+
+    /** Statistics of opening streams. */
+    private final SectorOperationStats _openStats =
+        new SectorOperationStats();
+
+    /** Statistics of reads of the InputStreams. */
+    private final SectorOperationStats _readStats =
+        new SectorOperationStats();
+
+    /** Statistics of writes of the OutputStreams. */
+    private final SectorOperationStats _writeStats =
+        new SectorOperationStats();
+
+    /** Statistics of transfers. */
+    private final SectorOperationStats _transferStats =
+        new SectorOperationStats();
+
+    /** Statistics of deleting sectors. */
+    private final SectorOperationStats _deleteStats =
+        new SectorOperationStats();
+
+    /** Statistics of getting file sizes. */
+    private final SectorOperationStats _sizeStats =
+        new SectorOperationStats();
+
+    /** Number of bytes read. */
+    private final AtomicLong _readBytes = new AtomicLong();
+
+    /** Number of bytes written. */
+    private final AtomicLong _writtenBytes = new AtomicLong();
+
+    /** Nanoseconds spent in reads and transfers to channels. */
+    private final AtomicLong _readNanos = new AtomicLong();
+
+    /** Nanoseconds spent in writes and transfers from channels. */
+    private final AtomicLong _writeNanos = new AtomicLong();
+
+    /** Number of running calls. */
+    private final AtomicInteger _inFlight = new AtomicInteger();
+
+    /** Number of open InputStreams. */
+    private final AtomicInteger _openInputStreams = new AtomicInteger();
+
+    /** Number of open OutputStreams. */
+    private final AtomicInteger _openOutputStreams = new AtomicInteger();
+
+    /** Time the statistics were cleared, in nanoseconds. */
+    private volatile long _resetTime = System.nanoTime();
+
+    /** Names of the registered MBeans. */
+    private final List<ObjectName> _objectNames = new ArrayList<ObjectName>();
+
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    /**
+     * Create a driver that instruments the specified driver.
+     *
+     * @param driver    the instrumented driver.
+     */
+    public InstrumentedSectorDriver(SectorDriver driver) {
+        if (driver == null)
+            throw new NullPointerException("driver");
+        _driver = driver;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Implements to SectorDriver.
+
+    public OutputStream getOutputStream(String fileID)
+        throws SectorException
+    {
+        return getOutputStream(fileID, false);
+    }
+
+    public OutputStream getOutputStream(String fileID, boolean append)
+        throws SectorException
+    {
+        _inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            return new InstrumentedOutputStream(
+                    _driver.getOutputStream(fileID, append));
+        } finally {
+            _openStats.record(System.nanoTime() - start);
+            _inFlight.decrementAndGet();
+        }
+    }
+
+    public OutputStream getOutputStream(String fileID, long sizeHint)
+        throws SectorException
+    {
+        _inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            return new InstrumentedOutputStream(
+                    _driver.getOutputStream(fileID, sizeHint));
+        } finally {
+            _openStats.record(System.nanoTime() - start);
+            _inFlight.decrementAndGet();
+        }
+    }
+
+    public InputStream getInputStream(String fileID)
+        throws SectorException
+    {
+        return getInputStream(fileID, 0L);
+    }
+
+    public InputStream getInputStream(String fileID, long offset)
+        throws SectorException
+    {
+        _inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            return new InstrumentedInputStream(
+                    _driver.getInputStream(fileID, offset));
+        } finally {
+            _openStats.record(System.nanoTime() - start);
+            _inFlight.decrementAndGet();
+        }
+    }
+
+    public long transferTo(String fileID, WritableByteChannel target)
+        throws SectorException
+    {
+        _inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            long count = _driver.transferTo(fileID, target);
+            _readBytes.addAndGet(count);
+            _readNanos.addAndGet(System.nanoTime() - start);
+            return count;
+        } finally {
+            _transferStats.record(System.nanoTime() - start);
+            _inFlight.decrementAndGet();
+        }
+    }
+
+    public long transferFrom(String fileID, ReadableByteChannel src)
+        throws SectorException
+    {
+        return transferFrom(fileID, src, false);
+    }
+
+    public long transferFrom(String fileID, ReadableByteChannel src,
+            boolean append)
+        throws SectorException
+    {
+        _inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            long count = _driver.transferFrom(fileID, src, append);
+            _writtenBytes.addAndGet(count);
+            _writeNanos.addAndGet(System.nanoTime() - start);
+            return count;
+        } finally {
+            _transferStats.record(System.nanoTime() - start);
+            _inFlight.decrementAndGet();
+        }
+    }
+
+    public boolean isWriteLocked(String fileID) {
+        return _driver.isWriteLocked(fileID);
+    }
+
+    public boolean isReadLocked(String fileID) {
+        return _driver.isReadLocked(fileID);
+    }
+
+    public void deleteSectors(String fileID)
+        throws SectorException
+    {
+        _inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            _driver.deleteSectors(fileID);
+        } finally {
+            _deleteStats.record(System.nanoTime() - start);
+            _inFlight.decrementAndGet();
+        }
+    }
+
+    public void initDriver()
+        throws SectorException
+    {
+        _driver.initDriver();
+    }
+
+    public long getFileSize(String fileID)
+        throws SectorException
+    {
+        _inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            return _driver.getFileSize(fileID);
+        } finally {
+            _sizeStats.record(System.nanoTime() - start);
+            _inFlight.decrementAndGet();
+        }
+    }
+
+    public long getAvailableBytes()
+        throws SectorException
+    {
+        return _driver.getAvailableBytes();
+    }
+
+    public long getUsedBytes()
+        throws SectorException
+    {
+        return _driver.getUsedBytes();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Implements to InstrumentedSectorDriverMBean.
+
+    public String getDriverClassName() {
+        return _driver.getClass().getName();
+    }
+
+    public long getReadBytes() {
+        return _readBytes.get();
+    }
+
+    public long getWrittenBytes() {
+        return _writtenBytes.get();
+    }
+
+    public double getReadBytesPerSecond() {
+        return perSecond(_readBytes.get(), System.nanoTime() - _resetTime);
+    }
+
+    public double getWriteBytesPerSecond() {
+        return perSecond(_writtenBytes.get(), System.nanoTime() - _resetTime);
+    }
+
+    public double getDriverReadBytesPerSecond() {
+        return perSecond(_readBytes.get(), _readNanos.get());
+    }
+
+    public double getDriverWriteBytesPerSecond() {
+        return perSecond(_writtenBytes.get(), _writeNanos.get());
+    }
+
+    public int getInFlightOperations() {
+        return _inFlight.get();
+    }
+
+    public int getOpenInputStreams() {
+        return _openInputStreams.get();
+    }
+
+    public int getOpenOutputStreams() {
+        return _openOutputStreams.get();
+    }
+
+    public void resetStatistics() {
+        _openStats.reset();
+        _readStats.reset();
+        _writeStats.reset();
+        _transferStats.reset();
+        _deleteStats.reset();
+        _sizeStats.reset();
+        _readBytes.set(0);
+        _writtenBytes.set(0);
+        _readNanos.set(0);
+        _writeNanos.set(0);
+        _resetTime = System.nanoTime();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Public methods.
+
+    /**
+     * Return the instrumented driver.
+     */
+    public SectorDriver getDriver() {
+        return _driver;
+    }
+
+    /**
+     * Return statistics of the specified operation.
+     *
+     * @param operation one of "open", "read", "write", "transfer",
+     *                  "delete" and "size".
+     *
+     * @return  the statistics, or null if the operation is unknown.
+     */
+    public SectorOperationStats getOperationStats(String operation) {
+        if ("open".equals(operation))
+            return _openStats;
+        if ("read".equals(operation))
+            return _readStats;
+        if ("write".equals(operation))
+            return _writeStats;
+        if ("transfer".equals(operation))
+            return _transferStats;
+        if ("delete".equals(operation))
+            return _deleteStats;
+        if ("size".equals(operation))
+            return _sizeStats;
+        return null;
+    }
+
+    /**
+     * Register this driver and statistics of its operations to the
+     * platform MBeanServer. MBeans already registered by the same name
+     * are replaced.
+     *
+     * @param name  name of the driver in the names of the MBeans.
+     *
+     * @throws  SectorException
+     *          Throws if the MBeans could not be registered.
+     */
+    public synchronized void registerMBeans(String name)
+        throws SectorException
+    {
+        unregisterMBeans();
+        String prefix = _DOMAIN + ":type=SectorDriver,name=" +
+            ObjectName.quote(name);
+        String[] operations =
+            {"open", "read", "write", "transfer", "delete", "size"};
+        try {
+            register(new ObjectName(prefix), this);
+            for (int idx = 0; idx < operations.length; idx++)
+                register(new ObjectName(
+                            prefix + ",operation=" + operations[idx]),
+                        getOperationStats(operations[idx]));
+        } catch (JMException e) {
+            unregisterMBeans();
+            throw new SectorException(
+                    "MBeans of SectorDriver [" + name +
+                    "] could not be registered.", e);
+        }
+    }
+
+    /**
+     * Unregister the MBeans registered by {@link #registerMBeans(String)}.
+     */
+    public synchronized void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : _objectNames) {
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException e) {
+                // already unregistered.
+            }
+        }
+        _objectNames.clear();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    private void register(ObjectName objectName, Object mbean)
+        throws JMException
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName))
+            server.unregisterMBean(objectName);
+        server.registerMBean(mbean, objectName);
+        _objectNames.add(objectName);
+    }
+
+    private static double perSecond(long bytes, long nanos) {
+        return (nanos <= 0) ? 0.0 : bytes * 1000000000.0 / nanos;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Inner classes.
+
+    /**
+     * InputStream that records reads of the stream of the driver.
+     */
+    private class InstrumentedInputStream
+        extends FilterInputStream
+    {
+        private boolean _closed = false;
+
+        InstrumentedInputStream(InputStream in) {
+            super(in);
+            _openInputStreams.incrementAndGet();
+        }
+
+        public int read()
+            throws IOException
+        {
+            _inFlight.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                int b = in.read();
+                record(start, (b == -1) ? 0 : 1);
+                return b;
+            } finally {
+                _inFlight.decrementAndGet();
+            }
+        }
+
+        public int read(byte[] b, int off, int len)
+            throws IOException
+        {
+            _inFlight.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                int count = in.read(b, off, len);
+                record(start, count);
+                return count;
+            } finally {
+                _inFlight.decrementAndGet();
+            }
+        }
+
+        public void close()
+            throws IOException
+        {
+            synchronized (this) {
+                if (_closed)
+                    return;
+                _closed = true;
+            }
+            _openInputStreams.decrementAndGet();
+            _inFlight.incrementAndGet();
+            try {
+                in.close();
+            } finally {
+                _inFlight.decrementAndGet();
+            }
+        }
+
+        private void record(long start, int count) {
+            long nanos = System.nanoTime() - start;
+            _readStats.record(nanos);
+            _readNanos.addAndGet(nanos);
+            if (count > 0)
+                _readBytes.addAndGet(count);
+        }
+    }
+
+    /**
+     * OutputStream that records writes to the stream of the driver.
+     */
+    private class InstrumentedOutputStream
+        extends FilterOutputStream
+    {
+        private boolean _closed = false;
+
+        InstrumentedOutputStream(OutputStream out) {
+            super(out);
+            _openOutputStreams.incrementAndGet();
+        }
+
+        public void write(int b)
+            throws IOException
+        {
+            _inFlight.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                out.write(b);
+                record(start, 1);
+            } finally {
+                _inFlight.decrementAndGet();
+            }
+        }
+
+        public void write(byte[] b, int off, int len)
+            throws IOException
+        {
+            _inFlight.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                out.write(b, off, len);
+                record(start, len);
+            } finally {
+                _inFlight.decrementAndGet();
+            }
+        }
+
+        public void close()
+            throws IOException
+        {
+            synchronized (this) {
+                if (_closed)
+                    return;
+                _closed = true;
+            }
+            _openOutputStreams.decrementAndGet();
+            _inFlight.incrementAndGet();
+            try {
+                out.close();
+            } finally {
+                _inFlight.decrementAndGet();
+            }
+        }
+
+        private void record(long start, int count) {
+            long nanos = System.nanoTime() - start;
+            _writeStats.record(nanos);
+            _writeNanos.addAndGet(nanos);
+            _writtenBytes.addAndGet(count);
+        }
+    }
+}
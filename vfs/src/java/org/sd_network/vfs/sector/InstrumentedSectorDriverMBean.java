@@ -0,0 +1,86 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs.sector;
+
+/**
+ * Management interface of {@link InstrumentedSectorDriver}. Latencies of
+ * each operation are given by {@link SectorOperationStatsMBean}s
+ * registered beside it.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public interface InstrumentedSectorDriverMBean
+{
+    /**
+     * Return class name of the instrumented driver.
+     */
+    public String getDriverClassName();
+
+    /**
+     * Return number of bytes read from the driver.
+     */
+    public long getReadBytes();
+
+    /**
+     * Return number of bytes written to the driver.
+     */
+    public long getWrittenBytes();
+
+    /**
+     * Return bytes read per second since the statistics were cleared.
+     */
+    public double getReadBytesPerSecond();
+
+    /**
+     * Return bytes written per second since the statistics were cleared.
+     */
+    public double getWriteBytesPerSecond();
+
+    /**
+     * Return bytes read per second spent in the driver. This is the speed
+     * of the driver itself, excluding the time its callers take between
+     * reads.
+     */
+    public double getDriverReadBytesPerSecond();
+
+    /**
+     * Return bytes written per second spent in the driver.
+     */
+    public double getDriverWriteBytesPerSecond();
+
+    /**
+     * Return number of calls of the driver that are running now,
+     * including reads, writes and closes of the streams.
+     */
+    public int getInFlightOperations();
+
+    /**
+     * Return number of InputStreams that are open.
+     */
+    public int getOpenInputStreams();
+
+    /**
+     * Return number of OutputStreams that are open.
+     */
+    public int getOpenOutputStreams();
+
+    /**
+     * Clear the statistics of the driver and its operations.
+     */
+    public void resetStatistics();
+}
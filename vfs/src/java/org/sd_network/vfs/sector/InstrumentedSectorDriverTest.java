@@ -0,0 +1,206 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs.sector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.sd_network.vfs.VfsTestCase;
+
+/**
+ * InstrumentedSectorDriverSectorOperationStats̒P̃eXgP[X
+ * `܂BvΏۂ̃hCo[ɂ́AꎞfBNg
+ * LocalFileDrivergp܂B
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class InstrumentedSectorDriverTest
+    extends VfsTestCase
+{
+    /** ݒɊϑšĂяo */
+    private int _inFlightInWrite;
+
+    /** eXgΏۂSectorDriver */
+    private InstrumentedSectorDriver _driver;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors and Initializations.
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        Properties properties = new Properties();
+        properties.setProperty(
+                "org.sd_network.vfs.sector.LocalFileDriver.Directory",
+                createTempDirectory().getPath());
+        properties.setProperty(
+                "org.sd_network.vfs.sector.LocalFileDriver.AvailableBytes",
+                "1048576");
+        SectorDriver localDriver = new LocalFileDriver(properties) {
+            public OutputStream getOutputStream(String fileID,
+                    boolean append)
+                throws SectorException
+            {
+                return new FilterOutputStream(
+                        super.getOutputStream(fileID, append)) {
+                    public void write(byte[] b, int off, int len)
+                        throws IOException
+                    {
+                        _inFlightInWrite = _driver.getInFlightOperations();
+                        out.write(b, off, len);
+                    }
+                };
+            }
+        };
+        _driver = new InstrumentedSectorDriver(localDriver);
+        _driver.initDriver();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Test Cases.
+
+    /**
+     * ĂяoA}CNb̃rbgƂ̃oPbgɐ邱Ƃ
+     * eXg܂B
+     */
+    public void testHistogram() {
+        SectorOperationStats stats = new SectorOperationStats();
+        stats.record(0L);       // 0us
+        stats.record(999L);     // 0us
+        stats.record(1000L);    // 1us
+        stats.record(3999L);    // 3us
+        stats.record(4000L);    // 4us
+        stats.record(-1L);      // 0ƂċL^B
+        stats.record(Long.MAX_VALUE);
+
+        long[] histogram = stats.getHistogram();
+        assertEquals(40, histogram.length);
+        assertEquals(3L, histogram[0]);
+        assertEquals(1L, histogram[1]);
+        assertEquals(1L, histogram[2]);
+        assertEquals(1L, histogram[3]);
+        // Ō̃oPbg傫ĂяóAŌ̃oPbgɐB
+        assertEquals(1L, histogram[39]);
+        assertEquals(7L, stats.getCount());
+        assertEquals(Long.MAX_VALUE / 1000, stats.getMaxMicros());
+
+        // p[Z^ĆAYoPbg̏ԂB
+        assertEquals(1L, stats.getPercentileMicros(0.4));
+        assertEquals(2L, stats.getMedianMicros());
+        assertEquals(8L, stats.getPercentileMicros(0.8));
+        assertEquals(1L << 39, stats.get99thPercentileMicros());
+
+        stats.reset();
+        assertEquals(0L, stats.getCount());
+        assertEquals(0L, stats.getMaxMicros());
+        assertEquals(0L, stats.getMedianMicros());
+        assertEquals(0.0, stats.getMeanMicros(), 0.0);
+    }
+
+    /**
+     * Xg[ƃhCo[̌ĂяoA삲Ƃ̉񐔂ƃoCg
+     * L^邱ƂeXg܂B
+     */
+    public void testCounters()
+        throws Exception
+    {
+        byte[] data = newData(3000);
+
+        OutputStream os = _driver.getOutputStream("fileID1");
+        assertEquals(1, _driver.getOpenOutputStreams());
+        for (int off = 0; off < data.length; off += 1000)
+            os.write(data, off, 1000);
+        os.close();
+        os.close();
+        assertEquals(0, _driver.getOpenOutputStreams());
+        assertEquals(3L, _driver.getOperationStats("write").getCount());
+        assertEquals(3000L, _driver.getWrittenBytes());
+
+        InputStream is = _driver.getInputStream("fileID1");
+        assertEquals(1, _driver.getOpenInputStreams());
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        int count;
+        while ((count = is.read(buf, 0, buf.length)) != -1)
+            actual.write(buf, 0, count);
+        is.close();
+        assertEquals(0, _driver.getOpenInputStreams());
+        assertEquals(data, actual.toByteArray());
+        assertEquals(3000L, _driver.getReadBytes());
+        assertTrue(_driver.getOperationStats("read").getCount() >= 3);
+
+        assertEquals(3000L, _driver.getFileSize("fileID1"));
+        _driver.deleteSectors("fileID1");
+        assertEquals(2L, _driver.getOperationStats("open").getCount());
+        assertEquals(1L, _driver.getOperationStats("size").getCount());
+        assertEquals(1L, _driver.getOperationStats("delete").getCount());
+        assertNull(_driver.getOperationStats("unknown"));
+
+        _driver.resetStatistics();
+        assertEquals(0L, _driver.getReadBytes());
+        assertEquals(0L, _driver.getWrittenBytes());
+        assertEquals(0L, _driver.getOperationStats("write").getCount());
+    }
+
+    /**
+     * Xg[ւ̏ݒ̌ĂяoAšĂяoɐ
+     * ƂeXg܂B
+     */
+    public void testInFlightOperations()
+        throws Exception
+    {
+        OutputStream os = _driver.getOutputStream("fileID1");
+        assertEquals(0, _driver.getInFlightOperations());
+        os.write(new byte[100], 0, 100);
+        assertEquals(1, _inFlightInWrite);
+        assertEquals(0, _driver.getInFlightOperations());
+        os.close();
+        assertEquals(0, _driver.getInFlightOperations());
+    }
+
+    /**
+     * ObjectNameœʂȈӖ܂ޖOłAMBeano^
+     * ƂeXg܂B
+     */
+    public void testRegisterMBeans()
+        throws Exception
+    {
+        String name = "a,b=c:d";
+        String prefix = "org.sd_network.vfs:type=SectorDriver,name=" +
+            ObjectName.quote(name);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        _driver.registerMBeans(name);
+        try {
+            assertTrue(server.isRegistered(new ObjectName(prefix)));
+            assertTrue(server.isRegistered(
+                        new ObjectName(prefix + ",operation=write")));
+        } finally {
+            _driver.unregisterMBeans();
+        }
+        assertFalse(server.isRegistered(new ObjectName(prefix)));
+    }
+}
@@ -1,6 +1,6 @@
 /*
  * Copyright 2007 Masatoshi sato.
- * 
+ *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
  * You may obtain a copy of the License at
@@ -15,35 +15,139 @@
  */
 package org.sd_network.vfs.sector;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.sd_network.util.Config;
+
 /**
  * A reference implementation of {@link SectorDriver}.
  * This class implement SectorDriver used by Local file system.
  * The file name of each files is represented by <code>fileID</code>.
  * All of the limitation of this driver depend on the local file system.
  *
+ * <p> The files are stored under the root directory specified by property
+ * [org.sd_network.vfs.sector.LocalFileDriver.Directory], in two levels of
+ * sub directories named by the hash code of the <code>fileID</code>, such
+ * as <tt>root/3f/a0/fileID</tt>. So a directory holds at most 256 sub
+ * directories, and the files are spread over 65536 directories. The hash
+ * code of a String is fixed by its specification, so a file is found at
+ * the same place by any JVM.
+ *
+ * <p> All data is read and written through {@link FileChannel}. A file is
+ * read locked while any stream of the file is opened for reading, and
+ * write locked while a stream is opened for writing. The locks are
+ * released when the streams are closed.
+ *
+ * <p> Used bytes are counted by scanning the root directory in
+ * {@link #initDriver()}, and then kept up to date by each write and delete,
+ * so {@link #getUsedBytes()} does not access the file system. Available
+ * bytes are taken from the {@link FileStore} of the root directory: the
+ * used bytes plus the usable space left on it, at most its total space.
+ * Optional property
+ * [org.sd_network.vfs.sector.LocalFileDriver.AvailableBytes] caps the
+ * value further, so that the driver can be given a quota smaller than
+ * the file system.
+ *
+ * <p> The root directory must not be shared by multiple drivers.
+ *
  * <p> $Id$
  *
  * @author Masatoshi Sato
  */
 public class LocalFileDriver
-    implements SectorDriver
+    implements ListableSectorDriver
 {
     /** Logger. */
     private static final Logger _log = Logger.getLogger(
             LocalFileDriver.class.getName());
 
-    //////////////////////////////////////////////////////////// 
+    /** Maximum number of bytes transferred from a channel at a time. */
+    private static final long _TRANSFER_SIZE = 1048576;
+
+    /** Property name of root directory of the files. */
+    private static final String _PROP_DIRECTORY =
+        "org.sd_network.vfs.sector.LocalFileDriver.Directory";
+
+    /** Property name of available bytes. */
+    private static final String _PROP_AVAILABLEBYTES =
+        "org.sd_network.vfs.sector.LocalFileDriver.AvailableBytes";
+
+    /** Depth of the sub directories under the root directory. */
+    private static final int _DIRECTORY_DEPTH = 2;
+
+    ////////////////////////////////////////////////////////////
     // Private fields.
 
-    /** Read locked fileID collection. */
-    private Set<String> _readLockedSet = new HashSet<String>();
-    
+    /** Root directory of the files. */
+    private File _root;
+
+    /** File store of the root directory. */
+    private FileStore _fileStore;
+
+    /** Upper limit of available bytes, or Long.MAX_VALUE if not set. */
+    private long _availableBytesLimit = Long.MAX_VALUE;
+
+    /** Total bytes of the files. */
+    private final AtomicLong _usedBytes = new AtomicLong();
+
+    /** True after initDriver completed. */
+    private volatile boolean _initialized = false;
+
+    /** Properties that the driver is initialized by. */
+    private final Properties _properties;
+
+    /** Number of read locks by fileID. */
+    private final Map<String, Integer> _readLockCounts =
+        new HashMap<String, Integer>();
+
     /** Write locekd fileID collection. */
-    private Set<String> _writeLockedSet = new HashSet<String>();
+    private final Set<String> _writeLockedSet = new HashSet<String>();
 
-    //////////////////////////////////////////////////////////// 
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    /**
+     * Create a driver initialized by the global {@link Config}.
+     */
+    public LocalFileDriver() {
+        this(Config.getInstance());
+    }
+
+    /**
+     * Create a driver initialized by the specified properties instead of
+     * the global {@link Config}, so that drivers of the same class can
+     * have different properties.
+     */
+    public LocalFileDriver(Properties properties) {
+        if (properties == null)
+            throw new NullPointerException("properties");
+        _properties = properties;
+    }
+
+    ////////////////////////////////////////////////////////////
     // Implements SectorDriver.
-    
+
     public OutputStream getOutputStream(String fileID)
         throws SectorException
     {
@@ -53,81 +157,388 @@ public class LocalFileDriver
     public OutputStream getOutputStream(String fileID, boolean append)
         throws SectorException
     {
+        checkInitialized();
+        File file = getFile(fileID);
+        lockWrite(fileID);
         try {
-            OutputStream os = new FileOutputStream(fileID, append);
-            _writeLockedSet.add(fileID);
-            return os;
-        } catch (Exception e) {
+            long size = prepareWrite(file);
+            FileChannel channel =
+                new FileOutputStream(file, append).getChannel();
+            if (!append)
+                _usedBytes.addAndGet(-size);
+            return new LocalFileOutputStream(fileID, channel);
+        } catch (IOException e) {
+            unlockWrite(fileID);
             throw new SectorException(
                     "OutputStream could not create.", e);
         }
     }
 
+    public OutputStream getOutputStream(String fileID, long sizeHint)
+        throws SectorException
+    {
+        return getOutputStream(fileID, false);
+    }
+
     public InputStream getInputStream(String fileID)
         throws SectorException
     {
+        return getInputStream(fileID, 0);
+    }
+
+    public InputStream getInputStream(String fileID, long offset)
+        throws SectorException
+    {
+        if (offset < 0)
+            throw new SectorException("offset is negative.");
+
+        checkInitialized();
+        File file = getFile(fileID);
+        lockRead(fileID);
+        FileChannel channel = null;
         try {
-            InputStream is = new FileInputStream(fileID);
-            _readLockedSet.add(fileID);
-            return is;
-        } catch (Exception e) {
+            channel = new FileInputStream(file).getChannel();
+            channel.position(offset);
+            return new LocalFileInputStream(fileID, channel);
+        } catch (IOException e) {
+            close(channel);
+            unlockRead(fileID);
             throw new SectorException(
                     "InputStream could not create.", e);
         }
     }
 
-    public boolean isWriteLocked(String fileID) {
+    /**
+     * Write all data of the file to <tt>target</tt> by
+     * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so
+     * the operating system may copy the data without passing it through
+     * the JVM.
+     */
+    public long transferTo(String fileID, WritableByteChannel target)
+        throws SectorException
+    {
+        if (target == null)
+            throw new NullPointerException("target");
+
+        checkInitialized();
+        File file = getFile(fileID);
+        lockRead(fileID);
+        FileChannel channel = null;
+        try {
+            channel = new FileInputStream(file).getChannel();
+            long size = channel.size();
+            long count = 0;
+            while (count < size)
+                count += channel.transferTo(count, size - count, target);
+            return count;
+        } catch (IOException e) {
+            throw new SectorException("Data could not transfer.", e);
+        } finally {
+            close(channel);
+            unlockRead(fileID);
+        }
+    }
+
+    public long transferFrom(String fileID, ReadableByteChannel src)
+        throws SectorException
+    {
+        return transferFrom(fileID, src, false);
+    }
+
+    /**
+     * Write data read from <tt>src</tt> to the file by
+     * {@link FileChannel#transferFrom(ReadableByteChannel, long, long)}.
+     */
+    public long transferFrom(String fileID, ReadableByteChannel src,
+            boolean append)
+        throws SectorException
+    {
+        if (src == null)
+            throw new NullPointerException("src");
+
+        checkInitialized();
+        File file = getFile(fileID);
+        lockWrite(fileID);
+        FileChannel channel = null;
+        try {
+            long size = prepareWrite(file);
+            channel = new FileOutputStream(file, append).getChannel();
+            if (!append)
+                _usedBytes.addAndGet(-size);
+            long start = channel.position();
+            long position = start;
+            long count = 0;
+            while ((count = channel.transferFrom(
+                            src, position, _TRANSFER_SIZE)) > 0) {
+                position += count;
+                _usedBytes.addAndGet(count);
+            }
+            return position - start;
+        } catch (IOException e) {
+            throw new SectorException("Data could not transfer.", e);
+        } finally {
+            close(channel);
+            unlockWrite(fileID);
+        }
+    }
+
+    public synchronized boolean isWriteLocked(String fileID) {
         return _writeLockedSet.contains(fileID);
     }
 
-    public boolean isReadLocked(String fileID) {
-        return _readLockedSet.contains(fileID);
+    public synchronized boolean isReadLocked(String fileID) {
+        return _readLockCounts.containsKey(fileID);
     }
 
     public void deleteSectors(String fileID)
         throws SectorException
     {
+        checkInitialized();
+        File target = getFile(fileID);
+        lockWrite(fileID);
         try {
-            File target = new File(fileID);
-            if (target.exists())
-                target.delete();
-        } catch (Exception e) {
-            throw new SectorException(fileID + " could not delete.", e);
+            if (!target.exists())
+                return;
+            long size = target.length();
+            if (!target.delete())
+                throw new SectorException(fileID + " could not delete.");
+            _usedBytes.addAndGet(-size);
+        } finally {
+            unlockWrite(fileID);
         }
     }
 
-    public void initDriver() {
-        // do nothing.
+    /**
+     * Create the root directory if it does not exist, and count bytes of
+     * the files under it.
+     */
+    public synchronized void initDriver()
+        throws SectorException
+    {
+        if (_initialized)
+            return;
+
+        Properties config = _properties;
+        String directory = config.getProperty(_PROP_DIRECTORY);
+        if (directory == null)
+            throw new SectorException(
+                    "Property [" + _PROP_DIRECTORY + "] not found.");
+        _root = new File(directory);
+        if (!_root.isDirectory() && !_root.mkdirs())
+            throw new SectorException(
+                    "Could not create directory " + _root);
+
+        try {
+            _fileStore = Files.getFileStore(_root.toPath());
+        } catch (IOException e) {
+            throw new SectorException(
+                    "Could not access the file store of " + _root + ". " +
+                    e.getMessage(), e);
+        }
+
+        String limit = config.getProperty(_PROP_AVAILABLEBYTES);
+        if (limit != null) {
+            try {
+                _availableBytesLimit = Long.parseLong(limit);
+            } catch (NumberFormatException e) {
+                throw new SectorException(
+                        "Invalid property [" + _PROP_AVAILABLEBYTES + "]. " +
+                        e.getMessage(), e);
+            }
+        }
+
+        _usedBytes.set(getDirectorySize(_root, _DIRECTORY_DEPTH));
+        _initialized = true;
+        _log.log(Level.INFO, "LocalFileDriver initialized. root=" +
+                _root.getAbsolutePath() + ", used=" + _usedBytes.get());
     }
 
     public long getFileSize(String fileID)
         throws SectorException
     {
-        try {
-            File target = new File(fileID);
-            return target.length();
-        } catch (Exception e) {
-            throw new SectorExeption(e);
-        }
+        checkInitialized();
+        return getFile(fileID).length();
     }
 
+    /**
+     * Return used bytes plus the usable space of the file store of the
+     * root directory, at most the total space of the file store and the
+     * value of property
+     * [org.sd_network.vfs.sector.LocalFileDriver.AvailableBytes] if set.
+     */
     public long getAvailableBytes()
         throws SectorException
     {
+        checkInitialized();
+        long bytes;
+        try {
+            bytes = Math.min(_fileStore.getTotalSpace(),
+                    _usedBytes.get() + _fileStore.getUsableSpace());
+        } catch (IOException e) {
+            throw new SectorException(
+                    "Could not access the file store of " + _root + ". " +
+                    e.getMessage(), e);
+        }
+        return Math.min(bytes, _availableBytesLimit);
     }
 
+    /**
+     * Return total bytes of the files. This value is kept in memory and
+     * the file system is not accessed.
+     */
     public long getUsedBytes()
         throws SectorException
     {
+        checkInitialized();
+        return _usedBytes.get();
     }
 
-    //////////////////////////////////////////////////////////// 
+    ////////////////////////////////////////////////////////////
+    // Implements ListableSectorDriver.
+
+    /**
+     * Return names of the files under the sub directories of the root
+     * directory.
+     */
+    public List<String> getFileIDs()
+        throws SectorException
+    {
+        checkInitialized();
+        List<String> fileIDs = new ArrayList<String>();
+        addFileIDs(_root, _DIRECTORY_DEPTH, fileIDs);
+        return fileIDs;
+    }
+
+    ////////////////////////////////////////////////////////////
     // private methods.
 
+    /**
+     * Return the local file of the specified fileID.
+     */
+    private File getFile(String fileID) {
+        if (fileID == null)
+            throw new NullPointerException("fileID");
+
+        int hash = fileID.hashCode();
+        File dir = _root;
+        for (int depth = 0; depth < _DIRECTORY_DEPTH; depth++) {
+            dir = new File(dir, toHex(hash));
+            hash >>>= 8;
+        }
+        return new File(dir, fileID);
+    }
+
+    /**
+     * Return the specified lowest byte as 2 hex digits.
+     */
+    private static String toHex(int value) {
+        return Integer.toHexString(0x100 | (value & 0xff)).substring(1);
+    }
+
+    /**
+     * Create the directory of the file if it does not exist, and return
+     * current size of the file.
+     */
+    private static long prepareWrite(File file)
+        throws IOException
+    {
+        File dir = file.getParentFile();
+        // mkdirs returns false if other thread created it at the same time.
+        if (!dir.mkdirs() && !dir.isDirectory())
+            throw new IOException("Could not create directory " + dir);
+        return file.length();
+    }
+
+    /**
+     * Return total bytes of the files in the specified directory, and in
+     * the sub directories of the specified depth.
+     */
+    private static long getDirectorySize(File dir, int depth) {
+        File[] children = dir.listFiles();
+        if (children == null)
+            return 0;
+
+        long size = 0;
+        for (int idx = 0; idx < children.length; idx++) {
+            if (depth > 0 && children[idx].isDirectory())
+                size += getDirectorySize(children[idx], depth - 1);
+            else if (depth == 0 && children[idx].isFile())
+                size += children[idx].length();
+        }
+        return size;
+    }
+
+    /**
+     * Add names of the files at the specified depth under the directory
+     * to the list.
+     */
+    private static void addFileIDs(File dir, int depth,
+            List<String> fileIDs)
+    {
+        File[] children = dir.listFiles();
+        if (children == null)
+            return;
+
+        for (int idx = 0; idx < children.length; idx++) {
+            if (depth > 0 && children[idx].isDirectory())
+                addFileIDs(children[idx], depth - 1, fileIDs);
+            else if (depth == 0 && children[idx].isFile())
+                fileIDs.add(children[idx].getName());
+        }
+    }
+
+    private static void close(FileChannel channel) {
+        try {
+            if (channel != null)
+                channel.close();
+        } catch (IOException e) {
+            _log.log(Level.WARNING, "Could not close channel.", e);
+        }
+    }
+
+    private void checkInitialized()
+        throws SectorException
+    {
+        if (!_initialized)
+            throw new SectorException("SectorDriver not initialized.");
+    }
+
+    private synchronized void lockRead(String fileID)
+        throws SectorException
+    {
+        checkWriteLocked(fileID);
+        Integer count = _readLockCounts.get(fileID);
+        _readLockCounts.put(fileID,
+                Integer.valueOf((count == null) ? 1 : count.intValue() + 1));
+    }
+
+    private synchronized void unlockRead(String fileID) {
+        Integer count = _readLockCounts.get(fileID);
+        if (count == null)
+            return;
+        if (count.intValue() > 1)
+            _readLockCounts.put(fileID,
+                    Integer.valueOf(count.intValue() - 1));
+        else
+            _readLockCounts.remove(fileID);
+    }
+
+    private synchronized void lockWrite(String fileID)
+        throws SectorException
+    {
+        checkReadLocked(fileID);
+        checkWriteLocked(fileID);
+        _writeLockedSet.add(fileID);
+    }
+
+    private synchronized void unlockWrite(String fileID) {
+        _writeLockedSet.remove(fileID);
+    }
+
     private void checkReadLocked(String fileID)
         throws SectorException
     {
-        if (_readLockedSet.contains(fileID))
+        if (_readLockCounts.containsKey(fileID))
             throw new SectorException(
                     "Specified file have been read locked.");
     }
@@ -139,4 +550,118 @@ public class LocalFileDriver
             throw new SectorException(
                     "Specified file have been write locked.");
     }
+
+    ////////////////////////////////////////////////////////////
+    // Inner classes.
+
+    /**
+     * InputStream that reads a file through its channel, and releases the
+     * read lock of the file when closed.
+     */
+    private class LocalFileInputStream
+        extends InputStream
+    {
+        private final String _fileID;
+        private final FileChannel _channel;
+        private boolean _closed = false;
+
+        LocalFileInputStream(String fileID, FileChannel channel) {
+            _fileID = fileID;
+            _channel = channel;
+        }
+
+        public int read()
+            throws IOException
+        {
+            byte[] b = new byte[1];
+            int count = read(b, 0, 1);
+            return (count == -1) ? -1 : (b[0] & 0xff);
+        }
+
+        public int read(byte[] b, int off, int len)
+            throws IOException
+        {
+            if (len == 0)
+                return 0;
+            return _channel.read(ByteBuffer.wrap(b, off, len));
+        }
+
+        public long skip(long n)
+            throws IOException
+        {
+            if (n <= 0)
+                return 0;
+            long position = _channel.position();
+            long skipped =
+                Math.min(n, Math.max(0, _channel.size() - position));
+            _channel.position(position + skipped);
+            return skipped;
+        }
+
+        public int available()
+            throws IOException
+        {
+            long remaining = _channel.size() - _channel.position();
+            return (int) Math.max(0, Math.min(Integer.MAX_VALUE, remaining));
+        }
+
+        public synchronized void close()
+            throws IOException
+        {
+            if (_closed)
+                return;
+            _closed = true;
+            try {
+                _channel.close();
+            } finally {
+                unlockRead(_fileID);
+            }
+        }
+    }
+
+    /**
+     * OutputStream that writes a file through its channel, counts the
+     * written bytes as used bytes, and releases the write lock of the file
+     * when closed.
+     */
+    private class LocalFileOutputStream
+        extends OutputStream
+    {
+        private final String _fileID;
+        private final FileChannel _channel;
+        private boolean _closed = false;
+
+        LocalFileOutputStream(String fileID, FileChannel channel) {
+            _fileID = fileID;
+            _channel = channel;
+        }
+
+        public void write(int b)
+            throws IOException
+        {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len)
+            throws IOException
+        {
+            ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+            while (buf.hasRemaining())
+                _channel.write(buf);
+            _usedBytes.addAndGet(len);
+        }
+
+        public synchronized void close()
+            throws IOException
+        {
+            if (_closed)
+                return;
+            _closed = true;
+            try {
+                _channel.close();
+            } finally {
+                unlockWrite(_fileID);
+            }
+        }
+    }
 }
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs.sector;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.sd_network.vfs.VfsTestCase;
+
+/**
+ * LocalFileDriver̒P̃eXgP[X`܂B
+ * t@C͈ꎞfBNgɕۑ܂B
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class LocalFileDriverTest
+    extends VfsTestCase
+{
+    /** t@C̃[gfBNg */
+    private File _root;
+
+    /** hCo[̐ݒ */
+    private Properties _properties;
+
+    /** eXgΏۂSectorDriver */
+    private LocalFileDriver _driver;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors and Initializations.
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        _root = createTempDirectory();
+        _properties = new Properties();
+        _properties.setProperty(
+                "org.sd_network.vfs.sector.LocalFileDriver.Directory",
+                _root.getPath());
+        _properties.setProperty(
+                "org.sd_network.vfs.sector.LocalFileDriver.AvailableBytes",
+                "1048576");
+        _driver = new LocalFileDriver(_properties);
+        _driver.initDriver();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Test Cases.
+
+    /**
+     * ݁AǋLAǂݍ݁A폜eXg܂B
+     */
+    public void testWriteAndRead()
+        throws Exception
+    {
+        byte[] data = newData(3000);
+        write("fileID1", data, 0, 2000, false);
+        write("fileID1", data, 2000, 1000, true);
+        assertEquals(3000L, _driver.getFileSize("fileID1"));
+        assertEquals(data, read("fileID1", 0L));
+
+        // rǂݍށB
+        byte[] expected = new byte[1000];
+        System.arraycopy(data, 2000, expected, 0, 1000);
+        assertEquals(expected, read("fileID1", 2000L));
+
+        // t@C2Kw̃TufBNgɕۑB
+        File file = new File(_root, toHex("fileID1".hashCode()) +
+                File.separator + toHex("fileID1".hashCode() >>> 8) +
+                File.separator + "fileID1");
+        assertTrue(file.isFile());
+        assertEquals(Collections.singletonList("fileID1"),
+                _driver.getFileIDs());
+
+        // ǋLł͂Ȃ݂́Ãf[^uB
+        write("fileID1", data, 0, 100, false);
+        assertEquals(100L, _driver.getFileSize("fileID1"));
+
+        _driver.deleteSectors("fileID1");
+        assertFalse(file.exists());
+        assertTrue(_driver.getFileIDs().isEmpty());
+        assertEquals(0L, _driver.getFileSize("fileID1"));
+        _driver.deleteSectors("fileID1");
+
+        // ݂Ȃt@C͓ǂݍ߂ȂB
+        try {
+            _driver.getInputStream("fileID1");
+            fail("SectorException was not thrown.");
+        } catch (SectorException e) {
+        }
+        assertFalse(_driver.isReadLocked("fileID1"));
+    }
+
+    /**
+     * Xg[ƁAt@C̃bN邱ƂeXg܂B
+     */
+    public void testLockReleasedOnClose()
+        throws Exception
+    {
+        OutputStream os = _driver.getOutputStream("fileID1");
+        assertTrue(_driver.isWriteLocked("fileID1"));
+        try {
+            _driver.getInputStream("fileID1");
+            fail("SectorException was not thrown.");
+        } catch (SectorException e) {
+        }
+        try {
+            _driver.getOutputStream("fileID1", true);
+            fail("SectorException was not thrown.");
+        } catch (SectorException e) {
+        }
+        os.write(newData(100));
+        os.close();
+        os.close();
+        assertFalse(_driver.isWriteLocked("fileID1"));
+
+        InputStream is1 = _driver.getInputStream("fileID1");
+        InputStream is2 = _driver.getInputStream("fileID1", 50L);
+        assertTrue(_driver.isReadLocked("fileID1"));
+        try {
+            _driver.deleteSectors("fileID1");
+            fail("SectorException was not thrown.");
+        } catch (SectorException e) {
+        }
+        is1.close();
+        is1.close();
+        assertTrue(_driver.isReadLocked("fileID1"));
+        is2.close();
+        assertFalse(_driver.isReadLocked("fileID1"));
+
+        _driver.getOutputStream("fileID1", true).close();
+        assertFalse(_driver.isWriteLocked("fileID1"));
+        assertEquals(100L, _driver.getFileSize("fileID1"));
+    }
+
+    /**
+     * gpoCgA݂ƍ폜ƂɍXVAɃfBNg
+     * 琔邱ƂeXg܂B
+     */
+    public void testUsedBytes()
+        throws Exception
+    {
+        assertEquals(0L, _driver.getUsedBytes());
+
+        byte[] data = newData(1000);
+        write("fileID1", data, 0, 1000, false);
+        assertEquals(1000L, _driver.getUsedBytes());
+        write("fileID1", data, 0, 500, true);
+        assertEquals(1500L, _driver.getUsedBytes());
+        write("fileID1", data, 0, 200, false);
+        assertEquals(200L, _driver.getUsedBytes());
+
+        assertEquals(300L, _driver.transferFrom("fileID2", Channels.newChannel(
+                        new ByteArrayInputStream(data, 0, 300))));
+        assertEquals(500L, _driver.getUsedBytes());
+        _driver.transferFrom("fileID2", Channels.newChannel(
+                    new ByteArrayInputStream(data, 0, 100)), true);
+        assertEquals(600L, _driver.getUsedBytes());
+
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        assertEquals(400L,
+                _driver.transferTo("fileID2", Channels.newChannel(target)));
+        assertEquals(400, target.size());
+        assertFalse(_driver.isReadLocked("fileID2"));
+
+        LocalFileDriver driver = new LocalFileDriver(_properties);
+        driver.initDriver();
+        assertEquals(600L, driver.getUsedBytes());
+
+        _driver.deleteSectors("fileID1");
+        assertEquals(400L, _driver.getUsedBytes());
+        _driver.deleteSectors("fileID2");
+        assertEquals(0L, _driver.getUsedBytes());
+    }
+
+    /**
+     * p\oCgt@CXgA狁߂AvpeB
+     * [org.sd_network.vfs.sector.LocalFileDriver.AvailableBytes]
+     * ɂȂ邱ƂeXg܂B
+     */
+    public void testAvailableBytes()
+        throws Exception
+    {
+        // vpeBɂȂB
+        assertEquals(1048576L, _driver.getAvailableBytes());
+
+        // vpeBw肵Ȃ΁At@CXgA̗eʈȉɂȂB
+        Properties properties = new Properties();
+        properties.setProperty(
+                "org.sd_network.vfs.sector.LocalFileDriver.Directory",
+                _root.getPath());
+        LocalFileDriver driver = new LocalFileDriver(properties);
+        driver.initDriver();
+        FileStore store = Files.getFileStore(_root.toPath());
+        long available = driver.getAvailableBytes();
+        assertTrue(available > 0L);
+        assertTrue(available <= store.getTotalSpace());
+
+        // sȃvpeB͏ɗOɂȂB
+        properties.setProperty(
+                "org.sd_network.vfs.sector.LocalFileDriver.AvailableBytes",
+                "invalid");
+        try {
+            new LocalFileDriver(properties).initDriver();
+            fail("SectorException was not thrown.");
+        } catch (SectorException e) {
+        }
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    private void write(String fileID, byte[] data, int off, int len,
+            boolean append)
+        throws SectorException, IOException
+    {
+        OutputStream os = _driver.getOutputStream(fileID, append);
+        try {
+            os.write(data, off, len);
+        } finally {
+            os.close();
+        }
+    }
+
+    private byte[] read(String fileID, long offset)
+        throws SectorException, IOException
+    {
+        InputStream is = _driver.getInputStream(fileID, offset);
+        try {
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            byte[] buf = new byte[700];
+            int count;
+            while ((count = is.read(buf, 0, buf.length)) != -1)
+                actual.write(buf, 0, count);
+            return actual.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    private static String toHex(int value) {
+        return Integer.toHexString(0x100 | (value & 0xff)).substring(1);
+    }
+}
@@ -17,6 +17,8 @@ package org.sd_network.vfs.sector;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * The interface that a sector driver must implement.
@@ -75,6 +77,34 @@ public interface SectorDriver
     public OutputStream getOutputStream(String fileID, boolean append)
         throws SectorException;
 
+    /**
+     * Return instance of implement class of OutputStream for a new file
+     * that is expected to be <tt>sizeHint</tt> bytes.
+     * The driver may use the hint to lay out the file, for example, to
+     * choose size of the sectors. The hint is not a limit; the file may be
+     * written more or less bytes than the hint.
+     *
+     * <p> The sector is to be write lock mode.
+     * When call {@link OutputStream#close()} method, write lock mode
+     * is released.
+     *
+     * @param fileID    file ID that is related some sector.
+     * @param sizeHint  expected number of bytes of the file, or -1 if
+     *                  unknown.
+     *
+     * @return  The instance of implement class of OutputStream.
+     *
+     * @throws  SectorException
+     *          Throws if status of sector specified by fileID was 
+     *          following.
+     *          <ul>
+     *              <li> sector is already write locked by other thread.
+     *              <li> any other error occurred.
+     *          </ul>
+     */
+    public OutputStream getOutputStream(String fileID, long sizeHint)
+        throws SectorException;
+
     /**
      * Return instance of implement class of InputStream.
      *
@@ -93,6 +123,97 @@ public interface SectorDriver
     public InputStream getInputStream(String fileID)
         throws SectorException;
 
+    /**
+     * Return instance of implement class of InputStream that starts reading
+     * at <tt>offset</tt> of the file. A driver should move to the offset
+     * without reading the preceding data where the storage allows it.
+     * If <tt>offset</tt> is at or beyond the end of the file, the stream
+     * returns end of stream at first read.
+     *
+     * <p> The all sectors related to fileID is to be read lock mode.
+     * When call {@link InputStream#close()} method, read lock mode
+     * is released.
+     *
+     * @param fileID    file ID that is related some sector.
+     * @param offset    number of bytes from the beginning of the file.
+     *
+     * @return  The instance of implement class of InputStream.
+     *
+     * @throws  SectorException
+     *          Throws if sector information specified by fileID was 
+     *          not found, offset is negative, or any other error occurred.
+     */
+    public InputStream getInputStream(String fileID, long offset)
+        throws SectorException;
+
+    /**
+     * Write all data of the file that is specified by fileID to
+     * <tt>target</tt>. A driver should write the data to the channel
+     * directly from its storage, without copying it through intermediate
+     * buffers, where the storage allows it. The channel is expected to be
+     * in blocking mode, and it is not closed by this method.
+     *
+     * <p> The file is read locked while the data is transferred, as while
+     * an InputStream of {@link #getInputStream(String)} is open.
+     *
+     * @param fileID    file ID that is related some sector.
+     * @param target    the channel that the data is written to.
+     *
+     * @return  number of bytes transferred.
+     *
+     * @throws  SectorException
+     *          Throws if the file was write locked, the channel could not
+     *          be written, or any other error occurred.
+     */
+    public long transferTo(String fileID, WritableByteChannel target)
+        throws SectorException;
+
+    /**
+     * Write data read from <tt>src</tt> until end of stream to the file
+     * that is specified by fileID, as a new file. This is the same as
+     * <tt>transferFrom(fileID, src, false)</tt>.
+     *
+     * @param fileID    file ID that is related some sector.
+     * @param src       the channel that the data is read from.
+     *
+     * @return  number of bytes transferred.
+     *
+     * @throws  SectorException
+     *          Throws if the file was already locked, the channel could
+     *          not be read, or any other error occurred.
+     */
+    public long transferFrom(String fileID, ReadableByteChannel src)
+        throws SectorException;
+
+    /**
+     * Write data read from <tt>src</tt> until end of stream to the file
+     * that is specified by fileID. A driver should read the data from the
+     * channel directly into its storage or its sector buffer, where the
+     * storage allows it. The data is written as by an OutputStream of
+     * {@link #getOutputStream(String, boolean)}, and the file is write
+     * locked while the data is transferred. The channel is expected to be
+     * in blocking mode, and it is not closed by this method.
+     *
+     * <p> The transfer is not atomic. If it fails, the data read from the
+     * channel before the failure is left written to the file, as if an
+     * OutputStream were closed at that point, and the caller finds how
+     * much by {@link #getFileSize(String)}.
+     *
+     * @param fileID    file ID that is related some sector.
+     * @param src       the channel that the data is read from.
+     * @param append    If you want to write data as append mode,
+     *                  you specify "true".
+     *
+     * @return  number of bytes transferred.
+     *
+     * @throws  SectorException
+     *          Throws if the file was already locked, the channel could
+     *          not be read, or any other error occurred.
+     */
+    public long transferFrom(String fileID, ReadableByteChannel src,
+            boolean append)
+        throws SectorException;
+
     /**
      * If sector that is specified file ID is already write locked,
      * return true, otherwise, return false.
@@ -140,8 +261,12 @@ public interface SectorDriver
      * Initialisation of a SectorDriver.
      * If you need initialisation process of your sector driver class,
      * you have to implement this method.
+     *
+     * @throws  SectorException
+     *          Throws if initialization of this driver failed.
      */
-    public void initDriver();
+    public void initDriver()
+        throws SectorException;
 
     /**
      * Return file size that is specified by fileID.
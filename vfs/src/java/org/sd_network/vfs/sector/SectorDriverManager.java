@@ -15,10 +15,18 @@
  */
 package org.sd_network.vfs.sector;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.sd_network.util.Config;
+import org.sd_network.vfs.db.SectorRefDB;
 
 /**
  * The service class for managing a set of SectorDrivers.
@@ -40,9 +48,44 @@ public class SectorDriverManager
     private static final String _INSTANTIATION_ERROR =
         "SectorDriver could not create instance. ";
 
+    /** Prefix of property names of each named driver. */
+    private static final String _PROP_DRIVER_PREFIX =
+        "org.sd_network.vfs.SectorDriver.";
+
+    /** Property name of flag to rebalance named drivers on startup. */
+    private static final String _PROP_REBALANCE =
+        "org.sd_network.vfs.SectorDriverRebalance";
+
+    /** Property name of maximum bytes per second moved by rebalancing. */
+    private static final String _PROP_REBALANCEBYTESPERSECOND =
+        "org.sd_network.vfs.SectorDriverRebalanceBytesPerSecond";
+
+    /** Property name of flag to instrument the drivers. */
+    private static final String _PROP_INSTRUMENTATION =
+        "org.sd_network.vfs.SectorDriverInstrumentation";
+
+    /**
+     * Class names of the drivers that keep their settings in static state,
+     * so that only one named driver can be of each of them. Instances of
+     * VfsSectorDriver share the connection pool and the shards of
+     * SectorDB, so files moved between them would be lost.
+     */
+    private static final List<String> _SINGLETON_DRIVER_CLASSES =
+        Arrays.asList(new String[] {
+            "org.sd_network.vfssector.VfsSectorDriver"});
+
+    /** Name of the driver registered by setSectorDriver, used for MBeans. */
+    private static final String _DEFAULT_DRIVER_NAME = "default";
+
+    /** Milliseconds to wait before retrying skipped files. */
+    private static final long _REBALANCE_RETRY_MILLIS = 60000;
+
     /** The instance of SectorDriver. */
     private static SectorDriver _driver;
 
+    /** The thread running rebalancing, or null. */
+    private static Thread _rebalanceThread;
+
     //////////////////////////////////////////////////////////// 
     // Public methods.
 
@@ -60,6 +103,10 @@ public class SectorDriverManager
      * driverClassName.
      * The class must be implemented {@link SectorDriver}.
      *
+     * <p> If property [org.sd_network.vfs.SectorDriverInstrumentation] is
+     * "true", the driver is instrumented by name "default". See
+     * {@link InstrumentedSectorDriver}.
+     *
      * @param driverClassName   The class name that is implemented
      *                          {@link SectorDriver}.
      *
@@ -80,7 +127,7 @@ public class SectorDriverManager
                     "Restore [" + driverClassName + "].");
 
         try {
-            Class driverClass = Class.forName(driverClassName); 
+            Class<?> driverClass = Class.forName(driverClassName); 
             if (!SectorDriver.class.isAssignableFrom(driverClass)) {
                 throw new IllegalStateException(
                         _INSTANTIATION_ERROR + 
@@ -88,11 +135,294 @@ public class SectorDriverManager
                         "implement org.sd_network.vfs.sector.SectorDriver " +
                         "interface.");
             }
-            _driver = (SectorDriver) driverClass.newInstance();
-            _driver.initDriver();
+            SectorDriver driver = (SectorDriver)
+                driverClass.getDeclaredConstructor().newInstance();
+            driver.initDriver();
+            if (_driver instanceof InstrumentedSectorDriver)
+                ((InstrumentedSectorDriver) _driver).unregisterMBeans();
+            _driver = instrument(_DEFAULT_DRIVER_NAME, driver);
         } catch (Exception e) {
             _log.log(Level.SEVERE, _INSTANTIATION_ERROR, e);
             throw new IllegalStateException(_INSTANTIATION_ERROR);
         }
     }
+
+    /**
+     * Register named SectorDrivers, and place files on them by consistent
+     * hashing of fileID. See {@link DistributedSectorDriver}.
+     *
+     * <p> Each driver is specified by following properties, where
+     * <tt>name</tt> is a name in <tt>driverNames</tt>.
+     * <ul>
+     *  <li> org.sd_network.vfs.SectorDriver.<i>name</i>.Class
+     *       - class name of the driver. (required)
+     *  <li> org.sd_network.vfs.SectorDriver.<i>name</i>.Weight
+     *       - weight of the driver. (default : 1)
+     *  <li> org.sd_network.vfs.SectorDriver.<i>name</i>.Property.<i>key</i>
+     *       - value of property <i>key</i> of the driver, such as the root
+     *       directory of the driver.
+     * </ul>
+     *
+     * <p> The properties of a driver are the global properties overridden
+     * by its own ones, and are given to the constructor of the driver
+     * that takes {@link Properties}. A driver class without the
+     * constructor can not have its own properties.
+     *
+     * <p> If property [org.sd_network.vfs.SectorDriverInstrumentation] is
+     * "true", each driver is instrumented by the name. See
+     * {@link InstrumentedSectorDriver}.
+     *
+     * <p> If property [org.sd_network.vfs.SectorDriverRebalance] is
+     * "true", files that are not on their own drivers, because drivers
+     * were added since the last run, are moved in background.
+     *
+     * <p> Drivers that keep their settings in static state, such as
+     * VfsSectorDriver, can be used for only one name, since their
+     * instances would share one storage.
+     *
+     * @param driverNames   comma separated names of the drivers.
+     *
+     * @throws  SectorException
+     *          Throws if a driver could not be created or initialized, or
+     *          if more than one name is of a driver class that keeps its
+     *          settings in static state.
+     */
+    public static synchronized void setSectorDrivers(String driverNames)
+        throws SectorException
+    {
+        if (driverNames == null || driverNames.trim().length() == 0)
+            throw new IllegalArgumentException(
+                    _INSTANTIATION_ERROR +
+                    "You must specify names of SectorDrivers.");
+
+        String[] names = driverNames.split(",");
+        for (int idx = 0; idx < names.length; idx++)
+            names[idx] = names[idx].trim();
+        checkSingletonDrivers(Arrays.asList(names));
+
+        Map<String, SectorDriver> drivers =
+            new LinkedHashMap<String, SectorDriver>();
+        Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+        for (int idx = 0; idx < names.length; idx++) {
+            String name = names[idx].trim();
+            drivers.put(name, newNamedDriver(name));
+            weights.put(name, Integer.valueOf(getWeight(name)));
+        }
+
+        boolean rebalance = Boolean.valueOf(Config.getInstance().getProperty(
+                    _PROP_REBALANCE, "false")).booleanValue();
+        _driver = new DistributedSectorDriver(drivers, weights, !rebalance);
+        if (rebalance)
+            startRebalance();
+    }
+
+    /**
+     * Add a named SectorDriver specified by properties as
+     * {@link #setSectorDrivers(String)}, and move the files that belong
+     * to the new driver in background. The moving rate is limited by
+     * property [org.sd_network.vfs.SectorDriverRebalanceBytesPerSecond].
+     *
+     * <p> The name must also be added to the property of the names of
+     * drivers, to place files on the same drivers after restart.
+     *
+     * @param name  name of the driver.
+     *
+     * @throws  SectorException
+     *          Throws if the driver could not be created or initialized,
+     *          or if it is of a driver class that keeps its settings in
+     *          static state and a registered driver is of the same class.
+     *
+     * @throws  IllegalStateException
+     *          Throws if named drivers are not registered.
+     */
+    public static synchronized void addSectorDriver(String name)
+        throws SectorException
+    {
+        if (!(_driver instanceof DistributedSectorDriver))
+            throw new IllegalStateException(
+                    "Named SectorDrivers are not registered.");
+
+        DistributedSectorDriver distributed =
+            (DistributedSectorDriver) _driver;
+        List<String> names = new ArrayList<String>(
+                Arrays.asList(distributed.getDriverNames()));
+        names.add(name);
+        checkSingletonDrivers(names);
+        distributed.addDriver(name, newNamedDriver(name), getWeight(name));
+        startRebalance();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    /**
+     * Create and initialize the named driver. The global properties are
+     * not changed; the driver gets its own properties over them.
+     */
+    private static SectorDriver newNamedDriver(String name)
+        throws SectorException
+    {
+        Config config = Config.getInstance();
+        String prefix = _PROP_DRIVER_PREFIX + name + ".";
+        String className = config.getProperty(prefix + "Class");
+        if (className == null)
+            throw new SectorException(
+                    "Property [" + prefix + "Class] not found.");
+
+        // collect properties of the driver.
+        String propertyPrefix = prefix + "Property.";
+        Properties properties = new Properties(config);
+        for (Enumeration<?> e = config.propertyNames();
+                e.hasMoreElements();) {
+            String key = (String) e.nextElement();
+            if (key.startsWith(propertyPrefix))
+                properties.setProperty(
+                        key.substring(propertyPrefix.length()),
+                        config.getProperty(key));
+        }
+
+        try {
+            Class<?> driverClass = Class.forName(className);
+            if (!SectorDriver.class.isAssignableFrom(driverClass))
+                throw new SectorException(
+                        _INSTANTIATION_ERROR + "The class [" + className +
+                        "] does not implement " +
+                        "org.sd_network.vfs.sector.SectorDriver interface.");
+            SectorDriver driver;
+            try {
+                driver = (SectorDriver) driverClass.getDeclaredConstructor(
+                        Properties.class).newInstance(properties);
+            } catch (NoSuchMethodException e) {
+                if (!properties.isEmpty())
+                    throw new SectorException(
+                            _INSTANTIATION_ERROR + "The class [" +
+                            className + "] can not have properties of " +
+                            "driver [" + name + "].");
+                driver = (SectorDriver)
+                    driverClass.getDeclaredConstructor().newInstance();
+            }
+            driver.initDriver();
+            _log.log(Level.INFO, "SectorDriver [" + name + "] " +
+                    className + " registered.");
+            return instrument(name, driver);
+        } catch (SectorException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SectorException(_INSTANTIATION_ERROR + name, e);
+        }
+    }
+
+    /**
+     * Return the driver instrumented and registered as MBeans by the
+     * name, if property [org.sd_network.vfs.SectorDriverInstrumentation]
+     * is "true". Otherwise return the driver as it is.
+     */
+    private static SectorDriver instrument(String name, SectorDriver driver)
+        throws SectorException
+    {
+        boolean instrumentation = Boolean.valueOf(
+                Config.getInstance().getProperty(
+                    _PROP_INSTRUMENTATION, "false")).booleanValue();
+        if (!instrumentation)
+            return driver;
+
+        InstrumentedSectorDriver instrumented =
+            new InstrumentedSectorDriver(driver);
+        instrumented.registerMBeans(name);
+        _log.log(Level.INFO, "SectorDriver [" + name + "] instrumented.");
+        return instrumented;
+    }
+
+    /**
+     * Throw if more than one of the named drivers is of the same class
+     * that keeps its settings in static state.
+     */
+    private static void checkSingletonDrivers(List<String> names)
+        throws SectorException
+    {
+        Config config = Config.getInstance();
+        Map<String, String> namesByClass = new LinkedHashMap<String, String>();
+        for (String name : names) {
+            String className = config.getProperty(
+                    _PROP_DRIVER_PREFIX + name + ".Class");
+            if (className == null ||
+                    !_SINGLETON_DRIVER_CLASSES.contains(className.trim()))
+                continue;
+            String other = namesByClass.put(className.trim(), name);
+            if (other != null)
+                throw new SectorException(
+                        _INSTANTIATION_ERROR + "SectorDriver [" + other +
+                        "] and [" + name + "] are both " + className +
+                        ", which keeps its settings in static state and " +
+                        "can be used for only one name.");
+        }
+    }
+
+    private static int getWeight(String name)
+        throws SectorException
+    {
+        String key = _PROP_DRIVER_PREFIX + name + ".Weight";
+        try {
+            int weight = Integer.parseInt(
+                    Config.getInstance().getProperty(key, "1"));
+            if (weight <= 0)
+                throw new SectorException(
+                        "Property [" + key + "] must be positive.");
+            return weight;
+        } catch (NumberFormatException e) {
+            throw new SectorException(
+                    "Invalid property [" + key + "]. " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Start the thread that moves files to their own drivers, unless it is
+     * already running. The thread retries files that were skipped until
+     * all files are moved.
+     */
+    private static void startRebalance()
+        throws SectorException
+    {
+        if (_rebalanceThread != null && _rebalanceThread.isAlive())
+            return;
+
+        final long bytesPerSecond;
+        try {
+            bytesPerSecond = Long.parseLong(Config.getInstance().getProperty(
+                        _PROP_REBALANCEBYTESPERSECOND, "8388608"));
+        } catch (NumberFormatException e) {
+            throw new SectorException(
+                    "Invalid property [" + _PROP_REBALANCEBYTESPERSECOND +
+                    "]. " + e.getMessage(), e);
+        }
+
+        final DistributedSectorDriver driver =
+            (DistributedSectorDriver) _driver;
+        _rebalanceThread = new Thread("vfs-sector-rebalance") {
+            public void run() {
+                try {
+                    while (true) {
+                        try {
+                            if (driver.rebalance(
+                                        SectorRefDB.getSectorIDList()
+                                            .iterator(),
+                                        bytesPerSecond))
+                                break;
+                        } catch (RuntimeException e) {
+                            _log.log(Level.WARNING,
+                                    "Rebalancing failed.", e);
+                        }
+                        Thread.sleep(_REBALANCE_RETRY_MILLIS);
+                    }
+                    _log.log(Level.INFO, "Rebalancing completed. moved " +
+                            driver.getMovedFileCount() + " files, " +
+                            driver.getMovedBytes() + " bytes.");
+                } catch (InterruptedException e) {
+                    _log.log(Level.WARNING, "Rebalancing interrupted.");
+                }
+            }
+        };
+        _rebalanceThread.setDaemon(true);
+        _rebalanceThread.start();
+    }
 }
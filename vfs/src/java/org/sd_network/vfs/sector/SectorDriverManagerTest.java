@@ -0,0 +1,107 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs.sector;
+
+import org.sd_network.util.Config;
+import org.sd_network.vfs.VfsTestCase;
+
+/**
+ * SectorDriverManager̖OthCo[̓o^̒P̃eXgP[X
+ * `܂B
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class SectorDriverManagerTest
+    extends VfsTestCase
+{
+    /** ݒÓIȏԂɎhCo[̃NX */
+    private static final String _VFS_SECTOR_DRIVER =
+        "org.sd_network.vfssector.VfsSectorDriver";
+
+    /** eXgŐݒ肵vpeB */
+    private static final String[] _PROPERTIES = new String[] {
+        "org.sd_network.vfs.SectorDriver.local.Class",
+        "org.sd_network.vfs.SectorDriver.local.Property." +
+            "org.sd_network.vfs.sector.LocalFileDriver.Directory",
+        "org.sd_network.vfs.SectorDriver.vfs1.Class",
+        "org.sd_network.vfs.SectorDriver.vfs2.Class"};
+
+    ////////////////////////////////////////////////////////////
+    // Constructors and Initializations.
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        Config config = Config.getInstance();
+        config.setProperty(_PROPERTIES[0],
+                "org.sd_network.vfs.sector.LocalFileDriver");
+        config.setProperty(_PROPERTIES[1], createTempDirectory().getPath());
+        config.setProperty(_PROPERTIES[2], _VFS_SECTOR_DRIVER);
+        config.setProperty(_PROPERTIES[3], _VFS_SECTOR_DRIVER);
+    }
+
+    public void tearDown()
+        throws Exception
+    {
+        Config config = Config.getInstance();
+        for (int idx = 0; idx < _PROPERTIES.length; idx++)
+            config.remove(_PROPERTIES[idx]);
+        super.tearDown();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Test Cases.
+
+    /**
+     * VfsSectorDriver2̖Oœo^łȂƂeXg܂B
+     * hCo[͐Oɋۂ܂B
+     */
+    public void testSetSecondVfsSectorDriver()
+        throws Exception
+    {
+        try {
+            SectorDriverManager.setSectorDrivers("local, vfs1, vfs2");
+            fail("SectorException was not thrown.");
+        } catch (SectorException e) {
+            assertTrue(e.getMessage().indexOf("vfs2") >= 0);
+        }
+    }
+
+    /**
+     * o^ς݂VfsSectorDriverƓNX̃hCo[ǉłȂ
+     * ƂeXg܂B
+     */
+    public void testAddSecondVfsSectorDriver()
+        throws Exception
+    {
+        SectorDriverManager.setSectorDrivers("local");
+
+        // localVfsSectorDriverƂēo^Ă̂Ƃ݂ȂB
+        Config.getInstance().setProperty(_PROPERTIES[0], _VFS_SECTOR_DRIVER);
+        try {
+            SectorDriverManager.addSectorDriver("vfs1");
+            fail("SectorException was not thrown.");
+        } catch (SectorException e) {
+            assertTrue(e.getMessage().indexOf("vfs1") >= 0);
+        }
+        assertEquals(1, ((DistributedSectorDriver)
+                    SectorDriverManager.getSectorDriver())
+                .getDriverNames().length);
+    }
+}
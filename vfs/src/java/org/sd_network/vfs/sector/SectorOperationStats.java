@@ -0,0 +1,143 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs.sector;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency statistics of an operation of a SectorDriver.
+ *
+ * <p> A call is recorded by a few atomic increments and no locks, so
+ * recording adds little to the operation even on the read and write
+ * paths that are called for each block of data.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class SectorOperationStats
+    implements SectorOperationStatsMBean
+{
+    /** Number of buckets, enough for about 2^39 microseconds. */
+    private static final int _BUCKETS = 40;
+
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** Number of calls by bucket of latency. */
+    private final AtomicLongArray _buckets = new AtomicLongArray(_BUCKETS);
+
+    /** Number of calls. */
+    private final AtomicLong _count = new AtomicLong();
+
+    /** Total latency in nanoseconds. */
+    private final AtomicLong _totalNanos = new AtomicLong();
+
+    /** Maximum latency in nanoseconds. */
+    private final AtomicLong _maxNanos = new AtomicLong();
+
+    ////////////////////////////////////////////////////////////
+    // Implements to SectorOperationStatsMBean.
+
+    public long getCount() {
+        return _count.get();
+    }
+
+    public double getMeanMicros() {
+        long count = _count.get();
+        return (count == 0) ? 0.0 : _totalNanos.get() / 1000.0 / count;
+    }
+
+    public long getMaxMicros() {
+        return _maxNanos.get() / 1000;
+    }
+
+    public long getMedianMicros() {
+        return getPercentileMicros(0.50);
+    }
+
+    public long get95thPercentileMicros() {
+        return getPercentileMicros(0.95);
+    }
+
+    public long get99thPercentileMicros() {
+        return getPercentileMicros(0.99);
+    }
+
+    public long[] getHistogram() {
+        long[] histogram = new long[_BUCKETS];
+        for (int idx = 0; idx < _BUCKETS; idx++)
+            histogram[idx] = _buckets.get(idx);
+        return histogram;
+    }
+
+    public void reset() {
+        for (int idx = 0; idx < _BUCKETS; idx++)
+            _buckets.set(idx, 0);
+        _count.set(0);
+        _totalNanos.set(0);
+        _maxNanos.set(0);
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Public methods.
+
+    /**
+     * Record a call that took the specified nanoseconds.
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        int idx = 64 - Long.numberOfLeadingZeros(nanos / 1000);
+        _buckets.incrementAndGet(Math.min(idx, _BUCKETS - 1));
+        _count.incrementAndGet();
+        _totalNanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = _maxNanos.get()))
+            if (_maxNanos.compareAndSet(max, nanos))
+                break;
+    }
+
+    /**
+     * Return total latency in nanoseconds.
+     */
+    public long getTotalNanos() {
+        return _totalNanos.get();
+    }
+
+    /**
+     * Return the upper bound of the bucket that contains the specified
+     * fraction of the calls, in microseconds.
+     */
+    public long getPercentileMicros(double fraction) {
+        long[] histogram = getHistogram();
+        long total = 0;
+        for (int idx = 0; idx < _BUCKETS; idx++)
+            total += histogram[idx];
+        if (total == 0)
+            return 0;
+
+        long target = (long) Math.ceil(total * fraction);
+        long count = 0;
+        for (int idx = 0; idx < _BUCKETS; idx++) {
+            count += histogram[idx];
+            if (count >= target)
+                return 1L << idx;
+        }
+        return 1L << (_BUCKETS - 1);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs.sector;
+
+/**
+ * Management interface of latency statistics of an operation of a
+ * SectorDriver, registered by {@link InstrumentedSectorDriver}.
+ *
+ * <p> Latencies are counted in buckets of powers of 2 microseconds, so
+ * percentiles are upper bounds of a bucket, at most twice the exact
+ * value.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public interface SectorOperationStatsMBean
+{
+    /**
+     * Return number of calls of the operation.
+     */
+    public long getCount();
+
+    /**
+     * Return mean latency in microseconds.
+     */
+    public double getMeanMicros();
+
+    /**
+     * Return maximum latency in microseconds.
+     */
+    public long getMaxMicros();
+
+    /**
+     * Return the latency that 50% of the calls were faster than, in
+     * microseconds.
+     */
+    public long getMedianMicros();
+
+    /**
+     * Return the latency that 95% of the calls were faster than, in
+     * microseconds.
+     */
+    public long get95thPercentileMicros();
+
+    /**
+     * Return the latency that 99% of the calls were faster than, in
+     * microseconds.
+     */
+    public long get99thPercentileMicros();
+
+    /**
+     * Return the histogram of latencies. Element <tt>i</tt> is number of
+     * calls that took less than <tt>2^i</tt> microseconds, and at least
+     * <tt>2^(i-1)</tt> microseconds.
+     */
+    public long[] getHistogram();
+
+    /**
+     * Clear the statistics.
+     */
+    public void reset();
+}
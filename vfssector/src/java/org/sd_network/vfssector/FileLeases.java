@@ -0,0 +1,186 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.sd_network.vfs.sector.SectorException;
+
+/**
+ * Read and write leases of files.
+ *
+ * <p> A file has any number of shared read leases, or one exclusive write
+ * lease. Read leases are counted, so a reader that releases its lease
+ * does not release the leases of other readers of the same file.
+ *
+ * <p> Leases are kept per file ID in stripes, each guarded by its own
+ * monitor, and the monitor is held only while a lease is counted. So
+ * leases of unrelated files are acquired and released in parallel. A
+ * lease is not a blocking lock: acquiring a lease that conflicts with
+ * another one fails at once.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+class FileLeases
+{
+    /** Number of stripes. This must be a power of two. */
+    private static final int _STRIPES = 64;
+
+    /** Lease count of a file that is write leased. */
+    private static final int _WRITE_LEASED = -1;
+
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** Stripes of lease counts. */
+    private final Stripe[] _stripes;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    FileLeases() {
+        _stripes = new Stripe[_STRIPES];
+        for (int idx = 0; idx < _stripes.length; idx++)
+            _stripes[idx] = new Stripe();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Package methods.
+
+    /**
+     * Acquire a read lease of the specified file.
+     *
+     * @throws  SectorException
+     *          Throws if the file is write leased.
+     */
+    void acquireRead(String fileID)
+        throws SectorException
+    {
+        Stripe stripe = getStripe(fileID);
+        synchronized (stripe) {
+            int count = stripe.getCount(fileID);
+            if (count == _WRITE_LEASED)
+                throw new SectorException(
+                        "Specified file have been write locked.");
+            stripe.setCount(fileID, count + 1);
+        }
+    }
+
+    /**
+     * Acquire the write lease of the specified file.
+     *
+     * @throws  SectorException
+     *          Throws if the file is read leased or write leased.
+     */
+    void acquireWrite(String fileID)
+        throws SectorException
+    {
+        Stripe stripe = getStripe(fileID);
+        synchronized (stripe) {
+            int count = stripe.getCount(fileID);
+            if (count > 0)
+                throw new SectorException(
+                        "Speicified file have been read locked.");
+            if (count == _WRITE_LEASED)
+                throw new SectorException(
+                        "Specified file have been write locked.");
+            stripe.setCount(fileID, _WRITE_LEASED);
+        }
+    }
+
+    /**
+     * Release a read lease of the specified file. Nothing is done if the
+     * file is not read leased.
+     */
+    void releaseRead(String fileID) {
+        Stripe stripe = getStripe(fileID);
+        synchronized (stripe) {
+            int count = stripe.getCount(fileID);
+            if (count > 0)
+                stripe.setCount(fileID, count - 1);
+        }
+    }
+
+    /**
+     * Release the write lease of the specified file. Nothing is done if the
+     * file is not write leased.
+     */
+    void releaseWrite(String fileID) {
+        Stripe stripe = getStripe(fileID);
+        synchronized (stripe) {
+            if (stripe.getCount(fileID) == _WRITE_LEASED)
+                stripe.setCount(fileID, 0);
+        }
+    }
+
+    /**
+     * Return number of read leases of the specified file.
+     */
+    int getReadCount(String fileID) {
+        Stripe stripe = getStripe(fileID);
+        synchronized (stripe) {
+            return Math.max(0, stripe.getCount(fileID));
+        }
+    }
+
+    /**
+     * Return true if the specified file is write leased.
+     */
+    boolean isWriteLeased(String fileID) {
+        Stripe stripe = getStripe(fileID);
+        synchronized (stripe) {
+            return stripe.getCount(fileID) == _WRITE_LEASED;
+        }
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    private Stripe getStripe(String fileID) {
+        int hash = fileID.hashCode();
+        hash ^= (hash >>> 16);
+        return _stripes[hash & (_STRIPES - 1)];
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Inner classes.
+
+    /**
+     * Lease counts of the files that fall in a stripe. A file without
+     * lease has no entry.
+     */
+    private static class Stripe
+    {
+        /** Lease counts by file ID. */
+        private final Map<String, Integer> _counts =
+            new HashMap<String, Integer>();
+
+        int getCount(String fileID) {
+            Integer count = _counts.get(fileID);
+            return (count == null) ? 0 : count.intValue();
+        }
+
+        void setCount(String fileID, int count) {
+            if (count == 0)
+                _counts.remove(fileID);
+            else
+                _counts.put(fileID, Integer.valueOf(count));
+        }
+    }
+}
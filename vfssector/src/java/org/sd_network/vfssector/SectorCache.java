@@ -0,0 +1,467 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * A cache of sector contents bounded by number of bytes.
+ *
+ * <p> The contents are kept in direct {@link java.nio.ByteBuffer}s, so they
+ * are out of the heap scanned by GC. The eviction policy is segmented LRU.
+ * A new entry is put to the probationary segment, and moves to the protected
+ * segment when it is hit again. Entries are evicted from the probationary
+ * segment first, so a sequential scan of a large file can not flush
+ * the contents that are read repeatedly.
+ *
+ * <p> When some threads miss the same sector at the same time, only one
+ * of them reads the database and the others wait for the result.
+ * Such waits are counted apart from hits and misses.
+ *
+ * <p> The cached and loading sectors are indexed by file, so that
+ * sectors of a file are invalidated without scanning the whole cache.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class SectorCache
+{
+    /** Logger. */
+    private static final Logger _log = Logger.getLogger(
+            SectorCache.class.getName());
+
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** Percentage of the capacity for the protected segment. */
+    private static final int _PROTECTED_RATIO = 80;
+
+    /** Maximum number of bytes of cached contents. */
+    private final long _capacity;
+
+    /** Maximum number of bytes of the protected segment. */
+    private final long _protectedCapacity;
+
+    /** Entries that were hit once, in LRU order. */
+    private final LinkedHashMap<String, Entry> _probation =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /** Entries that were hit twice or more, in LRU order. */
+    private final LinkedHashMap<String, Entry> _protected =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /** Number of bytes of the probationary segment. */
+    private long _probationBytes;
+
+    /** Number of bytes of the protected segment. */
+    private long _protectedBytes;
+
+    /** Reads of the database in progress, by sector ID. */
+    private final HashMap<String, Load> _loading = new HashMap<String, Load>();
+
+    /** IDs of cached and loading sectors, by file ID. */
+    private final HashMap<String, Set<String>> _fileSectors =
+        new HashMap<String, Set<String>>();
+
+    /** Number of hits. */
+    private final AtomicLong _hitCount = new AtomicLong();
+
+    /** Number of misses. */
+    private final AtomicLong _missCount = new AtomicLong();
+
+    /** Number of lookups that waited for a read by another thread. */
+    private final AtomicLong _coalescedCount = new AtomicLong();
+
+    /** Number of evictions. */
+    private final AtomicLong _evictionCount = new AtomicLong();
+
+    ////////////////////////////////////////////////////////////
+    // Constructors and Initialisations.
+
+    /**
+     * Create a cache that holds contents up to the specified bytes.
+     *
+     * @param capacity  maximum number of bytes of cached contents.
+     */
+    SectorCache(long capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive.");
+
+        _capacity = capacity;
+        _protectedCapacity = capacity * _PROTECTED_RATIO / 100;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Public methods.
+
+    /**
+     * Return maximum number of bytes of cached contents.
+     */
+    public long getCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * Return number of bytes of cached contents.
+     */
+    public synchronized long getUsedBytes() {
+        return _probationBytes + _protectedBytes;
+    }
+
+    /**
+     * Return number of cached sectors.
+     */
+    public synchronized int getEntryCount() {
+        return _probation.size() + _protected.size();
+    }
+
+    /**
+     * Return number of hits.
+     */
+    public long getHitCount() {
+        return _hitCount.get();
+    }
+
+    /**
+     * Return number of misses, that is number of reads of the database.
+     */
+    public long getMissCount() {
+        return _missCount.get();
+    }
+
+    /**
+     * Return number of lookups that missed while another thread was
+     * reading the same sector, and waited for the result.
+     */
+    public long getCoalescedCount() {
+        return _coalescedCount.get();
+    }
+
+    /**
+     * Return number of evictions.
+     */
+    public long getEvictionCount() {
+        return _evictionCount.get();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Package methods.
+
+    /**
+     * Return content of the specified sector.
+     * If the content is not cached, it is read by <tt>loader</tt> and
+     * cached. The returned buffer is read only and has its own position,
+     * so the caller may read it freely.
+     *
+     * @param fileID    ID of the file that the sector belongs to.
+     * @param sectorID  ID of the sector.
+     * @param loader    reads content of the sector from the database.
+     *
+     * @return  content of the sector.
+     *
+     * @throws  RuntimeException
+     *          Throws if <tt>loader</tt> failed.
+     */
+    ByteBuffer get(final String fileID, final String sectorID,
+            final Callable<byte[]> loader)
+    {
+        ByteBuffer content = lookup(sectorID);
+        if (content != null) {
+            _hitCount.incrementAndGet();
+            return content.asReadOnlyBuffer();
+        }
+
+        Load task = new Load(fileID, new Callable<ByteBuffer>() {
+                    public ByteBuffer call()
+                        throws Exception
+                    {
+                        return load(fileID, sectorID, loader);
+                    }
+                });
+        Load loading;
+        synchronized (this) {
+            loading = _loading.get(sectorID);
+            if (loading == null) {
+                _loading.put(sectorID, task);
+                link(fileID, sectorID);
+            }
+        }
+        if (loading == null) {
+            _missCount.incrementAndGet();
+            loading = task;
+            task.run();
+        } else {
+            _coalescedCount.incrementAndGet();
+        }
+
+        try {
+            return loading.get().asReadOnlyBuffer();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                    "Interrupted while waiting for sector " + sectorID);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IllegalStateException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Remove the specified sector from this cache.
+     *
+     * @param sectorID  ID of the sector.
+     */
+    synchronized void invalidate(String sectorID) {
+        String fileID = null;
+        Load load = _loading.remove(sectorID);
+        if (load != null)
+            fileID = load._fileID;
+        Entry entry = _probation.remove(sectorID);
+        if (entry != null) {
+            _probationBytes -= entry.size();
+            fileID = entry._fileID;
+        }
+        entry = _protected.remove(sectorID);
+        if (entry != null) {
+            _protectedBytes -= entry.size();
+            fileID = entry._fileID;
+        }
+        if (fileID != null)
+            unlink(fileID, sectorID);
+    }
+
+    /**
+     * Remove all of the sectors of the specified file from this cache.
+     *
+     * @param fileID    ID of the file.
+     */
+    synchronized void invalidateFile(String fileID) {
+        Set<String> sectorIDs = _fileSectors.remove(fileID);
+        if (sectorIDs == null)
+            return;
+
+        for (String sectorID : sectorIDs) {
+            // reads in progress must not put stale contents.
+            _loading.remove(sectorID);
+            Entry entry = _probation.remove(sectorID);
+            if (entry != null)
+                _probationBytes -= entry.size();
+            entry = _protected.remove(sectorID);
+            if (entry != null)
+                _protectedBytes -= entry.size();
+        }
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    /**
+     * Return the cached content, or null.
+     * If the content is in the probationary segment, it moves to the
+     * protected segment.
+     */
+    private synchronized ByteBuffer lookup(String sectorID) {
+        Entry entry = _protected.get(sectorID);
+        if (entry != null)
+            return entry._content;
+
+        entry = _probation.remove(sectorID);
+        if (entry == null)
+            return null;
+
+        // promote to protected segment.
+        _probationBytes -= entry.size();
+        _protected.put(sectorID, entry);
+        _protectedBytes += entry.size();
+
+        // demote overflowed entries to probationary segment.
+        Iterator<Map.Entry<String, Entry>> i = _protected.entrySet().iterator();
+        while (_protectedBytes > _protectedCapacity && i.hasNext()) {
+            Map.Entry<String, Entry> eldest = i.next();
+            i.remove();
+            _protectedBytes -= eldest.getValue().size();
+            _probation.put(eldest.getKey(), eldest.getValue());
+            _probationBytes += eldest.getValue().size();
+        }
+        evict();
+        return entry._content;
+    }
+
+    /**
+     * Read content by <tt>loader</tt>, and cache it unless the sector was
+     * invalidated while reading.
+     */
+    private ByteBuffer load(String fileID, String sectorID,
+            Callable<byte[]> loader)
+        throws Exception
+    {
+        Load self;
+        synchronized (this) {
+            self = _loading.get(sectorID);
+        }
+        byte[] bytes = null;
+        try {
+            bytes = loader.call();
+        } catch (Exception e) {
+            endLoad(fileID, sectorID, self);
+            throw e;
+        }
+
+        if (bytes == null || bytes.length == 0 || bytes.length > _capacity) {
+            endLoad(fileID, sectorID, self);
+            return ByteBuffer.wrap(bytes == null ? new byte[0] : bytes);
+        }
+
+        ByteBuffer content = ByteBuffer.allocateDirect(bytes.length);
+        content.put(bytes);
+        content.flip();
+        synchronized (this) {
+            if (self != null && _loading.remove(sectorID, self)) {
+                Entry replaced = _probation.put(
+                        sectorID, new Entry(fileID, content));
+                if (replaced != null)
+                    _probationBytes -= replaced.size();
+                replaced = _protected.remove(sectorID);
+                if (replaced != null)
+                    _protectedBytes -= replaced.size();
+                _probationBytes += bytes.length;
+                evict();
+            }
+        }
+        return content;
+    }
+
+    /**
+     * End the specified read without caching its content.
+     */
+    private synchronized void endLoad(String fileID, String sectorID,
+            Load self)
+    {
+        if (self != null && _loading.remove(sectorID, self))
+            unlink(fileID, sectorID);
+    }
+
+    /**
+     * Evict entries from the probationary segment, then from the
+     * protected segment, until used bytes fit in the capacity.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> i =
+            _probation.entrySet().iterator();
+        while (_probationBytes + _protectedBytes > _capacity && i.hasNext()) {
+            Map.Entry<String, Entry> eldest = i.next();
+            i.remove();
+            _probationBytes -= eldest.getValue().size();
+            unlink(eldest.getValue()._fileID, eldest.getKey());
+            _evictionCount.incrementAndGet();
+        }
+        i = _protected.entrySet().iterator();
+        while (_probationBytes + _protectedBytes > _capacity && i.hasNext()) {
+            Map.Entry<String, Entry> eldest = i.next();
+            i.remove();
+            _protectedBytes -= eldest.getValue().size();
+            unlink(eldest.getValue()._fileID, eldest.getKey());
+            _evictionCount.incrementAndGet();
+        }
+        _log.log(Level.FINEST,
+                "Sector cache used " + (_probationBytes + _protectedBytes) +
+                " bytes.");
+    }
+
+    /**
+     * Add the specified sector to the index of its file.
+     */
+    private void link(String fileID, String sectorID) {
+        Set<String> sectorIDs = _fileSectors.get(fileID);
+        if (sectorIDs == null) {
+            sectorIDs = new HashSet<String>();
+            _fileSectors.put(fileID, sectorIDs);
+        }
+        sectorIDs.add(sectorID);
+    }
+
+    /**
+     * Remove the specified sector from the index of its file, unless it
+     * is still cached or loading.
+     */
+    private void unlink(String fileID, String sectorID) {
+        if (_probation.containsKey(sectorID) ||
+                _protected.containsKey(sectorID) ||
+                _loading.containsKey(sectorID))
+            return;
+
+        Set<String> sectorIDs = _fileSectors.get(fileID);
+        if (sectorIDs == null)
+            return;
+        sectorIDs.remove(sectorID);
+        if (sectorIDs.isEmpty())
+            _fileSectors.remove(fileID);
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Inner classes.
+
+    /**
+     * A read of a sector in progress.
+     */
+    private static class Load
+        extends FutureTask<ByteBuffer>
+    {
+        /** ID of the file that the sector belongs to. */
+        private final String _fileID;
+
+        Load(String fileID, Callable<ByteBuffer> callable) {
+            super(callable);
+            _fileID = fileID;
+        }
+    }
+
+    /**
+     * A cached content of a sector.
+     */
+    private static class Entry
+    {
+        /** ID of the file that the sector belongs to. */
+        private final String _fileID;
+
+        /** Content of the sector. */
+        private final ByteBuffer _content;
+
+        Entry(String fileID, ByteBuffer content) {
+            _fileID = fileID;
+            _content = content;
+        }
+
+        int size() {
+            return _content.capacity();
+        }
+    }
+}
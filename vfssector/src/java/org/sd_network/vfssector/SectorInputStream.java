@@ -15,12 +15,22 @@
  */
 package org.sd_network.vfssector;
 
+import java.io.EOFException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
+import org.sd_network.db.DBException;
+import org.sd_network.vfssector.db.SectorCursor;
 import org.sd_network.vfssector.db.SectorDB;
+import org.sd_network.vfssector.db.SectorIndex;
 
 /**
  * vfssectorpbP[W {@link java.io.InputStream} C^tF[X̎
@@ -29,8 +39,39 @@ import org.sd_network.vfssector.db.SectorDB;
  *
  * <p> ̃CX^X́A
  * {@link org.sd_network.vfs.sector.SectorDriver#getInputStream(String)} 
+ * \bh
+ * {@link org.sd_network.vfs.sector.SectorDriver#getInputStream(String, long)}
  * \bh̖߂lłB
  *
+ * <p> {@link #read(byte[], int, int)} \bh́Ã݂ZN^[̃f[^
+ * obt@͈͒PʂŃRs[܂BvpeB
+ * [org.sd_network.vfssector.ReadAhead]  <tt>true</tt> w肳Ă
+ * ꍇÃ݂ZN^[ǂݍłԂɎ̃ZN^[obNOEh
+ * ǂ݂܂BvpeB [org.sd_network.vfssector.CacheBytes] ɐ̒l
+ * w肳ĂꍇAZN^[̃f[^̓hCo[̃ZN^[LbV
+ * 擾܂B
+ *
+ * <p> vpeB [org.sd_network.vfssector.ParallelFetch] ɐ̒l
+ * w肳ĂꍇÃ݂ZN^[ɑ̐̃ZN^[AhCo[
+ * L擾p̃Xbhŕsēǂݍ݁AV[PXԍɓǂݏo
+ * ܂BsēǂݍރZN^[̃oCg̍v́AXg[
+ * vpeB [org.sd_network.vfssector.ParallelFetchBytes] ܂łɐ
+ * ܂B
+ *
+ * <p> vpeB [org.sd_network.vfssector.StreamingRead]  <tt>true</tt>
+ * w肳ĂꍇASẴZN^[P̃RlNVƂP
+ * ₢킹i{@link org.sd_network.vfssector.db.SectorCursor}jœǂݏoA
+ * ZN^[̃f[^obt@ɓWJɃXg[Ƃēǂݍ݂܂B
+ * ̏ꍇAXg[̓N[Y܂ŃRlNVPLA
+ * ǂ݂ƃZN^[LbV͎gp܂BJ[\gpXg[
+ * ̐̓vpeB [org.sd_network.vfssector.StreamingReadCursors] ܂ł
+ * A𒴂Xg[̓ZN^[ɓǂݍ݂܂B
+ *
+ * <p> {@link #seek(long)} \bh {@link #skip(long)} \bh́A
+ * ZN^[̃ItZbg̍i{@link org.sd_network.vfssector.db.SectorIndex}j
+ * wʒu܂ރZN^[߁AÕZN^[ǂ܂
+ * ǂݍ݈ʒuړ܂B
+ *
  * <p> $Id$
  *
  * @author Masatoshi Sato
@@ -42,27 +83,54 @@ public class SectorInputStream
     private static final Logger _log = Logger.getLogger(
             SectorInputStream.class.getName());
 
+    /** Xg[~OǂݍݎɃ`l֏ޒPʂ̃oCg */
+    private static final int _TRANSFER_BUFFER_SIZE = 65536;
+
     //////////////////////////////////////////////////////////// 
     // Private fields.
 
     /** f[^ǂݍݑΏۃt@C̎ʎq */
     private final String _fileID;
 
-    /** PZN^[̃f[^obt@ */
-    private byte[] _buffer;
+    /** PZN^[̃f[^obt@iʒuf[^obt@̃|C^j */
+    private ByteBuffer _buffer;
 
-    /** f[^obt@̃|C^ */
-    private int _bufferIdx;
-    
-    /** f[^ǂݍݑΏۃt@CƕRÂeZN^[̎ʎq̔z */
-    private String[] _sectorIDs;
+    /** f[^ǂݍݑΏۃt@CƕRÂZN^[̍ */
+    private SectorIndex _index;
 
-    /** ZN^[ʎqz̃|C^ */
+    /** ZN^[̃|C^ */
     private int _sectorIdx;
 
+    /** t@Č݂̓ǂݍ݈ʒu */
+    private long _position;
+
+    /** ǂݍݒ̃ZN^[̐擪̃t@C̃ItZbg */
+    private long _sectorStart;
+
+    /** ǂݍݒ̃ZN^[̖̃t@C̃ItZbg */
+    private long _sectorEnd;
+
+    /** Xg[~Oǂݍ݃tO */
+    private final boolean _streaming;
+
     /** StreamItO */
     private boolean _closed;
 
+    /** ǂݒ̌㑱ZN^[̃f[^iV[PXԍj */
+    private final LinkedList<Future<ByteBuffer>> _fetches;
+
+    /** ǂݒ̃ZN^[̃oCg̍v */
+    private long _fetchBytes;
+
+    /** ݂̐ǂ݂̃ZN^[iɓǂݐi߂ɂđ₵܂j */
+    private int _fetchDepth;
+
+    /** Xg[~Oǂݍݎ̃ZN^[̃J[\iȊO nullj */
+    private SectorCursor _cursor;
+
+    /** Xg[~Oǂݍݎ݂̌̃ZN^[̃f[^̃Xg[ */
+    private InputStream _contentStream;
+
     /** SectorDriver̃CX^X */
     private final VfsSectorDriver _driver;
 
@@ -75,37 +143,81 @@ public class SectorInputStream
      * <ul>
      *  <li> f[^obt@̏
      *  <li> f[^obt@index0ɐݒ
-     *  <li> wt@C̃ZN^[ʎqz̎擾
-     *  <li> ZN^[ʎqz̃|C^0ɐݒ
+     *  <li> wt@C̃ZN^[̎擾iXg[~Oǂݍ
+     *       ̓ZN^[̃J[\̃I[vj
+     *  <li> ZN^[̃|C^0ɐݒ
      *  <li> ItÕZbg
      * </ul>
      * PZN^[̃f[^obt@TCÝAZN^[ɕۑĂ
      * f[^oCgɈˑ܂B
      *
+     * <p> <tt>position</tt> ɐ̒lw肳ꂽꍇ́Aǂݍ݈ʒu
+     * {@link #seek(long)} ƓlɈړ܂BXg[~Oǂݍݎ́A
+     * wʒu܂ރZN^[J[\I[v܂B
+     *
      * @param fileID        t@Cʎq
+     * @param position      ǂݍ݂Jnt@C̈ʒu
      * @param driver        SectorDriver̃CX^X
      *
      * @throws  NullPointerException
-     *           <tt>null</tt> w肳ꂽꍇɃX[܂B
+     *          <tt>fileID</tt> ܂ <tt>driver</tt>  <tt>null</tt> 
+     *          w肳ꂽꍇɃX[܂B
+     *
+     * @throws  IllegalArgumentException
+     *          <tt>position</tt> ɕ̒lw肳ꂽꍇɃX[܂B
+     *
+     * @throws  IOException
+     *          wʒuւ̈ړɎsꍇɃX[܂B
      */
-    SectorInputStream(String fileID, VfsSectorDriver driver) {
+    SectorInputStream(String fileID, long position, VfsSectorDriver driver)
+        throws IOException
+    {
         if (fileID == null)
             throw new NullPointerException("fileID");
         if (driver == null)
             throw new NullPointerException("driver");
+        if (position < 0)
+            throw new IllegalArgumentException("position is negative.");
 
         _fileID = fileID;
         _buffer = null;
-        _bufferIdx = 0;
-        _sectorIDs = SectorDB.getSectorIDs(fileID);
-        _log.log(Level.INFO, "number of sector = " + _sectorIDs.length);
-        StringBuffer sb = new StringBuffer();
-        for (int idx = 0; idx < _sectorIDs.length; idx++)
-            sb.append(_sectorIDs[idx]).append("\n");
-        _log.info(sb.toString());
         _sectorIdx = 0;
+        _position = 0;
+        _sectorStart = 0;
+        _sectorEnd = 0;
         _closed = false;
         _driver = driver;
+        _fetches = new LinkedList<Future<ByteBuffer>>();
+        _fetchBytes = 0;
+        _fetchDepth = 1;
+        _contentStream = null;
+        _cursor = null;
+        _index = null;
+        _streaming = driver.isStreamingReadEnabled() &&
+            driver.tryAcquireCursor();
+        if (!_streaming) {
+            _index = SectorDB.getSectorIndex(fileID);
+            _log.log(Level.INFO,
+                    "number of sector = " + _index.getSectorCount());
+            StringBuffer sb = new StringBuffer();
+            for (int idx = 0; idx < _index.getSectorCount(); idx++)
+                sb.append(_index.getSectorID(idx)).append("\n");
+            _log.info(sb.toString());
+        }
+
+        try {
+            if (_streaming)
+                openCursor(position);
+            else if (position > 0)
+                seek(position);
+        } catch (IOException e) {
+            cancelFetches();
+            if (_cursor != null)
+                _cursor.close();
+            if (_streaming)
+                driver.releaseCursor();
+            throw e;
+        }
     }
 
     //////////////////////////////////////////////////////////// 
@@ -118,36 +230,103 @@ public class SectorInputStream
         if (_closed)
             throw new IOException("This stream was already closed.");
 
-        // check whether sector exists for specified fileID.
-        if (_sectorIDs == null || _sectorIDs.length == 0) {
-            _log.log(Level.INFO,
-                    "sector not found for fileID=" + _fileID + ".");
+        if (_streaming) {
+            while (openContentStream()) {
+                int c = _contentStream.read();
+                if (c != -1) {
+                    _position++;
+                    return c;
+                }
+                closeContentStream();
+            }
             return -1;
         }
 
-        while (_sectorIdx < _sectorIDs.length) {
+        if (!fillBuffer())
+            return -1;
+        _position++;
+        return _buffer.get() & 0xff;
+    }
 
-            // check buffer empty.
-            if (_buffer == null || _bufferIdx == _buffer.length) {
-                String sectorID = _sectorIDs[_sectorIdx++];
-                _buffer = SectorDB.getContent(sectorID);
-                _log.log(Level.INFO,
-                        "Sector[" + sectorID + "], " +
-                        "length=" + _buffer.length + ".");
-                _bufferIdx = 0;
-
-                // check whether sector is empty.
-                if (_buffer == null || _buffer.length == 0) {
-                    SectorDB.deleteSector(sectorID);
-                    _log.log(Level.INFO,
-                            "Empty sector found [" + sectorID + "].");
-                    continue;
-                }
+    public synchronized int read(byte[] b, int off, int len)
+        throws IOException
+    {
+        // check already closed.
+        if (_closed)
+            throw new IOException("This stream was already closed.");
+        if (b == null)
+            throw new NullPointerException("b");
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+
+        int count = 0;
+        if (_streaming) {
+            while (count < len && openContentStream()) {
+                int n = _contentStream.read(b, off + count, len - count);
+                if (n == -1)
+                    closeContentStream();
+                else
+                    count += n;
             }
-            return (int) (_buffer[_bufferIdx++] & 0xff);
+            _position += count;
+            return (count == 0) ? -1 : count;
+        }
+
+        while (count < len && fillBuffer()) {
+            int n = Math.min(len - count, _buffer.remaining());
+            _buffer.get(b, off + count, n);
+            count += n;
         }
-        _log.info("input stream terminated.");
-        return -1;
+        _position += count;
+        return (count == 0) ? -1 : count;
+    }
+
+    /**
+     * woCgǂݔ΂܂Bǂݍݒ̃ZN^[ł
+     * ̏ňړAȊO̓ZN^[ړ̃ZN^[߂
+     * ߁Aǂݔ΂ZN^[̃f[^͓ǂݍ݂܂B
+     *
+     * @param n     ǂݔ΂oCg
+     *
+     * @return  ۂɓǂݔ΂oCgBt@C̏I[z邱Ƃ
+     *          ܂B
+     *
+     * @throws  IOException
+     *          Xg[N[Yς݂̏ꍇA̓ZN^[̓ǂݏo
+     *          sꍇɃX[܂B
+     */
+    public synchronized long skip(long n)
+        throws IOException
+    {
+        if (_closed)
+            throw new IOException("This stream was already closed.");
+        if (n <= 0)
+            return 0;
+
+        long target = _position + n;
+        if (target >= _sectorEnd)
+            target = Math.min(target, getIndex().getFileSize());
+        if (target <= _position)
+            return 0;
+
+        long skipped = target - _position;
+        seek(target);
+        return skipped;
+    }
+
+    public synchronized int available()
+        throws IOException
+    {
+        if (_closed)
+            throw new IOException("This stream was already closed.");
+
+        if (_contentStream != null)
+            return _contentStream.available();
+        if (_buffer == null)
+            return 0;
+        return _buffer.remaining();
     }
 
     public synchronized void flush()
@@ -166,6 +345,418 @@ public class SectorInputStream
             return;
 
         _closed = true;
-        _driver.releaseReadLock(_fileID);
+        cancelFetches();
+        try {
+            if (_cursor != null) {
+                closeContentStream();
+                _cursor.close();
+            }
+        } finally {
+            if (_streaming)
+                _driver.releaseCursor();
+            _driver.releaseReadLock(_fileID);
+        }
+    }
+
+    //////////////////////////////////////////////////////////// 
+    // Public methods.
+
+    /**
+     * t@Č݂̓ǂݍ݈ʒuԂ܂B
+     *
+     * @return  t@C̐擪̃oCg
+     */
+    public synchronized long getPosition() {
+        return _position;
+    }
+
+    /**
+     * ǂݍ݈ʒut@C̎wʒuɈړ܂B
+     * ǂݍݒ̃ZN^[ł΂̏ňړAȊO̓ZN^[
+     * wʒu܂ރZN^[߂ēǂݍ݂܂Bt@C̃oCg
+     * ȏ̈ʒuw肵ꍇAȍ~̓ǂݍ݂̓Xg[̏I[Ԃ܂B
+     *
+     * @param position  t@C̐擪̃oCg
+     *
+     * @throws  IllegalArgumentException
+     *          <tt>position</tt> ɕ̒lw肳ꂽꍇɃX[܂B
+     *
+     * @throws  IOException
+     *          Xg[N[Yς݂̏ꍇA̓ZN^[̓ǂݏo
+     *          sꍇɃX[܂B
+     */
+    public synchronized void seek(long position)
+        throws IOException
+    {
+        if (_closed)
+            throw new IOException("This stream was already closed.");
+        if (position < 0)
+            throw new IllegalArgumentException("position is negative.");
+
+        // move within current sector.
+        if (position >= _sectorStart && position < _sectorEnd) {
+            if (!_streaming && _buffer != null) {
+                _buffer.position((int) (position - _sectorStart));
+                _position = position;
+                return;
+            }
+            if (_streaming && _contentStream != null &&
+                    position >= _position) {
+                skipContent(position - _position);
+                _position = position;
+                return;
+            }
+        }
+
+        if (_streaming) {
+            openCursor(position);
+            return;
+        }
+
+        cancelFetches();
+        SectorIndex index = getIndex();
+        _sectorIdx = index.find(position);
+        _position = index.getOffset(_sectorIdx);
+        _buffer = null;
+        if (fillBuffer())
+            _buffer.position((int) (position - _position));
+        _position = position;
+    }
+
+    /**
+     * ݂̓ǂݍ݈ʒut@C̏I[܂ł̃f[^Aw̃`l
+     * ݂܂BZN^[̃f[^obt@Ăяo̔zɃRs[
+     * Â܂܃`lɏ݂܂BXg[~Oǂݍ݂̏ꍇ́A
+     * ZN^[̃f[^̃Xg[̃oCg݂܂B
+     * `l̓ubLO[hłKvAN[Y܂B
+     *
+     * @param target    f[^ރ`l
+     *
+     * @return  񂾃oCg
+     *
+     * @throws  NullPointerException
+     *          <tt>target</tt> Nullw肳ꂽꍇɃX[܂B
+     *
+     * @throws  IOException
+     *          Xg[N[Yς݂̏ꍇAZN^[̓ǂݏoɎs
+     *          ꍇA̓`lւ݂̏Ɏsꍇ
+     *          X[܂B
+     */
+    public synchronized long transferTo(WritableByteChannel target)
+        throws IOException
+    {
+        if (_closed)
+            throw new IOException("This stream was already closed.");
+        if (target == null)
+            throw new NullPointerException("target");
+
+        long count = 0;
+        if (_streaming) {
+            ByteBuffer buf = ByteBuffer.allocate(_TRANSFER_BUFFER_SIZE);
+            while (openContentStream()) {
+                int n = _contentStream.read(
+                        buf.array(), 0, buf.capacity());
+                if (n == -1) {
+                    closeContentStream();
+                    continue;
+                }
+                buf.clear();
+                buf.limit(n);
+                count += write(target, buf);
+            }
+            return count;
+        }
+
+        while (fillBuffer())
+            count += write(target, _buffer);
+        return count;
+    }
+
+    //////////////////////////////////////////////////////////// 
+    // Private methods.
+
+    /**
+     * wobt@̎c̃f[^Să`lɏ݁Aǂݍ݈ʒu
+     * 񂾃oCgi߂܂B
+     *
+     * @return  񂾃oCg
+     */
+    private long write(WritableByteChannel target, ByteBuffer buf)
+        throws IOException
+    {
+        long count = 0;
+        while (buf.hasRemaining()) {
+            int n = target.write(buf);
+            _position += n;
+            count += n;
+        }
+        return count;
+    }
+
+    /**
+     * ZN^[Ԃ܂BXg[~Oǂݍݎ́AŏɕKv
+     * Ȃ_Ŏ擾܂B
+     *
+     * @throws  IOException
+     *          ZN^[̎擾ɎsꍇɃX[܂B
+     */
+    private SectorIndex getIndex()
+        throws IOException
+    {
+        if (_index == null) {
+            try {
+                _index = SectorDB.getSectorIndex(_fileID);
+            } catch (DBException e) {
+                _log.log(Level.SEVERE, "Sector index could not read.", e);
+                throw new IOException(e.getMessage());
+            }
+        }
+        return _index;
+    }
+
+    /**
+     * Xg[~OǂݍݎɁAt@C̎wʒu܂ރZN^[
+     * J[\I[vAwʒu܂œǂݔ΂܂B
+     *
+     * @param position  t@C̐擪̃oCg
+     *
+     * @throws  IOException
+     *          ZN^[̓ǂݏoɎsꍇɃX[܂B
+     */
+    private void openCursor(long position)
+        throws IOException
+    {
+        int seqNum = 0;
+        long start = 0;
+        if (position > 0) {
+            SectorIndex index = getIndex();
+            int idx = index.find(position);
+            seqNum = (idx < index.getSectorCount()) ?
+                index.getSeqNum(idx) : Integer.MAX_VALUE;
+            start = index.getOffset(idx);
+        }
+
+        if (_cursor != null) {
+            closeContentStream();
+            _cursor.close();
+            _cursor = null;
+        }
+        try {
+            _cursor = SectorDB.openCursor(
+                    _fileID, seqNum, _driver.getFetchSize());
+        } catch (DBException e) {
+            _log.log(Level.SEVERE, "Sector could not read.", e);
+            throw new IOException(e.getMessage());
+        }
+        _position = start;
+        _sectorStart = 0;
+        _sectorEnd = 0;
+        if (position > start && openContentStream())
+            skipContent(position - start);
+        _position = position;
+    }
+
+    /**
+     * Xg[~OǂݍݎɁÃ݂ZN^[̃f[^̃Xg[
+     * woCgǂݔ΂܂B
+     *
+     * @param n     ǂݔ΂oCg
+     *
+     * @throws  EOFException
+     *          ZN^[̃f[^woCgZꍇɃX[܂B
+     */
+    private void skipContent(long n)
+        throws IOException
+    {
+        while (n > 0) {
+            long skipped = _contentStream.skip(n);
+            if (skipped <= 0) {
+                if (_contentStream.read() == -1)
+                    throw new EOFException(
+                            "Sector content is shorter than its size.");
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    /**
+     * Xg[~OǂݍݎɁÃ݂ZN^[̃f[^̃Xg[
+     * Ȃ΃J[\̃ZN^[ɐi߂ăXg[擾܂B
+     * ̃ZN^[͓ǂݔ΂܂B
+     *
+     * @return  ǂݍݒ̃Xg[ꍇ <tt>true</tt>A
+     *          SẴZN^[ǂݏIꍇ <tt>false</tt> Ԃ܂B
+     *
+     * @throws  IOException
+     *          ZN^[̓ǂݏoɎsꍇɃX[܂B
+     */
+    private boolean openContentStream()
+        throws IOException
+    {
+        try {
+            while (_contentStream == null) {
+                if (!_cursor.next()) {
+                    _log.log(Level.FINE,
+                            "input stream terminated. fileID=" + _fileID);
+                    return false;
+                }
+                if (_cursor.getContentSize() == 0) {
+                    _log.log(Level.INFO, "Empty sector found [" +
+                            _cursor.getSectorID() + "].");
+                    continue;
+                }
+                _contentStream = _cursor.getContentStream();
+                _sectorStart = _position;
+                _sectorEnd = _position + _cursor.getContentSize();
+            }
+            return true;
+        } catch (DBException e) {
+            _log.log(Level.SEVERE, "Sector could not read.", e);
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Xg[~Oǂݍݎ݂̌̃ZN^[̃f[^̃Xg[
+     * N[Y܂B
+     */
+    private void closeContentStream()
+        throws IOException
+    {
+        if (_contentStream == null)
+            return;
+
+        InputStream contentStream = _contentStream;
+        _contentStream = null;
+        contentStream.close();
+    }
+
+    /**
+     * f[^obt@ɖǂ̃f[^ȂꍇÃZN^[̃f[^
+     * f[^obt@ɓǂݍ݂܂B̃ZN^[͍폜ēǂݔ΂܂B
+     *
+     * @return  f[^obt@ɖǂ̃f[^ꍇ <tt>true</tt>A
+     *          SẴZN^[ǂݏIꍇ <tt>false</tt> Ԃ܂B
+     *
+     * @throws  IOException
+     *          ǂ݂ZN^[̎擾ɎsꍇɃX[܂B
+     */
+    private boolean fillBuffer()
+        throws IOException
+    {
+        while (_buffer == null || !_buffer.hasRemaining()) {
+
+            // check whether sector remains for specified fileID.
+            if (_sectorIdx >= _index.getSectorCount()) {
+                _log.log(Level.FINE,
+                        "input stream terminated. fileID=" + _fileID);
+                return false;
+            }
+
+            String sectorID = _index.getSectorID(_sectorIdx);
+            ByteBuffer content = nextSector();
+
+            // check whether sector is empty.
+            if (!content.hasRemaining()) {
+                SectorDB.deleteSector(sectorID);
+                _driver.invalidateSector(sectorID);
+                _log.log(Level.INFO,
+                        "Empty sector found [" + sectorID + "].");
+                continue;
+            }
+            _log.log(Level.INFO,
+                    "Sector[" + sectorID + "], " +
+                    "length=" + content.remaining() + ".");
+            _buffer = content;
+            _sectorStart = _position;
+            _sectorEnd = _position + content.remaining();
+        }
+        return true;
+    }
+
+    /**
+     * ZN^[̃|C^ZN^[̃f[^ԂA|C^
+     * ɐi߂܂Bǂ݂Lȏꍇ́Aǂݍς݂̃f[^҂킹
+     * ԂAɌ㑱̃ZN^[̐ǂ݂Jn܂B
+     *
+     * @return  ZN^[̃f[^B
+     *
+     * @throws  IOException
+     *          ǂ݂ZN^[̎擾ɎsꍇA͑҂킹
+     *          荞܂ꂽꍇɃX[܂B
+     */
+    private ByteBuffer nextSector()
+        throws IOException
+    {
+        ByteBuffer content = null;
+        Future<ByteBuffer> fetch = _fetches.poll();
+        if (fetch != null) {
+            _fetchBytes -= getSectorSize(_sectorIdx);
+            try {
+                content = fetch.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                        "Interrupted while waiting for read ahead sector.");
+            } catch (ExecutionException e) {
+                _log.log(Level.SEVERE,
+                        "Sector could not read ahead.", e.getCause());
+                throw new IOException(e.getCause().getMessage());
+            }
+        } else {
+            try {
+                content = _driver.readSector(
+                        _fileID, _index.getSectorID(_sectorIdx));
+            } catch (RuntimeException e) {
+                _log.log(Level.SEVERE, "Sector could not read.", e);
+                throw new IOException(e.getMessage());
+            }
+        }
+        _sectorIdx++;
+        startFetches();
+        return content;
+    }
+
+    /**
+     * ZN^[̃|C^ɑZN^[̂A܂ǂ݂ĂȂ
+     * ZN^[̐ǂ݂Jn܂Bǂ݂ZN^[́Aړ͂P
+     * ƂAɓǂݐi߂閈ɂQ{ɂăhCo[̐ݒl܂ő₵܂B
+     * ̂߁AړďǂޏꍇɕsvȃZN^[ǂݍ݂܂B
+     * oCg̍v̓Xg[̏܂łƂ܂BAǂݒ
+     * ZN^[ꍇ́A𒴂ZN^[łP͐ǂ݂܂B
+     */
+    private void startFetches() {
+        int fetchAhead = Math.min(_fetchDepth, _driver.getFetchAhead());
+        _fetchDepth = Math.min(_fetchDepth * 2, _driver.getFetchAhead());
+        int next = _sectorIdx + _fetches.size();
+        while (_fetches.size() < fetchAhead &&
+                next < _index.getSectorCount()) {
+            long size = getSectorSize(next);
+            if (!_fetches.isEmpty() &&
+                    _fetchBytes + size > _driver.getFetchAheadBytes())
+                break;
+            _fetches.add(_driver.readAhead(
+                        _fileID, _index.getSectorID(next)));
+            _fetchBytes += size;
+            next++;
+        }
+    }
+
+    /**
+     * ǂݒ̑SẴZN^[̓ǂݍ݂܂B
+     */
+    private void cancelFetches() {
+        while (!_fetches.isEmpty())
+            _fetches.removeFirst().cancel(true);
+        _fetchBytes = 0;
+        _fetchDepth = 1;
+    }
+
+    /**
+     * ZN^[̎wʒũZN^[̃oCgԂ܂B
+     */
+    private long getSectorSize(int idx) {
+        return _index.getOffset(idx + 1) - _index.getOffset(idx);
     }
 }
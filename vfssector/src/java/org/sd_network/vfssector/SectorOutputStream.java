@@ -15,23 +15,61 @@
  */
 package org.sd_network.vfssector;
 
+import java.io.InterruptedIOException;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.util.LinkedList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
 import org.sd_network.util.Config;
 import org.sd_network.vfs.sector.SectorDriver;
+import org.sd_network.vfssector.codec.SectorCodec;
 import org.sd_network.vfssector.db.Sector;
+import org.sd_network.vfssector.db.SectorBatch;
 import org.sd_network.vfssector.db.SectorDB;
 
 /**
  * A {@link java.io.OutputStream} implementation for vfssector.
  * This class is to write binary data to database that is managed by vfssector.
- * The number of byte a sector must be specified by property 
+ * The maximum number of byte a sector must be specified by property 
  * [org.sd_network.vfssector.SectorSize]. Default of the value is 1048576 byte
  * (1MByte).  If write data more than the sector size, the data is written at
- * multiple sectors.
+ * multiple sectors. The first sector of a file is sized to the size hint
+ * of the file, or to property [org.sd_network.vfssector.InitialSectorSize]
+ * if no hint, and each following sector is twice as large as the previous
+ * one up to the maximum. So a small file does not allocate a large buffer,
+ * and a large file does not produce many rows.
+ *
+ * <p> If property [org.sd_network.vfssector.AsyncFlush] is "true", a full
+ * sector buffer is handed to a background flush and the writer continues
+ * with another buffer. The number of sector buffers waiting for flush is
+ * bounded by property [org.sd_network.vfssector.FlushQueueSize]. An error
+ * occurred in the background flush is thrown by the next write or by
+ * {@link #close()}.
+ *
+ * <p> If property [org.sd_network.vfssector.Dedup] is "true", a digest of
+ * each sector is computed while the sector buffer is filled, and sectors
+ * that have same digest share one stored content.
+ *
+ * <p> If property [org.sd_network.vfssector.Codec] is specified, each
+ * sector is encoded by the codec before it is stored. A sector that the
+ * codec declines, e.g. not compressible, is stored as is. The size of a
+ * sector is always number of bytes before encoding.
+ *
+ * <p> If property [org.sd_network.vfssector.BatchSectors] is more than 1,
+ * full sectors are held until that number of sectors, or property
+ * [org.sd_network.vfssector.BatchBytes] bytes, are collected, and then
+ * inserted by one JDBC batch in one transaction. With AsyncFlush, the
+ * batch is encoded and inserted in background. The first sector of
+ * append mode, that overwrites the existing last sector, is not batched.
  * 
  * <p> $Id$
  *
@@ -71,6 +109,24 @@ public class SectorOutputStream
     /** Sector ID (for append mode) */
     private String _sectorID;
 
+    /** Sector buffers that are free to reuse (for async flush mode). */
+    private BlockingQueue<byte[]> _freeBuffers;
+
+    /** Number of sector buffers allocated (for async flush mode). */
+    private int _allocatedBuffers;
+
+    /** Flushes that are not completed yet (for async flush mode). */
+    private LinkedList<Future<?>> _pendingFlushes;
+
+    /** The first error occurred in background flush. */
+    private volatile Exception _flushError;
+
+    /** Digest of current sector buffer (for dedup mode), or null. */
+    private final MessageDigest _digest;
+
+    /** Sectors waiting for batch insert, or null if not batched. */
+    private SectorBatch _batch;
+
     //////////////////////////////////////////////////////////// 
     // Constructors and Initialisations.
     
@@ -88,21 +144,39 @@ public class SectorOutputStream
      * @param driver    Instance of VfsSectorDriver.
      */
     SectorOutputStream(String fileID, VfsSectorDriver driver) {
+        this(fileID, -1L, driver);
+    }
+
+    /**
+     * Initialisation of OutputStream for a new file that is expected to be
+     * <tt>sizeHint</tt> bytes.
+     *
+     * @param fileID    file ID of the write data.
+     * @param sizeHint  expected number of bytes of the file, or -1 if
+     *                  unknown.
+     * @param driver    Instance of VfsSectorDriver.
+     */
+    SectorOutputStream(String fileID, long sizeHint, VfsSectorDriver driver) {
         if (fileID == null || fileID.trim().length() == 0)
             throw new IllegalArgumentException("fileID is empty.");
 
         _fileID = fileID;
         _sequenceNumber = 0;
-        _streamBuffer = new byte[driver.getDefaultSectorSize()];
+        _streamBuffer = new byte[driver.getInitialSectorSize(sizeHint)];
         _pointer = 0;
         _closed = false;
         _driver = driver;
         _appendMode = false;
+        _digest = driver.newContentDigest();
+        initFlushQueue();
     }
 
     /**
      * Create this instance that is initialized by Sector table.
      * Generally, this constructor is used for open exists file as append mode.
+     * The free space of the last sector is filled first. If the last sector
+     * is already full, the data is written to new sectors that follow it,
+     * without reading the content of the last sector.
      *
      * @param sector    The instance of Sector that is last sector related to
      *                  file.
@@ -112,18 +186,30 @@ public class SectorOutputStream
         if (sector == null)
             throw new IllegalArgumentException("sector is null.");
 
+        int contentSize = sector.getContentSize();
         _fileID = sector.getFileID();
-        _sequenceNumber = sector.getSeqNum();
-        _streamBuffer = new byte[driver.getDefaultSectorSize()];
-        System.arraycopy(
-                sector.getContent(), 0,
-                _streamBuffer, 0,
-                sector.getContentSize());
-        _pointer = sector.getContentSize();
+        _streamBuffer = new byte[Math.max(driver.getInitialSectorSize(-1L),
+                driver.getNextSectorSize(contentSize))];
         _closed = false;
         _driver = driver;
-        _appendMode = true;
-        _sectorID = sector.getSectorID();
+        _digest = driver.newContentDigest();
+        if (contentSize >= driver.getDefaultSectorSize()) {
+            _sequenceNumber = sector.getSeqNum() + 1;
+            _pointer = 0;
+            _appendMode = false;
+        } else {
+            _sequenceNumber = sector.getSeqNum();
+            System.arraycopy(
+                    sector.getContent(), 0,
+                    _streamBuffer, 0,
+                    contentSize);
+            _pointer = contentSize;
+            _appendMode = true;
+            _sectorID = sector.getSectorID();
+            if (_digest != null)
+                _digest.update(_streamBuffer, 0, _pointer);
+        }
+        initFlushQueue();
     }
 
     //////////////////////////////////////////////////////////// 
@@ -134,14 +220,41 @@ public class SectorOutputStream
     {
         if (_closed)
             throw new IOException("This stream was already closed.");
+        checkFlushError();
 
         _streamBuffer[_pointer] = (byte) b;
         _pointer++;
+        if (_digest != null)
+            _digest.update((byte) b);
         if (_pointer < _streamBuffer.length)
             return;
         writeToSector();
     }
 
+    public synchronized void write(byte[] b, int off, int len)
+        throws IOException
+    {
+        if (_closed)
+            throw new IOException("This stream was already closed.");
+        if (b == null)
+            throw new NullPointerException("b");
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        checkFlushError();
+
+        while (len > 0) {
+            int count = Math.min(len, _streamBuffer.length - _pointer);
+            System.arraycopy(b, off, _streamBuffer, _pointer, count);
+            if (_digest != null)
+                _digest.update(b, off, count);
+            _pointer += count;
+            off += count;
+            len -= count;
+            if (_pointer == _streamBuffer.length)
+                writeToSector();
+        }
+    }
+
     public synchronized void flush()
         throws IOException
     {
@@ -158,13 +271,65 @@ public class SectorOutputStream
             return;
 
         try {
-            writeToSector();
-            _closed = true;
+            if (_pointer > 0)
+                writeToSector();
+            if (_batch != null)
+                flushBatch();
+            waitForFlushes(0);
+            checkFlushError();
         } finally {
+            // the lease may be acquired by another stream after release.
+            _closed = true;
             _driver.releaseWriteLock(_fileID);
         }
     }
 
+    //////////////////////////////////////////////////////////// 
+    // Public methods.
+
+    /**
+     * Write data read from <tt>src</tt> until end of stream. The data is
+     * read directly into the sector buffer, so it is not copied through a
+     * caller's array. The channel is expected to be in blocking mode, and
+     * it is not closed by this method.
+     *
+     * @param src   the channel that the data is read from.
+     *
+     * @return  number of bytes written.
+     *
+     * @throws  NullPointerException
+     *          Throws if <tt>src</tt> is null.
+     *
+     * @throws  IOException
+     *          Throws if this stream was already closed, the channel could
+     *          not be read, or a database error occurred.
+     */
+    public synchronized long transferFrom(ReadableByteChannel src)
+        throws IOException
+    {
+        if (_closed)
+            throw new IOException("This stream was already closed.");
+        if (src == null)
+            throw new NullPointerException("src");
+        checkFlushError();
+
+        long count = 0;
+        while (true) {
+            // the buffer is replaced by each sector written.
+            ByteBuffer buf = ByteBuffer.wrap(_streamBuffer, _pointer,
+                    _streamBuffer.length - _pointer);
+            int n = src.read(buf);
+            if (n == -1)
+                return count;
+            if (_digest != null)
+                _digest.update(_streamBuffer, _pointer, n);
+            _pointer += n;
+            count += n;
+            if (_pointer == _streamBuffer.length)
+                writeToSector();
+        }
+    }
+
     //////////////////////////////////////////////////////////// 
     // Private methods.
 
@@ -174,8 +339,10 @@ public class SectorOutputStream
      * <ul>
      *  <li> Increment _sequenceNumber.
      *  <li> Zero clear _pointer.
-     *  <li> Renew _streamBuffer.
+     *  <li> Renew _streamBuffer, that is grown to next sector size.
      * </ul>
+     * If async flush mode, the current buffer is written by background
+     * thread, and _streamBuffer is replaced with a free buffer.
      *
      * @throws  IOException
      *          Throws if a database error occurred.
@@ -183,30 +350,285 @@ public class SectorOutputStream
     private void writeToSector()
         throws IOException
     {
-        try {
-            // write to db.
-            String sectorID = null;
-            if (_appendMode) {
-                sectorID = SectorDB.update(_sectorID, _pointer, _streamBuffer);
-                _appendMode = false;
-            } else {
-                sectorID = SectorDB.create(
-                        _fileID, _sequenceNumber, _pointer, _streamBuffer);
+        final int sequenceNumber = _sequenceNumber;
+        final int size = _pointer;
+        final byte[] content = _streamBuffer;
+        final String sectorID = _appendMode ? _sectorID : null;
+        final String contentHash =
+            (_digest == null) ? null : toHexString(_digest.digest());
+        final int nextSize = _driver.getNextSectorSize(content.length);
+        _appendMode = false;
+        _sequenceNumber++;
+        _pointer = 0;
+
+        if (_batch != null && sectorID == null) {
+            // the batch holds the buffer until inserted.
+            _streamBuffer = new byte[nextSize];
+            _batch.add(_fileID, sequenceNumber, size, content,
+                    contentHash, null);
+            if (_batch.size() >= _driver.getBatchSectors() ||
+                    _batch.getBytes() + nextSize > _driver.getBatchBytes())
+                flushBatch();
+            return;
+        }
+
+        if (_freeBuffers == null) {
+            if (nextSize != content.length)
+                _streamBuffer = new byte[nextSize];
+            try {
+                storeSector(
+                        sequenceNumber, size, content, sectorID, contentHash);
+            } catch (Exception e) {
+                _log.log(Level.SEVERE, "Sector could not write.", e);
+                throw new IOException(e.getMessage());
             }
+            return;
+        }
 
-            // update
-            _sequenceNumber++;
-            _pointer = 0;
+        _streamBuffer = obtainBuffer(nextSize);
+        _pendingFlushes.add(_driver.submitFlush(
+                    new Runnable() {
+                        public void run() {
+                            try {
+                                storeSector(sequenceNumber, size,
+                                    content, sectorID, contentHash);
+                            } catch (Exception e) {
+                                _log.log(Level.SEVERE,
+                                    "Sector could not write.", e);
+                                if (_flushError == null)
+                                    _flushError = e;
+                            } finally {
+                                _freeBuffers.offer(content);
+                            }
+                        }
+                    }));
+
+        // forget flushes that already completed.
+        while (!_pendingFlushes.isEmpty() && _pendingFlushes.peek().isDone())
+            _pendingFlushes.remove();
+    }
 
-            _log.log(Level.FINE, 
-                    "Data wrote to sector. " +
-                    "file_id=" + _fileID + ", " +
-                    "sector_id=" + sectorID + ", " +
-                    "sequence_number=" + _sequenceNumber + ", " +
-                    "number of bytes=" + _pointer + ".");
-        } catch (Exception e) {
-            _log.log(Level.SEVERE, "Sector could not write.", e);
-            throw new IOException(e.getMessage());
+    /**
+     * Write the specified data to the database.
+     * If <tt>sectorID</tt> is not null, the sector is overwritten,
+     * otherwise a new sector is created.
+     *
+     * @param sequenceNumber    sequence number of the sector.
+     * @param size              number of bytes of the data.
+     * @param content           the data.
+     * @param sectorID          ID of the sector to overwrite, or null.
+     * @param contentHash       digest of the data for dedup mode, or null.
+     */
+    private void storeSector(int sequenceNumber, int size, byte[] content,
+            String sectorID, String contentHash)
+    {
+        byte[] stored = content;
+        String codecName = null;
+        SectorCodec codec = _driver.getCodec();
+        if (codec != null) {
+            byte[] encoded = codec.encode(content, size);
+            if (encoded != null) {
+                stored = encoded;
+                codecName = codec.getName();
+            }
         }
+
+        if (sectorID != null) {
+            sectorID = SectorDB.update(
+                    sectorID, size, stored, contentHash, codecName);
+            _driver.invalidateSector(sectorID);
+        } else
+            sectorID = SectorDB.create(_fileID, sequenceNumber, size,
+                    stored, contentHash, codecName);
+
+        _log.log(Level.FINE, 
+                "Data wrote to sector. " +
+                "file_id=" + _fileID + ", " +
+                "sector_id=" + sectorID + ", " +
+                "sequence_number=" + sequenceNumber + ", " +
+                "number of bytes=" + size + ", " +
+                "stored bytes=" + (codecName == null ? size : stored.length) +
+                ".");
+    }
+
+    /**
+     * Insert the sectors collected in the batch, and start a new batch.
+     * If async flush mode, the batch is inserted in background, and this
+     * method waits while property [org.sd_network.vfssector.FlushQueueSize]
+     * batches are waiting for insert.
+     *
+     * @throws  IOException
+     *          Throws if a database error occurred, or interrupted while
+     *          waiting.
+     */
+    private void flushBatch()
+        throws IOException
+    {
+        final SectorBatch batch = _batch;
+        if (batch.size() == 0)
+            return;
+        _batch = new SectorBatch();
+
+        if (_pendingFlushes == null) {
+            try {
+                storeBatch(batch);
+            } catch (Exception e) {
+                _log.log(Level.SEVERE, "Sectors could not write.", e);
+                throw new IOException(e.getMessage());
+            }
+            return;
+        }
+
+        waitForFlushes(_driver.getFlushQueueSize() - 1);
+        _pendingFlushes.add(_driver.submitFlush(
+                    new Runnable() {
+                        public void run() {
+                            try {
+                                storeBatch(batch);
+                            } catch (Exception e) {
+                                _log.log(Level.SEVERE,
+                                    "Sectors could not write.", e);
+                                if (_flushError == null)
+                                    _flushError = e;
+                            }
+                        }
+                    }));
+    }
+
+    /**
+     * Encode the sectors of the specified batch if a codec is specified,
+     * and insert them in one transaction.
+     *
+     * @param batch     sectors that are not encoded yet.
+     */
+    private void storeBatch(SectorBatch batch) {
+        SectorBatch stored = batch;
+        SectorCodec codec = _driver.getCodec();
+        if (codec != null) {
+            stored = new SectorBatch();
+            for (int idx = 0; idx < batch.size(); idx++) {
+                byte[] content = batch.getContent(idx);
+                int size = batch.getSize(idx);
+                byte[] encoded = codec.encode(content, size);
+                stored.add(_fileID, batch.getSeqNum(idx), size,
+                        (encoded == null) ? content : encoded,
+                        batch.getContentHash(idx),
+                        (encoded == null) ? null : codec.getName());
+            }
+        }
+
+        SectorDB.create(stored);
+        _log.log(Level.FINE,
+                "Data wrote to sectors. " +
+                "file_id=" + _fileID + ", " +
+                "sequence_number=" + stored.getSeqNum(0) + "-" +
+                stored.getSeqNum(stored.size() - 1) + ", " +
+                "stored bytes=" + stored.getBytes() + ".");
+    }
+
+    /**
+     * Return hexadecimal string of the specified digest.
+     */
+    private static String toHexString(byte[] digest) {
+        StringBuffer sb = new StringBuffer(digest.length * 2);
+        for (int idx = 0; idx < digest.length; idx++) {
+            int b = digest[idx] & 0xff;
+            if (b < 0x10)
+                sb.append('0');
+            sb.append(Integer.toHexString(b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Prepare the sector batch if batch mode, and the flush queue if async
+     * flush mode.
+     */
+    private void initFlushQueue() {
+        if (_driver.getBatchSectors() > 1)
+            _batch = new SectorBatch();
+        if (!_driver.isAsyncFlushEnabled())
+            return;
+
+        int capacity = _driver.getFlushQueueSize() + 1;
+        _freeBuffers = new ArrayBlockingQueue<byte[]>(capacity);
+        _allocatedBuffers = 1;
+        _pendingFlushes = new LinkedList<Future<?>>();
+    }
+
+    /**
+     * Return a free sector buffer of the specified size. If all of the
+     * buffers are waiting for flush, this method waits until one of them is
+     * released. A released buffer of another size is replaced with new one,
+     * since the sector size grows.
+     *
+     * @param size  number of bytes of the buffer.
+     *
+     * @throws  IOException
+     *          Throws if interrupted while waiting.
+     */
+    private byte[] obtainBuffer(int size)
+        throws IOException
+    {
+        byte[] buffer = _freeBuffers.poll();
+        if (buffer == null) {
+            if (_allocatedBuffers < _driver.getFlushQueueSize() + 1) {
+                _allocatedBuffers++;
+                return new byte[size];
+            }
+            try {
+                buffer = _freeBuffers.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                        "Interrupted while waiting for sector flush.");
+            }
+        }
+        if (buffer.length != size)
+            buffer = new byte[size];
+        return buffer;
+    }
+
+    /**
+     * Wait for the background flushes complete until at most
+     * <tt>remaining</tt> flushes are pending.
+     *
+     * @param remaining number of flushes allowed to be pending.
+     *
+     * @throws  IOException
+     *          Throws if interrupted while waiting.
+     */
+    private void waitForFlushes(int remaining)
+        throws IOException
+    {
+        if (_pendingFlushes == null)
+            return;
+
+        while (_pendingFlushes.size() > remaining) {
+            try {
+                _pendingFlushes.peek().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException(
+                        "Interrupted while waiting for sector flush.");
+            } catch (ExecutionException e) {
+                // the error is already kept in _flushError.
+            }
+            _pendingFlushes.remove();
+        }
+    }
+
+    /**
+     * Throw the error occurred in background flush, if exists.
+     *
+     * @throws  IOException
+     *          Throws if background flush failed.
+     */
+    private void checkFlushError()
+        throws IOException
+    {
+        if (_flushError != null)
+            throw new IOException(
+                    "Sector could not write. " + _flushError.getMessage());
     }
 }
@@ -16,11 +16,28 @@
 package org.sd_network.vfssector;
 
 import java.io.InputStream;
+import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Set;
-import java.util.HashSet;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.logging.Level;
+import java.util.zip.Deflater;
 
 import org.sd_network.db.DBException;
 import org.sd_network.db.ConnectionPool;
@@ -28,6 +45,9 @@ import org.sd_network.db.ConnectionPoolException;
 import org.sd_network.util.Config;
 import org.sd_network.vfs.sector.SectorDriver;
 import org.sd_network.vfs.sector.SectorException;
+import org.sd_network.vfssector.codec.DeflateCodec;
+import org.sd_network.vfssector.codec.SectorCodec;
+import org.sd_network.vfssector.codec.SectorCodecs;
 import org.sd_network.vfssector.db.Schema;
 import org.sd_network.vfssector.db.Sector;
 import org.sd_network.vfssector.db.SectorDB;
@@ -36,6 +56,17 @@ import org.sd_network.vfssector.db.SectorDB;
  * A {@link org.sd_network.vfs.sector.SectorDriver} implementation for
  * vfssector.
  *
+ * <p> Each stream holds a lease of its file: a file has any number of
+ * readers, or one writer. Leases are kept per file, and the driver has no
+ * global lock, so streams of unrelated files are opened and closed in
+ * parallel.
+ *
+ * <p> Sectors may be stored in several databases, that are connection
+ * groups "vfssector-0" to "vfssector-(N-1)". All sectors of a file are in
+ * one of them, chosen by hash of the file ID, so uploads and reads of
+ * different files are spread over the databases. The number of shards is
+ * shared by all drivers in the JVM.
+ *
  * <p> $Id$
  *
  * @author Masatoshi Sato
@@ -54,95 +85,373 @@ public class VfsSectorDriver
     private static final String _PROP_AVAILABLEBYTES =
         "org.sd_network.vfssector.AvailableBytes";
 
+    /** Property name of maximum sector size. */
+    private static final String _PROP_SECTORSIZE =
+        "org.sd_network.vfssector.SectorSize";
+
+    /** Property name of initial sector size of a file without size hint. */
+    private static final String _PROP_INITIALSECTORSIZE =
+        "org.sd_network.vfssector.InitialSectorSize";
+
+    /** Minimum initial sector size for a file with size hint. */
+    private static final int _MIN_SECTOR_SIZE = 4096;
+
+    /** Property name of read ahead flag. */
+    private static final String _PROP_READAHEAD =
+        "org.sd_network.vfssector.ReadAhead";
+
+    /** Property name of number of sectors fetched in parallel. */
+    private static final String _PROP_PARALLELFETCH =
+        "org.sd_network.vfssector.ParallelFetch";
+
+    /** Property name of maximum bytes of sectors fetched by a stream. */
+    private static final String _PROP_PARALLELFETCHBYTES =
+        "org.sd_network.vfssector.ParallelFetchBytes";
+
+    /** Property name of number of threads to fetch sectors in parallel. */
+    private static final String _PROP_PARALLELFETCHTHREADS =
+        "org.sd_network.vfssector.ParallelFetchThreads";
+
+    /** Property name of async flush flag. */
+    private static final String _PROP_ASYNCFLUSH =
+        "org.sd_network.vfssector.AsyncFlush";
+
+    /** Property name of number of threads to write sectors in background. */
+    private static final String _PROP_FLUSHTHREADS =
+        "org.sd_network.vfssector.FlushThreads";
+
+    /** Property name of flush queue size. */
+    private static final String _PROP_FLUSHQUEUESIZE =
+        "org.sd_network.vfssector.FlushQueueSize";
+
+    /** Property name of sector cache size in bytes. */
+    private static final String _PROP_CACHEBYTES =
+        "org.sd_network.vfssector.CacheBytes";
+
+    /** Property name of streaming read flag. */
+    private static final String _PROP_STREAMINGREAD =
+        "org.sd_network.vfssector.StreamingRead";
+
+    /** Property name of maximum number of cursors for streaming read. */
+    private static final String _PROP_STREAMINGREADCURSORS =
+        "org.sd_network.vfssector.StreamingReadCursors";
+
+    /** Property name of fetch size for streaming read. */
+    private static final String _PROP_FETCHSIZE =
+        "org.sd_network.vfssector.FetchSize";
+
+    /** Property name of deduplication flag. */
+    private static final String _PROP_DEDUP =
+        "org.sd_network.vfssector.Dedup";
+
+    /** Digest algorithm to identify content of sectors for deduplication. */
+    private static final String _DEDUP_ALGORITHM = "SHA-256";
+
+    /** Property name of codec to encode sectors. */
+    private static final String _PROP_CODEC =
+        "org.sd_network.vfssector.Codec";
+
+    /** Property name of compression level of deflate codec. */
+    private static final String _PROP_CODECLEVEL =
+        "org.sd_network.vfssector.CodecLevel";
+
+    /** Property name of minimum compression ratio of deflate codec. */
+    private static final String _PROP_CODECMINRATIO =
+        "org.sd_network.vfssector.CodecMinRatio";
+
+    /** Property name of number of sectors inserted in one batch. */
+    private static final String _PROP_BATCHSECTORS =
+        "org.sd_network.vfssector.BatchSectors";
+
+    /** Property name of maximum bytes of sectors in one batch. */
+    private static final String _PROP_BATCHBYTES =
+        "org.sd_network.vfssector.BatchBytes";
+
+    /** Property name of interval seconds of used bytes reconciliation. */
+    private static final String _PROP_RECONCILEINTERVAL =
+        "org.sd_network.vfssector.ReconcileInterval";
+
+    /** Property name of interval milliseconds of sector reclamation. */
+    private static final String _PROP_RECLAIMINTERVAL =
+        "org.sd_network.vfssector.ReclaimInterval";
+
+    /** Property name of number of sectors reclaimed at a time. */
+    private static final String _PROP_RECLAIMSECTORS =
+        "org.sd_network.vfssector.ReclaimSectors";
+
+    /** Property name of number of databases that sectors are stored in. */
+    private static final String _PROP_SHARDS =
+        "org.sd_network.vfssector.Shards";
+
+    /**
+     * Executor of used bytes reconciliation. The counters are shared by
+     * all drivers in the JVM, so one executor is shared too.
+     */
+    private static ScheduledExecutorService _reconcileExecutor;
+
+    /**
+     * Executor of reclamation of tombstoned sectors. Tombstones are shared
+     * by all drivers in the JVM, so one executor is shared too.
+     */
+    private static ScheduledExecutorService _reclaimExecutor;
+
     /** initialized flag. */
-    private boolean _initialized = false;
+    private volatile boolean _initialized = false;
 
-    /** Read locked fileID collection. */
-    private Set<String> _readLockedSet = new HashSet<String>();
+    /** Properties that the driver is initialized by. */
+    private final Properties _properties;
 
-    /** Write locked fileID collection. */
-    private Set<String> _writeLockedSet = new HashSet<String>();
+    /** Read and write leases of files. */
+    private final FileLeases _leases = new FileLeases();
 
     /** available bytes in this Driver. */
     private long _availableBytes;
 
+    /** Maximum number of bytes of a sector. */
+    private int _sectorSize;
+
+    /** Number of bytes of the first sector of a file without size hint. */
+    private int _initialSectorSize;
+
+    /**
+     * Number of sectors that SectorInputStream reads ahead in background,
+     * 0 if disabled.
+     */
+    private int _fetchAhead;
+
+    /** Maximum bytes of sectors that SectorInputStream reads ahead. */
+    private long _fetchAheadBytes;
+
+    /** Executor for read ahead of sectors. */
+    private ExecutorService _readAheadExecutor;
+
+    /** If true, SectorOutputStream writes full sectors in background. */
+    private boolean _asyncFlush;
+
+    /** Maximum number of sectors waiting for flush per stream. */
+    private int _flushQueueSize;
+
+    /** Executor for background flush of sectors. */
+    private ExecutorService _flushExecutor;
+
+    /** Cache of sector contents, or null if disabled. */
+    private SectorCache _cache;
+
+    /** If true, SectorInputStream reads all sectors through one cursor. */
+    private boolean _streamingRead;
+
+    /**
+     * Permits of cursors for streaming read. Each cursor holds a pooled
+     * connection until its stream is closed.
+     */
+    private Semaphore _cursorPermits;
+
+    /** Fetch size of the cursor for streaming read. */
+    private int _fetchSize;
+
+    /** If true, sectors that have same content share one stored content. */
+    private boolean _dedup;
+
+    /** Codec to encode sectors, or null if sectors are stored as is. */
+    private SectorCodec _codec;
+
+    /** Number of sectors inserted in one batch, 1 if not batched. */
+    private int _batchSectors;
+
+    /** Maximum bytes of sectors in one batch. */
+    private long _batchBytes;
+
+    /** Number of tombstoned sectors reclaimed in one transaction. */
+    private int _reclaimSectors;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    /**
+     * Create a driver initialized by the global {@link Config}.
+     */
+    public VfsSectorDriver() {
+        this(Config.getInstance());
+    }
+
     /**
-     * Used bytes.
-     * This value is cleared when getOutputStream method call.
+     * Create a driver initialized by the specified properties instead of
+     * the global {@link Config}, so that drivers of the same class can
+     * have different properties.
      */
-    private long _usedBytes;
+    public VfsSectorDriver(Properties properties) {
+        if (properties == null)
+            throw new NullPointerException("properties");
+        _properties = properties;
+    }
 
     //////////////////////////////////////////////////////////// 
     // Implements to SectorDriver.
     
-    public synchronized OutputStream getOutputStream(String fileID)
+    public OutputStream getOutputStream(String fileID)
         throws SectorException
     {
-        checkInitialized();
-        checkReadLocked(fileID);
-        checkWriteLocked(fileID);
+        return getOutputStream(fileID, -1L);
+    }
 
-        _writeLockedSet.add(fileID);
-        clearUsedBytes();
+    /**
+     * Return OutputStream for a new file that is expected to be
+     * <tt>sizeHint</tt> bytes. The first sector of the file is sized to
+     * the hint, up to property [org.sd_network.vfssector.SectorSize].
+     * Without the hint, the first sector is sized to property
+     * [org.sd_network.vfssector.InitialSectorSize]. In both cases, the
+     * following sectors grow twice as large as the previous one up to
+     * property [org.sd_network.vfssector.SectorSize].
+     */
+    public OutputStream getOutputStream(String fileID, long sizeHint)
+        throws SectorException
+    {
+        checkInitialized();
+        _leases.acquireWrite(fileID);
         try {
-            return new SectorOutputStream(fileID, this);
+            return new SectorOutputStream(fileID, sizeHint, this);
         } catch (Exception e) {
+            releaseWriteLock(fileID);
             throw new SectorException(e);
         }
     }
 
-    public synchronized OutputStream getOutputStream(String fileID,
-            boolean append)
+    public OutputStream getOutputStream(String fileID, boolean append)
         throws SectorException
     {
-        if (!append)
-            return getOutputStream(fileID);
+        return getOutputStream(fileID, append, -1L);
+    }
 
-        checkInitialized();
-        checkReadLocked(fileID);
-        checkWriteLocked(fileID);
+    public InputStream getInputStream(String fileID)
+        throws SectorException
+    {
+        return getInputStream(fileID, 0L);
+    }
 
-        _writeLockedSet.add(fileID);
-        clearUsedBytes();
+    /**
+     * Return InputStream that starts reading at <tt>offset</tt> of the file.
+     * The sector that contains the offset is found by the offset index of
+     * the file, so the preceding sectors are not read. The returned stream
+     * is {@link SectorInputStream}, which can move further by
+     * {@link SectorInputStream#seek(long)}.
+     */
+    public InputStream getInputStream(String fileID, long offset)
+        throws SectorException
+    {
+        checkInitialized();
+        _leases.acquireRead(fileID);
         try {
-            Sector lastSector = SectorDB.getLastSector(fileID);
-            return new SectorOutputStream(lastSector, this);
+            return new SectorInputStream(fileID, offset, this);
         } catch (Exception e) {
+            releaseReadLock(fileID);
             throw new SectorException(e);
         }
     }
 
-    public synchronized InputStream getInputStream(String fileID)
+    /**
+     * Write all data of the file to <tt>target</tt>. Content of each
+     * sector is written to the channel from the buffer that it was read
+     * into, or from the sector cache, by {@link
+     * SectorInputStream#transferTo(WritableByteChannel)}. Read ahead and
+     * parallel fetch work as for the stream.
+     */
+    public long transferTo(String fileID, WritableByteChannel target)
         throws SectorException
     {
-        checkInitialized();
-        checkWriteLocked(fileID);
+        if (target == null)
+            throw new NullPointerException("target");
 
-        _readLockedSet.add(fileID);
+        SectorInputStream is = (SectorInputStream) getInputStream(fileID);
         try {
-            return new SectorInputStream(fileID, this);
-        } catch (Exception e) {
-            throw new SectorException(e);
+            return is.transferTo(target);
+        } catch (IOException e) {
+            throw new SectorException(
+                    "Data could not transfer. " + e.getMessage(), e);
+        } finally {
+            try {
+                is.close();
+            } catch (IOException e) {
+                _log.log(Level.WARNING, "Could not close stream.", e);
+            }
+        }
+    }
+
+    public long transferFrom(String fileID, ReadableByteChannel src)
+        throws SectorException
+    {
+        return transferFrom(fileID, src, false);
+    }
+
+    /**
+     * Write data read from <tt>src</tt> to the file. The data is read
+     * into the sector buffer directly by {@link
+     * SectorOutputStream#transferFrom(ReadableByteChannel)}, and written
+     * as through the stream of {@link #getOutputStream(String, boolean)}.
+     * If <tt>src</tt> is a FileChannel, its remaining bytes are the size
+     * hint of the first sector, as for {@link #getOutputStream(String,
+     * long)}, when the file has no sectors yet. If reading the channel
+     * fails, the stream is closed, which commits the sectors of the data
+     * read so far, and SectorException is thrown.
+     */
+    public long transferFrom(String fileID, ReadableByteChannel src,
+            boolean append)
+        throws SectorException
+    {
+        if (src == null)
+            throw new NullPointerException("src");
+
+        long sizeHint = -1L;
+        if (src instanceof FileChannel) {
+            try {
+                FileChannel channel = (FileChannel) src;
+                sizeHint = Math.max(0L, channel.size() - channel.position());
+            } catch (IOException e) {
+                _log.log(Level.FINE, "Size of the channel is unknown.", e);
+            }
+        }
+        SectorOutputStream os =
+            (SectorOutputStream) getOutputStream(fileID, append, sizeHint);
+        try {
+            long count = os.transferFrom(src);
+            os.close();
+            return count;
+        } catch (IOException e) {
+            try {
+                os.close();
+            } catch (IOException e2) {
+                _log.log(Level.WARNING, "Could not close stream.", e2);
+            }
+            throw new SectorException(
+                    "Data could not transfer. " + e.getMessage(), e);
         }
     }
 
     public boolean isWriteLocked(String fileID) {
-        return _writeLockedSet.contains(fileID);
+        return _leases.isWriteLeased(fileID);
     }
 
     public boolean isReadLocked(String fileID) {
-        return _readLockedSet.contains(fileID);
+        return _leases.getReadCount(fileID) > 0;
     }
 
-    public synchronized void deleteSectors(String fileID)
+    /**
+     * Tombstone sectors of the specified file. The sectors are invisible
+     * to reads at once, and deleted later by reclamation. See
+     * {@link #reclaim()}. The write lease of the file is held while
+     * tombstoning, so this fails if the file is read or written.
+     */
+    public void deleteSectors(String fileID)
         throws SectorException
     {
         checkInitialized();
-        checkReadLocked(fileID);
-        checkWriteLocked(fileID);
-
-        SectorDB.deleteSectors(fileID);
-        clearUsedBytes();
+        _leases.acquireWrite(fileID);
+        try {
+            SectorDB.tombstoneSectors(fileID);
+            if (_cache != null)
+                _cache.invalidateFile(fileID);
+        } finally {
+            releaseWriteLock(fileID);
+        }
     }
 
     public void initDriver()
@@ -152,22 +461,36 @@ public class VfsSectorDriver
             return;
 
         // setup database connection informations.
+        Properties config = _properties;
+        int shards = getPositiveIntProperty(config, _PROP_SHARDS, "1");
+        if (shards > SectorDB.MAX_SHARDS)
+            throw new SectorException(
+                    "Invalid property [" + _PROP_SHARDS + "]. " +
+                    "The value must be " + SectorDB.MAX_SHARDS +
+                    " or less.");
+        SectorDB.setShardCount(shards);
+        String[] poolNames = SectorDB.getPoolNames();
         try {
-            ConnectionPool pool = ConnectionPool.getInstance("vfssector");
+            for (int idx = 0; idx < poolNames.length; idx++)
+                ConnectionPool.getInstance(poolNames[idx]);
         } catch (ConnectionPoolException e) {
             throw new SectorException(e.getMessage());
         }
 
         try {
             // setup database scheme.
-            Schema.setup();
+            for (int idx = 0; idx < poolNames.length; idx++)
+                Schema.setup(poolNames[idx]);
         } catch (DBException e) {
             throw new SectorException(
                     "Database error occurred. " + e.getMessage(), e);
         }
 
         // setup etc.
-        Config config = Config.getInstance();
+        _sectorSize = getPositiveIntProperty(
+                config, _PROP_SECTORSIZE, "1048576");
+        _initialSectorSize = Math.min(_sectorSize, getPositiveIntProperty(
+                config, _PROP_INITIALSECTORSIZE, "65536"));
         try {
             _availableBytes = Long.parseLong(
                     config.getProperty(_PROP_AVAILABLEBYTES));
@@ -176,7 +499,146 @@ public class VfsSectorDriver
                     "Invalid property " + _PROP_AVAILABLEBYTES + "]. " +
                     e.getMessage(), e);
         }
-        clearUsedBytes();
+        boolean readAhead = Boolean.valueOf(
+                config.getProperty(_PROP_READAHEAD, "false")).booleanValue();
+        int parallelFetch;
+        try {
+            parallelFetch = Integer.parseInt(
+                    config.getProperty(_PROP_PARALLELFETCH, "0"));
+            _fetchAheadBytes = Long.parseLong(
+                    config.getProperty(_PROP_PARALLELFETCHBYTES, "16777216"));
+        } catch (NumberFormatException e) {
+            throw new SectorException(
+                    "Invalid property [" + _PROP_PARALLELFETCH + "] or [" +
+                    _PROP_PARALLELFETCHBYTES + "]. " + e.getMessage(), e);
+        }
+        if (parallelFetch < 0)
+            throw new SectorException(
+                    "Invalid property [" + _PROP_PARALLELFETCH + "]. " +
+                    "The value must be 0 or more.");
+        if (_fetchAheadBytes < 1)
+            throw new SectorException(
+                    "Invalid property [" + _PROP_PARALLELFETCHBYTES + "]. " +
+                    "The value must be 1 or more.");
+        // bounded, since each fetch engages a database connection.
+        int fetchThreads = getPositiveIntProperty(
+                config, _PROP_PARALLELFETCHTHREADS, "8");
+        _fetchAhead = 0;
+        _readAheadExecutor = null;
+        if (parallelFetch > 0) {
+            _fetchAhead = parallelFetch;
+            _readAheadExecutor =
+                newDaemonExecutor("vfssector-fetch", fetchThreads);
+        } else if (readAhead) {
+            _fetchAhead = 1;
+            _readAheadExecutor =
+                newDaemonExecutor("vfssector-readahead", fetchThreads);
+        }
+
+        _asyncFlush = Boolean.valueOf(
+                config.getProperty(_PROP_ASYNCFLUSH, "false")).booleanValue();
+        try {
+            _flushQueueSize = Integer.parseInt(
+                    config.getProperty(_PROP_FLUSHQUEUESIZE, "1"));
+        } catch (NumberFormatException e) {
+            throw new SectorException(
+                    "Invalid property [" + _PROP_FLUSHQUEUESIZE + "]. " +
+                    e.getMessage(), e);
+        }
+        if (_flushQueueSize < 1)
+            throw new SectorException(
+                    "Invalid property [" + _PROP_FLUSHQUEUESIZE + "]. " +
+                    "The value must be 1 or more.");
+        if (_asyncFlush)
+            _flushExecutor = newDaemonExecutor("vfssector-flush",
+                    getPositiveIntProperty(config, _PROP_FLUSHTHREADS, "8"));
+
+        long cacheBytes;
+        try {
+            cacheBytes = Long.parseLong(
+                    config.getProperty(_PROP_CACHEBYTES, "0"));
+        } catch (NumberFormatException e) {
+            throw new SectorException(
+                    "Invalid property [" + _PROP_CACHEBYTES + "]. " +
+                    e.getMessage(), e);
+        }
+        if (cacheBytes > 0)
+            _cache = new SectorCache(cacheBytes);
+
+        _streamingRead = Boolean.valueOf(
+                config.getProperty(_PROP_STREAMINGREAD, "false"))
+            .booleanValue();
+        // half of a pool, so that per-sector reads and writes never wait
+        // for connections held by streaming readers.
+        _cursorPermits = new Semaphore(getPositiveIntProperty(
+                    config, _PROP_STREAMINGREADCURSORS,
+                    String.valueOf(ConnectionPool.MAX_POOL_SIZE / 2)));
+        try {
+            _fetchSize = Integer.parseInt(
+                    config.getProperty(_PROP_FETCHSIZE, "4"));
+        } catch (NumberFormatException e) {
+            throw new SectorException(
+                    "Invalid property [" + _PROP_FETCHSIZE + "]. " +
+                    e.getMessage(), e);
+        }
+        if (_fetchSize < 0)
+            throw new SectorException(
+                    "Invalid property [" + _PROP_FETCHSIZE + "]. " +
+                    "The value must be 0 or more.");
+
+        _dedup = Boolean.valueOf(
+                config.getProperty(_PROP_DEDUP, "false")).booleanValue();
+        if (_dedup) {
+            try {
+                MessageDigest.getInstance(_DEDUP_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new SectorException(
+                        "Digest algorithm for deduplication not found. " +
+                        e.getMessage(), e);
+            }
+        }
+        _codec = createCodec(config);
+
+        _batchSectors = getPositiveIntProperty(
+                config, _PROP_BATCHSECTORS, "1");
+        try {
+            _batchBytes = Long.parseLong(
+                    config.getProperty(_PROP_BATCHBYTES, "16777216"));
+        } catch (NumberFormatException e) {
+            throw new SectorException(
+                    "Invalid property [" + _PROP_BATCHBYTES + "]. " +
+                    e.getMessage(), e);
+        }
+        if (_batchBytes < 1)
+            throw new SectorException(
+                    "Invalid property [" + _PROP_BATCHBYTES + "]. " +
+                    "The value must be 1 or more.");
+
+        long reconcileInterval;
+        try {
+            reconcileInterval = Long.parseLong(
+                    config.getProperty(_PROP_RECONCILEINTERVAL, "3600"));
+        } catch (NumberFormatException e) {
+            throw new SectorException(
+                    "Invalid property [" + _PROP_RECONCILEINTERVAL + "]. " +
+                    e.getMessage(), e);
+        }
+        if (reconcileInterval > 0)
+            startReconcile(reconcileInterval);
+
+        _reclaimSectors = getPositiveIntProperty(
+                config, _PROP_RECLAIMSECTORS, "8");
+        long reclaimInterval;
+        try {
+            reclaimInterval = Long.parseLong(
+                    config.getProperty(_PROP_RECLAIMINTERVAL, "100"));
+        } catch (NumberFormatException e) {
+            throw new SectorException(
+                    "Invalid property [" + _PROP_RECLAIMINTERVAL + "]. " +
+                    e.getMessage(), e);
+        }
+        if (reclaimInterval > 0)
+            startReclaim(reclaimInterval, _reclaimSectors);
         _initialized = true;
     }
 
@@ -200,67 +662,531 @@ public class VfsSectorDriver
         return _availableBytes;
     }
 
+    /**
+     * Return bytes actually stored by this driver. Content shared by
+     * deduplicated sectors is counted once. See
+     * {@link #getLogicalUsedBytes()} for bytes of the files.
+     *
+     * <p> The value is a counter maintained with each change of sectors,
+     * so this method does not scan the database.
+     */
     public long getUsedBytes()
         throws SectorException
     {
         checkInitialized();
-        if (isUsedBytesClear())
-            _usedBytes = SectorDB.getUsedBytes();
-        return _usedBytes;
+        try {
+            return SectorDB.getPhysicalUsedBytes();
+        } catch (DBException e) {
+            throw new SectorException(e);
+        }
+    }
+
+    //////////////////////////////////////////////////////////// 
+    // Public methods.
+
+    /**
+     * Return the cache of sector contents. Statistics of the cache, such as
+     * number of hits, misses and evictions, are available from it.
+     *
+     * @return  the cache, or <tt>null</tt> if property
+     *          [org.sd_network.vfssector.CacheBytes] is not positive.
+     */
+    public SectorCache getSectorCache() {
+        return _cache;
+    }
+
+    /**
+     * Return total bytes of the files stored by this driver. Content shared
+     * by deduplicated sectors is counted for each sector.
+     *
+     * @return  logical used bytes.
+     */
+    public long getLogicalUsedBytes()
+        throws SectorException
+    {
+        checkInitialized();
+        try {
+            return SectorDB.getUsedBytes();
+        } catch (DBException e) {
+            throw new SectorException(e);
+        }
+    }
+
+    /**
+     * Return bytes actually stored by this driver. This is same as
+     * {@link #getUsedBytes()}.
+     *
+     * @return  physical used bytes.
+     */
+    public long getPhysicalUsedBytes()
+        throws SectorException
+    {
+        return getUsedBytes();
+    }
+
+    /**
+     * Shut down the threads of this driver that read sectors ahead and
+     * write sectors in background. Reads ahead are cancelled, and sectors
+     * waiting for background write are still written. Streams of this
+     * driver must be closed before. The driver can be used again after
+     * {@link #initDriver()}.
+     */
+    public void shutdown() {
+        _initialized = false;
+        if (_readAheadExecutor != null)
+            _readAheadExecutor.shutdownNow();
+        if (_flushExecutor != null)
+            _flushExecutor.shutdown();
+    }
+
+    /**
+     * Reclaim all tombstoned sectors now. {@link #deleteSectors(String)}
+     * only tombstones sectors of the file, and they are reclaimed in
+     * background at the interval of property
+     * [org.sd_network.vfssector.ReclaimInterval]. This method is for when
+     * the background reclamation is disabled, or the space is needed
+     * without waiting for it.
+     *
+     * @return  number of sectors reclaimed.
+     */
+    public int reclaim()
+        throws SectorException
+    {
+        checkInitialized();
+        try {
+            int total = 0;
+            int count;
+            while ((count = SectorDB.reclaimSectors(_reclaimSectors)) > 0)
+                total += count;
+            return total;
+        } catch (DBException e) {
+            throw new SectorException(e);
+        }
     }
 
     //////////////////////////////////////////////////////////// 
     // Package methods.
 
     void releaseWriteLock(String fileID) {
-        _writeLockedSet.remove(fileID);
+        _leases.releaseWrite(fileID);
     }
 
+    /**
+     * Release a read lease of the file. Leases of other streams that read
+     * the same file are kept.
+     */
     void releaseReadLock(String fileID) {
-        _readLockedSet.remove(fileID);
+        _leases.releaseRead(fileID);
     }
 
+    /**
+     * Return maximum number of bytes of a sector, that is specified by
+     * property [org.sd_network.vfssector.SectorSize].
+     */
     int getDefaultSectorSize() {
-        return 1048576;
+        return _sectorSize;
+    }
+
+    /**
+     * Return number of bytes of the first sector of a file.
+     *
+     * @param sizeHint  expected number of bytes of the file, or -1 if
+     *                  unknown.
+     */
+    int getInitialSectorSize(long sizeHint) {
+        if (sizeHint < 0)
+            return _initialSectorSize;
+        return (int) Math.min(_sectorSize,
+                Math.max(sizeHint, _MIN_SECTOR_SIZE));
+    }
+
+    /**
+     * Return number of bytes of the sector following a sector of the
+     * specified size. It is twice of the size up to maximum sector size,
+     * but not less than the specified size.
+     *
+     * @param size  number of bytes of the previous sector.
+     */
+    int getNextSectorSize(int size) {
+        long next = Math.min(_sectorSize, (long) size * 2);
+        return (int) Math.max(Math.max(next, size), 1);
+    }
+
+    /**
+     * Return number of sectors that SectorInputStream reads ahead in
+     * background. This is property [org.sd_network.vfssector.ParallelFetch]
+     * if positive, otherwise 1 if property
+     * [org.sd_network.vfssector.ReadAhead] is true, otherwise 0.
+     */
+    int getFetchAhead() {
+        return _fetchAhead;
+    }
+
+    /**
+     * Return maximum bytes of sectors that SectorInputStream reads ahead,
+     * that is specified by property
+     * [org.sd_network.vfssector.ParallelFetchBytes].
+     */
+    long getFetchAheadBytes() {
+        return _fetchAheadBytes;
+    }
+
+    /**
+     * Test whether SectorInputStream reads all sectors through one cursor.
+     */
+    boolean isStreamingReadEnabled() {
+        return _streamingRead;
+    }
+
+    /**
+     * Acquire a permit to open a cursor for streaming read without
+     * waiting. The number of permits is property
+     * [org.sd_network.vfssector.StreamingReadCursors]. A stream that
+     * cannot acquire it reads sectors one by one instead, so that
+     * streaming readers never take all connections of the pool.
+     *
+     * @return  true if the permit is acquired. It must be released by
+     *          {@link #releaseCursor()}.
+     */
+    boolean tryAcquireCursor() {
+        return _cursorPermits.tryAcquire();
+    }
+
+    /**
+     * Release the permit acquired by {@link #tryAcquireCursor()}.
+     */
+    void releaseCursor() {
+        _cursorPermits.release();
+    }
+
+    /**
+     * Return fetch size of the cursor for streaming read.
+     */
+    int getFetchSize() {
+        return _fetchSize;
+    }
+
+    /**
+     * Return codec to encode sectors.
+     *
+     * @return  the codec, or null if sectors are stored as is.
+     */
+    SectorCodec getCodec() {
+        return _codec;
+    }
+
+    /**
+     * Return number of sectors that SectorOutputStream inserts in one
+     * batch. 1 means each sector is inserted by its own transaction.
+     */
+    int getBatchSectors() {
+        return _batchSectors;
+    }
+
+    /**
+     * Return maximum bytes of sectors that SectorOutputStream holds for
+     * one batch.
+     */
+    long getBatchBytes() {
+        return _batchBytes;
+    }
+
+    /**
+     * Return a new digest to identify content of a sector for
+     * deduplication.
+     *
+     * @return  the digest, or null if deduplication is disabled.
+     */
+    MessageDigest newContentDigest() {
+        if (!_dedup)
+            return null;
+        try {
+            return MessageDigest.getInstance(_DEDUP_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // already checked by initDriver.
+            throw new IllegalStateException(e.getMessage());
+        }
+    }
+
+    /**
+     * Return content of the specified sector. If the sector cache is
+     * enabled, the content is read through it.
+     *
+     * @param fileID    ID of the file that the sector belongs to.
+     * @param sectorID  ID of the sector to read.
+     *
+     * @return  content of the sector, positioned at its beginning.
+     */
+    ByteBuffer readSector(String fileID, final String sectorID) {
+        if (_cache == null)
+            return ByteBuffer.wrap(SectorDB.getContent(sectorID));
+
+        return _cache.get(fileID, sectorID,
+                new Callable<byte[]>() {
+                    public byte[] call() {
+                        return SectorDB.getContent(sectorID);
+                    }
+                });
+    }
+
+    /**
+     * Start reading content of the specified sector in background.
+     *
+     * @param fileID    ID of the file that the sector belongs to.
+     * @param sectorID  ID of the sector to read.
+     *
+     * @return  Future of the content of the sector.
+     */
+    Future<ByteBuffer> readAhead(final String fileID, final String sectorID) {
+        return _readAheadExecutor.submit(
+                new Callable<ByteBuffer>() {
+                    public ByteBuffer call() {
+                        return readSector(fileID, sectorID);
+                    }
+                });
+    }
+
+    /**
+     * Remove the specified sector from the sector cache. This method must be
+     * called after content of the sector is changed or deleted.
+     *
+     * @param sectorID  ID of the sector.
+     */
+    void invalidateSector(String sectorID) {
+        if (_cache != null)
+            _cache.invalidate(sectorID);
+    }
+
+    /**
+     * Test whether SectorOutputStream writes full sectors in background.
+     */
+    boolean isAsyncFlushEnabled() {
+        return _asyncFlush;
+    }
+
+    /**
+     * Return maximum number of sectors waiting for flush per stream.
+     */
+    int getFlushQueueSize() {
+        return _flushQueueSize;
+    }
+
+    /**
+     * Start the specified flush of a sector in background.
+     *
+     * @param flush     the flush process.
+     *
+     * @return  Future of the flush.
+     */
+    Future<?> submitFlush(Runnable flush) {
+        return _flushExecutor.submit(flush);
     }
 
     //////////////////////////////////////////////////////////// 
     // Private methods.
 
-    private void checkInitialized()
+    /**
+     * Return OutputStream of the file. If the file has no sectors yet, the
+     * first sector is sized by <tt>sizeHint</tt> as for
+     * {@link #getOutputStream(String, long)}. -1 means no hint.
+     */
+    private OutputStream getOutputStream(String fileID, boolean append,
+            long sizeHint)
         throws SectorException
     {
-        if (!_initialized)
-            throw new SectorException("SectorDriver not initialized.");
+        if (!append)
+            return getOutputStream(fileID, sizeHint);
+
+        checkInitialized();
+        _leases.acquireWrite(fileID);
+        try {
+            Sector lastSector = SectorDB.getLastSector(fileID);
+            if (lastSector == null)
+                return new SectorOutputStream(fileID, sizeHint, this);
+            return new SectorOutputStream(lastSector, this);
+        } catch (Exception e) {
+            releaseWriteLock(fileID);
+            throw new SectorException(e);
+        }
     }
 
-    private void checkReadLocked(String fileID)
+    /**
+     * Return value of the specified property that must be a positive int.
+     */
+    private static int getPositiveIntProperty(Properties config, String name,
+            String defaultValue)
         throws SectorException
     {
-        if (_readLockedSet.contains(fileID))
+        int value;
+        try {
+            value = Integer.parseInt(config.getProperty(name, defaultValue));
+        } catch (NumberFormatException e) {
+            throw new SectorException(
+                    "Invalid property [" + name + "]. " + e.getMessage(), e);
+        }
+        if (value < 1)
             throw new SectorException(
-                    "Speicified file have been read locked.");
+                    "Invalid property [" + name + "]. " +
+                    "The value must be 1 or more.");
+        return value;
     }
 
-    private void checkWriteLocked(String fileID)
+    /**
+     * Create codec specified by property. The property is "deflate", or
+     * class name of a {@link SectorCodec} implementation, which is
+     * registered to {@link SectorCodecs} to decode sectors.
+     *
+     * @return  the codec, or null if property is not specified.
+     */
+    private static SectorCodec createCodec(Properties config)
         throws SectorException
     {
-        if (_writeLockedSet.contains(fileID))
+        String name = config.getProperty(_PROP_CODEC, "").trim();
+        if (name.length() == 0 || name.equals("none"))
+            return null;
+
+        if (name.equals(DeflateCodec.NAME)) {
+            int level;
+            double minRatio;
+            try {
+                level = Integer.parseInt(config.getProperty(
+                        _PROP_CODECLEVEL,
+                        String.valueOf(Deflater.DEFAULT_COMPRESSION)));
+            } catch (NumberFormatException e) {
+                throw new SectorException(
+                        "Invalid property [" + _PROP_CODECLEVEL + "]. " +
+                        e.getMessage(), e);
+            }
+            try {
+                minRatio = Double.parseDouble(
+                        config.getProperty(_PROP_CODECMINRATIO, "0.9"));
+            } catch (NumberFormatException e) {
+                throw new SectorException(
+                        "Invalid property [" + _PROP_CODECMINRATIO + "]. " +
+                        e.getMessage(), e);
+            }
+            try {
+                return new DeflateCodec(level, minRatio);
+            } catch (IllegalArgumentException e) {
+                throw new SectorException(
+                        "Invalid codec properties. " + e.getMessage(), e);
+            }
+        }
+
+        try {
+            SectorCodec codec = (SectorCodec) Class.forName(name)
+                .getDeclaredConstructor().newInstance();
+            SectorCodecs.register(codec);
+            return codec;
+        } catch (Exception e) {
             throw new SectorException(
-                    "Specified file have been write locked.");
+                    "Invalid property [" + _PROP_CODEC + "]. " +
+                    e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Create an executor that runs tasks with up to the specified number
+     * of daemon threads. Idle threads exit, so a driver that is dropped
+     * without {@link #shutdown()} does not keep them.
+     *
+     * @param name      name of the threads.
+     * @param threads   maximum number of threads.
+     */
+    private static ExecutorService newDaemonExecutor(String name,
+            int threads)
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                newDaemonThreadFactory(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Create a factory of daemon threads.
+     *
+     * @param name  name of the threads.
+     */
+    private static ThreadFactory newDaemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
     }
 
     /**
-     * Clear used bytes, i.e. set to -1.
+     * Start reconciliation of used bytes counters at the specified interval,
+     * unless it was already started by another driver. The counters may
+     * drift when the sector tables are changed by other than SectorDB.
+     *
+     * @param interval  interval in seconds.
      */
-    private void clearUsedBytes() {
-        _usedBytes = -1;
+    private static synchronized void startReconcile(long interval) {
+        if (_reconcileExecutor != null)
+            return;
+
+        _reconcileExecutor = Executors.newSingleThreadScheduledExecutor(
+                newDaemonThreadFactory("vfssector-reconcile"));
+        _reconcileExecutor.scheduleWithFixedDelay(
+                new Runnable() {
+                    public void run() {
+                        try {
+                            SectorDB.reconcileUsedBytes();
+                        } catch (RuntimeException e) {
+                            _log.log(Level.WARNING,
+                                    "Used bytes could not reconcile.", e);
+                        }
+                    }
+                }, interval, interval, TimeUnit.SECONDS);
     }
 
     /**
-     * Test whether used bytes is cleared.
+     * Start reclamation of tombstoned sectors, unless it was already started
+     * by another driver. Each run deletes at most the specified number of
+     * sectors in one transaction, so a large deleted file is reclaimed in
+     * small steps that do not hold the database for long.
+     *
+     * @param interval  interval in milliseconds between runs.
+     * @param sectors   maximum number of sectors deleted by a run.
      */
-    private boolean isUsedBytesClear() {
-        return _usedBytes == -1;
+    private static synchronized void startReclaim(long interval,
+            final int sectors)
+    {
+        if (_reclaimExecutor != null)
+            return;
+
+        _reclaimExecutor = Executors.newSingleThreadScheduledExecutor(
+                newDaemonThreadFactory("vfssector-reclaim"));
+        _reclaimExecutor.scheduleWithFixedDelay(
+                new Runnable() {
+                    public void run() {
+                        try {
+                            SectorDB.reclaimSectors(sectors);
+                        } catch (RuntimeException e) {
+                            _log.log(Level.WARNING,
+                                    "Sectors could not reclaim.", e);
+                        }
+                    }
+                }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkInitialized()
+        throws SectorException
+    {
+        if (!_initialized)
+            throw new SectorException("SectorDriver not initialized.");
+    }
+
+    private void checkWriteLocked(String fileID)
+        throws SectorException
+    {
+        if (_leases.isWriteLeased(fileID))
+            throw new SectorException(
+                    "Specified file have been write locked.");
     }
 }
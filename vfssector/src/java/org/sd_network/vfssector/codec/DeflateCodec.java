@@ -0,0 +1,141 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.codec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A {@link SectorCodec} that compresses content by {@link Deflater}.
+ *
+ * <p> Before compressing whole content, a sample from the beginning of the
+ * content is compressed. If the sample is not compressed below the minimum
+ * ratio, the content is stored without compression, so the cost of
+ * compressing already compressed data such as archives and images is
+ * limited to the sample.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class DeflateCodec
+    implements SectorCodec
+{
+    //////////////////////////////////////////////////////////// 
+    // Public fields.
+
+    /** Name of this codec. */
+    public static final String NAME = "deflate";
+
+    //////////////////////////////////////////////////////////// 
+    // Private fields.
+
+    /** Number of bytes of the sample for trial compression. */
+    private static final int _TRIAL_BYTES = 65536;
+
+    /** Compression level. */
+    private final int _level;
+
+    /** Maximum ratio of compressed size to original size to compress. */
+    private final double _minRatio;
+
+    //////////////////////////////////////////////////////////// 
+    // Constructors and Initialisations.
+
+    /**
+     * Create a codec with default compression level, which compresses
+     * content if it becomes 90% of original size or less.
+     */
+    public DeflateCodec() {
+        this(Deflater.DEFAULT_COMPRESSION, 0.9);
+    }
+
+    /**
+     * Create a codec.
+     *
+     * @param level     compression level, from 0 to 9, or
+     *                  {@link Deflater#DEFAULT_COMPRESSION}.
+     * @param minRatio  content is compressed only if the ratio of
+     *                  compressed size to original size is this value or
+     *                  less.
+     *
+     * @throws  IllegalArgumentException
+     *          Throws if <tt>level</tt> or <tt>minRatio</tt> is out of range.
+     */
+    public DeflateCodec(int level, double minRatio) {
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION)
+            throw new IllegalArgumentException("invalid level.");
+        if (minRatio <= 0.0 || minRatio > 1.0)
+            throw new IllegalArgumentException("invalid minRatio.");
+
+        _level = level;
+        _minRatio = minRatio;
+    }
+
+    //////////////////////////////////////////////////////////// 
+    // Implements to SectorCodec.
+
+    public String getName() {
+        return NAME;
+    }
+
+    public byte[] encode(byte[] content, int size) {
+        Deflater deflater = new Deflater(_level);
+        try {
+            // trial compression of sample.
+            if (size > _TRIAL_BYTES) {
+                byte[] sample = deflate(deflater, content, _TRIAL_BYTES);
+                if (sample.length > _TRIAL_BYTES * _minRatio)
+                    return null;
+                deflater.reset();
+            }
+
+            byte[] encoded = deflate(deflater, content, size);
+            if (encoded.length > size * _minRatio)
+                return null;
+            return encoded;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public InputStream decode(InputStream in) {
+        return new InflaterInputStream(in, new Inflater(), 8192);
+    }
+
+    //////////////////////////////////////////////////////////// 
+    // Private methods.
+
+    /**
+     * Compress the specified bytes by the deflater.
+     */
+    private static byte[] deflate(Deflater deflater, byte[] content,
+            int size)
+    {
+        deflater.setInput(content, 0, size);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size / 2 + 64);
+        byte[] buf = new byte[8192];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(buf);
+            out.write(buf, 0, count);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A codec that encodes content of a sector before it is stored to the
+ * database, and decodes it when it is read.
+ *
+ * <p> The name of the codec is stored with each encoded sector, and the
+ * codec to decode the sector is looked up by {@link SectorCodecs#get(String)}.
+ * So an implementation must be registered to {@link SectorCodecs} before
+ * sectors encoded by it are read.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public interface SectorCodec
+{
+    /**
+     * Return the name of this codec that is stored with encoded sectors.
+     * The name must be 16 characters or less.
+     *
+     * @return  name of this codec.
+     */
+    public String getName();
+
+    /**
+     * Encode the specified content.
+     *
+     * @param content   content of a sector.
+     * @param size      number of bytes to encode from the beginning of
+     *                  <tt>content</tt>.
+     *
+     * @return  encoded content, or <tt>null</tt> if the content should be
+     *          stored without encoding, e.g. it is not compressible.
+     */
+    public byte[] encode(byte[] content, int size);
+
+    /**
+     * Return a stream that decodes the specified encoded content.
+     *
+     * @param in    stream of encoded content.
+     *
+     * @return  stream of decoded content.
+     *
+     * @throws  IOException
+     *          Throws if the stream could not be created.
+     */
+    public InputStream decode(InputStream in)
+        throws IOException;
+}
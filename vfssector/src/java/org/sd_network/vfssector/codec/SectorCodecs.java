@@ -0,0 +1,77 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.codec;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of {@link SectorCodec}s by name.
+ * {@link DeflateCodec} is registered by default.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class SectorCodecs
+{
+    //////////////////////////////////////////////////////////// 
+    // Private fields.
+
+    /** Registered codecs by name. */
+    private static final Map<String, SectorCodec> _codecs =
+        new ConcurrentHashMap<String, SectorCodec>();
+
+    static {
+        register(new DeflateCodec());
+    }
+
+    //////////////////////////////////////////////////////////// 
+    // Public methods.
+
+    /**
+     * Register the specified codec. A codec that has same name is replaced.
+     *
+     * @param codec     the codec.
+     *
+     * @throws  NullPointerException
+     *          Throws if <tt>codec</tt> is null.
+     */
+    public static final void register(SectorCodec codec) {
+        if (codec == null)
+            throw new NullPointerException("codec");
+
+        _codecs.put(codec.getName(), codec);
+    }
+
+    /**
+     * Return the codec of the specified name.
+     *
+     * @param name  name of the codec.
+     *
+     * @return  the codec.
+     *
+     * @throws  IllegalArgumentException
+     *          Throws if no codec is registered by the name.
+     */
+    public static final SectorCodec get(String name) {
+        SectorCodec codec = _codecs.get(name);
+        if (codec == null)
+            throw new IllegalArgumentException(
+                    "Sector codec not found. name = " + name);
+        return codec;
+    }
+}
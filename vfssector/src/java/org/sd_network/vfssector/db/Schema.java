@@ -15,6 +15,14 @@
  */
 package org.sd_network.vfssector.db;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+import org.sd_network.db.ConnectionPool;
 import org.sd_network.db.DBException;
 import org.sd_network.db.DBUtil;
 
@@ -28,35 +36,152 @@ import org.sd_network.db.DBUtil;
  */
 public class Schema
 {
+    /** Logger. */
+    private static final Logger _log = Logger.getLogger(
+            Schema.class.getName());
+
     /**
      * Setup database scheme for vfssector.
      */
     public static final void setup()
         throws DBException
     {
+        setup("vfssector");
+    }
+
+    /**
+     * Setup database scheme for vfssector in the database of the specified
+     * connection pool. This is called for each shard of sector storage.
+     *
+     * @param poolName  name of the connection pool.
+     */
+    public static final void setup(String poolName)
+        throws DBException
+    {
 
         ////////////////////////////// 
         // create tables.
 
         // setup content of sector table.
         DBUtil.execute(
-                "vfssector",
+                poolName,
                 "CREATE TABLE IF NOT EXISTS sector (" +
                 " sector_id VARCHAR(36) NOT NULL PRIMARY KEY, " +
                 " file_id VARCHAR(36) NOT NULL, " +
                 " seq_num INT NOT NULL, " +
                 " size INT NOT NULL, " +
-                " content BLOB NOT NULL " +
+                " content BLOB NOT NULL, " +
+                " content_hash VARCHAR(64), " +
+                " codec VARCHAR(16) " +
                 ");");
+        addColumnIfNotExists(poolName, "sector", "content_hash",
+                "VARCHAR(64)");
+        addColumnIfNotExists(poolName, "sector", "codec",
+                "VARCHAR(16)");
         DBUtil.execute(
-                "vfssector",
+                poolName,
                 "CREATE INDEX IF NOT EXISTS sector_ix1 " +
                 " ON sector (file_id) " +
                 ";");
         DBUtil.execute(
-                "vfssector",
+                poolName,
                 "CREATE UNIQUE INDEX IF NOT EXISTS sector_ux1 " +
                 " ON sector (file_id, seq_num) " +
                 ";");
+        DBUtil.execute(
+                poolName,
+                "CREATE INDEX IF NOT EXISTS sector_ix2 " +
+                " ON sector (content_hash) " +
+                ";");
+
+        // setup content of sector_content table.
+        // the content shared by deduplicated sectors.
+        DBUtil.execute(
+                poolName,
+                "CREATE TABLE IF NOT EXISTS sector_content (" +
+                " content_hash VARCHAR(64) NOT NULL PRIMARY KEY, " +
+                " ref_count INT NOT NULL, " +
+                " size INT NOT NULL, " +
+                " content BLOB NOT NULL, " +
+                " codec VARCHAR(16) " +
+                ");");
+        addColumnIfNotExists(poolName, "sector_content", "codec",
+                "VARCHAR(16)");
+
+        // setup content of sector_usage table.
+        // the counters of used bytes, that is maintained by SectorDB.
+        // the row is created by SectorDB at first use.
+        DBUtil.execute(
+                poolName,
+                "CREATE TABLE IF NOT EXISTS sector_usage (" +
+                " usage_id INT NOT NULL PRIMARY KEY, " +
+                " logical_bytes BIGINT NOT NULL, " +
+                " physical_bytes BIGINT NOT NULL " +
+                ");");
+
+        // setup content of sector_file table.
+        // the storage ID under which sectors of a file are kept. a file
+        // that has no row keeps its sectors under its own file ID.
+        DBUtil.execute(
+                poolName,
+                "CREATE TABLE IF NOT EXISTS sector_file (" +
+                " file_id VARCHAR(36) NOT NULL PRIMARY KEY, " +
+                " storage_id VARCHAR(36) NOT NULL " +
+                ");");
+
+        // setup content of sector_tombstone table.
+        // the storage IDs of deleted files, whose sectors are not
+        // reclaimed yet.
+        DBUtil.execute(
+                poolName,
+                "CREATE TABLE IF NOT EXISTS sector_tombstone (" +
+                " storage_id VARCHAR(36) NOT NULL PRIMARY KEY, " +
+                " deleted_at BIGINT NOT NULL " +
+                ");");
+    }
+
+    /**
+     * Add the specified column to the table, if the table does not have it.
+     * This is for database created by older version of vfssector.
+     *
+     * @param poolName      name of the connection pool.
+     * @param tableName     name of the table.
+     * @param columnName    name of the column.
+     * @param definition    data type and constraints of the column.
+     */
+    private static final void addColumnIfNotExists(String poolName,
+            String tableName, String columnName, String definition)
+        throws DBException
+    {
+        ConnectionPool pool = ConnectionPool.getInstance(poolName);
+        Connection con = pool.engageConnection(10);
+        PreparedStatement stmt = null;
+        try {
+            stmt = con.prepareStatement(
+                    "SELECT column_name FROM information_schema.columns " +
+                    "WHERE table_name=? AND column_name=?");
+            stmt.setString(1, tableName.toUpperCase());
+            stmt.setString(2, columnName.toUpperCase());
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next())
+                return;
+        } catch (SQLException e) {
+            throw new DBException(e);
+        } finally {
+            try {
+                if (stmt != null)
+                    stmt.close();
+                con.close();
+            } catch (SQLException e) {
+                _log.log(Level.WARNING,
+                        "Could not close statement or connection.", e);
+            }
+        }
+
+        DBUtil.execute(
+                poolName,
+                "ALTER TABLE " + tableName +
+                " ADD COLUMN " + columnName + " " + definition);
+        _log.info("Column added. " + tableName + "." + columnName);
     }
 }
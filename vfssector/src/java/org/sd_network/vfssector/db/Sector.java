@@ -15,15 +15,7 @@
  */
 package org.sd_network.vfssector.db;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.logging.Logger;
-import java.util.logging.Level;
-
-import org.sd_network.db.ConnectionPool;
-import org.sd_network.db.DBException;
 
 /**
  * f[^x[Xe[u <tt>sector</tt> ̂PR[h̃GeBeB\܂B
@@ -109,38 +101,14 @@ public class Sector
 
     /**
      * ̃ZN^[ێf[^oCgzƂĕԂ܂B
+     * f[^́AZN^[IDV[h߂
+     * {@link SectorDB#getContent(String)} œǂݍ݂܂B
      *
      * @return  f[^̃oCgz
      */
     public byte[] getContent() {
-        if (_content != null)
-            return _content;
-
-        ConnectionPool pool = ConnectionPool.getInstance("vfssector");
-        Connection con = pool.engageConnection(10);
-        PreparedStatement stmt = null;
-        try {
-            stmt = con.prepareStatement(
-                    "SELECT content FROM sector WHERE sector_id=?");
-            stmt.setString(1, _sectorID);
-            ResultSet rs = stmt.executeQuery();
-            if (!rs.next())
-                throw new IllegalStateException(
-                        "Sector not found when retrive content. sectorID = " +
-                        _sectorID);
-            _content = rs.getBytes("content");
-            return _content;
-        } catch (SQLException e) {
-            throw new DBException(e);
-        } finally {
-            try {
-                if (stmt != null)
-                    stmt.close();
-                con.close();
-            } catch (SQLException e) {
-                _log.log(Level.WARNING,
-                        "Could not close statement or connection.", e);
-            }
-        }
+        if (_content == null)
+            _content = SectorDB.getContent(_sectorID);
+        return _content;
     }
 }
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * P̃gUNVł܂Ƃ߂ēo^ZN^[̏W܂łB
+ *
+ * <p> ǉZN^[ {@link SectorDB#create(SectorBatch)} ɂ
+ * P̃RlNV JDBC ̃ob`XVƂēo^Ax
+ * R~bg܂BeZN^[̈̈Ӗ
+ * {@link SectorDB#create(String, int, int, byte[], String, String)} 
+ * łBo^I܂ŁAǉf[^̔zύXĂ
+ * ܂B
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class SectorBatch
+{
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** eZN^[̃t@Cʎq */
+    private final List<String> _fileIDs = new ArrayList<String>();
+
+    /** eZN^[̃V[PXԍ */
+    private final List<Integer> _seqNums = new ArrayList<Integer>();
+
+    /** eZN^[̃GR[hÕoCg */
+    private final List<Integer> _sizes = new ArrayList<Integer>();
+
+    /** eZN^[̃f[^ */
+    private final List<byte[]> _contents = new ArrayList<byte[]>();
+
+    /** eZN^[̃f[^̃nbVl */
+    private final List<String> _contentHashes = new ArrayList<String>();
+
+    /** eZN^[̃f[^̃R[fbN */
+    private final List<String> _codecs = new ArrayList<String>();
+
+    /** ۑf[^̃oCg̍v */
+    private long _bytes = 0;
+
+    ////////////////////////////////////////////////////////////
+    // Public methods.
+
+    /**
+     * ZN^[ǉ܂B
+     *
+     * @param fileID        t@CʎqB
+     * @param seqNum        t@CɂZN^[̃V[PXԍB
+     * @param size          GR[hÕf[^̃oCgB
+     * @param content       ZN^[Ɋi[f[^bytezB
+     * @param contentHash   GR[hÕf[^̃nbVlBdr
+     *                      Ȃꍇ <tt>null</tt> w肵܂B
+     * @param codec         f[^̃R[fbNBGR[hȂꍇ
+     *                      <tt>null</tt> w肵܂B
+     *
+     * @throws  NullPointerException
+     *          <tt>fileID</tt> ܂ <tt>content</tt> Nullw肳ꂽ
+     *          ꍇɃX[܂B
+     *
+     * @throws  IllegalArgumentException
+     *          {@link SectorDB#create(String, int, int, byte[])} Ɠ
+     *          ŃX[܂B
+     */
+    public void add(String fileID, int seqNum, int size, byte[] content,
+            String contentHash, String codec)
+    {
+        if (fileID == null)
+            throw new NullPointerException("fileID.");
+        if (seqNum < 0)
+            throw new IllegalArgumentException("seqNum too small.");
+        SectorDB.checkContent(size, content, codec);
+
+        _fileIDs.add(fileID);
+        _seqNums.add(Integer.valueOf(seqNum));
+        _sizes.add(Integer.valueOf(size));
+        _contents.add(content);
+        _contentHashes.add(contentHash);
+        _codecs.add(codec);
+        _bytes += getStoredSize(_contents.size() - 1);
+    }
+
+    /**
+     * ǉꂽZN^[̐Ԃ܂B
+     *
+     * @return  ZN^[̐
+     */
+    public int size() {
+        return _fileIDs.size();
+    }
+
+    /**
+     * ǉꂽZN^[́Aۑf[^̃oCg̍vԂ܂B
+     *
+     * @return  f[^̃oCg̍v
+     */
+    public long getBytes() {
+        return _bytes;
+    }
+
+    /**
+     * wʒũZN^[̃t@CʎqԂ܂B
+     *
+     * @param idx   ǉł̃ZN^[̈ʒu
+     */
+    public String getFileID(int idx) {
+        return _fileIDs.get(idx);
+    }
+
+    /**
+     * wʒũZN^[̃V[PXԍԂ܂B
+     *
+     * @param idx   ǉł̃ZN^[̈ʒu
+     */
+    public int getSeqNum(int idx) {
+        return _seqNums.get(idx).intValue();
+    }
+
+    /**
+     * wʒũZN^[́AGR[hÕf[^̃oCgԂ܂B
+     *
+     * @param idx   ǉł̃ZN^[̈ʒu
+     */
+    public int getSize(int idx) {
+        return _sizes.get(idx).intValue();
+    }
+
+    /**
+     * wʒũZN^[̃f[^Ԃ܂B
+     *
+     * @param idx   ǉł̃ZN^[̈ʒu
+     */
+    public byte[] getContent(int idx) {
+        return _contents.get(idx);
+    }
+
+    /**
+     * wʒũZN^[̃f[^̃nbVlԂ܂B
+     *
+     * @param idx   ǉł̃ZN^[̈ʒu
+     */
+    public String getContentHash(int idx) {
+        return _contentHashes.get(idx);
+    }
+
+    /**
+     * wʒũZN^[̃f[^̃R[fbNԂ܂B
+     *
+     * @param idx   ǉł̃ZN^[̈ʒu
+     */
+    public String getCodec(int idx) {
+        return _codecs.get(idx);
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Package methods.
+
+    /**
+     * wʒũZN^[́Aۑf[^̃oCgԂ܂B
+     * GR[hf[^͔zŜۑ܂B
+     *
+     * @param idx   ǉł̃ZN^[̈ʒu
+     */
+    int getStoredSize(int idx) {
+        return (getCodec(idx) == null) ?
+            getSize(idx) : getContent(idx).length;
+    }
+}
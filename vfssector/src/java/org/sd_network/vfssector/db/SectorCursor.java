@@ -0,0 +1,187 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.db;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+import org.sd_network.db.DBException;
+import org.sd_network.vfssector.codec.SectorCodecs;
+
+/**
+ * wt@CɕRÂZN^[AV[PXԍɂP̖₢킹
+ * ǂݏoJ[\łB
+ *
+ * <p> J[\̓N[Y܂łP̃RlNVƃXe[gg
+ * ێ܂BZN^[̃f[^ {@link #getContentStream()} ɂ
+ * Xg[ƂĎ擾邽߁AZN^[̃TCYɊւ炸̃
+ * ǂݏoƂł܂BCX^X
+ * {@link SectorDB#openCursor(String, int)} Ő܂B
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class SectorCursor
+{
+    /** Logger. */
+    private static final Logger _log = Logger.getLogger(
+            SectorCursor.class.getName());
+
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** ǂݏoɎgpRlNV */
+    private final Connection _con;
+
+    /** ǂݏoɎgpXe[gg */
+    private final PreparedStatement _stmt;
+
+    /** ₢킹 */
+    private final ResultSet _rs;
+
+    /** N[Yς݃tO */
+    private boolean _closed;
+
+    ////////////////////////////////////////////////////////////
+    // Initialisations.
+
+    SectorCursor(Connection con, PreparedStatement stmt, ResultSet rs) {
+        _con = con;
+        _stmt = stmt;
+        _rs = rs;
+        _closed = false;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Public methods.
+
+    /**
+     * J[\̃ZN^[ɐi߂܂B
+     *
+     * @return  ̃ZN^[ꍇ <tt>true</tt>ASẴZN^[
+     *          ǂݏIꍇ <tt>false</tt> Ԃ܂B
+     *
+     * @throws  IllegalStateException
+     *          J[\N[Yς݂̏ꍇɃX[܂B
+     *
+     * @throws  DBException
+     *          f[^x[XANZXɃG[ꍇɃX[܂B
+     */
+    public boolean next() {
+        checkClosed();
+        try {
+            return _rs.next();
+        } catch (SQLException e) {
+            throw new DBException(e);
+        }
+    }
+
+    /**
+     * ݂̃ZN^[̃ZN^[ʎqԂ܂B
+     *
+     * @return  ZN^[ʎq
+     *
+     * @throws  DBException
+     *          f[^x[XANZXɃG[ꍇɃX[܂B
+     */
+    public String getSectorID() {
+        checkClosed();
+        try {
+            return _rs.getString("sector_id");
+        } catch (SQLException e) {
+            throw new DBException(e);
+        }
+    }
+
+    /**
+     * ݂̃ZN^[ێf[^̃oCgԂ܂B
+     *
+     * @return  f[^̃oCg
+     *
+     * @throws  DBException
+     *          f[^x[XANZXɃG[ꍇɃX[܂B
+     */
+    public int getContentSize() {
+        checkClosed();
+        try {
+            return _rs.getInt("size");
+        } catch (SQLException e) {
+            throw new DBException(e);
+        }
+    }
+
+    /**
+     * ݂̃ZN^[ێf[^ǂݏoXg[Ԃ܂B
+     * GR[hĂf[^́AfR[hȂǂݏo܂B
+     * Xg[́AJ[\̃ZN^[ɐi߂OɓǂݏIKv
+     * ܂B
+     *
+     * @return  f[^̃Xg[
+     *
+     * @throws  DBException
+     *          f[^x[XANZXɃG[ꍇɃX[܂B
+     *
+     * @throws  IOException
+     *          fR[hXg[𐶐łȂꍇɃX[܂B
+     */
+    public InputStream getContentStream()
+        throws IOException
+    {
+        checkClosed();
+        try {
+            InputStream in = _rs.getBinaryStream("content");
+            String codec = _rs.getString("codec");
+            if (codec == null)
+                return in;
+            return SectorCodecs.get(codec).decode(in);
+        } catch (SQLException e) {
+            throw new DBException(e);
+        }
+    }
+
+    /**
+     * J[\N[YAێĂXe[ggƃRlNV
+     * ܂BɃN[Yς݂̏ꍇ͉܂B
+     */
+    public void close() {
+        if (_closed)
+            return;
+
+        _closed = true;
+        try {
+            _stmt.close();
+            _con.close();
+        } catch (SQLException e) {
+            _log.log(Level.WARNING,
+                    "Could not close statement or connection.", e);
+        }
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    private void checkClosed() {
+        if (_closed)
+            throw new IllegalStateException("The cursor was already closed.");
+    }
+}
@@ -17,6 +17,7 @@ package org.sd_network.vfssector.db;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -27,13 +28,25 @@ import java.util.UUID;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
-import org.sd_network.db.ConnectionPool;
 import org.sd_network.db.DBException;
 import org.sd_network.db.DBUtil;
+import org.sd_network.vfssector.codec.SectorCodecs;
 
 /**
  * This class includes service methods of Sector table entities.
  *
+ * <p> Sectors of a file are kept under a storage ID, that is the file ID
+ * itself until the file is tombstoned. A tombstoned file moves to a new
+ * storage ID, so the old sectors are invisible to every query at once, and
+ * they are deleted later by {@link #reclaimSectors(int)}.
+ *
+ * <p> Sectors may be stored in several databases, called shards. All
+ * sectors of a file are placed in one shard, chosen by a stable hash of
+ * the file ID, so queries of a file never span shards. A sector ID
+ * generated with more than one shard begins with the shard number in two
+ * hexadecimal digits, so the shard of a sector is found from its ID.
+ * The number of shards must not be changed once sectors are stored.
+ *
  * <p> $Id$
  *
  * @author MAsatoshi Sato
@@ -44,9 +57,92 @@ public class SectorDB
     private static final Logger _log = Logger.getLogger(
             SectorDB.class.getName());
 
+    /**
+     * Tables to read content of sectors. Content of a deduplicated sector is
+     * kept in sector_content table.
+     */
+    static final String _CONTENT_TABLE =
+        "sector s LEFT JOIN sector_content c " +
+        "ON s.content_hash=c.content_hash";
+
+    /** Column to read content of sectors from {@link #_CONTENT_TABLE}. */
+    static final String _CONTENT_COLUMN = "COALESCE(c.content, s.content)";
+
+    /** Column to read codec of sectors from {@link #_CONTENT_TABLE}. */
+    static final String _CODEC_COLUMN =
+        "CASE WHEN s.content_hash IS NULL THEN s.codec ELSE c.codec END";
+
+    /** SQL to compute logical and physical used bytes from the tables. */
+    private static final String _SUM_USAGE_SQL =
+        "SELECT " +
+        " (SELECT COALESCE(sum(size), 0) FROM sector), " +
+        " (SELECT COALESCE(sum(LENGTH(content)), 0) " +
+        "  FROM sector WHERE content_hash IS NULL) + " +
+        " (SELECT COALESCE(sum(LENGTH(content)), 0) FROM sector_content)";
+
+    /** Name of the connection pool of a single shard. */
+    private static final String _POOL_NAME = "vfssector";
+
+    /** Maximum number of shards, that fits in the sector ID prefix. */
+    public static final int MAX_SHARDS = 256;
+
+    /**
+     * Shards of sector storage. Each shard keeps the usage counters of its
+     * database. Usage counters of a shard are changed by a transaction
+     * holding the read lock of the shard, so such transactions run
+     * concurrently. Loading and reconciliation of the counters hold the
+     * write lock, so they see no transaction in progress. The lock is
+     * always taken before any lock of the database, to avoid deadlock.
+     */
+    private static volatile SectorShard[] _shards =
+        new SectorShard[] {new SectorShard(0, _POOL_NAME)};
+
     //////////////////////////////////////////////////////////// 
     // Public methods.
 
+    /**
+     * ZN^[ۑV[h̐ݒ肵܂BV[hP̏ꍇ
+     * "vfssector" RlNVv[Ȁꍇ "vfssector-0" 
+     * "vfssector-(count-1)" ܂ł̃RlNVv[gp܂B
+     * ςȂꍇ͉܂B
+     *
+     * <p> t@C̃ZN^[ۑV[h͐ɂ茈܂邽߁A
+     * ZN^[ۑɐύXĂ͂܂B
+     *
+     * @param count V[h̐B
+     *
+     * @throws  IllegalArgumentException
+     *          <tt>count</tt> 1 {@link #MAX_SHARDS} 𒴂ꍇ
+     *          X[܂B
+     */
+    public static final synchronized void setShardCount(int count) {
+        if (count < 1 || count > MAX_SHARDS)
+            throw new IllegalArgumentException("Invalid count of shards.");
+        if (count == _shards.length)
+            return;
+
+        SectorShard[] shards = new SectorShard[count];
+        for (int idx = 0; idx < count; idx++)
+            shards[idx] = new SectorShard(idx,
+                    (count == 1) ? _POOL_NAME : _POOL_NAME + "-" + idx);
+        _shards = shards;
+        _log.info("Number of shards : " + count);
+    }
+
+    /**
+     * ZN^[ۑV[h̃RlNVv[̖OAV[h
+     * ԍɕԂ܂B
+     *
+     * @return  RlNVv[̖O̔zB
+     */
+    public static final String[] getPoolNames() {
+        SectorShard[] shards = _shards;
+        String[] poolNames = new String[shards.length];
+        for (int idx = 0; idx < shards.length; idx++)
+            poolNames[idx] = shards[idx].getPoolName();
+        return poolNames;
+    }
+
     /**
      * wt@CɕRÂZN^[o^܂B
      * ʏP̃t@CɂÃZN^[֘At鎖ł܂B
@@ -78,39 +174,205 @@ public class SectorDB
      */
     public static final String create(String fileID, int seqNum, int size,
             byte[] content)
+    {
+        return create(fileID, seqNum, size, content, null, null);
+    }
+
+    /**
+     * wt@CɕRÂZN^[o^܂B
+     * <tt>contentHash</tt> w肳ꂽꍇAf[^͏drA
+     * nbVl̃f[^ɕۑĂ΂̎QƐ𑝂₵܂B
+     * ۑĂȂ΃f[^Vɕۑ܂Bf[^̎QƐ
+     * ZN^[ɂPƂĐ܂B
+     *
+     * @param fileID        t@CʎqB
+     * @param seqNum        t@CɂZN^[̃V[PXԍB
+     * @param size          <tt>content</tt> ooCgB
+     * @param content       ZN^[Ɋi[f[^bytezB
+     * @param contentHash   f[^̃nbVlBdrȂꍇ
+     *                      <tt>null</tt> w肵܂B
+     *
+     * @return  o^ɐZN^[̈ӂȎʎqB
+     *
+     * @throws  NullPointerException
+     *          <tt>fileID</tt> ܂ <tt>content</tt> Nullw肳ꂽ
+     *          ꍇɃX[܂B
+     *
+     * @throws  IllegalArgumentException
+     *          {@link #create(String, int, int, byte[])} Ɠ
+     *          X[܂B
+     *
+     * @throws  DBException
+     *          f[^x[XANZXɃG[ꍇɃX[܂B
+     */
+    public static final String create(String fileID, int seqNum, int size,
+            byte[] content, String contentHash)
+    {
+        return create(fileID, seqNum, size, content, contentHash, null);
+    }
+
+    /**
+     * wt@CɕRÂZN^[o^܂B
+     * <tt>codec</tt> w肳ꂽꍇA<tt>content</tt> ͂̃R[fbN
+     * GR[hς݂̃f[^ƂĔzŜۑA<tt>size</tt> 
+     * GR[hÕoCgƂĕۑ܂BdrɂĂ
+     * {@link #create(String, int, int, byte[], String)} ƓlłB
+     *
+     * @param fileID        t@CʎqB
+     * @param seqNum        t@CɂZN^[̃V[PXԍB
+     * @param size          GR[hÕf[^̃oCgB
+     * @param content       ZN^[Ɋi[f[^bytezB
+     * @param contentHash   GR[hÕf[^̃nbVlBdr
+     *                      Ȃꍇ <tt>null</tt> w肵܂B
+     * @param codec         f[^̃R[fbNBGR[hȂꍇ
+     *                      <tt>null</tt> w肵܂B
+     *
+     * @return  o^ɐZN^[̈ӂȎʎqB
+     *
+     * @throws  NullPointerException
+     *          <tt>fileID</tt> ܂ <tt>content</tt> Nullw肳ꂽ
+     *          ꍇɃX[܂B
+     *
+     * @throws  IllegalArgumentException
+     *          {@link #create(String, int, int, byte[])} Ɠ
+     *          X[܂B
+     *
+     * @throws  DBException
+     *          f[^x[XANZXɃG[ꍇɃX[܂B
+     */
+    public static final String create(String fileID, int seqNum, int size,
+            byte[] content, String contentHash, String codec)
     {
         if (fileID == null)
             throw new NullPointerException("fileID.");
         if (seqNum < 0)
             throw new IllegalArgumentException("seqNum too small.");
-        if (content == null)
-            throw new NullPointerException("content.");
-        if (content.length == 0)
-            throw new IllegalArgumentException("content was empty.");
-        if (content.length < size || size <= 0)
-            throw new IllegalArgumentException("invalid size.");
+        checkContent(size, content, codec);
+        int storedSize = (codec == null) ? size : content.length;
 
-        String sectorID = UUID.randomUUID().toString();
-        ConnectionPool pool = ConnectionPool.getInstance("vfssector");
-        Connection con = pool.engageConnection(10);
+        SectorShard shard = getShardOfFile(fileID);
+        String sectorID = newSectorID(shard);
+        Connection con = shard.engageConnection();
         PreparedStatement stmt = null;
+        shard.getUsageLock().readLock().lock();
         try {
+            con.setAutoCommit(false);
+            long physical = storedSize;
+            if (contentHash != null)
+                physical = acquireContent(
+                        con, contentHash, size, content, storedSize, codec);
             stmt = con.prepareStatement(
                     "INSERT INTO sector " +
-                    " (sector_id, file_id, seq_num, size, content) " +
-                    "VALUES (?,?,?,?,?)");
+                    " (sector_id, file_id, seq_num, size, content, " +
+                    "  content_hash, codec) " +
+                    "VALUES (?,?,?,?,?,?,?)");
             stmt.setString(1, sectorID);
-            stmt.setString(2, fileID);
+            stmt.setString(2, getStorageID(con, fileID));
             stmt.setInt(3, seqNum);
             stmt.setInt(4, size);
-            stmt.setBinaryStream(
-                    5, new ByteArrayInputStream(content), size);
+            setContent(stmt, 5, storedSize, content, contentHash);
+            stmt.setString(6, contentHash);
+            stmt.setString(7, (contentHash == null) ? codec : null);
             stmt.executeUpdate();
+            commit(shard, con, size, physical);
             _log.info("Sector created : " + sectorID);
             return sectorID;
         } catch (SQLException e) {
             throw new DBException(e);
         } finally {
+            shard.getUsageLock().readLock().unlock();
+            try {
+                if (stmt != null)
+                    stmt.close();
+                con.close();
+            } catch (SQLException e) {
+                _log.log(Level.WARNING, 
+                        "Could not close statemet or connection", e);
+            }
+        }
+    }
+
+    /**
+     * ̃ZN^[AP̃RlNVŃob`XVɂo^A
+     * P̃gUNVƂăR~bg܂BZN^[
+     * R~bgȂ߁A傫ȃt@C݂̏R~bg̑҂Ԃ
+     * ܂Bꂩ̃ZN^[̓o^ɎsꍇASĂ
+     * ZN^[o^܂BeZN^[̈
+     * {@link #create(String, int, int, byte[], String, String)} ƓłB
+     *
+     * @param batch o^ZN^[̏W܂B
+     *
+     * @return  o^ɐZN^[̈ӂȎʎq̔zB
+     *          <tt>batch</tt> ɒǉɕт܂B
+     *
+     * @throws  NullPointerException
+     *          <tt>batch</tt> Nullw肳ꂽꍇɃX[܂B
+     *
+     * @throws  DBException
+     *          f[^x[XANZXɃG[ꍇɃX[܂B
+     */
+    public static final String[] create(SectorBatch batch) {
+        if (batch == null)
+            throw new NullPointerException("batch.");
+
+        String[] sectorIDs = new String[batch.size()];
+        if (sectorIDs.length == 0)
+            return sectorIDs;
+
+        SectorShard shard = getShardOfFile(batch.getFileID(0));
+        Connection con = shard.engageConnection();
+        PreparedStatement stmt = null;
+        shard.getUsageLock().readLock().lock();
+        try {
+            con.setAutoCommit(false);
+            long logical = 0;
+            long physical = 0;
+            stmt = con.prepareStatement(
+                    "INSERT INTO sector " +
+                    " (sector_id, file_id, seq_num, size, content, " +
+                    "  content_hash, codec) " +
+                    "VALUES (?,?,?,?,?,?,?)");
+            String fileID = null;
+            String storageID = null;
+            for (int idx = 0; idx < sectorIDs.length; idx++) {
+                if (!batch.getFileID(idx).equals(fileID)) {
+                    fileID = batch.getFileID(idx);
+                    if (getShardOfFile(fileID) != shard)
+                        throw new IllegalArgumentException(
+                                "Sectors of the batch are in other shards.");
+                    storageID = getStorageID(con, fileID);
+                }
+                int size = batch.getSize(idx);
+                byte[] content = batch.getContent(idx);
+                int storedSize = batch.getStoredSize(idx);
+                String contentHash = batch.getContentHash(idx);
+                String codec = batch.getCodec(idx);
+
+                logical += size;
+                if (contentHash != null)
+                    physical += acquireContent(con, contentHash, size,
+                            content, storedSize, codec);
+                else
+                    physical += storedSize;
+
+                sectorIDs[idx] = newSectorID(shard);
+                stmt.setString(1, sectorIDs[idx]);
+                stmt.setString(2, storageID);
+                stmt.setInt(3, batch.getSeqNum(idx));
+                stmt.setInt(4, size);
+                setContent(stmt, 5, storedSize, content, contentHash);
+                stmt.setString(6, contentHash);
+                stmt.setString(7, (contentHash == null) ? codec : null);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            commit(shard, con, logical, physical);
+            _log.info("Sectors created : " + sectorIDs.length);
+            return sectorIDs;
+        } catch (SQLException e) {
+            throw new DBException(e);
+        } finally {
+            shard.getUsageLock().readLock().unlock();
             try {
                 if (stmt != null)
                     stmt.close();
@@ -124,6 +386,7 @@ public class SectorDB
 
     /**
      * wZN^[ɕۑĂf[^bytezŕԂ܂B
+     * GR[hĂf[^̓fR[hĕԂ܂B
      *
      * @param sectorID  ZN^[ʎqB
      *
@@ -143,18 +406,22 @@ public class SectorDB
         if (sectorID == null)
             throw new NullPointerException("sectorID");
 
-        ConnectionPool pool = ConnectionPool.getInstance("vfssector");
-        Connection con = pool.engageConnection(10);
+        Connection con = getShardOfSector(sectorID).engageConnection();
         PreparedStatement stmt = null;
         try {
             stmt = con.prepareStatement(
-                    "SELECT content FROM sector WHERE sector_id=?");
+                    "SELECT s.size, " +
+                    _CONTENT_COLUMN + " as content, " +
+                    _CODEC_COLUMN + " as codec " +
+                    "FROM " + _CONTENT_TABLE + " " +
+                    "WHERE s.sector_id=?");
             stmt.setString(1, sectorID);
             ResultSet rs = stmt.executeQuery();
             if (!rs.next())
                 throw new IllegalStateException(
                         "Sector not found. sectorID = " + sectorID);
-            return rs.getBytes("content");
+            return decodeContent(rs.getBytes("content"),
+                    rs.getString("codec"), rs.getInt("size"));
         } catch (SQLException e) {
             throw new DBException(e);
         } finally {
@@ -200,34 +467,106 @@ public class SectorDB
      */
     public static final String update(String sectorID, int size,
             byte[] content)
+    {
+        return update(sectorID, size, content, null, null);
+    }
+
+    /**
+     * wZN^[ɕۑĂf[^Aw <tt>content</tt>
+     * ŏ㏑܂B<tt>contentHash</tt> w肳ꂽꍇAf[^
+     * {@link #create(String, int, int, byte[], String)} Ɠlɏdr
+     * ܂BZN^[ȑOɎQƂĂdrf[^̎QƐ
+     * 炳AQƐ0ɂȂf[^͍폜܂B
+     *
+     * @param sectorID      ㏑ZN^[IDB
+     * @param size          <tt>content</tt> ̏݃oCgB
+     * @param content       ㏑f[^̃oCgzB
+     * @param contentHash   f[^̃nbVlBdrȂꍇ
+     *                      <tt>null</tt> w肵܂B
+     *
+     * @return  ㏑ZN^[IDB
+     *
+     * @throws  NullPointerException
+     *          <tt>sectorID</tt> ܂ <tt>content</tt>  <tt>null</tt>
+     *          w肳ꂽꍇɃX[܂B
+     *
+     * @throws  IllegalArgumentException
+     *          {@link #update(String, int, byte[])} ƓŃX[܂B
+     *
+     * @throws  DBException
+     *          f[^x[XANZXɃG[ꍇɃX[܂B
+     */
+    public static final String update(String sectorID, int size,
+            byte[] content, String contentHash)
+    {
+        return update(sectorID, size, content, contentHash, null);
+    }
+
+    /**
+     * wZN^[ɕۑĂf[^Aw <tt>content</tt>
+     * ŏ㏑܂B<tt>codec</tt> ̈
+     * {@link #create(String, int, int, byte[], String, String)} Ɠl
+     * łB
+     *
+     * @param sectorID      ㏑ZN^[IDB
+     * @param size          GR[hÕf[^̃oCgB
+     * @param content       ㏑f[^̃oCgzB
+     * @param contentHash   GR[hÕf[^̃nbVlBdr
+     *                      Ȃꍇ <tt>null</tt> w肵܂B
+     * @param codec         f[^̃R[fbNBGR[hȂꍇ
+     *                      <tt>null</tt> w肵܂B
+     *
+     * @return  ㏑ZN^[IDB
+     *
+     * @throws  NullPointerException
+     *          <tt>sectorID</tt> ܂ <tt>content</tt>  <tt>null</tt>
+     *          w肳ꂽꍇɃX[܂B
+     *
+     * @throws  IllegalArgumentException
+     *          {@link #update(String, int, byte[])} ƓŃX[܂B
+     *
+     * @throws  DBException
+     *          f[^x[XANZXɃG[ꍇɃX[܂B
+     */
+    public static final String update(String sectorID, int size,
+            byte[] content, String contentHash, String codec)
     {
         if (sectorID == null)
             throw new NullPointerException("sectorID.");
         if (!exists(sectorID))
             throw new IllegalArgumentException("The sector was not found.");
-        if (content == null)
-            throw new NullPointerException("content.");
-        if (content.length == 0)
-            throw new IllegalArgumentException("content was empty.");
-        if (content.length < size || size <= 0)
-            throw new IllegalArgumentException("invalid size.");
+        checkContent(size, content, codec);
+        int storedSize = (codec == null) ? size : content.length;
 
-        ConnectionPool pool = ConnectionPool.getInstance("vfssector");
-        Connection con = pool.engageConnection(10);
+        SectorShard shard = getShardOfSector(sectorID);
+        Connection con = shard.engageConnection();
         PreparedStatement stmt = null;
+        shard.getUsageLock().readLock().lock();
         try {
+            con.setAutoCommit(false);
+            long[] usage = selectUsage(con, "sector_id", sectorID);
+            long physical = storedSize - usage[1] -
+                releaseContents(con, "sector_id", sectorID);
+            if (contentHash != null)
+                physical += acquireContent(
+                        con, contentHash, size, content, storedSize, codec)
+                    - storedSize;
             stmt = con.prepareStatement(
-                    "UPDATE sector SET size=?, content=? " +
+                    "UPDATE sector " +
+                    "SET size=?, content=?, content_hash=?, codec=? " +
                     "WHERE sector_id=?");
             stmt.setInt(1, size);
-            stmt.setBinaryStream(
-                    2, new ByteArrayInputStream(content), size);
-            stmt.setString(3, sectorID);
+            setContent(stmt, 2, storedSize, content, contentHash);
+            stmt.setString(3, contentHash);
+            stmt.setString(4, (contentHash == null) ? codec : null);
+            stmt.setString(5, sectorID);
             stmt.executeUpdate();
+            commit(shard, con, size - usage[0], physical);
             return sectorID;
         } catch (SQLException e) {
             throw new DBException(e);
         } finally {
+            shard.getUsageLock().readLock().unlock();
             try {
                 if (stmt != null)
                     stmt.close();
@@ -261,23 +600,20 @@ public class SectorDB
         if (fileID == null)
             throw new NullPointerException("fileID.");
 
-        ConnectionPool pool = ConnectionPool.getInstance("vfssector");
-        Connection con = pool.engageConnection(10);
+        Connection con = getShardOfFile(fileID).engageConnection();
         PreparedStatement stmt = null;
         try {
             stmt = con.prepareStatement(
                     "SELECT sector_id, file_id, seq_num, size " +
-                    "FROM " +
-                    " sector, " +
-                    " (SELECT max(seq_num) as max_seq_num FROM sector) t1 " +
-                    "WHERE " +
-                    " sector.seq_num = t1.max_seq_num AND " +
-                    " sector.file_id = ?");
-            stmt.setString(1, fileID);
+                    "FROM sector " +
+                    "WHERE file_id=? " +
+                    "ORDER BY seq_num DESC " +
+                    "LIMIT 1");
+            stmt.setString(1, getStorageID(con, fileID));
             ResultSet rs = stmt.executeQuery();
             Sector lastSector = null;
             if (rs.next())
-                lastSector = getInstance(rs);
+                lastSector = getInstance(rs, fileID);
             return lastSector;
         } catch (SQLException e) {
             throw new DBException(e);
@@ -311,15 +647,14 @@ public class SectorDB
         if (fileID == null)
             throw new NullPointerException("fileID.");
 
-        ConnectionPool pool = ConnectionPool.getInstance("vfssector");
-        Connection con = pool.engageConnection(10);
+        Connection con = getShardOfFile(fileID).engageConnection();
         PreparedStatement stmt = null;
         try {
             stmt = con.prepareStatement(
                     "SELECT sum(size) as total_bytes " +
                     "FROM sector " +
                     "WHERE file_id=?");
-            stmt.setString(1, fileID);
+            stmt.setString(1, getStorageID(con, fileID));
             ResultSet rs = stmt.executeQuery();
             long size = 0;
             if (rs.next())
@@ -357,15 +692,14 @@ public class SectorDB
         if (fileID == null)
             throw new NullPointerException("fileID");
 
-        ConnectionPool pool = ConnectionPool.getInstance("vfssector");
-        Connection con = pool.engageConnection(10);
+        Connection con = getShardOfFile(fileID).engageConnection();
         PreparedStatement stmt = null;
         try {
             stmt = con.prepareStatement(
                     "SELECT count(*) as total_sector_number " +
                     "FROM sector " +
                     "WHERE file_id=?");
-            stmt.setString(1, fileID);
+            stmt.setString(1, getStorageID(con, fileID));
             ResultSet rs = stmt.executeQuery();
             long totalSectorNumber = 0;
             if (rs.next())
@@ -403,15 +737,14 @@ public class SectorDB
         if (fileID == null)
             throw new NullPointerException("fileID");
 
-        ConnectionPool pool = ConnectionPool.getInstance("vfssector");
-        Connection con = pool.engageConnection(10);
+        Connection con = getShardOfFile(fileID).engageConnection();
         PreparedStatement stmt = null;
         try {
             stmt = con.prepareStatement(
                     "SELECT sector_id FROM sector " +
                     "WHERE file_id=? " + 
                     "ORDER BY seq_num");
-            stmt.setString(1, fileID);
+            stmt.setString(1, getStorageID(con, fileID));
             ResultSet rs = stmt.executeQuery();
             List<String> buf = new ArrayList<String>();
             while (rs.next())
@@ -431,8 +764,144 @@ public class SectorDB
         }
     }
 
+    /**
+     * wt@CɕRÂZN^[́At@Cł̃ItZbg̍
+     * Ԃ܂BZN^[̃f[^͓ǂݏo܂B
+     *
+     * @param fileID    t@Cʎq
+     *
+     * @return  <tt>fileID</tt> ɕRÂZN^[̍B
+     *          ZN^[Ȃꍇ͋̍Ԃ܂B
+     *
+     * @throws  NullPointerException
+     *           <tt>null</tt> w肳ꂽꍇɃX[܂B
+     *
+     * @throws  DBException
+     *          f[^x[XANZXɃG[ꍇɃX[܂B
+     */
+    public static final SectorIndex getSectorIndex(String fileID) {
+        if (fileID == null)
+            throw new NullPointerException("fileID");
+
+        Connection con = getShardOfFile(fileID).engageConnection();
+        PreparedStatement stmt = null;
+        try {
+            stmt = con.prepareStatement(
+                    "SELECT sector_id, seq_num, size FROM sector " +
+                    "WHERE file_id=? " +
+                    "ORDER BY seq_num");
+            stmt.setString(1, getStorageID(con, fileID));
+            ResultSet rs = stmt.executeQuery();
+            List<String> sectorIDs = new ArrayList<String>();
+            List<Integer> seqNums = new ArrayList<Integer>();
+            List<Integer> sizes = new ArrayList<Integer>();
+            while (rs.next()) {
+                sectorIDs.add(rs.getString("sector_id"));
+                seqNums.add(rs.getInt("seq_num"));
+                sizes.add(rs.getInt("size"));
+            }
+            int[] seqNumArray = new int[seqNums.size()];
+            int[] sizeArray = new int[sizes.size()];
+            for (int idx = 0; idx < seqNumArray.length; idx++) {
+                seqNumArray[idx] = seqNums.get(idx).intValue();
+                sizeArray[idx] = sizes.get(idx).intValue();
+            }
+            return new SectorIndex(sectorIDs.toArray(new String[0]),
+                    seqNumArray, sizeArray);
+        } catch (SQLException e) {
+            throw new DBException(e);
+        } finally {
+            try {
+                if (stmt != null)
+                    stmt.close();
+                con.close();
+            } catch (SQLException e) {
+                _log.log(Level.WARNING,
+                        "Could not close statement or connection.", e);
+            }
+        }
+    }
+
+    /**
+     * wt@CɕRÂZN^[AV[PXԍɓǂݏoJ[\
+     * Ԃ܂BSẴZN^[P̃RlNVƂP̖₢킹
+     * ǂݏo܂BԂꂽJ[\́AgpɕKN[YĂB
+     *
+     * @param fileID    t@Cʎq
+     * @param fetchSize xɃf[^x[X擾s̃qgB
+     *                  0̏ꍇJDBChCo[̊lgp܂B
+     *
+     * @return  <tt>fileID</tt> ɕRÂZN^[̃J[\B
+     *
+     * @throws  NullPointerException
+     *           <tt>null</tt> w肳ꂽꍇɃX[܂B
+     *
+     * @throws  DBException
+     *          f[^x[XANZXɃG[ꍇɃX[܂B
+     */
+    public static final SectorCursor openCursor(String fileID,
+            int fetchSize)
+    {
+        return openCursor(fileID, 0, fetchSize);
+    }
+
+    /**
+     * wt@CɕRÂZN^[̂AV[PXԍ
+     * <tt>fromSeqNum</tt> ȏ̃ZN^[V[PXԍɓǂݏo
+     * J[\Ԃ܂BԂꂽJ[\́AgpɕKN[Y
+     * B
+     *
+     * @param fileID        t@Cʎq
+     * @param fromSeqNum    ŏɓǂݏoZN^[̃V[PXԍ
+     * @param fetchSize     xɃf[^x[X擾s̃qgB
+     *                      0̏ꍇJDBChCo[̊lgp܂B
+     *
+     * @return  <tt>fileID</tt> ɕRÂZN^[̃J[\B
+     *
+     * @throws  NullPointerException
+     *           <tt>null</tt> w肳ꂽꍇɃX[܂B
+     *
+     * @throws  DBException
+     *          f[^x[XANZXɃG[ꍇɃX[܂B
+     */
+    public static final SectorCursor openCursor(String fileID,
+            int fromSeqNum, int fetchSize)
+    {
+        if (fileID == null)
+            throw new NullPointerException("fileID");
+
+        Connection con = getShardOfFile(fileID).engageConnection();
+        PreparedStatement stmt = null;
+        try {
+            stmt = con.prepareStatement(
+                    "SELECT s.sector_id, s.size, " +
+                    _CONTENT_COLUMN + " as content, " +
+                    _CODEC_COLUMN + " as codec " +
+                    "FROM " + _CONTENT_TABLE + " " +
+                    "WHERE s.file_id=? AND s.seq_num>=? " +
+                    "ORDER BY s.seq_num");
+            stmt.setFetchSize(fetchSize);
+            stmt.setString(1, getStorageID(con, fileID));
+            stmt.setInt(2, fromSeqNum);
+            ResultSet rs = stmt.executeQuery();
+            return new SectorCursor(con, stmt, rs);
+        } catch (SQLException e) {
+            try {
+                if (stmt != null)
+                    stmt.close();
+                con.close();
+            } catch (SQLException e2) {
+                _log.log(Level.WARNING,
+                        "Could not close statement or connection.", e2);
+            }
+            throw new DBException(e);
+        }
+    }
+
     /**
      * wt@CɕRÂZN^[Sč폜܂B
+     * ZN^[QƂĂdrf[^̎QƐ炵AQƐ0
+     * Ȃf[^݂̂폜܂B
      * ZN^[ꍇ͉܂B
      *
      * @param fileID    t@Cʎq
@@ -447,15 +916,100 @@ public class SectorDB
         if (fileID == null)
             throw new NullPointerException("fileID");
 
-        DBUtil.update(
-                "vfssector",
-                "DELETE FROM sector WHERE file_id=?",
-                new Object[] {fileID});
+        delete(getShardOfFile(fileID), "file_id", getStorageID(fileID));
         _log.info("Relevant sectors with the file deleted. " + fileID);
     }
 
+    /**
+     * wt@CɕRÂZN^[폜ς݂ƂċL^܂B
+     * ZN^[͍̂̂폜At@C̃ZN^[ȍ~͐Vۑ
+     * ʎq̉ŊǗ邽߁AZN^[Ɋւ炸̎ԂŊ
+     * ܂BL^ꂽZN^[͂ǂ̖₢킹QƂȂȂA
+     * {@link #reclaimSectors(int)} ō폜܂ŎgpoCgɊ܂܂
+     * ܂BZN^[ꍇ͉܂B
+     *
+     * @param fileID    t@Cʎq
+     *
+     * @throws  NullPointerException
+     *           <tt>null</tt> w肳ꂽꍇɃX[܂B
+     *
+     * @throws  DBException
+     *          f[^x[XANZXɃG[ꍇɃX[܂B
+     */
+    public static final void tombstoneSectors(String fileID) {
+        if (fileID == null)
+            throw new NullPointerException("fileID");
+
+        Connection con = getShardOfFile(fileID).engageConnection();
+        try {
+            con.setAutoCommit(false);
+            String storageID = getStorageID(con, fileID);
+            if (selectStrings(con,
+                        "SELECT sector_id FROM sector " +
+                        "WHERE file_id=? LIMIT 1",
+                        new Object[] {storageID}).isEmpty())
+                return;
+
+            String newStorageID = UUID.randomUUID().toString();
+            int count = DBUtil.update(con,
+                    "UPDATE sector_file SET storage_id=? WHERE file_id=?",
+                    new Object[] {newStorageID, fileID});
+            if (count == 0)
+                DBUtil.update(con,
+                        "INSERT INTO sector_file (file_id, storage_id) " +
+                        "VALUES (?,?)",
+                        new Object[] {fileID, newStorageID});
+            DBUtil.update(con,
+                    "INSERT INTO sector_tombstone (storage_id, deleted_at) " +
+                    "VALUES (?,?)",
+                    new Object[] {
+                        storageID, Long.valueOf(System.currentTimeMillis())});
+            con.commit();
+            _log.info("Relevant sectors with the file tombstoned. " + fileID);
+        } catch (SQLException e) {
+            throw new DBException(e);
+        } finally {
+            try {
+                con.close();
+            } catch (SQLException e) {
+                _log.log(Level.WARNING, "Could not close connection.", e);
+            }
+        }
+    }
+
+    /**
+     * {@link #tombstoneSectors(String)} ō폜ς݂ƂċL^ꂽ
+     * ZN^[AV[hɌÂL^珇ɍő <tt>maxSectors</tt>
+     * 폜AV[hɂP̃gUNVŃR~bg܂B
+     * SẴZN^[폜L^͎菜܂Bdrf[^̉
+     * gpoCg̑ {@link #deleteSector(String)} ƓłB
+     *
+     * @param maxSectors    xɍ폜ZN^[̏B
+     *
+     * @return  폜ZN^[B폜ZN^[ꍇ0B
+     *
+     * @throws  IllegalArgumentException
+     *          <tt>maxSectors</tt> 0ȉ̒lw肳ꂽꍇ
+     *          X[܂B
+     *
+     * @throws  DBException
+     *          f[^x[XANZXɃG[ꍇɃX[܂B
+     */
+    public static final int reclaimSectors(int maxSectors) {
+        if (maxSectors <= 0)
+            throw new IllegalArgumentException("maxSectors too small.");
+
+        SectorShard[] shards = _shards;
+        int count = 0;
+        for (int idx = 0; idx < shards.length; idx++)
+            count += reclaimSectors(shards[idx], maxSectors);
+        return count;
+    }
+
     /**
      * wZN^[폜܂B
+     * ZN^[QƂĂdrf[^̎QƐ炵AQƐ0
+     * Ȃf[^݂̂폜܂B
      * ZN^[Ȃꍇ͉܂B
      *
      * @param sectorID  ZN^[ʎq
@@ -470,15 +1024,19 @@ public class SectorDB
         if (sectorID == null)
             throw new NullPointerException("sectorID");
 
-        DBUtil.update(
-                "vfssector",
-                "DELETE FROM sector WHERE sector_id=?",
-                new Object[] {sectorID});
+        delete(getShardOfSector(sectorID), "sector_id", sectorID);
         _log.info("The sector deleted. " + sectorID);
     }
 
     /**
      * ۑĂSZN^[ێĂf[^̑oCgԂ܂B
+     * drꂽf[^́AQƂĂZN^[ɐ܂i_
+     * oCgjB
+     *
+     * <p> l̓ZN^[̓o^AXVA폜ƓgUNVő
+     * JE^[isector_usage e[uj̃̎ʂԂ߁A
+     * e[ȕWv͍s܂BV[h̏ꍇ́ASV[h
+     * vԂ܂B
      *
      * @return  SZN^[ێĂf[^̑oCgB
      *
@@ -486,38 +1044,125 @@ public class SectorDB
      *          f[^x[XANZXɃG[ꍇɃX[܂B
      */
     public static final long getUsedBytes() {
-        ConnectionPool pool = ConnectionPool.getInstance("vfssector");
-        Connection con = pool.engageConnection(10);
-        PreparedStatement stmt = null;
+        SectorShard[] shards = _shards;
+        long usedBytes = 0;
+        for (int idx = 0; idx < shards.length; idx++) {
+            loadUsage(shards[idx]);
+            usedBytes += shards[idx].getLogicalUsedBytes();
+        }
+        return usedBytes;
+    }
+
+    /**
+     * ۂɕۑĂf[^̑oCgԂ܂Bdrꂽ
+     * f[^́AQƂĂZN^[̐Ɋւ炸P񂾂܂B
+     * GR[hꂽf[^́AGR[h̃oCgŐ܂i
+     * oCgjB
+     *
+     * <p> {@link #getUsedBytes()} ƓlɁAJE^[̒lԂ܂B
+     *
+     * @return  ۂɕۑĂf[^̑oCgB
+     *
+     * @throws  DBException
+     *          f[^x[XANZXɃG[ꍇɃX[܂B
+     */
+    public static final long getPhysicalUsedBytes() {
+        SectorShard[] shards = _shards;
+        long usedBytes = 0;
+        for (int idx = 0; idx < shards.length; idx++) {
+            loadUsage(shards[idx]);
+            usedBytes += shards[idx].getPhysicalUsedBytes();
+        }
+        return usedBytes;
+    }
+
+    /**
+     * gpoCg̃JE^[Ae[uWvlŕ␳܂B
+     * JE^[ {@link #create}A{@link #update}A{@link #deleteSectors}
+     * Ȃǂő邽ߒʏ͕␳̕Kv͂܂񂪁ASectorDBoR
+     * Ƀe[uXVꂽꍇȂǂɁAJE^[Ǝۂ̒lɂꂪ
+     * ܂B
+     *
+     * <p> ̃\bh̓e[uŜWv邽߁AIȕ␳
+     * ĂяoƂz肵Ă܂B
+     *
+     * @return  ꂩ̃V[h̃JE^[␳ꍇ
+     *          <tt>true</tt>Aꂪꍇ <tt>false</tt> 
+     *          Ԃ܂B
+     *
+     * @throws  DBException
+     *          f[^x[XANZXɃG[ꍇɃX[܂B
+     */
+    public static final boolean reconcileUsedBytes() {
+        SectorShard[] shards = _shards;
+        boolean drifted = false;
+        for (int idx = 0; idx < shards.length; idx++) {
+            if (reconcileUsedBytes(shards[idx]))
+                drifted = true;
+        }
+        return drifted;
+    }
+
+    //////////////////////////////////////////////////////////// 
+    // Private methods.
+
+    /**
+     * wV[h̎gpoCg̃JE^[␳܂B
+     *
+     * @return  JE^[␳ꍇ <tt>true</tt>B
+     */
+    private static final boolean reconcileUsedBytes(SectorShard shard) {
+        Connection con = shard.engageConnection();
+        shard.getUsageLock().writeLock().lock();
         try {
-            stmt = con.prepareStatement(
-                    "SELECT sum(size) as used_bytes FROM sector");
-            ResultSet rs = stmt.executeQuery();
-            rs.next();
-            return rs.getLong("used_bytes");
+            con.setAutoCommit(false);
+            long[] actual = selectLongs(con, _SUM_USAGE_SQL, null);
+            long[] counted = selectLongs(con,
+                    "SELECT logical_bytes, physical_bytes " +
+                    "FROM sector_usage WHERE usage_id=0", null);
+            boolean drifted = counted == null ||
+                counted[0] != actual[0] || counted[1] != actual[1];
+            if (counted == null) {
+                DBUtil.update(con,
+                        "INSERT INTO sector_usage " +
+                        " (usage_id, logical_bytes, physical_bytes) " +
+                        "VALUES (0,?,?)",
+                        new Object[] {
+                            Long.valueOf(actual[0]), Long.valueOf(actual[1])});
+            } else if (drifted) {
+                _log.log(Level.WARNING,
+                        "Used bytes drifted. " + shard.getPoolName() +
+                        " logical " + counted[0] +
+                        " -> " + actual[0] + ", physical " +
+                        counted[1] + " -> " + actual[1]);
+                DBUtil.update(con,
+                        "UPDATE sector_usage " +
+                        "SET logical_bytes=?, physical_bytes=? " +
+                        "WHERE usage_id=0",
+                        new Object[] {
+                            Long.valueOf(actual[0]), Long.valueOf(actual[1])});
+            }
+            con.commit();
+            shard.setUsage(actual[0], actual[1]);
+            return drifted;
         } catch (SQLException e) {
             throw new DBException(e);
         } finally {
+            shard.getUsageLock().writeLock().unlock();
             try {
-                if (stmt != null)
-                    stmt.close();
                 con.close();
             } catch (SQLException e) {
-                _log.log(Level.WARNING,
-                        "Could not close statement or connection.", e);
+                _log.log(Level.WARNING, "Could not close connection.", e);
             }
         }
     }
 
-    //////////////////////////////////////////////////////////// 
-    // Private methods.
-
-    private static final Sector getInstance(ResultSet rs)
+    private static final Sector getInstance(ResultSet rs, String fileID)
         throws SQLException
     {
         return new Sector(
                 rs.getString("sector_id"),
-                rs.getString("file_id"),
+                fileID,
                 rs.getInt("seq_num"),
                 rs.getInt("size"));
     }
@@ -541,8 +1186,7 @@ public class SectorDB
         if (sectorID == null)
             throw new NullPointerException("sectorID.");
 
-        ConnectionPool pool = ConnectionPool.getInstance("vfssector");
-        Connection con = pool.engageConnection(10);
+        Connection con = getShardOfSector(sectorID).engageConnection();
         PreparedStatement stmt = null;
         try {
             stmt = con.prepareStatement(
@@ -563,4 +1207,477 @@ public class SectorDB
             }
         }
     }
+
+    /**
+     * wV[h̍폜ς݃ZN^[ő <tt>maxSectors</tt> 폜
+     * ܂B
+     *
+     * @return  폜ZN^[B
+     */
+    private static final int reclaimSectors(SectorShard shard,
+            int maxSectors)
+    {
+        synchronized (shard.getReclaimLock()) {
+            Connection con = shard.engageConnection();
+            shard.getUsageLock().readLock().lock();
+            try {
+                con.setAutoCommit(false);
+                List<String> sectorIDs = new ArrayList<String>();
+                while (sectorIDs.isEmpty()) {
+                    List<String> storageIDs = selectStrings(con,
+                            "SELECT storage_id FROM sector_tombstone " +
+                            "ORDER BY deleted_at LIMIT 1", null);
+                    if (storageIDs.isEmpty())
+                        break;
+                    sectorIDs = selectStrings(con,
+                            "SELECT sector_id FROM sector " +
+                            "WHERE file_id=? LIMIT ?",
+                            new Object[] {
+                                storageIDs.get(0),
+                                Integer.valueOf(maxSectors)});
+                    if (sectorIDs.isEmpty())
+                        DBUtil.update(con,
+                                "DELETE FROM sector_tombstone " +
+                                "WHERE storage_id=?",
+                                new Object[] {storageIDs.get(0)});
+                }
+
+                long logical = 0;
+                long physical = 0;
+                for (String sectorID : sectorIDs) {
+                    long[] usage = selectUsage(con, "sector_id", sectorID);
+                    physical += releaseContents(con, "sector_id", sectorID);
+                    DBUtil.update(con,
+                            "DELETE FROM sector WHERE sector_id=?",
+                            new Object[] {sectorID});
+                    logical += usage[0];
+                    physical += usage[1];
+                }
+                commit(shard, con, -logical, -physical);
+                if (sectorIDs.size() > 0)
+                    _log.info("Tombstoned sectors reclaimed : " +
+                            sectorIDs.size());
+                return sectorIDs.size();
+            } catch (SQLException e) {
+                throw new DBException(e);
+            } finally {
+                shard.getUsageLock().readLock().unlock();
+                try {
+                    con.close();
+                } catch (SQLException e) {
+                    _log.log(Level.WARNING,
+                            "Could not close connection.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * wt@C̃ZN^[ǗĂۑʎqԂ܂B
+     * {@link #tombstoneSectors(String)} ō폜ꂽƂ̖t@ĆA
+     * t@Cʎq̂܂ܕۑʎqƂ܂B
+     *
+     * @param con       RlNVB
+     * @param fileID    t@CʎqB
+     */
+    private static final String getStorageID(Connection con, String fileID)
+        throws SQLException
+    {
+        List<String> storageIDs = selectStrings(con,
+                "SELECT storage_id FROM sector_file WHERE file_id=?",
+                new Object[] {fileID});
+        return storageIDs.isEmpty() ? fileID : storageIDs.get(0);
+    }
+
+    /**
+     * wt@C̃ZN^[ǗĂۑʎqAVȃRlNV
+     * Ŗ₢킹ĕԂ܂B
+     *
+     * @param fileID    t@CʎqB
+     */
+    private static final String getStorageID(String fileID) {
+        Connection con = getShardOfFile(fileID).engageConnection();
+        try {
+            return getStorageID(con, fileID);
+        } catch (SQLException e) {
+            throw new DBException(e);
+        } finally {
+            try {
+                con.close();
+            } catch (SQLException e) {
+                _log.log(Level.WARNING, "Could not close connection.", e);
+            }
+        }
+    }
+
+    /**
+     * o^f[^܂B
+     *
+     * @throws  NullPointerException
+     *          <tt>content</tt>  <tt>null</tt> ̏ꍇɃX[܂B
+     *
+     * @throws  IllegalArgumentException
+     *          <tt>content</tt> ̔z̏ꍇA܂ <tt>size</tt> 
+     *          sȏꍇɃX[܂B
+     */
+    static final void checkContent(int size, byte[] content,
+            String codec)
+    {
+        if (content == null)
+            throw new NullPointerException("content.");
+        if (content.length == 0)
+            throw new IllegalArgumentException("content was empty.");
+        if (size <= 0 || (codec == null && content.length < size))
+            throw new IllegalArgumentException("invalid size.");
+    }
+
+    /**
+     * ۑĂf[^Aw̃R[fbNŃfR[hĕԂ܂B
+     *
+     * @param stored    ۑĂf[^B
+     * @param codec     R[fbNB<tt>null</tt> ̏ꍇ <tt>stored</tt>
+     *                  ̂܂ܕԂ܂B
+     * @param size      fR[h̃f[^̃oCgB
+     *
+     * @throws  IllegalStateException
+     *          fR[hɎsꍇɃX[܂B
+     */
+    static final byte[] decodeContent(byte[] stored, String codec, int size) {
+        if (codec == null)
+            return stored;
+
+        byte[] content = new byte[size];
+        try {
+            InputStream in = SectorCodecs.get(codec).decode(
+                    new ByteArrayInputStream(stored));
+            try {
+                int count = 0;
+                while (count < size) {
+                    int n = in.read(content, count, size - count);
+                    if (n == -1)
+                        break;
+                    count += n;
+                }
+                if (count != size)
+                    throw new IllegalStateException(
+                            "Decoded content was too short. " +
+                            count + " < " + size);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(
+                    "Content could not decode. " + e.getMessage(), e);
+        }
+        return content;
+    }
+
+    /**
+     * w̃Xe[gg̃p[^ɃZN^[̃f[^ݒ肵܂B
+     * drꍇAf[^ sector_content e[uɕۑ邽
+     * ̃f[^ݒ肵܂B
+     */
+    private static final void setContent(PreparedStatement stmt, int index,
+            int size, byte[] content, String contentHash)
+        throws SQLException
+    {
+        if (contentHash != null)
+            stmt.setBytes(index, new byte[0]);
+        else
+            stmt.setBinaryStream(
+                    index, new ByteArrayInputStream(content), size);
+    }
+
+    /**
+     * w̃nbVl̃f[^̎QƐ𑝂₵܂Bf[^ۑ
+     * Ȃꍇ́AQƐ1Ƃĕۑ܂B
+     *
+     * @param con           gUNṼRlNVB
+     * @param contentHash   f[^̃nbVlB
+     * @param size          GR[hÕf[^̃oCgB
+     * @param content       f[^̃oCgzB
+     * @param storedSize    <tt>content</tt> ۑoCgB
+     * @param codec         f[^̃R[fbNA܂ <tt>null</tt>B
+     *
+     * @return  Vɕۑf[^̃oCgBɕۑĂꍇ0B
+     */
+    private static final long acquireContent(Connection con,
+            String contentHash, int size, byte[] content, int storedSize,
+            String codec)
+        throws SQLException
+    {
+        int count = DBUtil.update(con,
+                "UPDATE sector_content SET ref_count=ref_count+1 " +
+                "WHERE content_hash=?",
+                new Object[] {contentHash});
+        if (count > 0)
+            return 0;
+
+        PreparedStatement stmt = null;
+        try {
+            stmt = con.prepareStatement(
+                    "INSERT INTO sector_content " +
+                    " (content_hash, ref_count, size, content, codec) " +
+                    "VALUES (?,1,?,?,?)");
+            stmt.setString(1, contentHash);
+            stmt.setInt(2, size);
+            stmt.setBinaryStream(
+                    3, new ByteArrayInputStream(content), storedSize);
+            stmt.setString(4, codec);
+            stmt.executeUpdate();
+            return storedSize;
+        } finally {
+            if (stmt != null)
+                stmt.close();
+        }
+    }
+
+    /**
+     * w̃ZN^[QƂĂdrf[^̎QƐ炵A
+     * QƐ0ɂȂf[^폜܂B
+     *
+     * @param con       gUNṼRlNVB
+     * @param column    ZN^[̏Ƃ񖼁B
+     * @param value     ̒lB
+     *
+     * @return  폜f[^̃oCgB
+     */
+    private static final long releaseContents(Connection con, String column,
+            String value)
+        throws SQLException
+    {
+        DBUtil.update(con,
+                "UPDATE sector_content SET ref_count = ref_count - " +
+                " (SELECT count(*) FROM sector " +
+                "  WHERE sector.content_hash=sector_content.content_hash " +
+                "  AND sector." + column + "=?) " +
+                "WHERE content_hash IN " +
+                " (SELECT content_hash FROM sector WHERE " + column + "=?)",
+                new Object[] {value, value});
+        long released = selectLongs(con,
+                "SELECT COALESCE(sum(LENGTH(content)), 0) " +
+                "FROM sector_content WHERE ref_count <= 0", null)[0];
+        DBUtil.update(con,
+                "DELETE FROM sector_content WHERE ref_count <= 0");
+        return released;
+    }
+
+    /**
+     * w̃ZN^[AQƂĂdrf[^̉ƂƂ
+     * P̃gUNVō폜܂B
+     *
+     * @param shard     ZN^[ۑĂV[hB
+     * @param column    ZN^[̏Ƃ񖼁B
+     * @param value     ̒lB
+     */
+    private static final void delete(SectorShard shard, String column,
+            String value)
+    {
+        Connection con = shard.engageConnection();
+        shard.getUsageLock().readLock().lock();
+        try {
+            con.setAutoCommit(false);
+            long[] usage = selectUsage(con, column, value);
+            long released = releaseContents(con, column, value);
+            DBUtil.update(con,
+                    "DELETE FROM sector WHERE " + column + "=?",
+                    new Object[] {value});
+            commit(shard, con, -usage[0], -usage[1] - released);
+        } catch (SQLException e) {
+            throw new DBException(e);
+        } finally {
+            shard.getUsageLock().readLock().unlock();
+            try {
+                con.close();
+            } catch (SQLException e) {
+                _log.log(Level.WARNING, "Could not close connection.", e);
+            }
+        }
+    }
+
+    /**
+     * w̃ZN^[́Af[^̃oCg̍vƁAsector e[u
+     * ڕۑĂf[^̃oCg̍vԂ܂B
+     *
+     * @param con       gUNṼRlNVB
+     * @param column    ZN^[̏Ƃ񖼁B
+     * @param value     ̒lB
+     *
+     * @return  _oCgƕoCg̔zB
+     */
+    private static final long[] selectUsage(Connection con, String column,
+            String value)
+        throws SQLException
+    {
+        return selectLongs(con,
+                "SELECT COALESCE(sum(size), 0), " +
+                " COALESCE(sum(CASE WHEN content_hash IS NULL " +
+                "  THEN LENGTH(content) ELSE 0 END), 0) " +
+                "FROM sector WHERE " + column + "=?",
+                new Object[] {value});
+    }
+
+    /**
+     * w̖₢킹̍ŏ̍s̊e long ̔zŕԂ܂B
+     *
+     * @return  ŏ̍s̒l̔zBsꍇ <tt>null</tt>B
+     */
+    private static final long[] selectLongs(Connection con, String sql,
+            Object[] args)
+        throws SQLException
+    {
+        PreparedStatement stmt = null;
+        try {
+            stmt = con.prepareStatement(sql);
+            if (args != null) {
+                for (int idx = 0; idx < args.length; idx++)
+                    stmt.setObject(idx + 1, args[idx]);
+            }
+            ResultSet rs = stmt.executeQuery();
+            if (!rs.next())
+                return null;
+            long[] values = new long[rs.getMetaData().getColumnCount()];
+            for (int idx = 0; idx < values.length; idx++)
+                values[idx] = rs.getLong(idx + 1);
+            return values;
+        } finally {
+            if (stmt != null)
+                stmt.close();
+        }
+    }
+
+    /**
+     * w̖₢킹̊es̍ŏ̗𕶎̃XgŕԂ܂B
+     *
+     * @return  l̃XgBsꍇ͋̃XgB
+     */
+    private static final List<String> selectStrings(Connection con,
+            String sql, Object[] args)
+        throws SQLException
+    {
+        PreparedStatement stmt = null;
+        try {
+            stmt = con.prepareStatement(sql);
+            if (args != null) {
+                for (int idx = 0; idx < args.length; idx++)
+                    stmt.setObject(idx + 1, args[idx]);
+            }
+            ResultSet rs = stmt.executeQuery();
+            List<String> values = new ArrayList<String>();
+            while (rs.next())
+                values.add(rs.getString(1));
+            return values;
+        } finally {
+            if (stmt != null)
+                stmt.close();
+        }
+    }
+
+    /**
+     * gpoCg̃JE^[𑝌ăgUNVR~bgA
+     * ̎ʂɂf܂BĂяo̓V[h̎gpoCg
+     * bN̓ǂݍ݃bNێĂKv܂B
+     *
+     * @param shard     RlNṼV[hB
+     * @param con       gUNṼRlNVB
+     * @param logical   _oCg̑B
+     * @param physical  oCg̑B
+     */
+    private static final void commit(SectorShard shard, Connection con,
+            long logical, long physical)
+        throws SQLException
+    {
+        if (logical != 0 || physical != 0)
+            DBUtil.update(con,
+                    "UPDATE sector_usage " +
+                    "SET logical_bytes=logical_bytes+?, " +
+                    " physical_bytes=physical_bytes+? " +
+                    "WHERE usage_id=0",
+                    new Object[] {Long.valueOf(logical), Long.valueOf(physical)});
+        con.commit();
+        shard.addUsage(logical, physical);
+    }
+
+    /**
+     * wV[h̎gpoCg̃JE^[A܂ǂݍłȂ
+     * sector_usage
+     * e[uǂݍ݂܂BJE^[̍sꍇ́Ae[u
+     * Wvč쐬܂B
+     */
+    private static final void loadUsage(SectorShard shard) {
+        if (shard.isUsageLoaded())
+            return;
+
+        long[] counted = null;
+        Connection con = shard.engageConnection();
+        shard.getUsageLock().writeLock().lock();
+        try {
+            if (shard.isUsageLoaded())
+                return;
+            counted = selectLongs(con,
+                    "SELECT logical_bytes, physical_bytes " +
+                    "FROM sector_usage WHERE usage_id=0", null);
+            if (counted != null)
+                shard.setUsage(counted[0], counted[1]);
+        } catch (SQLException e) {
+            throw new DBException(e);
+        } finally {
+            shard.getUsageLock().writeLock().unlock();
+            try {
+                con.close();
+            } catch (SQLException e) {
+                _log.log(Level.WARNING, "Could not close connection.", e);
+            }
+        }
+        if (counted == null)
+            reconcileUsedBytes(shard);
+    }
+
+    /**
+     * wt@C̃ZN^[ۑV[hԂ܂BV[h
+     * t@Cʎq̃nbVl猈܂AJVM ċNɊւ炸
+     * V[hɂȂ܂B
+     *
+     * @param fileID    t@CʎqB
+     */
+    private static final SectorShard getShardOfFile(String fileID) {
+        SectorShard[] shards = _shards;
+        if (shards.length == 1)
+            return shards[0];
+        return shards[(fileID.hashCode() & 0x7fffffff) % shards.length];
+    }
+
+    /**
+     * wZN^[ۑĂV[hԂ܂BV[h
+     * ꍇAZN^[ʎq̐擪QV[h̔ԍ\܂B
+     * ԍƂĉ߂łȂʎq́A݂ȂZN^[Ƃčŏ
+     * V[hň܂B
+     *
+     * @param sectorID  ZN^[ʎqB
+     */
+    private static final SectorShard getShardOfSector(String sectorID) {
+        SectorShard[] shards = _shards;
+        if (shards.length == 1 || sectorID.length() < 2)
+            return shards[0];
+        try {
+            int index = Integer.parseInt(sectorID.substring(0, 2), 16);
+            return (index < shards.length) ? shards[index] : shards[0];
+        } catch (NumberFormatException e) {
+            return shards[0];
+        }
+    }
+
+    /**
+     * wV[hɓo^ZN^[̎ʎq𐶐܂BV[h
+     * ̏ꍇ́AUUID ̐擪QV[h̔ԍɒu܂B
+     *
+     * @param shard     ZN^[o^V[hB
+     */
+    private static final String newSectorID(SectorShard shard) {
+        String sectorID = UUID.randomUUID().toString();
+        if (_shards.length == 1)
+            return sectorID;
+        String prefix = Integer.toHexString(0x100 | shard.getIndex());
+        return prefix.substring(1) + sectorID.substring(2);
+    }
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.db;
+
+/**
+ * wt@CɕRÂZN^[́At@Cł̃ItZbg̍łB
+ *
+ * <p> ZN^[V[PXԍɕׁAeZN^[̐擪t@C
+ * oCgڂɂ邩ZN^[̃oCg̗݌vŕێ܂B
+ * t@C̔Cӂ̈ʒu܂ރZN^[Af[^ǂ܂ɓ񕪒T
+ * ߂邱Ƃł܂BCX^X
+ * {@link SectorDB#getSectorIndex(String)} Ő܂B
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class SectorIndex
+{
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** V[PXԍ̃ZN^[ʎq */
+    private final String[] _sectorIDs;
+
+    /** eZN^[̃V[PXԍ */
+    private final int[] _seqNums;
+
+    /** eZN^[̐擪̃ItZbgiɃt@CTCYj */
+    private final long[] _offsets;
+
+    ////////////////////////////////////////////////////////////
+    // Initialisations.
+
+    SectorIndex(String[] sectorIDs, int[] seqNums, int[] sizes) {
+        _sectorIDs = sectorIDs;
+        _seqNums = seqNums;
+        _offsets = new long[sizes.length + 1];
+        for (int idx = 0; idx < sizes.length; idx++)
+            _offsets[idx + 1] = _offsets[idx] + sizes[idx];
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Public methods.
+
+    /**
+     * ZN^[̐Ԃ܂B
+     *
+     * @return  ZN^[̐
+     */
+    public int getSectorCount() {
+        return _sectorIDs.length;
+    }
+
+    /**
+     * t@C̃oCgԂ܂B
+     *
+     * @return  SZN^[̃oCg̍v
+     */
+    public long getFileSize() {
+        return _offsets[_sectorIDs.length];
+    }
+
+    /**
+     * wʒũZN^[̃ZN^[ʎqԂ܂B
+     *
+     * @param idx   V[PXԍł̃ZN^[̈ʒu
+     *
+     * @return  ZN^[ʎq
+     */
+    public String getSectorID(int idx) {
+        return _sectorIDs[idx];
+    }
+
+    /**
+     * wʒũZN^[̃V[PXԍԂ܂B
+     *
+     * @param idx   V[PXԍł̃ZN^[̈ʒu
+     *
+     * @return  V[PXԍ
+     */
+    public int getSeqNum(int idx) {
+        return _seqNums[idx];
+    }
+
+    /**
+     * wʒũZN^[̐擪At@C̉oCgڂɂ邩Ԃ܂B
+     * <tt>idx</tt> ɃZN^[̐w肵ꍇ̓t@C̃oCg
+     * Ԃ܂B
+     *
+     * @param idx   V[PXԍł̃ZN^[̈ʒu
+     *
+     * @return  ZN^[̐擪̃ItZbg
+     */
+    public long getOffset(int idx) {
+        return _offsets[idx];
+    }
+
+    /**
+     * t@C̎wItZbg̃oCgێZN^[̈ʒuԂ܂B
+     * ̃ZN^[Ԃ邱Ƃ͂܂B
+     *
+     * @param offset    t@C̃ItZbg
+     *
+     * @return  V[PXԍł̃ZN^[̈ʒuB<tt>offset</tt> 
+     *          t@C̃oCgȏ̏ꍇ̓ZN^[̐Ԃ܂B
+     *
+     * @throws  IllegalArgumentException
+     *          <tt>offset</tt> ɕ̒lw肳ꂽꍇɃX[܂B
+     */
+    public int find(long offset) {
+        if (offset < 0)
+            throw new IllegalArgumentException("offset is negative.");
+
+        // find first sector whose end is beyond the offset.
+        int low = 0;
+        int high = _sectorIDs.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (_offsets[mid + 1] > offset)
+                high = mid;
+            else
+                low = mid + 1;
+        }
+        return low;
+    }
+}
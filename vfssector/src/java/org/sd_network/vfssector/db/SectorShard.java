@@ -0,0 +1,152 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.db;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.sd_network.db.ConnectionPool;
+
+/**
+ * ZN^[ۑP̃f[^x[XiV[hjłB
+ *
+ * <p> V[hɁAڑɎgpRlNVv[̖OƁA
+ * ̃f[^x[X̎gpoCg̃JE^[̃̎ʂ
+ * ێ܂BJE^[ƃbN̈ {@link SectorDB} 
+ * QƂĂB
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+class SectorShard
+{
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** V[h̔ԍ */
+    private final int _index;
+
+    /** RlNVv[̖O */
+    private final String _poolName;
+
+    /**
+     * gpoCg̃JE^[̃bNBJE^[𑝌gUN
+     * V͓ǂݍ݃bNAJE^[̓ǂݍ݂ƕ␳͏
+     * bNێ܂Bf[^x[X̃bNɎ擾܂B
+     */
+    private final ReentrantReadWriteLock _usageLock =
+        new ReentrantReadWriteLock();
+
+    /** sector_usage.logical_bytes ̃̎ʂ */
+    private final AtomicLong _logicalUsedBytes = new AtomicLong();
+
+    /** sector_usage.physical_bytes ̃̎ʂ */
+    private final AtomicLong _physicalUsedBytes = new AtomicLong();
+
+    /** ʂ sector_usage ǂݍ񂾏ꍇ true */
+    private volatile boolean _usageLoaded = false;
+
+    /** 폜ς݃ZN^[̉xɂPs߂̃bN */
+    private final Object _reclaimLock = new Object();
+
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    SectorShard(int index, String poolName) {
+        _index = index;
+        _poolName = poolName;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Package methods.
+
+    /**
+     * V[h̔ԍԂ܂B
+     */
+    int getIndex() {
+        return _index;
+    }
+
+    /**
+     * RlNVv[̖OԂ܂B
+     */
+    String getPoolName() {
+        return _poolName;
+    }
+
+    /**
+     * V[h̃f[^x[Xւ̃RlNV擾܂B
+     */
+    Connection engageConnection() {
+        return ConnectionPool.getInstance(_poolName).engageConnection(10);
+    }
+
+    /**
+     * gpoCg̃JE^[̃bNԂ܂B
+     */
+    ReentrantReadWriteLock getUsageLock() {
+        return _usageLock;
+    }
+
+    /**
+     * 폜ς݃ZN^[̉Ɏgp郍bNԂ܂B
+     */
+    Object getReclaimLock() {
+        return _reclaimLock;
+    }
+
+    /**
+     * ʂǂݍݍς݂̏ꍇ <tt>true</tt> Ԃ܂B
+     */
+    boolean isUsageLoaded() {
+        return _usageLoaded;
+    }
+
+    /**
+     * ʂɒlݒ肵Aǂݍݍς݂Ƃ܂B
+     */
+    void setUsage(long logical, long physical) {
+        _logicalUsedBytes.set(logical);
+        _physicalUsedBytes.set(physical);
+        _usageLoaded = true;
+    }
+
+    /**
+     * ʂǂݍݍς݂ł΁Al𑝌܂B
+     */
+    void addUsage(long logical, long physical) {
+        if (_usageLoaded) {
+            _logicalUsedBytes.addAndGet(logical);
+            _physicalUsedBytes.addAndGet(physical);
+        }
+    }
+
+    /**
+     * _oCg̎ʂԂ܂B
+     */
+    long getLogicalUsedBytes() {
+        return _logicalUsedBytes.get();
+    }
+
+    /**
+     * oCg̎ʂԂ܂B
+     */
+    long getPhysicalUsedBytes() {
+        return _physicalUsedBytes.get();
+    }
+}
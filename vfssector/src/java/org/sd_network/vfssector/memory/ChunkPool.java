@@ -0,0 +1,120 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pool of direct buffers of the same size, used as chunks of files.
+ *
+ * <p> A direct buffer is freed only by garbage collection of the JVM, so
+ * a released chunk is kept in this pool and reused by the next
+ * allocation, instead of being discarded. The total bytes of the chunks
+ * allocated by this pool never exceed the capacity, whether the chunks
+ * are in use or kept in the pool.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+class ChunkPool
+{
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** Number of bytes of a chunk. */
+    private final int _chunkSize;
+
+    /** Maximum number of chunks. */
+    private final long _maxChunks;
+
+    /** Released chunks that are ready to reuse. */
+    private final List<ByteBuffer> _freeChunks = new ArrayList<ByteBuffer>();
+
+    /** Number of chunks allocated by this pool. */
+    private long _allocatedChunks = 0;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    /**
+     * Create a pool.
+     *
+     * @param chunkSize number of bytes of a chunk.
+     * @param capacity  maximum total bytes of the chunks.
+     */
+    ChunkPool(int chunkSize, long capacity) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunkSize is not positive.");
+        _chunkSize = chunkSize;
+        _maxChunks = capacity / chunkSize;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Package methods.
+
+    /**
+     * Return number of bytes of a chunk.
+     */
+    int getChunkSize() {
+        return _chunkSize;
+    }
+
+    /**
+     * Return a cleared chunk. A pooled chunk is reused if exists.
+     *
+     * @throws  IOException
+     *          Throws if the capacity would be exceeded.
+     */
+    synchronized ByteBuffer allocate()
+        throws IOException
+    {
+        int size = _freeChunks.size();
+        if (size > 0)
+            return _freeChunks.remove(size - 1);
+        if (_allocatedChunks >= _maxChunks)
+            throw new IOException("Memory capacity exceeded.");
+        ByteBuffer chunk = ByteBuffer.allocateDirect(_chunkSize);
+        _allocatedChunks++;
+        return chunk;
+    }
+
+    /**
+     * Return the chunk to this pool.
+     */
+    synchronized void release(ByteBuffer chunk) {
+        chunk.clear();
+        _freeChunks.add(chunk);
+    }
+
+    /**
+     * Return total bytes of the chunks allocated by this pool, including
+     * the chunks kept in the pool.
+     */
+    synchronized long getAllocatedBytes() {
+        return _allocatedChunks * _chunkSize;
+    }
+
+    /**
+     * Return total bytes of the chunks kept in the pool.
+     */
+    synchronized long getPooledBytes() {
+        return (long) _freeChunks.size() * _chunkSize;
+    }
+}
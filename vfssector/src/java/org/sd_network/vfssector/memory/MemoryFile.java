@@ -0,0 +1,164 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.memory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Content of a file held in chunks of a {@link ChunkPool}.
+ *
+ * <p> Data is appended only, so byte at position <tt>p</tt> is stored at
+ * <tt>p % chunkSize</tt> of chunk <tt>p / chunkSize</tt>. A file is
+ * written by one writer at a time, and is not read while it is written;
+ * the driver guarantees this by its locks. Readers do not modify the
+ * chunks, since each of them reads through a duplicate of a chunk.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+class MemoryFile
+{
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** The pool that chunks are allocated from. */
+    private final ChunkPool _pool;
+
+    /** Number of bytes of a chunk. */
+    private final int _chunkSize;
+
+    /** Chunks in order of position. */
+    private final List<ByteBuffer> _chunks = new ArrayList<ByteBuffer>();
+
+    /** Number of bytes of the file. */
+    private volatile long _size = 0;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    MemoryFile(ChunkPool pool) {
+        _pool = pool;
+        _chunkSize = pool.getChunkSize();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Package methods.
+
+    /**
+     * Return number of bytes of the file.
+     */
+    long getSize() {
+        return _size;
+    }
+
+    /**
+     * Return a buffer whose remaining bytes are the content from the
+     * specified position to the end of its chunk or the end of the file.
+     *
+     * @return  the buffer, or null if the position is at or beyond the end
+     *          of the file.
+     */
+    ByteBuffer slice(long position) {
+        long size = _size;
+        if (position >= size)
+            return null;
+        int idx = (int) (position / _chunkSize);
+        long chunkStart = (long) idx * _chunkSize;
+        ByteBuffer content = _chunks.get(idx).duplicate();
+        content.limit((int) Math.min(_chunkSize, size - chunkStart));
+        content.position((int) (position - chunkStart));
+        return content;
+    }
+
+    /**
+     * Append the specified bytes to the end of the file.
+     *
+     * @throws  IOException
+     *          Throws if the capacity of the pool is exceeded. Bytes
+     *          appended before the error remain in the file.
+     */
+    void write(byte[] b, int off, int len)
+        throws IOException
+    {
+        while (len > 0) {
+            ByteBuffer chunk = getWritableChunk();
+            int count = Math.min(len, chunk.remaining());
+            chunk.put(b, off, count);
+            _size += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    /**
+     * Append bytes read from the channel by a read call of the channel.
+     * A chunk allocated for the call is returned to the pool if nothing
+     * was read into it.
+     *
+     * @return  number of bytes read, possibly zero, or -1 if the channel
+     *          has reached end of stream.
+     *
+     * @throws  IOException
+     *          Throws if the capacity of the pool is exceeded, or the
+     *          channel could not be read.
+     */
+    int write(ReadableByteChannel src)
+        throws IOException
+    {
+        int chunks = _chunks.size();
+        int count = src.read(getWritableChunk());
+        if (count > 0)
+            _size += count;
+        else if (_chunks.size() > chunks)
+            _pool.release(_chunks.remove(chunks));
+        return count;
+    }
+
+    /**
+     * Return all chunks to the pool. The file becomes empty.
+     */
+    void release() {
+        for (ByteBuffer chunk : _chunks)
+            _pool.release(chunk);
+        _chunks.clear();
+        _size = 0;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    /**
+     * Return a buffer of the chunk that contains the end of the file,
+     * positioned at the end of the file. A chunk is allocated if the last
+     * chunk is full.
+     */
+    private ByteBuffer getWritableChunk()
+        throws IOException
+    {
+        int idx = (int) (_size / _chunkSize);
+        if (idx == _chunks.size())
+            _chunks.add(_pool.allocate());
+        ByteBuffer chunk = _chunks.get(idx).duplicate();
+        chunk.clear();
+        chunk.position((int) (_size - (long) idx * _chunkSize));
+        return chunk;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.memory;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * InputStream that reads a file held in memory.
+ *
+ * <p> Each stream reads through its own duplicates of the chunks, so any
+ * number of streams read the same file at the same time without
+ * locking each other.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class MemoryInputStream
+    extends InputStream
+{
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** ID of the file to read. */
+    private final String _fileID;
+
+    /** The driver that opened this stream. */
+    private final MemorySectorDriver _driver;
+
+    /** The file to read. */
+    private final MemoryFile _file;
+
+    /** Content of the current chunk, or null if not read yet. */
+    private ByteBuffer _content;
+
+    /** Current position in the file. */
+    private long _position;
+
+    /** Closed flag. */
+    private boolean _closed;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    MemoryInputStream(String fileID, MemoryFile file, long position,
+            MemorySectorDriver driver)
+    {
+        _fileID = fileID;
+        _driver = driver;
+        _file = file;
+        _content = null;
+        _position = position;
+        _closed = false;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Implements to InputStream.
+
+    public synchronized int read()
+        throws IOException
+    {
+        if (!fillContent())
+            return -1;
+        _position++;
+        return _content.get() & 0xff;
+    }
+
+    public synchronized int read(byte[] b, int off, int len)
+        throws IOException
+    {
+        if (b == null)
+            throw new NullPointerException("b is null.");
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+        if (!fillContent())
+            return -1;
+
+        int count = Math.min(len, _content.remaining());
+        _content.get(b, off, count);
+        _position += count;
+        return count;
+    }
+
+    public synchronized long skip(long n)
+        throws IOException
+    {
+        checkClosed();
+        if (n <= 0)
+            return 0;
+        long start = _position;
+        long target = Math.max(start, Math.min(start + n, _file.getSize()));
+        seek(target);
+        return target - start;
+    }
+
+    public synchronized int available()
+        throws IOException
+    {
+        checkClosed();
+        return (int) Math.max(0,
+                Math.min(Integer.MAX_VALUE, _file.getSize() - _position));
+    }
+
+    public synchronized void close() {
+        if (_closed)
+            return;
+        _closed = true;
+        _content = null;
+        _driver.releaseReadLock(_fileID);
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Public methods.
+
+    /**
+     * Return current position in the file.
+     *
+     * @return  number of bytes from the beginning of the file.
+     */
+    public synchronized long getPosition() {
+        return _position;
+    }
+
+    /**
+     * Move position to read to the specified position in the file. If the
+     * position is at or beyond the end of the file, following reads return
+     * end of stream.
+     *
+     * @param position  number of bytes from the beginning of the file.
+     *
+     * @throws  IllegalArgumentException
+     *          Throws if <tt>position</tt> is negative.
+     *
+     * @throws  IOException
+     *          Throws if this stream was already closed.
+     */
+    public synchronized void seek(long position)
+        throws IOException
+    {
+        checkClosed();
+        if (position < 0)
+            throw new IllegalArgumentException("position is negative.");
+        _content = null;
+        _position = position;
+    }
+
+    /**
+     * Write the data from the current position to the end of the file to
+     * <tt>target</tt>, directly from the chunks. The channel is expected
+     * to be in blocking mode, and it is not closed by this method.
+     *
+     * @param target    the channel that the data is written to.
+     *
+     * @return  number of bytes written.
+     *
+     * @throws  IOException
+     *          Throws if this stream was already closed, or the channel
+     *          could not be written.
+     */
+    public synchronized long transferTo(WritableByteChannel target)
+        throws IOException
+    {
+        if (target == null)
+            throw new NullPointerException("target");
+
+        long count = 0;
+        while (fillContent()) {
+            while (_content.hasRemaining()) {
+                int n = target.write(_content);
+                _position += n;
+                count += n;
+            }
+        }
+        return count;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    /**
+     * Make the current chunk to have remaining bytes.
+     *
+     * @return  false if end of the file is reached.
+     */
+    private boolean fillContent()
+        throws IOException
+    {
+        checkClosed();
+        if (_content == null || !_content.hasRemaining())
+            _content = _file.slice(_position);
+        return _content != null;
+    }
+
+    private void checkClosed()
+        throws IOException
+    {
+        if (_closed)
+            throw new IOException("This stream was already closed.");
+    }
+}
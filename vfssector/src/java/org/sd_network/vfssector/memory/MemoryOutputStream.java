@@ -0,0 +1,132 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.memory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * OutputStream that appends to a file held in memory.
+ *
+ * <p> Written data is copied to the chunks of the file at once, so this
+ * stream has no buffer, and the data is readable as soon as the stream
+ * is closed.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+class MemoryOutputStream
+    extends OutputStream
+{
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** ID of the file to write. */
+    private final String _fileID;
+
+    /** The driver that opened this stream. */
+    private final MemorySectorDriver _driver;
+
+    /** The file to write. */
+    private final MemoryFile _file;
+
+    /** Closed flag. */
+    private boolean _closed;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    MemoryOutputStream(String fileID, MemoryFile file,
+            MemorySectorDriver driver)
+    {
+        _fileID = fileID;
+        _driver = driver;
+        _file = file;
+        _closed = false;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Implements to OutputStream.
+
+    public synchronized void write(int b)
+        throws IOException
+    {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    public synchronized void write(byte[] b, int off, int len)
+        throws IOException
+    {
+        checkClosed();
+        if (b == null)
+            throw new NullPointerException("b");
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+
+        long size = _file.getSize();
+        try {
+            _file.write(b, off, len);
+        } finally {
+            _driver.addUsedBytes(_file.getSize() - size);
+        }
+    }
+
+    public synchronized void close() {
+        if (_closed)
+            return;
+        _closed = true;
+        _driver.releaseWriteLock(_fileID);
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Package methods.
+
+    /**
+     * Write data read from <tt>src</tt> until end of stream directly into
+     * the chunks of the file. The channel is expected to be in blocking
+     * mode, and it is not closed by this method.
+     *
+     * @return  number of bytes written.
+     */
+    synchronized long transferFrom(ReadableByteChannel src)
+        throws IOException
+    {
+        if (src == null)
+            throw new NullPointerException("src");
+        checkClosed();
+
+        long start = _file.getSize();
+        try {
+            while (_file.write(src) != -1)
+                ;
+        } finally {
+            _driver.addUsedBytes(_file.getSize() - start);
+        }
+        return _file.getSize() - start;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    private void checkClosed()
+        throws IOException
+    {
+        if (_closed)
+            throw new IOException("This stream was already closed.");
+    }
+}
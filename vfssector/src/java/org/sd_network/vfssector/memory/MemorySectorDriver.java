@@ -0,0 +1,432 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.memory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.sd_network.util.Config;
+import org.sd_network.vfs.sector.ListableSectorDriver;
+import org.sd_network.vfs.sector.SectorException;
+
+/**
+ * SectorDriver that holds all files in memory.
+ *
+ * <p> The content of each file is stored in chunks of direct buffers,
+ * outside of the JVM heap, so large volumes do not add to garbage
+ * collection work. Chunks of deleted or replaced files are kept in a
+ * pool and reused. Total bytes of the chunks are limited by property
+ * [org.sd_network.vfssector.memory.AvailableBytes], and a write that
+ * would exceed it fails with IOException.
+ *
+ * <p> Files are lost when the JVM exits, so this driver is meant for
+ * scratch volumes, a fast tier in front of a persistent driver, and a
+ * baseline for benchmarks of the upper layers that excludes disk I/O.
+ *
+ * <p> A file has one writer, or any number of readers that read it at
+ * the same time. The driver is locked only while a stream is opened or
+ * closed; data is read and written without locking.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class MemorySectorDriver
+    implements ListableSectorDriver
+{
+    /** Logger. */
+    private static final Logger _log = Logger.getLogger(
+            MemorySectorDriver.class.getName());
+
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** Property name of available bytes. */
+    private static final String _PROP_AVAILABLEBYTES =
+        "org.sd_network.vfssector.memory.AvailableBytes";
+
+    /** Property name of number of bytes of a chunk. */
+    private static final String _PROP_CHUNKSIZE =
+        "org.sd_network.vfssector.memory.ChunkSize";
+
+    /** Default number of bytes of a chunk. */
+    private static final int _DEFAULT_CHUNKSIZE = 65536;
+
+    /** initialized flag. */
+    private boolean _initialized = false;
+
+    /** Properties that the driver is initialized by. */
+    private final Properties _properties;
+
+    /** Number of read locks by fileID. */
+    private Map<String, Integer> _readLockCounts =
+        new HashMap<String, Integer>();
+
+    /** Write locked fileID collection. */
+    private Set<String> _writeLockedSet = new HashSet<String>();
+
+    /** Files by fileID. */
+    private Map<String, MemoryFile> _files =
+        new HashMap<String, MemoryFile>();
+
+    /** Pool of chunks of the files. */
+    private ChunkPool _pool;
+
+    /** available bytes in this Driver. */
+    private long _availableBytes;
+
+    /** Total bytes of the files. */
+    private final AtomicLong _usedBytes = new AtomicLong();
+
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    /**
+     * Create a driver initialized by the global {@link Config}.
+     */
+    public MemorySectorDriver() {
+        this(Config.getInstance());
+    }
+
+    /**
+     * Create a driver initialized by the specified properties instead of
+     * the global {@link Config}, so that drivers of the same class can
+     * have different properties.
+     */
+    public MemorySectorDriver(Properties properties) {
+        if (properties == null)
+            throw new NullPointerException("properties");
+        _properties = properties;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Implements to SectorDriver.
+
+    public OutputStream getOutputStream(String fileID)
+        throws SectorException
+    {
+        return getOutputStream(fileID, false);
+    }
+
+    /**
+     * Return OutputStream for the file. The size hint is not used, because
+     * chunks are allocated as data is written.
+     */
+    public OutputStream getOutputStream(String fileID, long sizeHint)
+        throws SectorException
+    {
+        return getOutputStream(fileID, false);
+    }
+
+    public synchronized OutputStream getOutputStream(String fileID,
+            boolean append)
+        throws SectorException
+    {
+        if (fileID == null)
+            throw new NullPointerException("fileID");
+        checkInitialized();
+        checkReadLocked(fileID);
+        checkWriteLocked(fileID);
+
+        MemoryFile file = _files.get(fileID);
+        if (file == null) {
+            file = new MemoryFile(_pool);
+            _files.put(fileID, file);
+        } else if (!append) {
+            _usedBytes.addAndGet(-file.getSize());
+            file.release();
+        }
+        _writeLockedSet.add(fileID);
+        return new MemoryOutputStream(fileID, file, this);
+    }
+
+    public InputStream getInputStream(String fileID)
+        throws SectorException
+    {
+        return getInputStream(fileID, 0L);
+    }
+
+    /**
+     * Return InputStream that starts reading at <tt>offset</tt> of the file.
+     * The returned stream is {@link MemoryInputStream}, which can move
+     * further by {@link MemoryInputStream#seek(long)}.
+     */
+    public synchronized InputStream getInputStream(String fileID, long offset)
+        throws SectorException
+    {
+        if (fileID == null)
+            throw new NullPointerException("fileID");
+        checkInitialized();
+        checkWriteLocked(fileID);
+        if (offset < 0)
+            throw new SectorException("offset is negative.");
+
+        MemoryFile file = _files.get(fileID);
+        if (file == null)
+            file = new MemoryFile(_pool);
+        Integer count = _readLockCounts.get(fileID);
+        _readLockCounts.put(fileID,
+                Integer.valueOf((count == null) ? 1 : count.intValue() + 1));
+        return new MemoryInputStream(fileID, file, offset, this);
+    }
+
+    /**
+     * Write all data of the file to <tt>target</tt> directly from the
+     * chunks. See {@link MemoryInputStream#transferTo}.
+     */
+    public long transferTo(String fileID, WritableByteChannel target)
+        throws SectorException
+    {
+        if (target == null)
+            throw new NullPointerException("target");
+
+        MemoryInputStream is = (MemoryInputStream) getInputStream(fileID);
+        try {
+            return is.transferTo(target);
+        } catch (IOException e) {
+            throw new SectorException(e);
+        } finally {
+            is.close();
+        }
+    }
+
+    public long transferFrom(String fileID, ReadableByteChannel src)
+        throws SectorException
+    {
+        return transferFrom(fileID, src, false);
+    }
+
+    /**
+     * Write data read from <tt>src</tt> directly into the chunks of the
+     * file.
+     */
+    public long transferFrom(String fileID, ReadableByteChannel src,
+            boolean append)
+        throws SectorException
+    {
+        if (src == null)
+            throw new NullPointerException("src");
+
+        MemoryOutputStream os =
+            (MemoryOutputStream) getOutputStream(fileID, append);
+        try {
+            return os.transferFrom(src);
+        } catch (IOException e) {
+            throw new SectorException(e);
+        } finally {
+            os.close();
+        }
+    }
+
+    public synchronized boolean isWriteLocked(String fileID) {
+        return _writeLockedSet.contains(fileID);
+    }
+
+    public synchronized boolean isReadLocked(String fileID) {
+        return _readLockCounts.containsKey(fileID);
+    }
+
+    /**
+     * Delete the file, and return its chunks to the pool.
+     */
+    public synchronized void deleteSectors(String fileID)
+        throws SectorException
+    {
+        checkInitialized();
+        checkReadLocked(fileID);
+        checkWriteLocked(fileID);
+
+        MemoryFile file = _files.remove(fileID);
+        if (file == null)
+            return;
+        _usedBytes.addAndGet(-file.getSize());
+        file.release();
+    }
+
+    /**
+     * Read the properties and create the pool of chunks. No memory is
+     * allocated until data is written.
+     */
+    public synchronized void initDriver()
+        throws SectorException
+    {
+        if (_initialized)
+            return;
+
+        Properties config = _properties;
+        int chunkSize;
+        try {
+            _availableBytes = Long.parseLong(
+                    config.getProperty(_PROP_AVAILABLEBYTES));
+        } catch (NumberFormatException e) {
+            throw new SectorException(
+                    "Invalid property [" + _PROP_AVAILABLEBYTES + "]. " +
+                    e.getMessage(), e);
+        }
+        try {
+            String value = config.getProperty(_PROP_CHUNKSIZE);
+            chunkSize = (value == null) ?
+                _DEFAULT_CHUNKSIZE : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new SectorException(
+                    "Invalid property [" + _PROP_CHUNKSIZE + "]. " +
+                    e.getMessage(), e);
+        }
+        if (chunkSize <= 0)
+            throw new SectorException(
+                    "Property [" + _PROP_CHUNKSIZE + "] must be positive.");
+
+        _pool = new ChunkPool(chunkSize, _availableBytes);
+        _initialized = true;
+        _log.log(Level.INFO, "MemorySectorDriver initialized. capacity=" +
+                _availableBytes + ", chunkSize=" + chunkSize);
+    }
+
+    public synchronized long getFileSize(String fileID)
+        throws SectorException
+    {
+        checkInitialized();
+        MemoryFile file = _files.get(fileID);
+        return (file == null) ? 0 : file.getSize();
+    }
+
+    public long getAvailableBytes()
+        throws SectorException
+    {
+        checkInitialized();
+        return _availableBytes;
+    }
+
+    /**
+     * Return total bytes of the files. Chunks are allocated by
+     * {@link #getAllocatedBytes()} bytes, which may be larger.
+     */
+    public long getUsedBytes()
+        throws SectorException
+    {
+        checkInitialized();
+        return _usedBytes.get();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Implements ListableSectorDriver.
+
+    /**
+     * Return IDs of the files held in memory.
+     */
+    public synchronized List<String> getFileIDs()
+        throws SectorException
+    {
+        checkInitialized();
+        return new ArrayList<String>(_files.keySet());
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Public methods.
+
+    /**
+     * Return total bytes of the chunks allocated from the memory, including
+     * the chunks kept in the pool for reuse. This never exceeds the
+     * available bytes.
+     */
+    public long getAllocatedBytes()
+        throws SectorException
+    {
+        checkInitialized();
+        return _pool.getAllocatedBytes();
+    }
+
+    /**
+     * Return total bytes of the chunks kept in the pool for reuse.
+     */
+    public long getPooledBytes()
+        throws SectorException
+    {
+        checkInitialized();
+        return _pool.getPooledBytes();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Package methods.
+
+    /**
+     * Release a read lock of the file. Called by MemoryInputStream#close.
+     */
+    synchronized void releaseReadLock(String fileID) {
+        Integer count = _readLockCounts.get(fileID);
+        if (count == null)
+            return;
+        if (count.intValue() > 1)
+            _readLockCounts.put(fileID,
+                    Integer.valueOf(count.intValue() - 1));
+        else
+            _readLockCounts.remove(fileID);
+    }
+
+    /**
+     * Release the write lock of the file. Called by
+     * MemoryOutputStream#close.
+     */
+    synchronized void releaseWriteLock(String fileID) {
+        _writeLockedSet.remove(fileID);
+    }
+
+    /**
+     * Add the specified bytes written or removed to the used bytes.
+     */
+    void addUsedBytes(long bytes) {
+        _usedBytes.addAndGet(bytes);
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    private void checkInitialized()
+        throws SectorException
+    {
+        if (!_initialized)
+            throw new SectorException("SectorDriver not initialized.");
+    }
+
+    private void checkReadLocked(String fileID)
+        throws SectorException
+    {
+        if (_readLockCounts.containsKey(fileID))
+            throw new SectorException(
+                    "Specified file have been read locked.");
+    }
+
+    private void checkWriteLocked(String fileID)
+        throws SectorException
+    {
+        if (_writeLockedSet.contains(fileID))
+            throw new SectorException(
+                    "Specified file have been write locked.");
+    }
+}
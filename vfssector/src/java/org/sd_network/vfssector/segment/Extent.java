@@ -0,0 +1,77 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.segment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Location of content of a sector in a segment.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+class Extent
+{
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** The segment that holds the content. */
+    private final Segment _segment;
+
+    /** Offset of the content in the segment. */
+    private final long _offset;
+
+    /** Number of bytes of the content. */
+    private final int _length;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    Extent(Segment segment, long offset, int length) {
+        _segment = segment;
+        _offset = offset;
+        _length = length;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Package methods.
+
+    Segment getSegment() {
+        return _segment;
+    }
+
+    long getOffset() {
+        return _offset;
+    }
+
+    int getLength() {
+        return _length;
+    }
+
+    /**
+     * Return the content as a read only buffer mapped on the segment.
+     *
+     * @throws  IOException
+     *          Throws if the segment could not map.
+     */
+    ByteBuffer read()
+        throws IOException
+    {
+        return _segment.read(_offset, _length);
+    }
+}
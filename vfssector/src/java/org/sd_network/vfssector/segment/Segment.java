@@ -0,0 +1,424 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.segment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * An append-only segment file that holds records of sectors.
+ *
+ * <p> A segment is a sequence of records. A PUT record holds the content
+ * of one sector of a file, and a DEL record tells that all sectors of
+ * a file written before it are deleted. Each record starts with a header:
+ * <pre>
+ *   int    type        ({@link #TYPE_PUT} or {@link #TYPE_DEL})
+ *   UTF    fileID      (as DataOutput#writeUTF)
+ *   int    seqNum      (PUT only)
+ *   int    length      (PUT only)
+ *   byte[] content     (PUT only, length bytes)
+ * </pre>
+ * Records are never changed once written, so the index of sectors can be
+ * rebuilt by scanning the segments in order.
+ *
+ * <p> Contents are read through a {@link java.nio.MappedByteBuffer} of the
+ * whole segment. The mapping is renewed only when a record beyond the
+ * mapped size is read, that is, only for the segment being appended.
+ *
+ * <p> A segment whose live sectors were moved by compaction is retired.
+ * The segment file is deleted when no stream reading it remains, so
+ * streams opened before the compaction can read it to the end.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+class Segment
+{
+    /** Logger. */
+    private static final Logger _log = Logger.getLogger(
+            Segment.class.getName());
+
+    /** Type of a record that holds content of a sector. */
+    static final int TYPE_PUT = 0x50555431;
+
+    /** Type of a record that deletes sectors of a file. */
+    static final int TYPE_DEL = 0x44454C31;
+
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** ID of this segment, that is also order of segments. */
+    private final int _segmentID;
+
+    /** The segment file. */
+    private final File _file;
+
+    /** Channel of the segment file. */
+    private final FileChannel _channel;
+
+    /** Number of bytes of the segment file. */
+    private long _size;
+
+    /** Mapping of the segment file, or null if not mapped yet. */
+    private MappedByteBuffer _mapped;
+
+    /** Number of bytes of live sectors in this segment. */
+    private long _liveBytes;
+
+    /** Number of open streams that read this segment. */
+    private int _pinCount;
+
+    /** If true, this segment is deleted when no stream reads it. */
+    private boolean _retired;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    /**
+     * Open the segment file. The file is created if it does not exist.
+     *
+     * @param segmentID ID of the segment.
+     * @param file      the segment file.
+     *
+     * @throws  IOException
+     *          Throws if the file could not open.
+     */
+    Segment(int segmentID, File file)
+        throws IOException
+    {
+        _segmentID = segmentID;
+        _file = file;
+        _channel = new RandomAccessFile(file, "rw").getChannel();
+        _size = _channel.size();
+        _mapped = null;
+        _liveBytes = 0;
+        _pinCount = 0;
+        _retired = false;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Package methods.
+
+    /**
+     * Return ID of this segment.
+     */
+    int getSegmentID() {
+        return _segmentID;
+    }
+
+    /**
+     * Return the segment file.
+     */
+    File getFile() {
+        return _file;
+    }
+
+    /**
+     * Return number of bytes of this segment.
+     */
+    synchronized long getSize() {
+        return _size;
+    }
+
+    /**
+     * Return number of bytes of live sectors in this segment.
+     */
+    synchronized long getLiveBytes() {
+        return _liveBytes;
+    }
+
+    /**
+     * Add <tt>delta</tt> to number of bytes of live sectors.
+     */
+    synchronized void addLiveBytes(long delta) {
+        _liveBytes += delta;
+    }
+
+    /**
+     * Register a stream that reads this segment.
+     */
+    synchronized void pin() {
+        _pinCount++;
+    }
+
+    /**
+     * Unregister a stream that reads this segment. If this segment was
+     * retired and no stream reads it, the segment file is deleted.
+     *
+     * @return  true if the segment file is deleted.
+     *
+     * @throws  IOException
+     *          Throws if the file could not close.
+     */
+    synchronized boolean unpin()
+        throws IOException
+    {
+        _pinCount--;
+        if (_pinCount > 0 || !_retired)
+            return false;
+        delete();
+        return true;
+    }
+
+    /**
+     * Retire this segment. The segment file is deleted now if no stream
+     * reads it, or when the last stream is closed.
+     *
+     * @return  true if the segment file is deleted now.
+     *
+     * @throws  IOException
+     *          Throws if the file could not close.
+     */
+    synchronized boolean retire()
+        throws IOException
+    {
+        _retired = true;
+        if (_pinCount > 0)
+            return false;
+        delete();
+        return true;
+    }
+
+    /**
+     * Append a PUT record.
+     *
+     * @param fileID    ID of the file.
+     * @param seqNum    sequence number of the sector in the file.
+     * @param content   content of the sector.
+     * @param length    number of bytes of <tt>content</tt> to write.
+     *
+     * @return  offset of the content in this segment.
+     *
+     * @throws  IOException
+     *          Throws if the record could not write.
+     */
+    synchronized long appendPut(String fileID, int seqNum, byte[] content,
+            int length)
+        throws IOException
+    {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(header);
+        out.writeInt(TYPE_PUT);
+        out.writeUTF(fileID);
+        out.writeInt(seqNum);
+        out.writeInt(length);
+        out.flush();
+
+        long contentOffset = _size + header.size();
+        write(new ByteBuffer[] {
+            ByteBuffer.wrap(header.toByteArray()),
+            ByteBuffer.wrap(content, 0, length)});
+        return contentOffset;
+    }
+
+    /**
+     * Append a DEL record.
+     *
+     * @param fileID    ID of the file.
+     *
+     * @throws  IOException
+     *          Throws if the record could not write.
+     */
+    synchronized void appendDel(String fileID)
+        throws IOException
+    {
+        ByteArrayOutputStream header = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(header);
+        out.writeInt(TYPE_DEL);
+        out.writeUTF(fileID);
+        out.flush();
+        write(new ByteBuffer[] {ByteBuffer.wrap(header.toByteArray())});
+    }
+
+    /**
+     * Return content of a record as a read only buffer.
+     *
+     * @param offset    offset of the content in this segment.
+     * @param length    number of bytes of the content.
+     *
+     * @throws  IOException
+     *          Throws if the segment could not map.
+     */
+    synchronized ByteBuffer read(long offset, int length)
+        throws IOException
+    {
+        if (offset + length > _size)
+            throw new IOException("Record is beyond end of segment " +
+                    _segmentID + ". offset=" + offset);
+        if (_mapped == null || offset + length > _mapped.capacity())
+            _mapped = _channel.map(FileChannel.MapMode.READ_ONLY, 0, _size);
+
+        ByteBuffer content = _mapped.duplicate();
+        content.position((int) offset);
+        content.limit((int) (offset + length));
+        return content.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Scan records of this segment from the beginning, and pass them to
+     * <tt>visitor</tt>. If an incomplete record is found at the end, that
+     * was written partly by a crash, the segment is truncated before it.
+     *
+     * @param visitor   receiver of records.
+     *
+     * @throws  IOException
+     *          Throws if the segment could not read.
+     */
+    synchronized void scan(Visitor visitor)
+        throws IOException
+    {
+        ByteBuffer fixed = ByteBuffer.allocate(8);
+        long position = 0;
+        while (position < _size) {
+            long start = position;
+            fixed.clear();
+            fixed.limit(6);
+            if (!readFully(fixed, position))
+                break;
+            fixed.flip();
+            int type = fixed.getInt();
+            int utfLength = fixed.getShort() & 0xffff;
+            if (type != TYPE_PUT && type != TYPE_DEL)
+                break;
+
+            ByteBuffer utf = ByteBuffer.allocate(2 + utfLength);
+            utf.putShort((short) utfLength);
+            if (!readFully(utf, position + 6))
+                break;
+            String fileID = new DataInputStream(
+                    new ByteArrayInputStream(utf.array())).readUTF();
+
+            if (type == TYPE_DEL) {
+                visitor.deleted(fileID);
+                position = start + 6 + utfLength;
+                continue;
+            }
+
+            fixed.clear();
+            if (!readFully(fixed, start + 6 + utfLength))
+                break;
+            fixed.flip();
+            int seqNum = fixed.getInt();
+            int length = fixed.getInt();
+            long contentOffset = start + 6 + utfLength + 8;
+            if (length < 0 || contentOffset + length > _size)
+                break;
+            visitor.put(fileID, seqNum,
+                    new Extent(this, contentOffset, length));
+            position = contentOffset + length;
+        }
+
+        if (position < _size) {
+            _log.log(Level.WARNING,
+                    "Incomplete record found in segment " + _segmentID +
+                    " at " + position + ". The segment is truncated.");
+            _channel.truncate(position);
+            _size = position;
+            _mapped = null;
+        }
+    }
+
+    /**
+     * Force written records to the storage device.
+     *
+     * @throws  IOException
+     *          Throws if the records could not force.
+     */
+    void force()
+        throws IOException
+    {
+        _channel.force(false);
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    /**
+     * Close this segment, and delete the segment file.
+     */
+    private void delete()
+        throws IOException
+    {
+        _mapped = null;
+        _channel.close();
+        if (!_file.delete())
+            _log.log(Level.WARNING,
+                    "Segment file could not delete. " + _file);
+    }
+
+    /**
+     * Write all of the buffers at the end of this segment.
+     */
+    private void write(ByteBuffer[] buffers)
+        throws IOException
+    {
+        _channel.position(_size);
+        long remaining = 0;
+        for (int idx = 0; idx < buffers.length; idx++)
+            remaining += buffers[idx].remaining();
+        while (remaining > 0)
+            remaining -= _channel.write(buffers);
+        _size = _channel.position();
+    }
+
+    /**
+     * Read bytes into <tt>buffer</tt> from <tt>position</tt> until the
+     * buffer is full.
+     *
+     * @return  false if end of the segment is reached.
+     */
+    private boolean readFully(ByteBuffer buffer, long position)
+        throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            int count = _channel.read(buffer, position);
+            if (count == -1)
+                return false;
+            position += count;
+        }
+        return true;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Inner classes.
+
+    /**
+     * Receiver of records found by {@link Segment#scan(Visitor)}.
+     */
+    interface Visitor
+    {
+        /**
+         * Called for a PUT record.
+         */
+        void put(String fileID, int seqNum, Extent extent);
+
+        /**
+         * Called for a DEL record.
+         */
+        void deleted(String fileID);
+    }
+}
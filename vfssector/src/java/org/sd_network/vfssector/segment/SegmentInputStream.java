@@ -0,0 +1,252 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.segment;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * InputStream that reads sectors of a file from segments.
+ *
+ * <p> Content of each sector is read directly from the mapped segment,
+ * so no copy is made except into the caller's array. The sectors to read
+ * are fixed when the stream is opened.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class SegmentInputStream
+    extends InputStream
+{
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** ID of the file to read. */
+    private final String _fileID;
+
+    /** The driver that opened this stream. */
+    private final SegmentSectorDriver _driver;
+
+    /** Sectors of the file, in order of sequence number. */
+    private final Extent[] _extents;
+
+    /** Offset of each sector in the file, followed by the file size. */
+    private final long[] _offsets;
+
+    /** Index of the sector to read next. */
+    private int _extentIdx;
+
+    /** Content of the current sector, or null if not read yet. */
+    private ByteBuffer _content;
+
+    /** Current position in the file. */
+    private long _position;
+
+    /** Closed flag. */
+    private boolean _closed;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    SegmentInputStream(String fileID, Extent[] extents, long position,
+            SegmentSectorDriver driver)
+    {
+        _fileID = fileID;
+        _driver = driver;
+        _extents = extents;
+        _offsets = new long[extents.length + 1];
+        for (int idx = 0; idx < extents.length; idx++)
+            _offsets[idx + 1] = _offsets[idx] + extents[idx].getLength();
+        _closed = false;
+        moveTo(position);
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Implements to InputStream.
+
+    public synchronized int read()
+        throws IOException
+    {
+        if (!fillContent())
+            return -1;
+        _position++;
+        return _content.get() & 0xff;
+    }
+
+    public synchronized int read(byte[] b, int off, int len)
+        throws IOException
+    {
+        if (b == null)
+            throw new NullPointerException("b is null.");
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+        if (len == 0)
+            return 0;
+        if (!fillContent())
+            return -1;
+
+        int count = Math.min(len, _content.remaining());
+        _content.get(b, off, count);
+        _position += count;
+        return count;
+    }
+
+    public synchronized long skip(long n)
+        throws IOException
+    {
+        checkClosed();
+        if (n <= 0)
+            return 0;
+        long start = _position;
+        long target = Math.max(start, Math.min(
+                start + n, _offsets[_extents.length]));
+        seek(target);
+        return target - start;
+    }
+
+    public synchronized int available()
+        throws IOException
+    {
+        checkClosed();
+        if (_content == null)
+            return 0;
+        return _content.remaining();
+    }
+
+    public synchronized void close() {
+        if (_closed)
+            return;
+        _closed = true;
+        _content = null;
+        _driver.releaseReadLock(_fileID, _extents);
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Public methods.
+
+    /**
+     * Return current position in the file.
+     *
+     * @return  number of bytes from the beginning of the file.
+     */
+    public synchronized long getPosition() {
+        return _position;
+    }
+
+    /**
+     * Move position to read to the specified position in the file. If the
+     * position is at or beyond the end of the file, following reads return
+     * end of stream.
+     *
+     * @param position  number of bytes from the beginning of the file.
+     *
+     * @throws  IllegalArgumentException
+     *          Throws if <tt>position</tt> is negative.
+     *
+     * @throws  IOException
+     *          Throws if this stream was already closed.
+     */
+    public synchronized void seek(long position)
+        throws IOException
+    {
+        checkClosed();
+        if (position < 0)
+            throw new IllegalArgumentException("position is negative.");
+        moveTo(position);
+    }
+
+    /**
+     * Write the data from the current position to the end of the file to
+     * <tt>target</tt>. Each sector is written from the mapped segment, so
+     * no copy is made in the JVM heap. The channel is expected to be in
+     * blocking mode, and it is not closed by this method.
+     *
+     * @param target    the channel that the data is written to.
+     *
+     * @return  number of bytes written.
+     *
+     * @throws  IOException
+     *          Throws if this stream was already closed, or the channel
+     *          could not be written.
+     */
+    public synchronized long transferTo(WritableByteChannel target)
+        throws IOException
+    {
+        if (target == null)
+            throw new NullPointerException("target");
+
+        long count = 0;
+        while (fillContent()) {
+            while (_content.hasRemaining()) {
+                int n = target.write(_content);
+                _position += n;
+                count += n;
+            }
+        }
+        return count;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    /**
+     * Move to the specified position. The sector that contains the
+     * position is found by binary search, and read by next read.
+     */
+    private void moveTo(long position) {
+        int low = 0;
+        int high = _extents.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (_offsets[mid + 1] > position)
+                high = mid;
+            else
+                low = mid + 1;
+        }
+        _extentIdx = low;
+        _content = null;
+        _position = position;
+    }
+
+    /**
+     * Make the current sector to have remaining bytes.
+     *
+     * @return  false if end of the file is reached.
+     */
+    private boolean fillContent()
+        throws IOException
+    {
+        checkClosed();
+        while (_content == null || !_content.hasRemaining()) {
+            if (_extentIdx >= _extents.length)
+                return false;
+            _content = _extents[_extentIdx].read();
+            _content.position((int) (_position - _offsets[_extentIdx]));
+            _extentIdx++;
+        }
+        return true;
+    }
+
+    private void checkClosed()
+        throws IOException
+    {
+        if (_closed)
+            throw new IOException("This stream was already closed.");
+    }
+}
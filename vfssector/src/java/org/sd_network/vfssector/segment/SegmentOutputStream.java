@@ -0,0 +1,237 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.segment;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * OutputStream that writes sectors of a file to segments.
+ *
+ * <p> Written data is buffered up to the sector size, then appended to
+ * the active segment as a PUT record. The buffer starts small and grows
+ * twice as large up to the sector size, so a small file does not allocate
+ * a whole sector. {@link #close()} writes the last sector and forces the
+ * segment to the storage device.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+class SegmentOutputStream
+    extends OutputStream
+{
+    /** Initial number of bytes of the stream buffer. */
+    private static final int _INITIAL_BUFFER_SIZE = 65536;
+
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** ID of the file to write. */
+    private final String _fileID;
+
+    /** The driver that opened this stream. */
+    private final SegmentSectorDriver _driver;
+
+    /** Maximum number of bytes of a sector. */
+    private final int _sectorSize;
+
+    /** Stream buffer. */
+    private byte[] _buffer;
+
+    /** Number of bytes in the stream buffer. */
+    private int _pointer;
+
+    /** Sequence number of the sector in the stream buffer. */
+    private int _seqNum;
+
+    /** Closed flag. */
+    private boolean _closed;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    /**
+     * Create a stream that writes sectors from sequence number 0.
+     */
+    SegmentOutputStream(String fileID, int sectorSize,
+            SegmentSectorDriver driver)
+    {
+        _fileID = fileID;
+        _driver = driver;
+        _sectorSize = sectorSize;
+        _buffer = new byte[Math.min(sectorSize, _INITIAL_BUFFER_SIZE)];
+        _pointer = 0;
+        _seqNum = 0;
+        _closed = false;
+    }
+
+    /**
+     * Create a stream that appends to the specified last sector. If the
+     * sector is not full, its content is loaded to the buffer, and the
+     * sector is written again with the appended data.
+     *
+     * @param seqNum    sequence number of the last sector.
+     * @param last      the last sector.
+     */
+    SegmentOutputStream(String fileID, int seqNum, Extent last,
+            int sectorSize, SegmentSectorDriver driver)
+        throws IOException
+    {
+        this(fileID, sectorSize, driver);
+        if (last.getLength() >= sectorSize) {
+            _seqNum = seqNum + 1;
+            return;
+        }
+
+        ByteBuffer content = last.read();
+        _buffer = new byte[Math.max(_buffer.length,
+                Math.min(sectorSize, last.getLength() * 2))];
+        content.get(_buffer, 0, last.getLength());
+        _pointer = last.getLength();
+        _seqNum = seqNum;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Implements to OutputStream.
+
+    public synchronized void write(int b)
+        throws IOException
+    {
+        checkClosed();
+        ensureBuffer();
+        _buffer[_pointer++] = (byte) b;
+    }
+
+    public synchronized void write(byte[] b, int off, int len)
+        throws IOException
+    {
+        checkClosed();
+        if (b == null)
+            throw new NullPointerException("b");
+        if (off < 0 || len < 0 || len > b.length - off)
+            throw new IndexOutOfBoundsException();
+
+        while (len > 0) {
+            ensureBuffer();
+            int count = Math.min(len, _buffer.length - _pointer);
+            System.arraycopy(b, off, _buffer, _pointer, count);
+            _pointer += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    public synchronized void flush()
+        throws IOException
+    {
+        checkClosed();
+    }
+
+    public synchronized void close()
+        throws IOException
+    {
+        if (_closed)
+            return;
+
+        try {
+            if (_pointer > 0)
+                writeSector();
+            _driver.sync();
+            _closed = true;
+        } finally {
+            _driver.releaseWriteLock(_fileID);
+        }
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Public methods.
+
+    /**
+     * Write data read from <tt>src</tt> until end of stream. The data is
+     * read directly into the stream buffer, so it is not copied through a
+     * caller's array. The channel is expected to be in blocking mode, and
+     * it is not closed by this method.
+     *
+     * @param src   the channel that the data is read from.
+     *
+     * @return  number of bytes written.
+     *
+     * @throws  IOException
+     *          Throws if this stream was already closed, the channel could
+     *          not be read, or the sector could not be written.
+     */
+    public synchronized long transferFrom(ReadableByteChannel src)
+        throws IOException
+    {
+        checkClosed();
+        if (src == null)
+            throw new NullPointerException("src");
+
+        long count = 0;
+        while (true) {
+            ensureBuffer();
+            int n = src.read(ByteBuffer.wrap(
+                        _buffer, _pointer, _buffer.length - _pointer));
+            if (n == -1)
+                return count;
+            _pointer += n;
+            count += n;
+        }
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    /**
+     * Make the stream buffer to have free space. The buffer grows twice as
+     * large up to the sector size, and a full sector is written out.
+     */
+    private void ensureBuffer()
+        throws IOException
+    {
+        if (_pointer < _buffer.length)
+            return;
+        if (_buffer.length < _sectorSize) {
+            byte[] grown = new byte[(int) Math.min(
+                    _sectorSize, (long) _buffer.length * 2)];
+            System.arraycopy(_buffer, 0, grown, 0, _pointer);
+            _buffer = grown;
+            return;
+        }
+        writeSector();
+    }
+
+    /**
+     * Write the stream buffer as a sector, and start next sector.
+     */
+    private void writeSector()
+        throws IOException
+    {
+        _driver.writeSector(_fileID, _seqNum, _buffer, _pointer);
+        _seqNum++;
+        _pointer = 0;
+    }
+
+    private void checkClosed()
+        throws IOException
+    {
+        if (_closed)
+            throw new IOException("This stream was already closed.");
+    }
+}
@@ -0,0 +1,1150 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.segment;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+import org.sd_network.util.Config;
+import org.sd_network.vfs.sector.ListableSectorDriver;
+import org.sd_network.vfs.sector.SectorException;
+
+/**
+ * A {@link org.sd_network.vfs.sector.SectorDriver} implementation that
+ * stores sectors in append-only segment files on local disk.
+ *
+ * <p> Sectors are appended to the active segment as records (see
+ * {@link Segment}). When the active segment reaches property
+ * [org.sd_network.vfssector.segment.SegmentBytes], a new segment is
+ * started. The location of each sector, (segment, offset, length), is kept
+ * in memory and rebuilt by scanning the segments in {@link #initDriver()}.
+ * Sectors are read through memory mapping of the segments.
+ *
+ * <p> Deleted or overwritten sectors remain in the segments as dead bytes,
+ * and a DEL record remains as the tombstone of a deleted file. A
+ * background compaction, run every property
+ * [org.sd_network.vfssector.segment.CompactionInterval] seconds, picks
+ * sealed segments whose live ratio is below property
+ * [org.sd_network.vfssector.segment.CompactionThreshold], appends their
+ * live sectors to the active segment, and deletes them. Tombstones are
+ * carried forward while an older segment exists, so that a deleted file
+ * is not restored by scanning. The copy rate is throttled by property
+ * [org.sd_network.vfssector.segment.CompactionBytesPerSecond].
+ *
+ * <p> Compaction does not block readers. A stream that was opened before
+ * its sectors were moved keeps reading the old segment, which is deleted
+ * when the stream is closed. Writers and deleters of a file wait only
+ * while the sectors of that file are being moved. A file that is being
+ * written is skipped, and its segment is compacted by a later run.
+ *
+ * <p> The segment directory must not be shared by multiple drivers.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class SegmentSectorDriver
+    implements ListableSectorDriver
+{
+    /** Logger. */
+    private static final Logger _log = Logger.getLogger(
+            SegmentSectorDriver.class.getName());
+
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** Property name of directory of segment files. */
+    private static final String _PROP_DIRECTORY =
+        "org.sd_network.vfssector.segment.Directory";
+
+    /** Property name of available bytes. */
+    private static final String _PROP_AVAILABLEBYTES =
+        "org.sd_network.vfssector.segment.AvailableBytes";
+
+    /** Property name of maximum bytes of a segment. */
+    private static final String _PROP_SEGMENTBYTES =
+        "org.sd_network.vfssector.segment.SegmentBytes";
+
+    /** Property name of maximum sector size. */
+    private static final String _PROP_SECTORSIZE =
+        "org.sd_network.vfssector.segment.SectorSize";
+
+    /** Property name of sync flag. */
+    private static final String _PROP_SYNC =
+        "org.sd_network.vfssector.segment.Sync";
+
+    /** Property name of interval seconds of compaction. */
+    private static final String _PROP_COMPACTIONINTERVAL =
+        "org.sd_network.vfssector.segment.CompactionInterval";
+
+    /** Property name of live ratio under which a segment is compacted. */
+    private static final String _PROP_COMPACTIONTHRESHOLD =
+        "org.sd_network.vfssector.segment.CompactionThreshold";
+
+    /** Property name of maximum bytes per second copied by compaction. */
+    private static final String _PROP_COMPACTIONBYTESPERSECOND =
+        "org.sd_network.vfssector.segment.CompactionBytesPerSecond";
+
+    /** Maximum bytes of a record header except the fileID. */
+    private static final int _RECORD_HEADER_BYTES = 16;
+
+    /** Prefix of segment file names. */
+    private static final String _SEGMENT_PREFIX = "segment-";
+
+    /** Suffix of segment file names. */
+    private static final String _SEGMENT_SUFFIX = ".dat";
+
+    /** initialized flag. */
+    private boolean _initialized = false;
+
+    /** Properties that the driver is initialized by. */
+    private final Properties _properties;
+
+    /** Number of read locks by fileID. */
+    private Map<String, Integer> _readLockCounts =
+        new HashMap<String, Integer>();
+
+    /** Write locked fileID collection. */
+    private Set<String> _writeLockedSet = new HashSet<String>();
+
+    /** Sectors of each file. The index in the list is sequence number. */
+    private Map<String, List<Extent>> _index =
+        new HashMap<String, List<Extent>>();
+
+    /** All segments in order of segment ID. */
+    private List<Segment> _segments = new ArrayList<Segment>();
+
+    /** Lock for appending records to the active segment. */
+    private final Object _appendLock = new Object();
+
+    /** The segment that records are appended to. */
+    private Segment _activeSegment;
+
+    /** Directory of segment files. */
+    private File _directory;
+
+    /** available bytes in this Driver. */
+    private long _availableBytes;
+
+    /** Maximum number of bytes of a segment. */
+    private long _segmentBytes;
+
+    /** Maximum number of bytes of a sector. */
+    private int _sectorSize;
+
+    /** If true, segments are forced to the storage device on close. */
+    private boolean _sync;
+
+    /** Files whose sectors are being moved by compaction. */
+    private Set<String> _compactingSet = new HashSet<String>();
+
+    /** Lock for running compaction one at a time. */
+    private final Object _compactionLock = new Object();
+
+    /** Executor of background compaction, or null if disabled. */
+    private ScheduledExecutorService _compactionExecutor;
+
+    /** Live ratio under which a segment is compacted. */
+    private double _compactionThreshold;
+
+    /** Maximum bytes per second copied by compaction, 0 if unlimited. */
+    private long _compactionBytesPerSecond;
+
+    /** Bytes of sectors written by output streams. */
+    private final AtomicLong _userBytes = new AtomicLong();
+
+    /** Bytes of records appended to segments, including compaction. */
+    private final AtomicLong _appendedBytes = new AtomicLong();
+
+    /** Bytes of sectors copied by compaction. */
+    private final AtomicLong _compactionBytes = new AtomicLong();
+
+    /** Bytes of segment files deleted by compaction. */
+    private final AtomicLong _reclaimedBytes = new AtomicLong();
+
+    /** Number of segments compacted. */
+    private final AtomicLong _compactedSegments = new AtomicLong();
+
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    /**
+     * Create a driver initialized by the global {@link Config}.
+     */
+    public SegmentSectorDriver() {
+        this(Config.getInstance());
+    }
+
+    /**
+     * Create a driver initialized by the specified properties instead of
+     * the global {@link Config}, so that drivers of the same class can
+     * have different properties.
+     */
+    public SegmentSectorDriver(Properties properties) {
+        if (properties == null)
+            throw new NullPointerException("properties");
+        _properties = properties;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Implements to SectorDriver.
+
+    /**
+     * Return OutputStream for the file. Sectors already written for the
+     * file are replaced by the sectors written through the stream.
+     */
+    public OutputStream getOutputStream(String fileID)
+        throws SectorException
+    {
+        return getOutputStream(fileID, -1L);
+    }
+
+    /**
+     * Return OutputStream for the file. The size hint is not used, because
+     * the stream buffer grows as data is written.
+     */
+    public synchronized OutputStream getOutputStream(String fileID,
+            long sizeHint)
+        throws SectorException
+    {
+        checkInitialized();
+        waitForCompaction(fileID);
+        checkReadLocked(fileID);
+        checkWriteLocked(fileID);
+
+        try {
+            if (_index.containsKey(fileID))
+                deleteFile(fileID);
+        } catch (IOException e) {
+            throw new SectorException(e);
+        }
+        _writeLockedSet.add(fileID);
+        return new SegmentOutputStream(fileID, _sectorSize, this);
+    }
+
+    public synchronized OutputStream getOutputStream(String fileID,
+            boolean append)
+        throws SectorException
+    {
+        if (!append)
+            return getOutputStream(fileID);
+
+        checkInitialized();
+        waitForCompaction(fileID);
+        checkReadLocked(fileID);
+        checkWriteLocked(fileID);
+
+        _writeLockedSet.add(fileID);
+        try {
+            List<Extent> extents = _index.get(fileID);
+            if (extents == null || extents.isEmpty())
+                return new SegmentOutputStream(fileID, _sectorSize, this);
+            int lastSeqNum = extents.size() - 1;
+            return new SegmentOutputStream(fileID, lastSeqNum,
+                    extents.get(lastSeqNum), _sectorSize, this);
+        } catch (Exception e) {
+            releaseWriteLock(fileID);
+            throw new SectorException(e);
+        }
+    }
+
+    public InputStream getInputStream(String fileID)
+        throws SectorException
+    {
+        return getInputStream(fileID, 0L);
+    }
+
+    /**
+     * Return InputStream that starts reading at <tt>offset</tt> of the file.
+     * The returned stream is {@link SegmentInputStream}, which can move
+     * further by {@link SegmentInputStream#seek(long)}.
+     */
+    public synchronized InputStream getInputStream(String fileID, long offset)
+        throws SectorException
+    {
+        checkInitialized();
+        checkWriteLocked(fileID);
+        if (offset < 0)
+            throw new SectorException("offset is negative.");
+
+        List<Extent> extents = _index.get(fileID);
+        Extent[] snapshot = (extents == null) ?
+            new Extent[0] : extents.toArray(new Extent[extents.size()]);
+        for (int idx = 0; idx < snapshot.length; idx++)
+            snapshot[idx].getSegment().pin();
+        Integer count = _readLockCounts.get(fileID);
+        _readLockCounts.put(fileID,
+                Integer.valueOf((count == null) ? 1 : count.intValue() + 1));
+        return new SegmentInputStream(fileID, snapshot, offset, this);
+    }
+
+    /**
+     * Write all data of the file to <tt>target</tt> from the mapped
+     * segments. See {@link SegmentInputStream#transferTo}. The driver is
+     * not locked while the data is transferred.
+     */
+    public long transferTo(String fileID, WritableByteChannel target)
+        throws SectorException
+    {
+        if (target == null)
+            throw new NullPointerException("target");
+
+        SegmentInputStream is = (SegmentInputStream) getInputStream(fileID);
+        try {
+            return is.transferTo(target);
+        } catch (IOException e) {
+            throw new SectorException(e);
+        } finally {
+            is.close();
+        }
+    }
+
+    public long transferFrom(String fileID, ReadableByteChannel src)
+        throws SectorException
+    {
+        return transferFrom(fileID, src, false);
+    }
+
+    /**
+     * Write data read from <tt>src</tt> to the file through the stream of
+     * {@link #getOutputStream(String, boolean)}. See
+     * {@link SegmentOutputStream#transferFrom}. If reading the channel
+     * fails, the stream is closed, which commits the sectors of the data
+     * read so far, and SectorException is thrown.
+     */
+    public long transferFrom(String fileID, ReadableByteChannel src,
+            boolean append)
+        throws SectorException
+    {
+        if (src == null)
+            throw new NullPointerException("src");
+
+        SegmentOutputStream os =
+            (SegmentOutputStream) getOutputStream(fileID, append);
+        try {
+            long count = os.transferFrom(src);
+            os.close();
+            return count;
+        } catch (IOException e) {
+            try {
+                os.close();
+            } catch (IOException e2) {
+                _log.log(Level.WARNING, "Could not close stream.", e2);
+            }
+            throw new SectorException(e);
+        }
+    }
+
+    public synchronized boolean isWriteLocked(String fileID) {
+        return _writeLockedSet.contains(fileID);
+    }
+
+    public synchronized boolean isReadLocked(String fileID) {
+        return _readLockCounts.containsKey(fileID);
+    }
+
+    public synchronized void deleteSectors(String fileID)
+        throws SectorException
+    {
+        checkInitialized();
+        waitForCompaction(fileID);
+        checkReadLocked(fileID);
+        checkWriteLocked(fileID);
+
+        if (!_index.containsKey(fileID))
+            return;
+        try {
+            deleteFile(fileID);
+            sync();
+        } catch (IOException e) {
+            throw new SectorException(e);
+        }
+    }
+
+    /**
+     * Open the segment files and rebuild the sector index by scanning them.
+     */
+    public synchronized void initDriver()
+        throws SectorException
+    {
+        if (_initialized)
+            return;
+
+        Properties config = _properties;
+        String directory = config.getProperty(_PROP_DIRECTORY);
+        if (directory == null)
+            throw new SectorException(
+                    "Property [" + _PROP_DIRECTORY + "] not found.");
+        _directory = new File(directory);
+        if (!_directory.isDirectory() && !_directory.mkdirs())
+            throw new SectorException(
+                    "Could not create directory " + _directory);
+
+        try {
+            _availableBytes = Long.parseLong(
+                    config.getProperty(_PROP_AVAILABLEBYTES));
+        } catch (NumberFormatException e) {
+            throw new SectorException(
+                    "Invalid property [" + _PROP_AVAILABLEBYTES + "]. " +
+                    e.getMessage(), e);
+        }
+        try {
+            _segmentBytes = Long.parseLong(
+                    config.getProperty(_PROP_SEGMENTBYTES, "268435456"));
+        } catch (NumberFormatException e) {
+            throw new SectorException(
+                    "Invalid property [" + _PROP_SEGMENTBYTES + "]. " +
+                    e.getMessage(), e);
+        }
+        try {
+            _sectorSize = Integer.parseInt(
+                    config.getProperty(_PROP_SECTORSIZE, "1048576"));
+        } catch (NumberFormatException e) {
+            throw new SectorException(
+                    "Invalid property [" + _PROP_SECTORSIZE + "]. " +
+                    e.getMessage(), e);
+        }
+        if (_segmentBytes < 1 || _segmentBytes > Integer.MAX_VALUE)
+            throw new SectorException(
+                    "Invalid property [" + _PROP_SEGMENTBYTES + "]. " +
+                    "The value must be 1 to " + Integer.MAX_VALUE + ".");
+        if (_sectorSize < 1 || _sectorSize > _segmentBytes / 2)
+            throw new SectorException(
+                    "Invalid property [" + _PROP_SECTORSIZE + "]. " +
+                    "The value must be 1 to half of [" +
+                    _PROP_SEGMENTBYTES + "].");
+        _sync = Boolean.valueOf(
+                config.getProperty(_PROP_SYNC, "true")).booleanValue();
+
+        long compactionInterval;
+        try {
+            compactionInterval = Long.parseLong(
+                    config.getProperty(_PROP_COMPACTIONINTERVAL, "60"));
+        } catch (NumberFormatException e) {
+            throw new SectorException(
+                    "Invalid property [" + _PROP_COMPACTIONINTERVAL + "]. " +
+                    e.getMessage(), e);
+        }
+        try {
+            _compactionThreshold = Double.parseDouble(
+                    config.getProperty(_PROP_COMPACTIONTHRESHOLD, "0.5"));
+        } catch (NumberFormatException e) {
+            throw new SectorException(
+                    "Invalid property [" + _PROP_COMPACTIONTHRESHOLD + "]. " +
+                    e.getMessage(), e);
+        }
+        if (_compactionThreshold < 0 || _compactionThreshold > 1)
+            throw new SectorException(
+                    "Invalid property [" + _PROP_COMPACTIONTHRESHOLD + "]. " +
+                    "The value must be 0 to 1.");
+        try {
+            _compactionBytesPerSecond = Long.parseLong(config.getProperty(
+                        _PROP_COMPACTIONBYTESPERSECOND, "8388608"));
+        } catch (NumberFormatException e) {
+            throw new SectorException(
+                    "Invalid property [" + _PROP_COMPACTIONBYTESPERSECOND +
+                    "]. " + e.getMessage(), e);
+        }
+
+        try {
+            openSegments();
+        } catch (IOException e) {
+            throw new SectorException(
+                    "Could not open segments. " + e.getMessage(), e);
+        }
+        _initialized = true;
+        if (compactionInterval > 0)
+            startCompaction(compactionInterval);
+    }
+
+    public synchronized long getFileSize(String fileID)
+        throws SectorException
+    {
+        checkInitialized();
+        checkWriteLocked(fileID);
+
+        List<Extent> extents = _index.get(fileID);
+        if (extents == null)
+            return 0;
+        long size = 0;
+        for (Extent extent : extents)
+            size += extent.getLength();
+        return size;
+    }
+
+    public long getAvailableBytes()
+        throws SectorException
+    {
+        checkInitialized();
+        return _availableBytes;
+    }
+
+    /**
+     * Return total bytes of the segment files, including records of
+     * deleted or overwritten sectors.
+     */
+    public long getUsedBytes()
+        throws SectorException
+    {
+        checkInitialized();
+        synchronized (_appendLock) {
+            long size = 0;
+            for (Segment segment : _segments)
+                size += segment.getSize();
+            return size;
+        }
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Implements ListableSectorDriver.
+
+    /**
+     * Return IDs of the files in the index, which is built from the
+     * segments when the driver is initialized.
+     */
+    public synchronized List<String> getFileIDs()
+        throws SectorException
+    {
+        checkInitialized();
+        return new ArrayList<String>(_index.keySet());
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Public methods.
+
+    /**
+     * Return total bytes of the live sectors, that is bytes of the files
+     * stored by this driver.
+     *
+     * @return  live bytes.
+     */
+    public synchronized long getLiveBytes()
+        throws SectorException
+    {
+        checkInitialized();
+        long size = 0;
+        for (List<Extent> extents : _index.values())
+            for (Extent extent : extents)
+                size += extent.getLength();
+        return size;
+    }
+
+    /**
+     * Return number of segment files.
+     *
+     * @return  number of segments.
+     */
+    public int getSegmentCount()
+        throws SectorException
+    {
+        checkInitialized();
+        synchronized (_appendLock) {
+            return _segments.size();
+        }
+    }
+
+    /**
+     * Return write amplification since the driver was initialized, that is
+     * bytes of records appended to segments, including records appended by
+     * compaction, divided by bytes of sectors written by output streams.
+     *
+     * @return  write amplification, or 0 if nothing was written.
+     */
+    public double getWriteAmplification() {
+        long userBytes = _userBytes.get();
+        if (userBytes == 0)
+            return 0;
+        return (double) _appendedBytes.get() / userBytes;
+    }
+
+    /**
+     * Return bytes of sectors copied by compaction since the driver was
+     * initialized.
+     *
+     * @return  compaction bytes.
+     */
+    public long getCompactionBytes() {
+        return _compactionBytes.get();
+    }
+
+    /**
+     * Return bytes of segment files deleted by compaction since the driver
+     * was initialized.
+     *
+     * @return  reclaimed bytes.
+     */
+    public long getReclaimedBytes() {
+        return _reclaimedBytes.get();
+    }
+
+    /**
+     * Return number of segments compacted since the driver was initialized.
+     *
+     * @return  number of compacted segments.
+     */
+    public long getCompactedSegmentCount() {
+        return _compactedSegments.get();
+    }
+
+    /**
+     * Compact sealed segments whose live ratio is below property
+     * [org.sd_network.vfssector.segment.CompactionThreshold]. This is what
+     * the background compaction runs, and returns when the run is done.
+     *
+     * @return  number of segments compacted by this run.
+     *
+     * @throws  SectorException
+     *          Throws if a segment could not read or write.
+     */
+    public int compact()
+        throws SectorException
+    {
+        checkInitialized();
+        synchronized (_compactionLock) {
+            int count = 0;
+            try {
+                for (Segment segment : selectCompactionCandidates())
+                    if (compactSegment(segment))
+                        count++;
+            } catch (IOException e) {
+                throw new SectorException(e);
+            }
+            return count;
+        }
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Package methods.
+
+    synchronized void releaseWriteLock(String fileID) {
+        _writeLockedSet.remove(fileID);
+    }
+
+    /**
+     * Release a read lock of the file, and the segments that the stream
+     * read. The file stays read locked while other streams read it. A retired segment is deleted when no stream reads it.
+     *
+     * @param fileID    ID of the file.
+     * @param extents   sectors that the stream read.
+     */
+    void releaseReadLock(String fileID, Extent[] extents) {
+        synchronized (this) {
+            Integer count = _readLockCounts.get(fileID);
+            if (count != null && count.intValue() > 1)
+                _readLockCounts.put(fileID,
+                        Integer.valueOf(count.intValue() - 1));
+            else
+                _readLockCounts.remove(fileID);
+        }
+        for (int idx = 0; idx < extents.length; idx++) {
+            Segment segment = extents[idx].getSegment();
+            try {
+                if (segment.unpin())
+                    _reclaimedBytes.addAndGet(segment.getSize());
+            } catch (IOException e) {
+                _log.log(Level.WARNING, "Could not delete segment " +
+                        segment.getSegmentID() + ".", e);
+            }
+        }
+    }
+
+    /**
+     * Append a sector to the active segment, and register it to the index.
+     * A sector that has the sequence number of an existing sector replaces
+     * it.
+     *
+     * @param fileID    ID of the file.
+     * @param seqNum    sequence number of the sector.
+     * @param content   content of the sector.
+     * @param length    number of bytes of <tt>content</tt>.
+     *
+     * @throws  IOException
+     *          Throws if the record could not write.
+     */
+    void writeSector(String fileID, int seqNum, byte[] content, int length)
+        throws IOException
+    {
+        Extent extent = appendPut(fileID, seqNum, content, length);
+        _userBytes.addAndGet(length);
+        synchronized (this) {
+            putExtent(fileID, seqNum, extent);
+        }
+    }
+
+    /**
+     * Force the active segment to the storage device, if property
+     * [org.sd_network.vfssector.segment.Sync] is true.
+     *
+     * @throws  IOException
+     *          Throws if the segment could not force.
+     */
+    void sync()
+        throws IOException
+    {
+        if (!_sync)
+            return;
+        synchronized (_appendLock) {
+            _activeSegment.force();
+        }
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    /**
+     * Open all segment files in the directory, and rebuild the index.
+     * If no segment exists, the first segment is created.
+     */
+    private void openSegments()
+        throws IOException
+    {
+        String[] names = _directory.list(
+                new FilenameFilter() {
+                    public boolean accept(File dir, String name) {
+                        return parseSegmentID(name) >= 0;
+                    }
+                });
+        int[] segmentIDs = new int[names.length];
+        for (int idx = 0; idx < names.length; idx++)
+            segmentIDs[idx] = parseSegmentID(names[idx]);
+        Arrays.sort(segmentIDs);
+
+        Segment.Visitor visitor = new Segment.Visitor() {
+            public void put(String fileID, int seqNum, Extent extent) {
+                putExtent(fileID, seqNum, extent);
+            }
+            public void deleted(String fileID) {
+                removeFile(fileID);
+            }
+        };
+        synchronized (_appendLock) {
+            for (int idx = 0; idx < segmentIDs.length; idx++) {
+                Segment segment = new Segment(segmentIDs[idx],
+                        getSegmentFile(segmentIDs[idx]));
+                segment.scan(visitor);
+                _segments.add(segment);
+            }
+            if (_segments.isEmpty())
+                _segments.add(new Segment(1, getSegmentFile(1)));
+            _activeSegment = _segments.get(_segments.size() - 1);
+        }
+        checkIndex();
+        _log.log(Level.INFO, "Opened " + _segments.size() +
+                " segments. files=" + _index.size());
+    }
+
+    /**
+     * Return the segment that a record of the specified size should be
+     * appended to. If the active segment is full, a new segment is started.
+     * The caller must hold _appendLock.
+     */
+    private Segment prepareSegment(long recordSize)
+        throws IOException
+    {
+        long size = _activeSegment.getSize();
+        if (size > 0 && size + recordSize > _segmentBytes) {
+            if (_sync)
+                _activeSegment.force();
+            int segmentID = _activeSegment.getSegmentID() + 1;
+            _activeSegment = new Segment(segmentID, getSegmentFile(segmentID));
+            _segments.add(_activeSegment);
+        }
+        return _activeSegment;
+    }
+
+    /**
+     * Append a PUT record to the active segment.
+     *
+     * @return  location of the content.
+     */
+    private Extent appendPut(String fileID, int seqNum, byte[] content,
+            int length)
+        throws IOException
+    {
+        synchronized (_appendLock) {
+            Segment segment = prepareSegment(
+                    length + _RECORD_HEADER_BYTES + fileID.length() * 3);
+            long size = segment.getSize();
+            long offset = segment.appendPut(fileID, seqNum, content, length);
+            _appendedBytes.addAndGet(segment.getSize() - size);
+            return new Extent(segment, offset, length);
+        }
+    }
+
+    /**
+     * Append a DEL record to the active segment.
+     */
+    private void appendDel(String fileID)
+        throws IOException
+    {
+        synchronized (_appendLock) {
+            Segment segment = prepareSegment(
+                    _RECORD_HEADER_BYTES + fileID.length() * 3);
+            long size = segment.getSize();
+            segment.appendDel(fileID);
+            _appendedBytes.addAndGet(segment.getSize() - size);
+        }
+    }
+
+    /**
+     * Append a DEL record of the file, and remove the file from the index.
+     * The caller must hold lock of this driver.
+     */
+    private void deleteFile(String fileID)
+        throws IOException
+    {
+        appendDel(fileID);
+        removeFile(fileID);
+    }
+
+    /**
+     * Remove the file from the index. The caller must hold lock of this
+     * driver, except while rebuilding the index.
+     */
+    private void removeFile(String fileID) {
+        List<Extent> extents = _index.remove(fileID);
+        if (extents == null)
+            return;
+        for (Extent extent : extents)
+            if (extent != null)
+                extent.getSegment().addLiveBytes(-extent.getLength());
+    }
+
+    /**
+     * Register a sector to the index. The caller must hold lock of this
+     * driver, except while rebuilding the index.
+     *
+     * <p> Compaction may move a sector after the following sectors of the
+     * file, so while rebuilding the index, a sector may be registered
+     * before the preceding ones. The missing ones are left as null, and
+     * checked by {@link #checkIndex()}.
+     */
+    private void putExtent(String fileID, int seqNum, Extent extent) {
+        List<Extent> extents = _index.get(fileID);
+        if (extents == null) {
+            extents = new ArrayList<Extent>();
+            _index.put(fileID, extents);
+        }
+        extent.getSegment().addLiveBytes(extent.getLength());
+        while (extents.size() < seqNum)
+            extents.add(null);
+        if (seqNum == extents.size()) {
+            extents.add(extent);
+            return;
+        }
+        Extent old = extents.set(seqNum, extent);
+        if (old != null)
+            old.getSegment().addLiveBytes(-old.getLength());
+    }
+
+    /**
+     * Check that every file in the rebuilt index has all sectors from
+     * sequence number 0. A file that lacks a sector is truncated before it.
+     */
+    private void checkIndex() {
+        for (Map.Entry<String, List<Extent>> entry : _index.entrySet()) {
+            List<Extent> extents = entry.getValue();
+            int missing = extents.indexOf(null);
+            if (missing < 0)
+                continue;
+            _log.log(Level.WARNING, "Sector " + missing + " of file " +
+                    entry.getKey() + " not found. The file is truncated.");
+            while (extents.size() > missing) {
+                Extent extent = extents.remove(extents.size() - 1);
+                if (extent != null)
+                    extent.getSegment().addLiveBytes(-extent.getLength());
+            }
+        }
+    }
+
+    /**
+     * Start background compaction with the specified interval.
+     */
+    private void startCompaction(long interval) {
+        _compactionExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread =
+                            new Thread(r, "vfssector-segment-compaction");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        _compactionExecutor.scheduleWithFixedDelay(
+                new Runnable() {
+                    public void run() {
+                        try {
+                            int count = compact();
+                            if (count > 0)
+                                _log.log(Level.INFO, "Compacted " + count +
+                                        " segments. reclaimed bytes=" +
+                                        _reclaimedBytes.get());
+                        } catch (Exception e) {
+                            _log.log(Level.WARNING,
+                                    "Compaction failed.", e);
+                        }
+                    }
+                }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Return sealed segments whose live ratio is below the threshold.
+     */
+    private List<Segment> selectCompactionCandidates() {
+        List<Segment> candidates = new ArrayList<Segment>();
+        synchronized (_appendLock) {
+            for (Segment segment : _segments) {
+                if (segment == _activeSegment)
+                    continue;
+                if (segment.getLiveBytes() <
+                        segment.getSize() * _compactionThreshold)
+                    candidates.add(segment);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Move live sectors and tombstones of the segment to the active
+     * segment, and retire the segment.
+     *
+     * <p> Records must stay in the order that scanning rebuilds the same
+     * index. So a tombstone is carried with all live sectors of the file
+     * after it, and a file that is being written is skipped.
+     *
+     * @return  true if the segment is retired.
+     */
+    private boolean compactSegment(Segment segment)
+        throws IOException
+    {
+        // tombstones are needed only while an older segment may hold
+        // sectors of the deleted files.
+        final Set<String> tombstones = new HashSet<String>();
+        if (hasOlderSegment(segment)) {
+            segment.scan(new Segment.Visitor() {
+                public void put(String fileID, int seqNum, Extent extent) {
+                }
+                public void deleted(String fileID) {
+                    tombstones.add(fileID);
+                }
+            });
+        }
+
+        Set<String> fileIDs = new HashSet<String>(tombstones);
+        synchronized (this) {
+            for (Map.Entry<String, List<Extent>> entry : _index.entrySet())
+                for (Extent extent : entry.getValue())
+                    if (extent.getSegment() == segment) {
+                        fileIDs.add(entry.getKey());
+                        break;
+                    }
+        }
+
+        boolean skipped = false;
+        long start = System.nanoTime();
+        long copied = 0;
+        for (String fileID : fileIDs) {
+            long count =
+                moveFile(fileID, segment, tombstones.contains(fileID));
+            if (count < 0) {
+                skipped = true;
+                continue;
+            }
+            copied += count;
+            throttle(start, copied);
+        }
+        if (skipped || segment.getLiveBytes() > 0)
+            return false;
+
+        // copies must be durable before the originals are deleted.
+        synchronized (_appendLock) {
+            _activeSegment.force();
+            _segments.remove(segment);
+        }
+        if (segment.retire())
+            _reclaimedBytes.addAndGet(segment.getSize());
+        _compactedSegments.incrementAndGet();
+        _log.log(Level.FINE, "Segment " + segment.getSegmentID() +
+                " compacted.");
+        return true;
+    }
+
+    /**
+     * Move sectors of the file out of the segment. If <tt>tombstone</tt> is
+     * true, a DEL record of the file is appended first, and all sectors of
+     * the file are moved after it.
+     *
+     * @return  bytes of sectors moved, or -1 if the file is being written.
+     */
+    private long moveFile(String fileID, Segment segment, boolean tombstone)
+        throws IOException
+    {
+        Extent[] extents;
+        synchronized (this) {
+            if (_writeLockedSet.contains(fileID))
+                return -1;
+            _compactingSet.add(fileID);
+            List<Extent> list = _index.get(fileID);
+            extents = (list == null) ?
+                new Extent[0] : list.toArray(new Extent[list.size()]);
+        }
+
+        try {
+            if (tombstone)
+                appendDel(fileID);
+            long moved = 0;
+            byte[] buffer = new byte[0];
+            for (int seqNum = 0; seqNum < extents.length; seqNum++) {
+                Extent extent = extents[seqNum];
+                if (!tombstone && extent.getSegment() != segment)
+                    continue;
+                if (buffer.length < extent.getLength())
+                    buffer = new byte[extent.getLength()];
+                extent.read().get(buffer, 0, extent.getLength());
+                Extent copy = appendPut(
+                        fileID, seqNum, buffer, extent.getLength());
+                synchronized (this) {
+                    putExtent(fileID, seqNum, copy);
+                }
+                moved += extent.getLength();
+            }
+            _compactionBytes.addAndGet(moved);
+            return moved;
+        } finally {
+            synchronized (this) {
+                _compactingSet.remove(fileID);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Test whether a segment older than the specified one exists.
+     */
+    private boolean hasOlderSegment(Segment segment) {
+        synchronized (_appendLock) {
+            for (Segment older : _segments)
+                if (older.getSegmentID() < segment.getSegmentID())
+                    return true;
+            return false;
+        }
+    }
+
+    /**
+     * Sleep so that compaction copies no more than property
+     * [org.sd_network.vfssector.segment.CompactionBytesPerSecond].
+     */
+    private void throttle(long start, long copied)
+        throws IOException
+    {
+        if (_compactionBytesPerSecond <= 0)
+            return;
+        long expected = copied * 1000L / _compactionBytesPerSecond;
+        long elapsed = (System.nanoTime() - start) / 1000000L;
+        if (expected <= elapsed)
+            return;
+        try {
+            Thread.sleep(expected - elapsed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Compaction interrupted.");
+        }
+    }
+
+    /**
+     * Wait until sectors of the file are not being moved by compaction.
+     * The caller must hold lock of this driver.
+     */
+    private void waitForCompaction(String fileID)
+        throws SectorException
+    {
+        while (_compactingSet.contains(fileID)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SectorException(
+                        "Interrupted while waiting for compaction.");
+            }
+        }
+    }
+
+    private File getSegmentFile(int segmentID) {
+        return new File(_directory, _SEGMENT_PREFIX +
+                String.format("%08d", Integer.valueOf(segmentID)) +
+                _SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Return segment ID of the file name, or -1 if the name is not a
+     * segment file.
+     */
+    private static int parseSegmentID(String name) {
+        if (!name.startsWith(_SEGMENT_PREFIX) ||
+                !name.endsWith(_SEGMENT_SUFFIX))
+            return -1;
+        try {
+            return Integer.parseInt(name.substring(_SEGMENT_PREFIX.length(),
+                        name.length() - _SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void checkInitialized()
+        throws SectorException
+    {
+        if (!_initialized)
+            throw new SectorException("SectorDriver not initialized.");
+    }
+
+    private void checkReadLocked(String fileID)
+        throws SectorException
+    {
+        if (_readLockCounts.containsKey(fileID))
+            throw new SectorException(
+                    "Specified file have been read locked.");
+    }
+
+    private void checkWriteLocked(String fileID)
+        throws SectorException
+    {
+        if (_writeLockedSet.contains(fileID))
+            throw new SectorException(
+                    "Specified file have been write locked.");
+    }
+}
@@ -0,0 +1,979 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.tier;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.sd_network.util.Config;
+import org.sd_network.vfs.sector.ListableSectorDriver;
+import org.sd_network.vfs.sector.SectorDriver;
+import org.sd_network.vfs.sector.SectorException;
+
+/**
+ * SectorDriver that stores files in two other SectorDrivers, a fast hot
+ * tier and a large cold tier.
+ *
+ * <p> The drivers of the tiers are specified by property
+ * [org.sd_network.vfssector.tier.HotDriver] and
+ * [org.sd_network.vfssector.tier.ColdDriver], and each of them is
+ * configured by its own properties. A file is stored in one of the tiers.
+ * New contents are written to the hot tier, while data appended to a file
+ * in the cold tier is appended there.
+ *
+ * <p> A background task, run every property
+ * [org.sd_network.vfssector.tier.DemotionInterval] seconds, moves files
+ * of the hot tier that were not accessed for property
+ * [org.sd_network.vfssector.tier.IdleSeconds] seconds to the cold tier.
+ * Each access of a file is counted, and the counts are halved by each run,
+ * so they reflect recent access frequency. When the count of a file in the
+ * cold tier reaches property
+ * [org.sd_network.vfssector.tier.PromotionThreshold], the file is moved to
+ * the hot tier in background. A file is moved by copying it, and then
+ * deleting the source; the move is given up if the file is opened by
+ * others in the meantime, and retried later.
+ *
+ * <p> The tier of a file is kept in memory. If the hot tier driver is a
+ * {@link ListableSectorDriver}, its files are registered when the driver
+ * is initialized, so that they are demoted after a restart even if they
+ * are not accessed again. Other files are looked up in both tiers at first
+ * access. The state of a file of the cold tier that was not accessed for
+ * the idle seconds is dropped by demotion, and the file is looked up again
+ * at next access, so states do not accumulate for every file ever read.
+ *
+ * <p> The monitor of this driver guards only the states of the files, and
+ * the drivers of the tiers are called outside it. A call pins the file
+ * while it chooses the tier and uses the driver, so a move does not start
+ * or complete underneath it.
+ *
+ * <p> Hit counts of each tier and migration throughput are available from
+ * this driver.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class TieredSectorDriver
+    implements SectorDriver
+{
+    /** Logger. */
+    private static final Logger _log = Logger.getLogger(
+            TieredSectorDriver.class.getName());
+
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** Property name of class name of the hot tier driver. */
+    private static final String _PROP_HOTDRIVER =
+        "org.sd_network.vfssector.tier.HotDriver";
+
+    /** Property name of class name of the cold tier driver. */
+    private static final String _PROP_COLDDRIVER =
+        "org.sd_network.vfssector.tier.ColdDriver";
+
+    /** Property name of interval seconds of demotion. */
+    private static final String _PROP_DEMOTIONINTERVAL =
+        "org.sd_network.vfssector.tier.DemotionInterval";
+
+    /** Property name of seconds after which an unused file is demoted. */
+    private static final String _PROP_IDLESECONDS =
+        "org.sd_network.vfssector.tier.IdleSeconds";
+
+    /** Property name of access count at which a file is promoted. */
+    private static final String _PROP_PROMOTIONTHRESHOLD =
+        "org.sd_network.vfssector.tier.PromotionThreshold";
+
+    /** Index of the hot tier. */
+    private static final int _HOT = 0;
+
+    /** Index of the cold tier. */
+    private static final int _COLD = 1;
+
+    /** Number of bytes of the buffer to copy a file. */
+    private static final int _COPY_BUFFER_SIZE = 65536;
+
+    /** initialized flag. */
+    private boolean _initialized = false;
+
+    /** Properties that the driver is initialized by. */
+    private final Properties _properties;
+
+    /** Drivers of the tiers, indexed by _HOT and _COLD. */
+    private SectorDriver[] _drivers;
+
+    /** State of the files known to this driver. */
+    private Map<String, FileState> _states =
+        new HashMap<String, FileState>();
+
+    /** Files being moved to the other tier. */
+    private Set<String> _migratingSet = new HashSet<String>();
+
+    /** Executor of background migration, or null if disabled. */
+    private ScheduledExecutorService _migrationExecutor;
+
+    /** Milliseconds after which an unused file is demoted. */
+    private long _idleMillis;
+
+    /** Access count at which a file is promoted. */
+    private int _promotionThreshold;
+
+    /** Number of files opened for reading, indexed by tier. */
+    private final AtomicLong[] _hits =
+        new AtomicLong[] {new AtomicLong(), new AtomicLong()};
+
+    /** Number of files moved to the hot tier. */
+    private final AtomicLong _promotedFiles = new AtomicLong();
+
+    /** Number of files moved to the cold tier. */
+    private final AtomicLong _demotedFiles = new AtomicLong();
+
+    /** Bytes of the files moved. */
+    private final AtomicLong _migratedBytes = new AtomicLong();
+
+    /** Nanoseconds spent to move the files. */
+    private final AtomicLong _migrationNanos = new AtomicLong();
+
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    /**
+     * Create a driver initialized by the global {@link Config}.
+     */
+    public TieredSectorDriver() {
+        this(Config.getInstance());
+    }
+
+    /**
+     * Create a driver initialized by the specified properties instead of
+     * the global {@link Config}, so that drivers of the same class can
+     * have different properties.
+     */
+    public TieredSectorDriver(Properties properties) {
+        if (properties == null)
+            throw new NullPointerException("properties");
+        _properties = properties;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Implements to SectorDriver.
+
+    public OutputStream getOutputStream(String fileID)
+        throws SectorException
+    {
+        return openOutputStream(fileID, false, -1L);
+    }
+
+    public OutputStream getOutputStream(String fileID, boolean append)
+        throws SectorException
+    {
+        return openOutputStream(fileID, append, -1L);
+    }
+
+    public OutputStream getOutputStream(String fileID, long sizeHint)
+        throws SectorException
+    {
+        return openOutputStream(fileID, false, sizeHint);
+    }
+
+    public InputStream getInputStream(String fileID)
+        throws SectorException
+    {
+        return getInputStream(fileID, 0L);
+    }
+
+    /**
+     * Return InputStream of the driver of the tier that holds the file.
+     * If the file reaches the promotion threshold, it is promoted before
+     * it is opened when background migration is disabled, or scheduled to
+     * be promoted otherwise.
+     */
+    public InputStream getInputStream(String fileID, long offset)
+        throws SectorException
+    {
+        promoteIfFrequent(fileID);
+        FileState state = pinState(fileID, false);
+        try {
+            int tier = state.getTier();
+            InputStream is =
+                _drivers[tier].getInputStream(fileID, offset);
+            _hits[tier].incrementAndGet();
+            return is;
+        } finally {
+            unpin(state);
+        }
+    }
+
+    public long transferTo(String fileID, WritableByteChannel target)
+        throws SectorException
+    {
+        if (target == null)
+            throw new NullPointerException("target");
+
+        promoteIfFrequent(fileID);
+        FileState state = pinState(fileID, false);
+        try {
+            int tier = state.getTier();
+            _hits[tier].incrementAndGet();
+            return _drivers[tier].transferTo(fileID, target);
+        } finally {
+            unpin(state);
+        }
+    }
+
+    public long transferFrom(String fileID, ReadableByteChannel src)
+        throws SectorException
+    {
+        return transferFrom(fileID, src, false);
+    }
+
+    public long transferFrom(String fileID, ReadableByteChannel src,
+            boolean append)
+        throws SectorException
+    {
+        if (src == null)
+            throw new NullPointerException("src");
+
+        FileState state = pinWriteState(fileID, append);
+        try {
+            return _drivers[state.getTier()].transferFrom(
+                    fileID, src, append);
+        } finally {
+            unpin(state);
+        }
+    }
+
+    public boolean isWriteLocked(String fileID) {
+        return _drivers[_HOT].isWriteLocked(fileID) ||
+            _drivers[_COLD].isWriteLocked(fileID);
+    }
+
+    public boolean isReadLocked(String fileID) {
+        return _drivers[_HOT].isReadLocked(fileID) ||
+            _drivers[_COLD].isReadLocked(fileID);
+    }
+
+    /**
+     * Delete the file from both tiers, and drop its state unless it is
+     * used by others.
+     */
+    public void deleteSectors(String fileID)
+        throws SectorException
+    {
+        checkInitialized();
+        if (fileID == null)
+            throw new NullPointerException("fileID");
+
+        FileState state;
+        synchronized (this) {
+            checkMigrating(fileID);
+            state = _states.get(fileID);
+            if (state != null) {
+                awaitSwitched(state);
+                state.pin();
+            }
+        }
+        try {
+            _drivers[_HOT].deleteSectors(fileID);
+            _drivers[_COLD].deleteSectors(fileID);
+        } finally {
+            synchronized (this) {
+                if (state != null)
+                    state.unpin();
+                FileState current = _states.get(fileID);
+                if (current != null && !current.isPinned())
+                    _states.remove(fileID);
+            }
+        }
+    }
+
+    /**
+     * Instantiate and initialize the drivers of the tiers, and start
+     * background migration.
+     */
+    public synchronized void initDriver()
+        throws SectorException
+    {
+        if (_initialized)
+            return;
+
+        Properties config = _properties;
+        String hotName = config.getProperty(_PROP_HOTDRIVER);
+        String coldName = config.getProperty(_PROP_COLDDRIVER);
+        if (hotName == null)
+            throw new SectorException(
+                    "Property [" + _PROP_HOTDRIVER + "] not found.");
+        if (coldName == null)
+            throw new SectorException(
+                    "Property [" + _PROP_COLDDRIVER + "] not found.");
+        // drivers of the same class would share their properties.
+        if (hotName.equals(coldName))
+            throw new SectorException(
+                    "Hot and cold driver must be different classes.");
+
+        long interval;
+        try {
+            interval = Long.parseLong(
+                    config.getProperty(_PROP_DEMOTIONINTERVAL, "60"));
+            _idleMillis = 1000 * Long.parseLong(
+                    config.getProperty(_PROP_IDLESECONDS, "3600"));
+            _promotionThreshold = Integer.parseInt(
+                    config.getProperty(_PROP_PROMOTIONTHRESHOLD, "4"));
+        } catch (NumberFormatException e) {
+            throw new SectorException(
+                    "Invalid property of tiered driver. " +
+                    e.getMessage(), e);
+        }
+
+        _drivers = new SectorDriver[] {
+            newDriver(hotName, config), newDriver(coldName, config)};
+        if (_drivers[_HOT] instanceof ListableSectorDriver) {
+            List<String> fileIDs =
+                ((ListableSectorDriver) _drivers[_HOT]).getFileIDs();
+            for (String fileID : fileIDs)
+                _states.put(fileID, new FileState(_HOT));
+            _log.log(Level.INFO, "Registered " + fileIDs.size() +
+                    " files of the hot tier.");
+        }
+        if (interval > 0)
+            startMigration(interval);
+        _initialized = true;
+        _log.log(Level.INFO, "TieredSectorDriver initialized. hot=" +
+                hotName + ", cold=" + coldName);
+    }
+
+    public long getFileSize(String fileID)
+        throws SectorException
+    {
+        checkInitialized();
+        FileState state = pinState(fileID, false);
+        try {
+            return _drivers[state.getTier()].getFileSize(fileID);
+        } finally {
+            unpin(state);
+        }
+    }
+
+    /**
+     * Return sum of available bytes of the tiers.
+     */
+    public long getAvailableBytes()
+        throws SectorException
+    {
+        checkInitialized();
+        return _drivers[_HOT].getAvailableBytes() +
+            _drivers[_COLD].getAvailableBytes();
+    }
+
+    /**
+     * Return sum of used bytes of the tiers.
+     */
+    public long getUsedBytes()
+        throws SectorException
+    {
+        checkInitialized();
+        return _drivers[_HOT].getUsedBytes() +
+            _drivers[_COLD].getUsedBytes();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Public methods.
+
+    /**
+     * Return number of files opened for reading from the hot tier since
+     * the driver was initialized.
+     *
+     * @return  hot tier hits.
+     */
+    public long getHotHits() {
+        return _hits[_HOT].get();
+    }
+
+    /**
+     * Return number of files opened for reading from the cold tier since
+     * the driver was initialized.
+     *
+     * @return  cold tier hits.
+     */
+    public long getColdHits() {
+        return _hits[_COLD].get();
+    }
+
+    /**
+     * Return ratio of the files read from the hot tier to all files read.
+     *
+     * @return  hot tier hit rate, or 0 if nothing was read.
+     */
+    public double getHotHitRate() {
+        long hot = _hits[_HOT].get();
+        long total = hot + _hits[_COLD].get();
+        return (total == 0) ? 0.0 : (double) hot / total;
+    }
+
+    /**
+     * Return number of files moved to the hot tier since the driver was
+     * initialized.
+     *
+     * @return  number of promoted files.
+     */
+    public long getPromotedFileCount() {
+        return _promotedFiles.get();
+    }
+
+    /**
+     * Return number of files moved to the cold tier since the driver was
+     * initialized.
+     *
+     * @return  number of demoted files.
+     */
+    public long getDemotedFileCount() {
+        return _demotedFiles.get();
+    }
+
+    /**
+     * Return bytes of the files moved between the tiers since the driver
+     * was initialized.
+     *
+     * @return  migrated bytes.
+     */
+    public long getMigratedBytes() {
+        return _migratedBytes.get();
+    }
+
+    /**
+     * Return migrated bytes divided by time spent to move the files.
+     *
+     * @return  bytes per second, or 0 if nothing was moved.
+     */
+    public double getMigrationBytesPerSecond() {
+        long nanos = _migrationNanos.get();
+        return (nanos == 0) ? 0.0 : _migratedBytes.get() * 1e9 / nanos;
+    }
+
+    /**
+     * Move the files of the hot tier that were not accessed for the idle
+     * seconds to the cold tier, and halve the access counts of all files.
+     * States of the files of the cold tier that were not accessed for the
+     * idle seconds are dropped. This is run by the background task, and
+     * can be run directly.
+     *
+     * @return  number of files demoted by this run.
+     *
+     * @throws  SectorException
+     *          Throws if the driver is not initialized.
+     */
+    public int demote()
+        throws SectorException
+    {
+        checkInitialized();
+        long now = System.currentTimeMillis();
+        List<String> candidates = new ArrayList<String>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, FileState>> entries =
+                _states.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, FileState> entry = entries.next();
+                FileState state = entry.getValue();
+                state.decay();
+                if (now - state.getLastAccess() < _idleMillis)
+                    continue;
+                if (state.getTier() == _HOT)
+                    candidates.add(entry.getKey());
+                else if (!state.isPinned() && !state.isSwitching() &&
+                        !state.isPromotionPending() &&
+                        !_migratingSet.contains(entry.getKey()))
+                    entries.remove();
+            }
+        }
+
+        int count = 0;
+        for (String fileID : candidates)
+            if (migrate(fileID, _HOT))
+                count++;
+        return count;
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Package methods.
+
+    /**
+     * Return number of files whose states are kept by this driver.
+     */
+    synchronized int getStateCount() {
+        return _states.size();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    /**
+     * Open OutputStream of the driver of the tier that the file is
+     * written to.
+     *
+     * @param sizeHint  size hint, or negative if not specified.
+     */
+    private OutputStream openOutputStream(String fileID, boolean append,
+            long sizeHint)
+        throws SectorException
+    {
+        FileState state = pinWriteState(fileID, append);
+        try {
+            SectorDriver driver = _drivers[state.getTier()];
+            if (sizeHint >= 0)
+                return driver.getOutputStream(fileID, sizeHint);
+            return driver.getOutputStream(fileID, append);
+        } finally {
+            unpin(state);
+        }
+    }
+
+    /**
+     * Decide the tier that the file is written to, and return the pinned
+     * state of the file. Data appended to a file is written to its tier,
+     * and new contents of a file are written to the hot tier. If the file
+     * is in the cold tier and is replaced, it is deleted from the cold
+     * tier; other calls wait until the tier is switched. The caller must
+     * unpin the state after using the driver.
+     */
+    private FileState pinWriteState(String fileID, boolean append)
+        throws SectorException
+    {
+        checkInitialized();
+        FileState state = pinState(fileID, true);
+        synchronized (this) {
+            state.access();
+            if (append || state.getTier() == _HOT)
+                return state;
+            if (state.getPins() > 1) {
+                state.unpin();
+                throw new SectorException(
+                        "Specified file have been locked.");
+            }
+            state.setSwitching(true);
+        }
+
+        boolean switched = false;
+        try {
+            SectorDriver hot = _drivers[_HOT];
+            if (hot.isReadLocked(fileID) || hot.isWriteLocked(fileID))
+                throw new SectorException(
+                        "Specified file have been locked.");
+            _drivers[_COLD].deleteSectors(fileID);
+            switched = true;
+            return state;
+        } finally {
+            synchronized (this) {
+                if (switched)
+                    state.setTier(_HOT);
+                else
+                    state.unpin();
+                state.setSwitching(false);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Count an access of the file, and promote the file if it is in the
+     * cold tier and reached the promotion threshold.
+     */
+    private void promoteIfFrequent(String fileID)
+        throws SectorException
+    {
+        checkInitialized();
+        FileState state = pinState(fileID, false);
+        synchronized (this) {
+            state.unpin();
+            state.access();
+            if (state.getTier() != _COLD ||
+                    state.getAccessCount() < _promotionThreshold ||
+                    state.isPromotionPending())
+                return;
+            state.setPromotionPending(true);
+        }
+
+        if (_migrationExecutor == null) {
+            promote(fileID);
+            return;
+        }
+        final String target = fileID;
+        _migrationExecutor.execute(new Runnable() {
+            public void run() {
+                promote(target);
+            }
+        });
+    }
+
+    private void promote(String fileID) {
+        try {
+            migrate(fileID, _COLD);
+        } finally {
+            synchronized (this) {
+                FileState state = _states.get(fileID);
+                if (state != null)
+                    state.setPromotionPending(false);
+            }
+        }
+    }
+
+    /**
+     * Move the file from the specified tier to the other tier. The file is
+     * copied, and then deleted from the source tier. If the file is opened
+     * by others before it is deleted, the copy is deleted instead. Calls
+     * that pin the file wait while the source is deleted. A file that has
+     * no data in the source tier is not moved, and its state is dropped.
+     *
+     * @return  true if the file was moved.
+     */
+    private boolean migrate(String fileID, int from) {
+        int to = (from == _HOT) ? _COLD : _HOT;
+        SectorDriver source = _drivers[from];
+        SectorDriver target = _drivers[to];
+        FileState state;
+        synchronized (this) {
+            state = _states.get(fileID);
+            if (state == null || state.getTier() != from ||
+                    state.isPinned() || state.isSwitching() ||
+                    _migratingSet.contains(fileID))
+                return false;
+            _migratingSet.add(fileID);
+        }
+
+        long start = System.nanoTime();
+        try {
+            if (source.isWriteLocked(fileID))
+                return false;
+            if (source.getFileSize(fileID) == 0) {
+                synchronized (this) {
+                    if (!state.isPinned())
+                        _states.remove(fileID);
+                }
+                return false;
+            }
+
+            long bytes = copy(fileID, source, target);
+            synchronized (this) {
+                if (state.isPinned())
+                    throw new SectorException(
+                            "Specified file have been locked.");
+                state.setSwitching(true);
+            }
+            try {
+                source.deleteSectors(fileID);
+                synchronized (this) {
+                    state.setTier(to);
+                }
+            } finally {
+                synchronized (this) {
+                    state.setSwitching(false);
+                    notifyAll();
+                }
+            }
+            _migrationNanos.addAndGet(System.nanoTime() - start);
+            _migratedBytes.addAndGet(bytes);
+            if (to == _HOT)
+                _promotedFiles.incrementAndGet();
+            else
+                _demotedFiles.incrementAndGet();
+            return true;
+        } catch (Exception e) {
+            _log.log(Level.FINE, "Could not move " + fileID + ".", e);
+            try {
+                target.deleteSectors(fileID);
+            } catch (SectorException e2) {
+                _log.log(Level.WARNING,
+                        "Could not delete copy of " + fileID + ".", e2);
+            }
+            return false;
+        } finally {
+            synchronized (this) {
+                _migratingSet.remove(fileID);
+            }
+        }
+    }
+
+    /**
+     * Copy the file from the source driver to the target driver.
+     *
+     * @return  number of bytes copied.
+     */
+    private static long copy(String fileID, SectorDriver source,
+            SectorDriver target)
+        throws SectorException, IOException
+    {
+        InputStream is = source.getInputStream(fileID);
+        try {
+            OutputStream os = target.getOutputStream(
+                    fileID, source.getFileSize(fileID));
+            try {
+                byte[] buf = new byte[_COPY_BUFFER_SIZE];
+                long bytes = 0;
+                int count = 0;
+                while ((count = is.read(buf, 0, buf.length)) != -1) {
+                    os.write(buf, 0, count);
+                    bytes += count;
+                }
+                return bytes;
+            } finally {
+                os.close();
+            }
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Return state of the file, and pin it. A file not yet known is looked
+     * up in the tiers outside the monitor, and regarded to be in the hot
+     * tier unless only the cold tier has its data. If the tier of the file
+     * is being switched, this waits until it is switched. The caller must
+     * unpin the state after using the driver of its tier.
+     *
+     * @param write     if true, fails while the file is being moved.
+     */
+    private FileState pinState(String fileID, boolean write)
+        throws SectorException
+    {
+        if (fileID == null)
+            throw new NullPointerException("fileID");
+
+        synchronized (this) {
+            if (write)
+                checkMigrating(fileID);
+            FileState state = _states.get(fileID);
+            if (state != null) {
+                awaitSwitched(state);
+                state.pin();
+                return state;
+            }
+        }
+
+        int tier = (_drivers[_HOT].getFileSize(fileID) == 0 &&
+                _drivers[_COLD].getFileSize(fileID) > 0) ? _COLD : _HOT;
+        synchronized (this) {
+            if (write)
+                checkMigrating(fileID);
+            FileState state = _states.get(fileID);
+            if (state == null) {
+                state = new FileState(tier);
+                _states.put(fileID, state);
+            }
+            awaitSwitched(state);
+            state.pin();
+            return state;
+        }
+    }
+
+    private synchronized void unpin(FileState state) {
+        state.unpin();
+    }
+
+    /**
+     * Create and initialize the driver of a tier. The properties of this
+     * driver are given to the driver, if it has a constructor of
+     * Properties.
+     */
+    private static SectorDriver newDriver(String className,
+            Properties properties)
+        throws SectorException
+    {
+        try {
+            Class<?> driverClass = Class.forName(className);
+            SectorDriver driver;
+            try {
+                driver = (SectorDriver) driverClass.getDeclaredConstructor(
+                        Properties.class).newInstance(properties);
+            } catch (NoSuchMethodException e) {
+                driver = (SectorDriver)
+                    driverClass.getDeclaredConstructor().newInstance();
+            }
+            driver.initDriver();
+            return driver;
+        } catch (SectorException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SectorException(
+                    "Could not instantiate " + className + ".", e);
+        }
+    }
+
+    /**
+     * Start background migration with the specified interval.
+     */
+    private void startMigration(long interval) {
+        _migrationExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread =
+                            new Thread(r, "vfssector-tier-migration");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        _migrationExecutor.scheduleWithFixedDelay(
+                new Runnable() {
+                    public void run() {
+                        try {
+                            int count = demote();
+                            if (count > 0)
+                                _log.log(Level.INFO, "Demoted " + count +
+                                        " files. hot hit rate=" +
+                                        getHotHitRate() +
+                                        ", migration bytes/s=" +
+                                        getMigrationBytesPerSecond());
+                        } catch (Exception e) {
+                            _log.log(Level.WARNING, "Demotion failed.", e);
+                        }
+                    }
+                }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    private void checkInitialized()
+        throws SectorException
+    {
+        if (!_initialized)
+            throw new SectorException("SectorDriver not initialized.");
+    }
+
+    private void checkMigrating(String fileID)
+        throws SectorException
+    {
+        if (_migratingSet.contains(fileID))
+            throw new SectorException(
+                    "Specified file is being moved to other tier.");
+    }
+
+    /**
+     * Wait until the tier of the file is not being switched. The caller
+     * must hold the monitor.
+     */
+    private void awaitSwitched(FileState state)
+        throws SectorException
+    {
+        try {
+            while (state.isSwitching())
+                wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SectorException(
+                    "Interrupted while the file is moved.", e);
+        }
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Inner classes.
+
+    /**
+     * Tier and access statistics of a file. Guarded by the monitor of the
+     * driver, except that the tier is read without it by the calls that
+     * pinned the state, since it does not change while pinned by others.
+     */
+    private static class FileState
+    {
+        private volatile int _tier;
+        private int _accessCount = 0;
+        private long _lastAccess = System.currentTimeMillis();
+        private int _pins = 0;
+        private boolean _switching = false;
+        private boolean _promotionPending = false;
+
+        FileState(int tier) {
+            _tier = tier;
+        }
+
+        int getTier() {
+            return _tier;
+        }
+
+        void setTier(int tier) {
+            _tier = tier;
+        }
+
+        void access() {
+            _accessCount++;
+            _lastAccess = System.currentTimeMillis();
+        }
+
+        void decay() {
+            _accessCount >>= 1;
+        }
+
+        int getAccessCount() {
+            return _accessCount;
+        }
+
+        long getLastAccess() {
+            return _lastAccess;
+        }
+
+        /**
+         * Mark the file used by a call, which is not seen by the locks
+         * of the drivers until its stream is opened.
+         */
+        void pin() {
+            _pins++;
+        }
+
+        void unpin() {
+            _pins--;
+        }
+
+        boolean isPinned() {
+            return _pins > 0;
+        }
+
+        int getPins() {
+            return _pins;
+        }
+
+        /**
+         * Mark the tier of the file being switched, during which the file
+         * is not pinned by others.
+         */
+        void setSwitching(boolean switching) {
+            _switching = switching;
+        }
+
+        boolean isSwitching() {
+            return _switching;
+        }
+
+        boolean isPromotionPending() {
+            return _promotionPending;
+        }
+
+        void setPromotionPending(boolean pending) {
+            _promotionPending = pending;
+        }
+    }
+}
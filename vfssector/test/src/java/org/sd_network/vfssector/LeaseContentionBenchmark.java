@@ -0,0 +1,178 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.sd_network.util.Config;
+import org.sd_network.vfs.sector.SectorDriver;
+
+/**
+ * Benchmark of a {@link SectorDriver} accessed by many threads at once.
+ * Each thread repeatedly opens, reads and closes a small file, first each
+ * thread on a distinct file, then all threads on one shared file. Writes
+ * are measured on distinct files only, since a file has one writer. The
+ * driver is configured by the property file, as SectorDriverManager does.
+ *
+ * <p> Usage: java org.sd_network.vfssector.LeaseContentionBenchmark
+ * propertyFile [threads] [operations] [fileSize] [driverClass]
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class LeaseContentionBenchmark
+{
+    /** Number of bytes of each write and read call. */
+    private static final int _BUFFER_SIZE = 65536;
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        if (args.length < 1) {
+            System.err.println("Usage: java " +
+                    LeaseContentionBenchmark.class.getName() +
+                    " propertyFile [threads] [operations] [fileSize]" +
+                    " [driverClass]");
+            System.exit(1);
+        }
+        Config.load(args[0]);
+        int threads =
+            (args.length > 1) ? Integer.parseInt(args[1]) : 16;
+        int operations =
+            (args.length > 2) ? Integer.parseInt(args[2]) : 200;
+        int fileSize =
+            (args.length > 3) ? Integer.parseInt(args[3]) : 65536;
+        String driverName =
+            (args.length > 4) ? args[4] : VfsSectorDriver.class.getName();
+
+        SectorDriver driver = (SectorDriver)
+            Class.forName(driverName).getDeclaredConstructor().newInstance();
+        driver.initDriver();
+        byte[] data = new byte[fileSize];
+        new Random(0).nextBytes(data);
+
+        String[] distinct = new String[threads];
+        String[] shared = new String[threads];
+        for (int idx = 0; idx < threads; idx++) {
+            distinct[idx] = "contention" + idx;
+            shared[idx] = "contention-shared";
+        }
+
+        System.out.println("driver\tthreads\tphase\toperations/s");
+        double[] results = new double[] {
+            run(driver, distinct, operations, data, true),
+            run(driver, distinct, operations, data, false),
+            run(driver, shared, operations, data, false)};
+        String[] phases = new String[] {
+            "write distinct", "read distinct", "read shared"};
+        for (int idx = 0; idx < phases.length; idx++)
+            System.out.println(driverName + "\t" + threads + "\t" +
+                    phases[idx] + "\t" + format(results[idx]));
+
+        for (int idx = 0; idx < threads; idx++)
+            driver.deleteSectors(distinct[idx]);
+        driver.deleteSectors(shared[0]);
+        System.exit(0);
+    }
+
+    /**
+     * Run the specified operations on each file by a thread per file, and
+     * return operations per second of all threads.
+     *
+     * @param fileIDs   file of each thread.
+     * @param write     true to write the files, false to read them.
+     */
+    private static double run(final SectorDriver driver,
+            final String[] fileIDs, final int operations, final byte[] data,
+            final boolean write)
+        throws Exception
+    {
+        if (!write) {
+            // prepare files to read.
+            Set<String> prepared = new HashSet<String>();
+            for (int idx = 0; idx < fileIDs.length; idx++) {
+                if (prepared.add(fileIDs[idx]))
+                    writeFile(driver, fileIDs[idx], data);
+            }
+        }
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(fileIDs.length);
+        final Exception[] error = new Exception[1];
+        for (int idx = 0; idx < fileIDs.length; idx++) {
+            final String fileID = fileIDs[idx];
+            new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        byte[] buf = new byte[_BUFFER_SIZE];
+                        for (int i = 0; i < operations; i++) {
+                            if (write) {
+                                writeFile(driver, fileID, data);
+                            } else {
+                                InputStream in =
+                                    driver.getInputStream(fileID);
+                                while (in.read(buf, 0, buf.length) != -1)
+                                    ;
+                                in.close();
+                            }
+                        }
+                    } catch (Exception e) {
+                        synchronized (error) {
+                            error[0] = e;
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        done.await();
+        long nanos = System.nanoTime() - startNanos;
+        synchronized (error) {
+            if (error[0] != null)
+                throw error[0];
+        }
+        return (double) fileIDs.length * operations / (nanos / 1e9);
+    }
+
+    /**
+     * Replace the specified file with the data.
+     */
+    private static void writeFile(SectorDriver driver, String fileID,
+            byte[] data)
+        throws Exception
+    {
+        driver.deleteSectors(fileID);
+        OutputStream out = driver.getOutputStream(fileID);
+        for (int off = 0; off < data.length; off += _BUFFER_SIZE)
+            out.write(data, off, Math.min(_BUFFER_SIZE, data.length - off));
+        out.close();
+    }
+
+    private static String format(double value) {
+        return String.valueOf(Math.round(value * 1000) / 1000.0);
+    }
+}
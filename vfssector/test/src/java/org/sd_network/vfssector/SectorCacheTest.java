@@ -0,0 +1,194 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * SectorCache̒P̃eXgP[X`܂B
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class SectorCacheTest
+    extends TestCase
+{
+    ////////////////////////////////////////////////////////////
+    // Test Cases.
+
+    /**
+     * qbgA~XAeXg܂B
+     */
+    public void testHitMissInvalidate()
+        throws Exception
+    {
+        SectorCache cache = new SectorCache(100);
+        Loader loader = new Loader(10);
+
+        assertEquals(10, cache.get("f1", "s1", loader).remaining());
+        assertEquals(10, cache.get("f1", "s1", loader).remaining());
+        assertEquals(1, loader._count.get());
+        assertEquals(1L, cache.getMissCount());
+        assertEquals(1L, cache.getHitCount());
+        assertEquals(10L, cache.getUsedBytes());
+
+        cache.invalidate("s1");
+        cache.get("f1", "s1", loader);
+        assertEquals(2, loader._count.get());
+
+        cache.get("f1", "s2", loader);
+        cache.get("f2", "s3", loader);
+        cache.invalidateFile("f1");
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(10L, cache.getUsedBytes());
+    }
+
+    /**
+     * xǂ܂ȂZN^[JԂǂ܂ZN^[ǂoȂ
+     * ƂeXg܂B
+     */
+    public void testScanResistance()
+        throws Exception
+    {
+        SectorCache cache = new SectorCache(100);
+        Loader loader = new Loader(10);
+
+        // hot sector is promoted to protected segment.
+        cache.get("f1", "hot", loader);
+        cache.get("f1", "hot", loader);
+
+        for (int idx = 0; idx < 50; idx++)
+            cache.get("f2", "scan" + idx, loader);
+        assertTrue(cache.getEvictionCount() > 0);
+        assertTrue(cache.getUsedBytes() <= 100L);
+
+        int count = loader._count.get();
+        cache.get("f1", "hot", loader);
+        assertEquals(count, loader._count.get());
+    }
+
+    /**
+     * ZN^[ւ̓̃~X̓ǂݍ݂ɂ܂Ƃ߂邱Ƃ
+     * eXg܂B
+     */
+    public void testCoalescedMiss()
+        throws Exception
+    {
+        final SectorCache cache = new SectorCache(100);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Loader loader = new Loader(10) {
+            public byte[] call()
+                throws Exception
+            {
+                release.await();
+                return super.call();
+            }
+        };
+
+        Thread[] threads = new Thread[4];
+        for (int idx = 0; idx < threads.length; idx++) {
+            threads[idx] = new Thread() {
+                public void run() {
+                    cache.get("f1", "s1", loader);
+                }
+            };
+            threads[idx].start();
+        }
+        Thread.sleep(200);
+        release.countDown();
+        for (int idx = 0; idx < threads.length; idx++)
+            threads[idx].join();
+
+        assertEquals(1, loader._count.get());
+        assertEquals(1L, cache.getMissCount());
+        assertEquals(0L, cache.getHitCount());
+        assertEquals(3L, cache.getCoalescedCount());
+    }
+
+    /**
+     * ǂݍݒɃt@CꂽꍇÃt@C̃ZN^[̂
+     * LbVȂƂeXg܂B
+     */
+    public void testInvalidateFileWhileLoading()
+        throws Exception
+    {
+        final SectorCache cache = new SectorCache(100);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Loader loader = new Loader(10) {
+            public byte[] call()
+                throws Exception
+            {
+                release.await();
+                return super.call();
+            }
+        };
+
+        Thread[] threads = new Thread[2];
+        final String[] fileIDs = new String[] {"f1", "f2"};
+        for (int idx = 0; idx < threads.length; idx++) {
+            final String fileID = fileIDs[idx];
+            threads[idx] = new Thread() {
+                public void run() {
+                    cache.get(fileID, fileID + "-s1", loader);
+                }
+            };
+            threads[idx].start();
+        }
+        Thread.sleep(200);
+        cache.invalidateFile("f1");
+        release.countDown();
+        for (int idx = 0; idx < threads.length; idx++)
+            threads[idx].join();
+
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(10L, cache.getUsedBytes());
+        cache.get("f2", "f2-s1", loader);
+        assertEquals(2, loader._count.get());
+
+        cache.invalidateFile("f2");
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0L, cache.getUsedBytes());
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Inner classes.
+
+    /**
+     * ǂݍ݉񐔂𐔂郍[_[łB
+     */
+    private static class Loader
+        implements Callable<byte[]>
+    {
+        private final int _size;
+        private final AtomicInteger _count = new AtomicInteger();
+
+        Loader(int size) {
+            _size = size;
+        }
+
+        public byte[] call()
+            throws Exception
+        {
+            _count.incrementAndGet();
+            return new byte[_size];
+        }
+    }
+}
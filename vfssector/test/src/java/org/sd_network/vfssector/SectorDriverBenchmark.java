@@ -0,0 +1,205 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.Random;
+import java.util.StringTokenizer;
+
+import org.sd_network.util.Config;
+import org.sd_network.vfs.sector.SectorDriver;
+import org.sd_network.vfssector.db.SectorDB;
+
+/**
+ * Benchmark of {@link SectorDriver} implementations on the same workload.
+ * For each driver, this writes files, reads them sequentially, reads small
+ * ranges at random offsets, and deletes them, and reports throughput of
+ * each phase. The drivers are configured by the property file, as
+ * SectorDriverManager does.
+ *
+ * <p> Usage: java org.sd_network.vfssector.SectorDriverBenchmark
+ * propertyFile [fileSize] [files] [driverClass ...]
+ *
+ * <p> Default drivers are {@link VfsSectorDriver} and
+ * {@link org.sd_network.vfssector.segment.SegmentSectorDriver}. Give
+ * {@link org.sd_network.vfssector.memory.MemorySectorDriver} as a driver
+ * class to measure a baseline without disk I/O.
+ *
+ * <p> When property
+ * [org.sd_network.vfssector.SectorDriverBenchmark.SectorSizes] is set to
+ * a comma separated list of sector sizes, each driver is measured once per
+ * size, with the maximum and initial sector size of the driver overridden
+ * by that size. Together with the number of sector rows per file, which is
+ * reported for {@link VfsSectorDriver}, this shows the tradeoff between
+ * throughput and the number of rows in the database.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class SectorDriverBenchmark
+{
+    /** Number of bytes of each write and read call. */
+    private static final int _BUFFER_SIZE = 65536;
+
+    /** Number of bytes of each random read. */
+    private static final int _RANDOM_READ_SIZE = 4096;
+
+    /** Number of random reads per file. */
+    private static final int _RANDOM_READS = 100;
+
+    /** Property name of sector sizes to sweep. */
+    private static final String _PROP_SECTORSIZES =
+        "org.sd_network.vfssector.SectorDriverBenchmark.SectorSizes";
+
+    /** Property names of sector sizes that are overridden by the sweep. */
+    private static final String[] _SECTORSIZE_PROPS = new String[] {
+        "org.sd_network.vfssector.SectorSize",
+        "org.sd_network.vfssector.InitialSectorSize",
+        "org.sd_network.vfssector.segment.SectorSize"};
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        if (args.length < 1) {
+            System.err.println("Usage: java " +
+                    SectorDriverBenchmark.class.getName() +
+                    " propertyFile [fileSize] [files] [driverClass ...]");
+            System.exit(1);
+        }
+        Config.load(args[0]);
+        int fileSize =
+            (args.length > 1) ? Integer.parseInt(args[1]) : 16777216;
+        int files =
+            (args.length > 2) ? Integer.parseInt(args[2]) : 16;
+        String[] driverNames = new String[] {
+            VfsSectorDriver.class.getName(),
+            "org.sd_network.vfssector.segment.SegmentSectorDriver"};
+        if (args.length > 3) {
+            driverNames = new String[args.length - 3];
+            System.arraycopy(args, 3, driverNames, 0, driverNames.length);
+        }
+
+        String[] sectorSizes = new String[] {null};
+        String sweep = Config.getInstance().getProperty(_PROP_SECTORSIZES);
+        if (sweep != null) {
+            StringTokenizer st = new StringTokenizer(sweep, ", ");
+            sectorSizes = new String[st.countTokens()];
+            for (int i = 0; i < sectorSizes.length; i++)
+                sectorSizes[i] = st.nextToken();
+        }
+
+        System.out.println("driver\tsector size\twrite MB/s\t" +
+                "read MB/s\trandom reads/s\tdelete files/s\trows/file");
+        for (int d = 0; d < driverNames.length; d++) {
+            for (int s = 0; s < sectorSizes.length; s++)
+                run(driverNames[d], sectorSizes[s], fileSize, files);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Measure the driver of the specified class name. If sectorSize is not
+     * null, the driver is initialized by a copy of the properties whose
+     * sector sizes are overridden by it.
+     */
+    private static void run(String driverName, String sectorSize,
+            int fileSize, int files)
+        throws Exception
+    {
+        byte[] data = new byte[fileSize];
+        new Random(0).nextBytes(data);
+        byte[] buf = new byte[_BUFFER_SIZE];
+        double mb = (double) fileSize * files / 1048576;
+
+        SectorDriver driver;
+        Class<?> driverClass = Class.forName(driverName);
+        if (sectorSize == null) {
+            driver = (SectorDriver)
+                driverClass.getDeclaredConstructor().newInstance();
+        } else {
+            Properties properties = new Properties(Config.getInstance());
+            for (int i = 0; i < _SECTORSIZE_PROPS.length; i++)
+                properties.setProperty(_SECTORSIZE_PROPS[i], sectorSize);
+            driver = (SectorDriver) driverClass.getDeclaredConstructor(
+                    Properties.class).newInstance(properties);
+        }
+        driver.initDriver();
+
+        long start = System.nanoTime();
+        for (int f = 0; f < files; f++) {
+            OutputStream out =
+                driver.getOutputStream("bench" + f, (long) fileSize);
+            for (int off = 0; off < fileSize; off += _BUFFER_SIZE)
+                out.write(data, off, Math.min(_BUFFER_SIZE, fileSize - off));
+            out.close();
+        }
+        long writeNanos = System.nanoTime() - start;
+
+        String rows = "-";
+        if (driver instanceof VfsSectorDriver) {
+            long total = 0;
+            for (int f = 0; f < files; f++)
+                total += SectorDB.getTotalSectorNumber("bench" + f);
+            rows = String.valueOf(total / files);
+        }
+
+        start = System.nanoTime();
+        for (int f = 0; f < files; f++) {
+            InputStream in = driver.getInputStream("bench" + f);
+            while (in.read(buf, 0, buf.length) != -1)
+                ;
+            in.close();
+        }
+        long readNanos = System.nanoTime() - start;
+
+        Random random = new Random(0);
+        start = System.nanoTime();
+        for (int f = 0; f < files; f++) {
+            for (int i = 0; i < _RANDOM_READS; i++) {
+                long offset = random.nextInt(
+                        Math.max(1, fileSize - _RANDOM_READ_SIZE));
+                InputStream in = driver.getInputStream("bench" + f, offset);
+                int remaining = _RANDOM_READ_SIZE;
+                int count;
+                while (remaining > 0 &&
+                        (count = in.read(buf, 0, remaining)) != -1)
+                    remaining -= count;
+                in.close();
+            }
+        }
+        long randomNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int f = 0; f < files; f++)
+            driver.deleteSectors("bench" + f);
+        long deleteNanos = System.nanoTime() - start;
+
+        System.out.println(
+                driverName + "\t" +
+                (sectorSize == null ? "-" : sectorSize) + "\t" +
+                format(mb / (writeNanos / 1e9)) + "\t" +
+                format(mb / (readNanos / 1e9)) + "\t" +
+                format(files * _RANDOM_READS / (randomNanos / 1e9)) + "\t" +
+                format(files / (deleteNanos / 1e9)) + "\t" + rows);
+    }
+
+    private static String format(double value) {
+        return String.valueOf(Math.round(value * 1000) / 1000.0);
+    }
+}
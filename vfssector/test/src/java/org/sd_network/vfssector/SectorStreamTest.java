@@ -0,0 +1,1073 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.logging.Logger;
+
+import org.sd_network.db.DBUtil;
+import org.sd_network.util.Config;
+import org.sd_network.vfs.sector.SectorException;
+import org.sd_network.vfssector.db.Schema;
+import org.sd_network.vfssector.db.SectorDB;
+
+/**
+ * SectorInputStream, SectorOutputStream̒P̃eXgP[X`܂B
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class SectorStreamTest
+    extends VfsSectorTestCase
+{
+    /** Logger. */
+    private static final Logger _log = Logger.getLogger(
+            SectorStreamTest.class.getName());
+
+    /** eXgΏۂSectorDriver */
+    private VfsSectorDriver _driver;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors and Initializations.
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        Schema.setup();
+        _driver = new VfsSectorDriver();
+        _driver.initDriver();
+    }
+
+    public void tearDown()
+        throws Exception
+    {
+        DBUtil.update("vfssector", "DELETE from sector");
+        DBUtil.update("vfssector", "DELETE from sector_content");
+        DBUtil.update("vfssector", "DELETE from sector_file");
+        DBUtil.update("vfssector", "DELETE from sector_tombstone");
+        SectorDB.reconcileUsedBytes();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Test Cases.
+
+    /**
+     * ZN^[ɂ܂͈͓ǂݍ݂eXg܂B
+     */
+    public void testBulkRead()
+        throws Exception
+    {
+        byte[] content1 = "abcdefghijklmnopqrstuvwxyz".getBytes();
+        byte[] content2 = "0123456789".getBytes();
+        byte[] content3 = "ABCDEFGHIJKLMNOPQRSTUVWXYZ".getBytes();
+        String fileID = "fileID1";
+        SectorDB.create(fileID, 0, content1.length, content1);
+        SectorDB.create(fileID, 1, content2.length, content2);
+        SectorDB.create(fileID, 2, content3.length, content3);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(content1);
+        expected.write(content2);
+        expected.write(content3);
+
+        InputStream is = _driver.getInputStream(fileID);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        byte[] buf = new byte[7];
+        int count = 0;
+        while ((count = is.read(buf, 0, buf.length)) != -1)
+            actual.write(buf, 0, count);
+        is.close();
+
+        assertEquals(expected.toByteArray(), actual.toByteArray());
+        assertFalse(_driver.isReadLocked(fileID));
+    }
+
+    /**
+     * PoCgǂݍ݂Ɣ͈͓ǂݍ݂݂̍eXg܂B
+     */
+    public void testMixedRead()
+        throws Exception
+    {
+        byte[] content1 = "abcde".getBytes();
+        byte[] content2 = "fghij".getBytes();
+        String fileID = "fileID1";
+        SectorDB.create(fileID, 0, content1.length, content1);
+        SectorDB.create(fileID, 1, content2.length, content2);
+
+        InputStream is = _driver.getInputStream(fileID);
+        assertEquals('a', is.read());
+        byte[] buf = new byte[6];
+        assertEquals(6, is.read(buf, 0, buf.length));
+        assertEquals("bcdefg".getBytes(), buf);
+        assertEquals('h', is.read());
+        assertEquals(2, is.read(buf, 0, buf.length));
+        assertEquals(-1, is.read(buf, 0, buf.length));
+        assertEquals(-1, is.read());
+        is.close();
+    }
+
+    /**
+     * ZN^[݂Ȃt@C̓ǂݍ݂eXg܂B
+     */
+    public void testReadEmptyFile()
+        throws Exception
+    {
+        InputStream is = _driver.getInputStream("fileID2");
+        assertEquals(-1, is.read(new byte[10], 0, 10));
+        is.close();
+    }
+
+    /**
+     * ZN^[ɂ܂͈͏݂ƁA̓ǂݍ݂eXg܂B
+     */
+    public void testBulkWriteAndRead()
+        throws Exception
+    {
+        int sectorSize = _driver.getDefaultSectorSize();
+        byte[] data = new byte[sectorSize * 2 + sectorSize / 2];
+        for (int idx = 0; idx < data.length; idx++)
+            data[idx] = (byte) (idx % 251);
+        String fileID = "fileID1";
+
+        OutputStream os = _driver.getOutputStream(fileID, (long) data.length);
+        int chunk = 100000;
+        for (int off = 0; off < data.length; off += chunk)
+            os.write(data, off, Math.min(chunk, data.length - off));
+        os.close();
+        assertFalse(_driver.isWriteLocked(fileID));
+        assertEquals(3L, SectorDB.getTotalSectorNumber(fileID));
+        assertEquals((long) data.length, SectorDB.getFileSize(fileID));
+
+        InputStream is = _driver.getInputStream(fileID);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        byte[] buf = new byte[65536];
+        int count = 0;
+        while ((count = is.read(buf, 0, buf.length)) != -1)
+            actual.write(buf, 0, count);
+        is.close();
+        assertEquals(data, actual.toByteArray());
+    }
+
+    /**
+     * TCỸqgꍇɁAZN^[TCYTCYőTCY
+     * ܂Ŕ{XɊg傷邱ƂeXg܂B
+     */
+    public void testAdaptiveSectorSize()
+        throws Exception
+    {
+        Config config = Config.getInstance();
+        config.setProperty("org.sd_network.vfssector.SectorSize", "65536");
+        config.setProperty(
+                "org.sd_network.vfssector.InitialSectorSize", "4096");
+        VfsSectorDriver driver = new VfsSectorDriver();
+        try {
+            driver.initDriver();
+        } finally {
+            config.remove("org.sd_network.vfssector.SectorSize");
+            config.remove("org.sd_network.vfssector.InitialSectorSize");
+        }
+
+        // 4K, 8K, 16K, 32K, 64K, 64K, 64K
+        byte[] data = new byte[4096 + 8192 + 16384 + 32768 + 65536 * 3 - 10];
+        for (int idx = 0; idx < data.length; idx++)
+            data[idx] = (byte) (idx % 251);
+        String fileID = "fileID1";
+
+        OutputStream os = driver.getOutputStream(fileID);
+        for (int idx = 0; idx < data.length; idx++)
+            os.write(data[idx]);
+        os.close();
+        assertEquals(7L, SectorDB.getTotalSectorNumber(fileID));
+        assertEquals((long) data.length, SectorDB.getFileSize(fileID));
+
+        // small file with size hint is written to a sector.
+        os = driver.getOutputStream("fileID2", 100L);
+        os.write(data, 0, 100);
+        os.close();
+        assertEquals(1L, SectorDB.getTotalSectorNumber("fileID2"));
+
+        InputStream is = driver.getInputStream(fileID);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        byte[] buf = new byte[10000];
+        int count = 0;
+        while ((count = is.read(buf, 0, buf.length)) != -1)
+            actual.write(buf, 0, count);
+        is.close();
+        assertEquals(data, actual.toByteArray());
+    }
+
+    /**
+     * FileChannel̓]ł́A`l̎coCgTCỸqg
+     * čŏ̃ZN^[Ɏg邱ƂeXg܂B
+     */
+    public void testTransferFromFileChannel()
+        throws Exception
+    {
+        Config config = Config.getInstance();
+        config.setProperty("org.sd_network.vfssector.SectorSize", "65536");
+        config.setProperty(
+                "org.sd_network.vfssector.InitialSectorSize", "4096");
+        VfsSectorDriver driver = new VfsSectorDriver();
+        try {
+            driver.initDriver();
+        } finally {
+            config.remove("org.sd_network.vfssector.SectorSize");
+            config.remove("org.sd_network.vfssector.InitialSectorSize");
+        }
+
+        byte[] data = new byte[50000];
+        for (int idx = 0; idx < data.length; idx++)
+            data[idx] = (byte) (idx % 251);
+        File file = File.createTempFile("SectorStreamTest", ".dat");
+        try {
+            FileOutputStream fos = new FileOutputStream(file);
+            fos.write(data);
+            fos.close();
+
+            // ǋL[hłAZN^[̖t@Cɂ̓qggB
+            FileInputStream fis = new FileInputStream(file);
+            try {
+                assertEquals((long) data.length, driver.transferFrom(
+                            "fileID1", fis.getChannel(), true));
+            } finally {
+                fis.close();
+            }
+        } finally {
+            file.delete();
+        }
+        assertEquals(1L, SectorDB.getTotalSectorNumber("fileID1"));
+
+        // TCY̕Ȃ`lł́A4K, 8K, 16K, 32KƊg傷B
+        driver.transferFrom("fileID2",
+                Channels.newChannel(new ByteArrayInputStream(data)), true);
+        assertEquals(4L, SectorDB.getTotalSectorNumber("fileID2"));
+
+        InputStream is = driver.getInputStream("fileID1");
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        byte[] buf = new byte[10000];
+        int count = 0;
+        while ((count = is.read(buf, 0, buf.length)) != -1)
+            actual.write(buf, 0, count);
+        is.close();
+        assertEquals(data, actual.toByteArray());
+    }
+
+    /**
+     * ZN^[LbVoR̓ǂݍ݂ŁA폜ɏf[^
+     * ǂ߂邱ƂeXg܂B
+     */
+    public void testReadAfterRewrite()
+        throws Exception
+    {
+        Config config = Config.getInstance();
+        config.setProperty("org.sd_network.vfssector.CacheBytes", "4194304");
+        VfsSectorDriver driver = new VfsSectorDriver();
+        try {
+            driver.initDriver();
+        } finally {
+            config.remove("org.sd_network.vfssector.CacheBytes");
+        }
+
+        String fileID = "fileID1";
+        byte[] buf = new byte[3];
+
+        OutputStream os = driver.getOutputStream(fileID);
+        os.write("abc".getBytes());
+        os.close();
+        InputStream is = driver.getInputStream(fileID);
+        assertEquals(3, is.read(buf, 0, buf.length));
+        is.close();
+
+        driver.deleteSectors(fileID);
+        os = driver.getOutputStream(fileID);
+        os.write("xyz".getBytes());
+        os.close();
+        is = driver.getInputStream(fileID);
+        assertEquals(3, is.read(buf, 0, buf.length));
+        is.close();
+        assertEquals("xyz".getBytes(), buf);
+        assertTrue(driver.getSectorCache().getMissCount() >= 2);
+    }
+
+    /**
+     * ǂ݂LɂꍇɁAZN^[ɂ܂f[^
+     * ǂ߂邱ƂeXg܂B
+     */
+    public void testReadAhead()
+        throws Exception
+    {
+        Config config = Config.getInstance();
+        config.setProperty("org.sd_network.vfssector.ReadAhead", "true");
+        VfsSectorDriver driver = new VfsSectorDriver();
+        try {
+            driver.initDriver();
+        } finally {
+            config.remove("org.sd_network.vfssector.ReadAhead");
+        }
+        assertEquals(1, driver.getFetchAhead());
+
+        byte[] content1 = "abcdefghijklmnopqrstuvwxyz".getBytes();
+        byte[] content2 = "0123456789".getBytes();
+        byte[] content3 = "ABCDEFGHIJKLMNOPQRSTUVWXYZ".getBytes();
+        String fileID = "fileID1";
+        SectorDB.create(fileID, 0, content1.length, content1);
+        SectorDB.create(fileID, 1, content2.length, content2);
+        SectorDB.create(fileID, 2, content3.length, content3);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(content1);
+        expected.write(content2);
+        expected.write(content3);
+
+        InputStream is = driver.getInputStream(fileID);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        byte[] buf = new byte[7];
+        int count = 0;
+        while ((count = is.read(buf, 0, buf.length)) != -1)
+            actual.write(buf, 0, count);
+        is.close();
+
+        assertEquals(expected.toByteArray(), actual.toByteArray());
+        assertFalse(driver.isReadLocked(fileID));
+    }
+
+    /**
+     * 񓯊tbVLɂꍇɁAZN^[ɂ܂鏑
+     * SĕۑAǂݍ߂邱ƂeXg܂B
+     */
+    public void testAsyncFlush()
+        throws Exception
+    {
+        Config config = Config.getInstance();
+        config.setProperty("org.sd_network.vfssector.AsyncFlush", "true");
+        VfsSectorDriver driver = new VfsSectorDriver();
+        try {
+            driver.initDriver();
+        } finally {
+            config.remove("org.sd_network.vfssector.AsyncFlush");
+        }
+
+        int sectorSize = driver.getDefaultSectorSize();
+        byte[] data = new byte[sectorSize * 2 + sectorSize / 2];
+        for (int idx = 0; idx < data.length; idx++)
+            data[idx] = (byte) (idx % 251);
+        String fileID = "fileID1";
+
+        OutputStream os = driver.getOutputStream(fileID, (long) data.length);
+        int chunk = 100000;
+        for (int off = 0; off < data.length; off += chunk)
+            os.write(data, off, Math.min(chunk, data.length - off));
+        os.close();
+        assertFalse(driver.isWriteLocked(fileID));
+        assertEquals(3L, SectorDB.getTotalSectorNumber(fileID));
+        assertEquals((long) data.length, SectorDB.getFileSize(fileID));
+
+        InputStream is = driver.getInputStream(fileID);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        byte[] buf = new byte[65536];
+        int count = 0;
+        while ((count = is.read(buf, 0, buf.length)) != -1)
+            actual.write(buf, 0, count);
+        is.close();
+        assertEquals(data, actual.toByteArray());
+    }
+
+    /**
+     * Vbg_EhCo[gpłȂƁAэēx
+     * Ύgpł邱ƂeXg܂B
+     */
+    public void testShutdown()
+        throws Exception
+    {
+        Config config = Config.getInstance();
+        config.setProperty("org.sd_network.vfssector.ReadAhead", "true");
+        config.setProperty("org.sd_network.vfssector.AsyncFlush", "true");
+        VfsSectorDriver driver = new VfsSectorDriver();
+        try {
+            driver.initDriver();
+        } finally {
+            config.remove("org.sd_network.vfssector.ReadAhead");
+            config.remove("org.sd_network.vfssector.AsyncFlush");
+        }
+
+        int sectorSize = driver.getDefaultSectorSize();
+        byte[] data = new byte[sectorSize * 2 + 10];
+        for (int idx = 0; idx < data.length; idx++)
+            data[idx] = (byte) (idx % 251);
+        String fileID = "fileID1";
+        OutputStream os = driver.getOutputStream(fileID, (long) data.length);
+        os.write(data, 0, data.length);
+        os.close();
+
+        driver.shutdown();
+        try {
+            driver.getInputStream(fileID);
+            fail("SectorException not thrown.");
+        } catch (SectorException e) {
+            // expected.
+        }
+        assertFalse(driver.isReadLocked(fileID));
+
+        driver.initDriver();
+        InputStream is = driver.getInputStream(fileID);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        byte[] buf = new byte[65536];
+        int count = 0;
+        while ((count = is.read(buf, 0, buf.length)) != -1)
+            actual.write(buf, 0, count);
+        is.close();
+        assertEquals(data, actual.toByteArray());
+    }
+
+    /**
+     * P̃J[\ɂXg[~Oǂݍ݂eXg܂B
+     */
+    public void testStreamingRead()
+        throws Exception
+    {
+        String fileID = "fileID1";
+        SectorDB.create(fileID, 1, 3, "def".getBytes());
+        SectorDB.create(fileID, 0, 3, "abc".getBytes());
+        SectorDB.create(fileID, 2, 2, "ghX".getBytes());
+
+        Config config = Config.getInstance();
+        config.setProperty("org.sd_network.vfssector.StreamingRead", "true");
+        VfsSectorDriver driver = new VfsSectorDriver();
+        try {
+            driver.initDriver();
+        } finally {
+            config.remove("org.sd_network.vfssector.StreamingRead");
+        }
+
+        InputStream is = driver.getInputStream(fileID);
+        assertEquals('a', is.read());
+        byte[] buf = new byte[5];
+        assertEquals(5, is.read(buf, 0, buf.length));
+        assertEquals("bcdef".getBytes(), buf);
+        assertEquals(2, is.read(buf, 0, buf.length));
+        assertEquals('g', buf[0]);
+        assertEquals('h', buf[1]);
+        assertEquals(-1, is.read(buf, 0, buf.length));
+        is.close();
+        assertFalse(driver.isReadLocked(fileID));
+    }
+
+    /**
+     * J[\̐̏𒴂Xg[AZN^[̓ǂݍ݂
+     * ǂݏo邱ƁAуN[YɃJ[\̘gԂƂeXg
+     * ܂B
+     */
+    public void testStreamingReadCursorLimit()
+        throws Exception
+    {
+        String fileID = "fileID1";
+        SectorDB.create(fileID, 0, 3, "abc".getBytes());
+        SectorDB.create(fileID, 1, 3, "def".getBytes());
+
+        Config config = Config.getInstance();
+        config.setProperty("org.sd_network.vfssector.StreamingRead", "true");
+        config.setProperty(
+                "org.sd_network.vfssector.StreamingReadCursors", "1");
+        VfsSectorDriver driver = new VfsSectorDriver();
+        try {
+            driver.initDriver();
+        } finally {
+            config.remove("org.sd_network.vfssector.StreamingRead");
+            config.remove("org.sd_network.vfssector.StreamingReadCursors");
+        }
+
+        InputStream is1 = driver.getInputStream(fileID);
+        InputStream is2 = driver.getInputStream(fileID);
+        assertFalse(driver.tryAcquireCursor());
+        byte[] buf = new byte[6];
+        assertEquals(6, is2.read(buf, 0, buf.length));
+        assertEquals("abcdef".getBytes(), buf);
+        assertEquals(-1, is2.read());
+        is2.close();
+        assertFalse(driver.tryAcquireCursor());
+
+        assertEquals(6, is1.read(buf, 0, buf.length));
+        assertEquals("abcdef".getBytes(), buf);
+        is1.close();
+        assertTrue(driver.tryAcquireCursor());
+        driver.releaseCursor();
+        assertFalse(driver.isReadLocked(fileID));
+    }
+
+    /**
+     * dr[hŁAf[^̃ZN^[P̃f[^LA
+     * QƐ0ɂȂ_Ńf[^폜邱ƂeXg܂B
+     */
+    public void testDedup()
+        throws Exception
+    {
+        int sectorSize = _driver.getDefaultSectorSize();
+        byte[] data = new byte[sectorSize + 10];
+        for (int idx = 0; idx < data.length; idx++)
+            data[idx] = (byte) (idx % 251);
+
+        Config config = Config.getInstance();
+        config.setProperty("org.sd_network.vfssector.Dedup", "true");
+        VfsSectorDriver driver = new VfsSectorDriver();
+        try {
+            driver.initDriver();
+        } finally {
+            config.remove("org.sd_network.vfssector.Dedup");
+        }
+
+        String[] fileIDs = new String[] {"fileID1", "fileID2"};
+        for (int idx = 0; idx < fileIDs.length; idx++) {
+            OutputStream os = driver.getOutputStream(fileIDs[idx]);
+            os.write(data, 0, data.length);
+            os.close();
+        }
+        assertEquals(data.length * 2L, driver.getLogicalUsedBytes());
+        assertEquals((long) data.length, driver.getPhysicalUsedBytes());
+
+        driver.deleteSectors("fileID1");
+        InputStream is = driver.getInputStream("fileID2");
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        byte[] buf = new byte[65536];
+        int count = 0;
+        while ((count = is.read(buf, 0, buf.length)) != -1)
+            actual.write(buf, 0, count);
+        is.close();
+        assertEquals(data, actual.toByteArray());
+
+        driver.deleteSectors("fileID2");
+        assertEquals(data.length * 2L, driver.getLogicalUsedBytes());
+        assertTrue(driver.reclaim() > 0);
+        assertEquals(0L, driver.getLogicalUsedBytes());
+        assertEquals(0L, driver.getPhysicalUsedBytes());
+    }
+
+    /**
+     * kR[fbNw肵ꍇɁAkĕۑf[^ʏ
+     * ǂݍ݂ƃXg[~Oǂݍ݂Ō̃f[^Ƃēǂ߂邱Ƃ
+     * eXg܂B
+     */
+    public void testCodec()
+        throws Exception
+    {
+        int sectorSize = _driver.getDefaultSectorSize();
+        byte[] data = new byte[sectorSize + sectorSize / 2];
+        for (int idx = 0; idx < data.length; idx++)
+            data[idx] = (byte) ('a' + (idx / 100) % 26);
+
+        Config config = Config.getInstance();
+        config.setProperty("org.sd_network.vfssector.Codec", "deflate");
+        VfsSectorDriver driver = new VfsSectorDriver();
+        VfsSectorDriver streamingDriver = new VfsSectorDriver();
+        try {
+            driver.initDriver();
+            config.setProperty(
+                    "org.sd_network.vfssector.StreamingRead", "true");
+            streamingDriver.initDriver();
+        } finally {
+            config.remove("org.sd_network.vfssector.Codec");
+            config.remove("org.sd_network.vfssector.StreamingRead");
+        }
+
+        String fileID = "fileID1";
+        OutputStream os = driver.getOutputStream(fileID);
+        os.write(data, 0, data.length);
+        os.close();
+        assertEquals((long) data.length, SectorDB.getFileSize(fileID));
+        assertEquals((long) data.length, driver.getLogicalUsedBytes());
+        assertTrue(driver.getPhysicalUsedBytes() < data.length / 10);
+
+        VfsSectorDriver[] drivers = new VfsSectorDriver[] {
+            driver, streamingDriver};
+        for (int idx = 0; idx < drivers.length; idx++) {
+            InputStream is = drivers[idx].getInputStream(fileID);
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            byte[] buf = new byte[65536];
+            int count = 0;
+            while ((count = is.read(buf, 0, buf.length)) != -1)
+                actual.write(buf, 0, count);
+            is.close();
+            assertEquals(data, actual.toByteArray());
+        }
+    }
+
+    /**
+     * wʒu̓ǂݍ݂ƁAǂݍ݈ʒüړeXg܂B
+     * ʏ̓ǂݍ݂ƃXg[~Oǂݍ݂̗ŊmF܂B
+     */
+    public void testSeek()
+        throws Exception
+    {
+        Config config = Config.getInstance();
+        config.setProperty("org.sd_network.vfssector.SectorSize", "4096");
+        config.setProperty(
+                "org.sd_network.vfssector.InitialSectorSize", "4096");
+        VfsSectorDriver driver = new VfsSectorDriver();
+        VfsSectorDriver streamingDriver = new VfsSectorDriver();
+        try {
+            driver.initDriver();
+            config.setProperty(
+                    "org.sd_network.vfssector.StreamingRead", "true");
+            streamingDriver.initDriver();
+        } finally {
+            config.remove("org.sd_network.vfssector.SectorSize");
+            config.remove("org.sd_network.vfssector.InitialSectorSize");
+            config.remove("org.sd_network.vfssector.StreamingRead");
+        }
+
+        byte[] data = new byte[4096 * 5 + 100];
+        for (int idx = 0; idx < data.length; idx++)
+            data[idx] = (byte) (idx % 251);
+        String fileID = "fileID1";
+        OutputStream os = driver.getOutputStream(fileID);
+        os.write(data, 0, data.length);
+        os.close();
+
+        VfsSectorDriver[] drivers = new VfsSectorDriver[] {
+            driver, streamingDriver};
+        byte[] buf = new byte[100];
+        for (int idx = 0; idx < drivers.length; idx++) {
+            SectorInputStream is = (SectorInputStream)
+                drivers[idx].getInputStream(fileID, 10000L);
+            assertEquals(10000L, is.getPosition());
+            assertEquals(data[10000] & 0xff, is.read());
+
+            // forward within the sector, and to other sectors.
+            is.seek(10050);
+            assertEquals(data[10050] & 0xff, is.read());
+            is.seek(20000);
+            assertEquals(100, is.read(buf, 0, buf.length));
+            assertEquals(data[20099], buf[99]);
+
+            // backward.
+            is.seek(1);
+            assertEquals(data[1] & 0xff, is.read());
+
+            // skip does not go beyond end of file.
+            assertEquals(4096L, is.skip(4096));
+            assertEquals(data[4098] & 0xff, is.read());
+            assertEquals(data.length - 4099L, is.skip(data.length));
+            assertEquals(-1, is.read());
+
+            is.seek(data.length + 10L);
+            assertEquals(-1, is.read());
+            is.close();
+            assertFalse(drivers[idx].isReadLocked(fileID));
+        }
+    }
+
+    /**
+     * sǂݍ݃[hŁÃZN^[sēǂݍłA
+     * V[PXԍɌ̃f[^Ƃēǂ߂邱ƂeXg܂B
+     */
+    public void testParallelFetch()
+        throws Exception
+    {
+        Config config = Config.getInstance();
+        config.setProperty("org.sd_network.vfssector.SectorSize", "4096");
+        config.setProperty(
+                "org.sd_network.vfssector.InitialSectorSize", "4096");
+        config.setProperty("org.sd_network.vfssector.ParallelFetch", "4");
+        config.setProperty(
+                "org.sd_network.vfssector.ParallelFetchBytes", "10000");
+        VfsSectorDriver driver = new VfsSectorDriver();
+        try {
+            driver.initDriver();
+        } finally {
+            config.remove("org.sd_network.vfssector.SectorSize");
+            config.remove("org.sd_network.vfssector.InitialSectorSize");
+            config.remove("org.sd_network.vfssector.ParallelFetch");
+            config.remove("org.sd_network.vfssector.ParallelFetchBytes");
+        }
+        assertEquals(4, driver.getFetchAhead());
+
+        byte[] data = new byte[4096 * 9 + 100];
+        for (int idx = 0; idx < data.length; idx++)
+            data[idx] = (byte) (idx % 251);
+        String fileID = "fileID1";
+        OutputStream os = driver.getOutputStream(fileID);
+        os.write(data, 0, data.length);
+        os.close();
+
+        SectorInputStream is =
+            (SectorInputStream) driver.getInputStream(fileID);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        int count = 0;
+        while ((count = is.read(buf, 0, buf.length)) != -1) {
+            actual.write(buf, 0, count);
+            if (actual.size() == 5000)
+                is.seek(20000);
+        }
+        is.close();
+        assertFalse(driver.isReadLocked(fileID));
+
+        byte[] expected = new byte[5000 + data.length - 20000];
+        System.arraycopy(data, 0, expected, 0, 5000);
+        System.arraycopy(data, 20000, expected, 5000, data.length - 20000);
+        assertEquals(expected, actual.toByteArray());
+    }
+
+    /**
+     * `lƂ̊Ԃ̃f[^]eXg܂B̃ZN^[ɂ܂
+     * f[^݂̏ƒǋLAǂݍ݂s܂B
+     */
+    public void testTransfer()
+        throws Exception
+    {
+        Config config = Config.getInstance();
+        config.setProperty("org.sd_network.vfssector.SectorSize", "4096");
+        config.setProperty(
+                "org.sd_network.vfssector.InitialSectorSize", "4096");
+        VfsSectorDriver driver = new VfsSectorDriver();
+        try {
+            driver.initDriver();
+        } finally {
+            config.remove("org.sd_network.vfssector.SectorSize");
+            config.remove("org.sd_network.vfssector.InitialSectorSize");
+        }
+
+        byte[] data = new byte[4096 * 3 + 100];
+        for (int idx = 0; idx < data.length; idx++)
+            data[idx] = (byte) (idx % 251);
+        String fileID = "fileID1";
+        assertEquals(10000, driver.transferFrom(fileID,
+                    Channels.newChannel(
+                        new ByteArrayInputStream(data, 0, 10000))));
+        assertEquals(data.length - 10000, driver.transferFrom(fileID,
+                    Channels.newChannel(new ByteArrayInputStream(
+                            data, 10000, data.length - 10000)), true));
+        assertFalse(driver.isWriteLocked(fileID));
+        assertEquals(data.length, driver.getFileSize(fileID));
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        assertEquals(data.length,
+                driver.transferTo(fileID, Channels.newChannel(actual)));
+        assertFalse(driver.isReadLocked(fileID));
+        assertEquals(data, actual.toByteArray());
+    }
+
+    /**
+     * `l̓ǂݍ݂Ɏs]A܂łɓǂݍ񂾃f[^
+     * ŁA݃bN邱ƂeXg܂B
+     */
+    public void testTransferFailure()
+        throws Exception
+    {
+        byte[] data = new byte[10000];
+        for (int idx = 0; idx < data.length; idx++)
+            data[idx] = (byte) (idx % 251);
+        String fileID = "fileID1";
+        assertEquals(3000L, _driver.transferFrom(fileID,
+                    Channels.newChannel(
+                        new ByteArrayInputStream(data, 0, 3000))));
+        try {
+            _driver.transferFrom(fileID,
+                    newBrokenChannel(data, 3000, 7000), true);
+            fail("SectorException was not thrown.");
+        } catch (SectorException e) {
+        }
+        assertFalse(_driver.isWriteLocked(fileID));
+        assertEquals(10000L, _driver.getFileSize(fileID));
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        _driver.transferTo(fileID, Channels.newChannel(actual));
+        assertEquals(data, actual.toByteArray());
+    }
+
+    /**
+     * ̃V[hւ̃ZN^[̔zuƓǂݍ݁AgpoCg̏Wv
+     * eXg܂B
+     */
+    public void testShards()
+        throws Exception
+    {
+        Config config = Config.getInstance();
+        config.setProperty("org.sd_network.vfssector.Shards", "2");
+        VfsSectorDriver driver = new VfsSectorDriver();
+        try {
+            driver.initDriver();
+        } finally {
+            config.remove("org.sd_network.vfssector.Shards");
+        }
+        try {
+            assertEquals(2, SectorDB.getPoolNames().length);
+            assertEquals(0, SectorDB.getUsedBytes());
+
+            // fileID1 and fileID3 are placed in shard 0, others in shard 1.
+            long total = 0;
+            for (int idx = 1; idx <= 4; idx++) {
+                byte[] data = ("content of fileID" + idx).getBytes();
+                OutputStream os = driver.getOutputStream("fileID" + idx);
+                os.write(data, 0, data.length);
+                os.close();
+                total += data.length;
+
+                String[] sectorIDs = SectorDB.getSectorIDs("fileID" + idx);
+                assertEquals(1, sectorIDs.length);
+                assertTrue(sectorIDs[0].startsWith(
+                            (idx % 2 == 1) ? "00" : "01"));
+            }
+            assertEquals(total, SectorDB.getUsedBytes());
+
+            for (int idx = 1; idx <= 4; idx++) {
+                InputStream is = driver.getInputStream("fileID" + idx);
+                ByteArrayOutputStream actual = new ByteArrayOutputStream();
+                byte[] buf = new byte[100];
+                int count = 0;
+                while ((count = is.read(buf, 0, buf.length)) != -1)
+                    actual.write(buf, 0, count);
+                is.close();
+                assertEquals(("content of fileID" + idx).getBytes(),
+                        actual.toByteArray());
+            }
+
+            for (int idx = 1; idx <= 4; idx++)
+                driver.deleteSectors("fileID" + idx);
+            assertEquals(4, driver.reclaim());
+            assertEquals(0, SectorDB.getUsedBytes());
+        } finally {
+            SectorDB.setShardCount(1);
+            for (int idx = 0; idx < 2; idx++) {
+                String poolName = "vfssector-" + idx;
+                DBUtil.update(poolName, "DELETE from sector");
+                DBUtil.update(poolName, "DELETE from sector_content");
+                DBUtil.update(poolName, "DELETE from sector_file");
+                DBUtil.update(poolName, "DELETE from sector_tombstone");
+                DBUtil.update(poolName, "DELETE from sector_usage");
+            }
+        }
+    }
+
+    /**
+     * ǋL[hŁAŏIZN^[̋󂫂𖄂߂ĂVZN^[
+     * ނƂeXg܂B
+     */
+    public void testAppend()
+        throws Exception
+    {
+        Config config = Config.getInstance();
+        config.setProperty("org.sd_network.vfssector.SectorSize", "4096");
+        config.setProperty(
+                "org.sd_network.vfssector.InitialSectorSize", "1024");
+        VfsSectorDriver driver = new VfsSectorDriver();
+        try {
+            driver.initDriver();
+        } finally {
+            config.remove("org.sd_network.vfssector.SectorSize");
+            config.remove("org.sd_network.vfssector.InitialSectorSize");
+        }
+
+        byte[] data = new byte[100 + 100 + 2000 + 10000];
+        for (int idx = 0; idx < data.length; idx++)
+            data[idx] = (byte) (idx % 251);
+        String fileID = "fileID1";
+
+        // a file without sectors can be appended.
+        OutputStream os = driver.getOutputStream(fileID, true);
+        os.write(data, 0, 100);
+        os.close();
+        assertFalse(driver.isWriteLocked(fileID));
+        assertEquals(1L, SectorDB.getTotalSectorNumber(fileID));
+
+        // small append fills the last sector.
+        os = driver.getOutputStream(fileID, true);
+        os.write(data, 100, 100);
+        os.close();
+        assertEquals(1L, SectorDB.getTotalSectorNumber(fileID));
+
+        os = driver.getOutputStream(fileID, true);
+        os.write(data, 200, 2000);
+        os.close();
+        os = driver.getOutputStream(fileID, true);
+        os.write(data, 2200, 10000);
+        os.close();
+        assertEquals((long) data.length, SectorDB.getFileSize(fileID));
+        assertEquals(
+                SectorDB.getSectorIndex(fileID).getSectorCount() - 1,
+                SectorDB.getLastSector(fileID).getSeqNum());
+
+        InputStream is = driver.getInputStream(fileID);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        int count = 0;
+        while ((count = is.read(buf, 0, buf.length)) != -1)
+            actual.write(buf, 0, count);
+        is.close();
+        assertEquals(data, actual.toByteArray());
+    }
+
+    /**
+     * ̃V[hŁAŏIZN^[̋󂫂𖄂߂ǋLÃZN^[
+     * V[heǂݍނƂeXg܂B
+     */
+    public void testAppendWithShards()
+        throws Exception
+    {
+        Config config = Config.getInstance();
+        config.setProperty("org.sd_network.vfssector.Shards", "2");
+        VfsSectorDriver driver = new VfsSectorDriver();
+        try {
+            driver.initDriver();
+        } finally {
+            config.remove("org.sd_network.vfssector.Shards");
+        }
+        try {
+            // fileID1 is placed in shard 0, and fileID2 in shard 1.
+            for (int idx = 1; idx <= 2; idx++) {
+                String fileID = "fileID" + idx;
+                OutputStream os = driver.getOutputStream(fileID);
+                os.write("hello".getBytes());
+                os.close();
+                os = driver.getOutputStream(fileID, true);
+                os.write(" world".getBytes());
+                os.close();
+                assertEquals(1L, SectorDB.getTotalSectorNumber(fileID));
+
+                InputStream is = driver.getInputStream(fileID);
+                ByteArrayOutputStream actual = new ByteArrayOutputStream();
+                byte[] buf = new byte[100];
+                int count = 0;
+                while ((count = is.read(buf, 0, buf.length)) != -1)
+                    actual.write(buf, 0, count);
+                is.close();
+                assertEquals("hello world".getBytes(), actual.toByteArray());
+            }
+        } finally {
+            SectorDB.setShardCount(1);
+            for (int idx = 0; idx < 2; idx++) {
+                String poolName = "vfssector-" + idx;
+                DBUtil.update(poolName, "DELETE from sector");
+                DBUtil.update(poolName, "DELETE from sector_content");
+                DBUtil.update(poolName, "DELETE from sector_file");
+                DBUtil.update(poolName, "DELETE from sector_tombstone");
+                DBUtil.update(poolName, "DELETE from sector_usage");
+            }
+        }
+    }
+
+    /**
+     * ob`o^[hŁAZN^[ƃoCg̏ł܂Ƃ߂ēo^
+     * ZN^[AǋLƈk܂߂Č̃f[^Ƃēǂ߂邱Ƃ
+     * eXg܂B
+     */
+    public void testBatchedWrite()
+        throws Exception
+    {
+        Config config = Config.getInstance();
+        config.setProperty("org.sd_network.vfssector.SectorSize", "4096");
+        config.setProperty(
+                "org.sd_network.vfssector.InitialSectorSize", "4096");
+        config.setProperty("org.sd_network.vfssector.BatchSectors", "3");
+        config.setProperty("org.sd_network.vfssector.BatchBytes", "10000");
+        config.setProperty("org.sd_network.vfssector.Codec", "deflate");
+        VfsSectorDriver driver = new VfsSectorDriver();
+        try {
+            driver.initDriver();
+        } finally {
+            config.remove("org.sd_network.vfssector.SectorSize");
+            config.remove("org.sd_network.vfssector.InitialSectorSize");
+            config.remove("org.sd_network.vfssector.BatchSectors");
+            config.remove("org.sd_network.vfssector.BatchBytes");
+            config.remove("org.sd_network.vfssector.Codec");
+        }
+
+        byte[] data = new byte[100 + 30000];
+        for (int idx = 0; idx < data.length; idx++)
+            data[idx] = (byte) ('a' + (idx / 100) % 26);
+        String fileID = "fileID1";
+
+        OutputStream os = driver.getOutputStream(fileID);
+        os.write(data, 0, 100);
+        os.close();
+        os = driver.getOutputStream(fileID, true);
+        os.write(data, 100, 30000);
+        os.close();
+        assertFalse(driver.isWriteLocked(fileID));
+        assertEquals(8L, SectorDB.getTotalSectorNumber(fileID));
+        assertEquals((long) data.length, SectorDB.getFileSize(fileID));
+        assertEquals((long) data.length, driver.getLogicalUsedBytes());
+        assertTrue(driver.getUsedBytes() < data.length);
+
+        InputStream is = driver.getInputStream(fileID);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        byte[] buf = new byte[1000];
+        int count = 0;
+        while ((count = is.read(buf, 0, buf.length)) != -1)
+            actual.write(buf, 0, count);
+        is.close();
+        assertEquals(data, actual.toByteArray());
+    }
+
+    /**
+     * ܂ɃN[YꍇeXg܂B
+     */
+    public void testWriteNothing()
+        throws Exception
+    {
+        String fileID = "fileID1";
+        OutputStream os = _driver.getOutputStream(fileID);
+        os.close();
+        assertEquals(0L, SectorDB.getTotalSectorNumber(fileID));
+    }
+
+    /**
+     * t@Cǂݍޕ̃Xg[Aꂼǂݍ݂
+     * bNASĂN[Y܂ŏ݂ƍ폜łȂ
+     * ƂeXg܂B
+     */
+    public void testSharedReadLeases()
+        throws Exception
+    {
+        String fileID = "fileID1";
+        OutputStream os = _driver.getOutputStream(fileID);
+        os.write("abc".getBytes());
+        try {
+            _driver.getInputStream(fileID);
+            fail("write lease check error.");
+        } catch (SectorException e) {
+            assertEquals("Specified file have been write locked.",
+                    e.getMessage());
+        }
+        os.close();
+
+        InputStream is1 = _driver.getInputStream(fileID);
+        InputStream is2 = _driver.getInputStream(fileID);
+        is1.close();
+        is1.close();
+        assertTrue(_driver.isReadLocked(fileID));
+        try {
+            _driver.deleteSectors(fileID);
+            fail("read lease check error.");
+        } catch (SectorException e) {
+            assertEquals("Speicified file have been read locked.",
+                    e.getMessage());
+        }
+        is2.close();
+        assertFalse(_driver.isReadLocked(fileID));
+
+        _driver.deleteSectors(fileID);
+        assertFalse(_driver.isWriteLocked(fileID));
+    }
+}
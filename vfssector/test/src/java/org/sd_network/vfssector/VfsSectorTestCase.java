@@ -15,6 +15,12 @@
  */
 package org.sd_network.vfssector;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
 import java.util.logging.Logger;
 
 import junit.framework.TestCase;
@@ -48,4 +54,43 @@ public abstract class VfsSectorTestCase
                 fail("byte unmatched at No." + idx);
         }
     }
+
+    /**
+     * woCg̋^̃f[^Ԃ܂BoCgɑ΂Ă
+     * f[^Ԃ܂B
+     */
+    protected static byte[] newData(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * wz̎w͈͂Rs[zԂ܂B
+     */
+    protected static byte[] copy(byte[] data, int offset, int length) {
+        byte[] part = new byte[length];
+        System.arraycopy(data, offset, part, 0, length);
+        return part;
+    }
+
+    /**
+     * w͈͂̃f[^ǂݍ܂AIOExceptionX[`l
+     * Ԃ܂B]̎s̃eXgɎgp܂B
+     */
+    protected static ReadableByteChannel newBrokenChannel(byte[] data,
+            int offset, int length)
+    {
+        return Channels.newChannel(new FilterInputStream(
+                    new ByteArrayInputStream(data, offset, length)) {
+            public int read(byte[] b, int off, int len)
+                throws IOException
+            {
+                int count = super.read(b, off, len);
+                if (count == -1)
+                    throw new IOException("The channel is broken.");
+                return count;
+            }
+        });
+    }
 }
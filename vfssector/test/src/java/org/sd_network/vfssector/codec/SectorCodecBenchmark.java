@@ -0,0 +1,121 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Benchmark of {@link SectorCodec}s. This reports encode and decode
+ * throughput (MB/s) and compression ratio of each codec for text-like,
+ * random and zero-filled sectors.
+ *
+ * <p> Usage: java org.sd_network.vfssector.codec.SectorCodecBenchmark
+ * [sectorSize] [iterations]
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class SectorCodecBenchmark
+{
+    public static void main(String[] args)
+        throws Exception
+    {
+        int sectorSize =
+            (args.length > 0) ? Integer.parseInt(args[0]) : 1048576;
+        int iterations =
+            (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+
+        String[] dataNames = new String[] {"text", "random", "zero"};
+        byte[][] data = new byte[][] {
+            textData(sectorSize), randomData(sectorSize), new byte[sectorSize]};
+        SectorCodec[] codecs = new SectorCodec[] {
+            new DeflateCodec(1, 0.9),
+            new DeflateCodec(6, 0.9),
+            new DeflateCodec(9, 0.9)};
+        String[] codecNames = new String[] {
+            "deflate-1", "deflate-6", "deflate-9"};
+
+        System.out.println(
+                "codec\tdata\tencode MB/s\tdecode MB/s\tratio");
+        for (int c = 0; c < codecs.length; c++) {
+            for (int d = 0; d < data.length; d++) {
+                SectorCodec codec = codecs[c];
+                byte[] content = data[d];
+
+                // warm up.
+                byte[] encoded = codec.encode(content, content.length);
+
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++)
+                    encoded = codec.encode(content, content.length);
+                long encodeNanos = System.nanoTime() - start;
+
+                long decodeNanos = 0;
+                if (encoded != null) {
+                    byte[] buf = new byte[65536];
+                    start = System.nanoTime();
+                    for (int i = 0; i < iterations; i++) {
+                        InputStream in = codec.decode(
+                                new ByteArrayInputStream(encoded));
+                        while (in.read(buf, 0, buf.length) != -1)
+                            ;
+                        in.close();
+                    }
+                    decodeNanos = System.nanoTime() - start;
+                }
+
+                double mb = (double) sectorSize * iterations / 1048576;
+                System.out.println(
+                        codecNames[c] + "\t" + dataNames[d] + "\t" +
+                        format(mb / (encodeNanos / 1e9)) + "\t" +
+                        (encoded == null ?
+                         "-" : format(mb / (decodeNanos / 1e9))) + "\t" +
+                        (encoded == null ?
+                         "skipped" : format((double) encoded.length /
+                                 content.length)));
+            }
+        }
+    }
+
+    private static byte[] textData(int size) {
+        String[] words = new String[] {
+            "sector ", "file ", "driver ", "stream ", "database ",
+            "INFO ", "2007-10-01 ", "read ", "write ", "\n"};
+        Random random = new Random(0);
+        byte[] data = new byte[size];
+        int idx = 0;
+        while (idx < size) {
+            byte[] word = words[random.nextInt(words.length)].getBytes();
+            int count = Math.min(word.length, size - idx);
+            System.arraycopy(word, 0, data, idx, count);
+            idx += count;
+        }
+        return data;
+    }
+
+    private static byte[] randomData(int size) {
+        byte[] data = new byte[size];
+        new Random(0).nextBytes(data);
+        return data;
+    }
+
+    private static String format(double value) {
+        return String.valueOf(Math.round(value * 1000) / 1000.0);
+    }
+}
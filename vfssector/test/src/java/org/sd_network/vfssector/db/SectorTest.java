@@ -20,7 +20,7 @@ import java.util.TreeSet;
 import java.util.logging.Logger;
 
 import org.sd_network.db.DBUtil;
-import org.sd_network.vfssector.test.VfsSectorTestCase;
+import org.sd_network.vfssector.VfsSectorTestCase;
 
 /**
  * Sector֘ANX̒P̃eXgP[X`܂B
@@ -50,6 +50,9 @@ public class SectorTest
         throws Exception
     {
         DBUtil.update("vfssector", "DELETE from sector");
+        DBUtil.update("vfssector", "DELETE from sector_file");
+        DBUtil.update("vfssector", "DELETE from sector_tombstone");
+        SectorDB.reconcileUsedBytes();
     }
 
     //////////////////////////////////////////////////////////// 
@@ -244,6 +247,9 @@ public class SectorTest
         String sectorID5 =
             SectorDB.create(fileID, 5, content5.length, content5);
 
+        // ̃t@C̃V[PXԍ̉e󂯂Ȃ
+        SectorDB.create("fileID2", 9, content1.length, content1);
+
         // test normal.
         Sector lastSector1 = SectorDB.getLastSector(fileID);
         assertNotNull(lastSector1);
@@ -512,6 +518,50 @@ public class SectorTest
         SectorDB.deleteSectors("");
     }
 
+    /**
+     * 폜ς݂ƂċL^ZN^[ɎQƂȂȂA
+     * t@Cʎqœo^ZN^[ƋʂAɂ
+     * 폜邱ƂeXg܂B
+     */
+    public void testTombstoneSectors()
+        throws Exception
+    {
+        String fileID = "fileID1";
+        byte[] content1 = "abcdefghijklmnopqrstuvwxyz".getBytes();
+        byte[] content2 = "0123456789".getBytes();
+        SectorDB.create(fileID, 0, content1.length, content1);
+        SectorDB.create(fileID, 1, content1.length, content1);
+        SectorDB.create(fileID, 2, content1.length, content1);
+        long usedBytes = SectorDB.getUsedBytes();
+
+        SectorDB.tombstoneSectors(fileID);
+        assertEquals(0, SectorDB.getSectorIDs(fileID).length);
+        assertEquals(0L, SectorDB.getFileSize(fileID));
+        assertNull(SectorDB.getLastSector(fileID));
+        assertEquals(usedBytes, SectorDB.getUsedBytes());
+
+        // the same file ID is written again while tombstoned.
+        String sectorID =
+            SectorDB.create(fileID, 0, content2.length, content2);
+        Sector lastSector = SectorDB.getLastSector(fileID);
+        assertEquals(sectorID, lastSector.getSectorID());
+        assertEquals(fileID, lastSector.getFileID());
+
+        assertEquals(2, SectorDB.reclaimSectors(2));
+        assertEquals(1, SectorDB.reclaimSectors(2));
+        assertEquals(0, SectorDB.reclaimSectors(2));
+        assertEquals((long) content2.length, SectorDB.getUsedBytes());
+        assertFalse(SectorDB.reconcileUsedBytes());
+
+        String[] sectorIDs = SectorDB.getSectorIDs(fileID);
+        assertEquals(1, sectorIDs.length);
+        assertEquals(content2, SectorDB.getContent(sectorIDs[0]));
+
+        // a file without sectors is not tombstoned.
+        SectorDB.tombstoneSectors("fileID2");
+        assertEquals(0, SectorDB.reclaimSectors(1));
+    }
+
     public void testDeleteSectorsError()
         throws Exception
     {
@@ -613,6 +663,34 @@ public class SectorTest
         assertEquals(0, SectorDB.getUsedBytes());
     }
 
+    /**
+     * SectorDBoRɍXVꂽe[uɁAgpoCg
+     * JE^[␳ł邱ƂeXg܂B
+     */
+    public void testReconcileUsedBytes()
+        throws Exception
+    {
+        byte[] content1 = "abcdefghijklmnopqrstuvwxyz".getBytes();
+        byte[] content2 = "0123456789".getBytes();
+        String sectorID1 =
+            SectorDB.create("fileID1", 1, content1.length, content1);
+        SectorDB.create("fileID1", 2, content2.length, content2);
+        SectorDB.update(sectorID1, content2.length, content2);
+        assertEquals(content2.length * 2L, SectorDB.getUsedBytes());
+        assertEquals(content2.length * 2L, SectorDB.getPhysicalUsedBytes());
+        assertFalse(SectorDB.reconcileUsedBytes());
+
+        // the counter is not changed by direct update of the table.
+        DBUtil.update("vfssector",
+                "DELETE FROM sector WHERE sector_id='" + sectorID1 + "'");
+        assertEquals(content2.length * 2L, SectorDB.getUsedBytes());
+
+        assertTrue(SectorDB.reconcileUsedBytes());
+        assertEquals((long) content2.length, SectorDB.getUsedBytes());
+        assertEquals((long) content2.length,
+                SectorDB.getPhysicalUsedBytes());
+    }
+
     public void testSector()
         throws Exception
     {
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.memory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+
+import org.sd_network.util.Config;
+import org.sd_network.vfssector.VfsSectorTestCase;
+
+/**
+ * MemorySectorDriver̒P̃eXgP[X`܂B
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class MemorySectorDriverTest
+    extends VfsSectorTestCase
+{
+    /** eXgΏۂSectorDriver */
+    private MemorySectorDriver _driver;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors and Initializations.
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        Config config = Config.getInstance();
+        config.setProperty(
+                "org.sd_network.vfssector.memory.AvailableBytes", "16384");
+        config.setProperty(
+                "org.sd_network.vfssector.memory.ChunkSize", "1024");
+        _driver = new MemorySectorDriver();
+        _driver.initDriver();
+    }
+
+    public void tearDown()
+        throws Exception
+    {
+        Config config = Config.getInstance();
+        config.remove("org.sd_network.vfssector.memory.AvailableBytes");
+        config.remove("org.sd_network.vfssector.memory.ChunkSize");
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Test Cases.
+
+    /**
+     * ̃`Nɂ܂鏑݁AǋLAǂݍ݂eXg܂B
+     */
+    public void testWriteAndRead()
+        throws Exception
+    {
+        byte[] data = newData(5000);
+        write("fileID1", copy(data, 0, 1500), false);
+        write("fileID1", copy(data, 1500, 3500), true);
+
+        assertFalse(_driver.isWriteLocked("fileID1"));
+        assertEquals((long) data.length, _driver.getFileSize("fileID1"));
+        assertEquals((long) data.length, _driver.getUsedBytes());
+        assertEquals(5120L, _driver.getAllocatedBytes());
+        assertEquals(data, read("fileID1", 0));
+        assertEquals(copy(data, 3000, 2000), read("fileID1", 3000));
+        assertEquals(0, read("fileID1", 6000).length);
+        assertEquals(0, read("fileID2", 0).length);
+        assertFalse(_driver.isReadLocked("fileID1"));
+    }
+
+    /**
+     * t@C𕡐̃Xg[œɓǂݍ߂邱ƂeXg܂B
+     */
+    public void testConcurrentReaders()
+        throws Exception
+    {
+        byte[] data = newData(3000);
+        write("fileID1", data, false);
+
+        MemoryInputStream is1 =
+            (MemoryInputStream) _driver.getInputStream("fileID1");
+        MemoryInputStream is2 =
+            (MemoryInputStream) _driver.getInputStream("fileID1", 2000);
+        assertEquals(data[2000] & 0xff, is2.read());
+        assertEquals(data[0] & 0xff, is1.read());
+        is1.seek(1024);
+        assertEquals(data[1024] & 0xff, is1.read());
+        assertEquals(999L, is2.skip(10000));
+        assertEquals(-1, is2.read());
+
+        is2.close();
+        assertTrue(_driver.isReadLocked("fileID1"));
+        try {
+            _driver.getOutputStream("fileID1");
+            fail("write lock must be refused while reading.");
+        } catch (Exception e) {
+        }
+        is1.close();
+        assertFalse(_driver.isReadLocked("fileID1"));
+    }
+
+    /**
+     * eʂ𒴂鏑݂s邱ƁAyэ폜ꂽt@C
+     * `Nėp邱ƂeXg܂B
+     */
+    public void testCapacity()
+        throws Exception
+    {
+        write("fileID1", newData(10000), false);
+        try {
+            write("fileID2", newData(7000), false);
+            fail("capacity must be exceeded.");
+        } catch (IOException e) {
+        }
+        assertEquals(16384L, _driver.getAllocatedBytes());
+        assertEquals(16144L, _driver.getUsedBytes());
+
+        _driver.deleteSectors("fileID1");
+        _driver.deleteSectors("fileID2");
+        assertEquals(0L, _driver.getUsedBytes());
+        assertEquals(16384L, _driver.getPooledBytes());
+
+        byte[] data = newData(16384);
+        write("fileID3", data, false);
+        assertEquals(data, read("fileID3", 0));
+        assertEquals(16384L, _driver.getAllocatedBytes());
+        assertEquals(0L, _driver.getPooledBytes());
+    }
+
+    /**
+     * `lƂ̊Ԃ̓]ƁAuɂ`N̕ԋpeXg܂B
+     */
+    public void testTransfer()
+        throws Exception
+    {
+        byte[] data = newData(4096);
+        assertEquals((long) data.length, _driver.transferFrom("fileID1",
+                    Channels.newChannel(new ByteArrayInputStream(data))));
+        assertEquals(5120L, _driver.getAllocatedBytes());
+        assertEquals(1024L, _driver.getPooledBytes());
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        assertEquals((long) data.length, _driver.transferTo("fileID1",
+                    Channels.newChannel(actual)));
+        assertEquals(data, actual.toByteArray());
+
+        write("fileID1", copy(data, 0, 100), false);
+        assertEquals(100L, _driver.getUsedBytes());
+        assertEquals(4096L, _driver.getPooledBytes());
+        assertEquals(copy(data, 0, 100), read("fileID1", 0));
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    private void write(String fileID, byte[] data, boolean append)
+        throws Exception
+    {
+        OutputStream os = _driver.getOutputStream(fileID, append);
+        try {
+            os.write(data, 0, Math.min(100, data.length));
+            for (int idx = 100; idx < 200 && idx < data.length; idx++)
+                os.write(data[idx]);
+            if (data.length > 200)
+                os.write(data, 200, data.length - 200);
+        } finally {
+            os.close();
+        }
+    }
+
+    private byte[] read(String fileID, long offset)
+        throws Exception
+    {
+        InputStream is = _driver.getInputStream(fileID, offset);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        byte[] buf = new byte[700];
+        int count = 0;
+        while ((count = is.read(buf, 0, buf.length)) != -1)
+            actual.write(buf, 0, count);
+        is.close();
+        return actual.toByteArray();
+    }
+}
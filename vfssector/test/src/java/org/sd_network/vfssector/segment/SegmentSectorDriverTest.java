@@ -0,0 +1,374 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.segment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.sd_network.util.Config;
+import org.sd_network.vfs.sector.SectorException;
+import org.sd_network.vfssector.VfsSectorTestCase;
+
+/**
+ * SegmentSectorDriver̒P̃eXgP[X`܂B
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class SegmentSectorDriverTest
+    extends VfsSectorTestCase
+{
+    /** ZOgt@C쐬fBNg */
+    private static final File _DIRECTORY = new File("test/db/segment");
+
+    /** eXgΏۂSectorDriver */
+    private SegmentSectorDriver _driver;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors and Initializations.
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        Config config = Config.getInstance();
+        config.setProperty("org.sd_network.vfssector.segment.Directory",
+                _DIRECTORY.getPath());
+        config.setProperty(
+                "org.sd_network.vfssector.segment.AvailableBytes",
+                "1073741824");
+        config.setProperty(
+                "org.sd_network.vfssector.segment.SegmentBytes", "8192");
+        config.setProperty(
+                "org.sd_network.vfssector.segment.SectorSize", "1024");
+        config.setProperty(
+                "org.sd_network.vfssector.segment.CompactionInterval", "0");
+        config.setProperty(
+                "org.sd_network.vfssector.segment.CompactionBytesPerSecond",
+                "0");
+        _driver = newDriver();
+    }
+
+    public void tearDown()
+        throws Exception
+    {
+        File[] files = _DIRECTORY.listFiles();
+        if (files != null)
+            for (int idx = 0; idx < files.length; idx++)
+                files[idx].delete();
+        Config config = Config.getInstance();
+        config.remove("org.sd_network.vfssector.segment.Directory");
+        config.remove("org.sd_network.vfssector.segment.AvailableBytes");
+        config.remove("org.sd_network.vfssector.segment.SegmentBytes");
+        config.remove("org.sd_network.vfssector.segment.SectorSize");
+        config.remove("org.sd_network.vfssector.segment.CompactionInterval");
+        config.remove(
+                "org.sd_network.vfssector.segment.CompactionBytesPerSecond");
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Test Cases.
+
+    /**
+     * ̃ZN^[AZOgɂ܂鏑݂Ɠǂݍ݂eXg܂B
+     */
+    public void testWriteAndRead()
+        throws Exception
+    {
+        byte[] data = newData(20000);
+        write("fileID1", data);
+
+        assertFalse(_driver.isWriteLocked("fileID1"));
+        assertEquals((long) data.length, _driver.getFileSize("fileID1"));
+        assertEquals((long) data.length, _driver.getLiveBytes());
+        assertTrue(_driver.getSegmentCount() > 1);
+        assertTrue(_driver.getUsedBytes() > data.length);
+        assertEquals(data, read("fileID1", 0));
+        assertFalse(_driver.isReadLocked("fileID1"));
+        assertEquals(0, read("fileID2", 0).length);
+    }
+
+    /**
+     * ݂ɂuƁAZN^[̍폜eXg܂B
+     */
+    public void testReplaceAndDelete()
+        throws Exception
+    {
+        write("fileID1", newData(3000));
+        byte[] data = newData(1500);
+        write("fileID1", data);
+        assertEquals(data, read("fileID1", 0));
+        assertEquals((long) data.length, _driver.getLiveBytes());
+
+        _driver.deleteSectors("fileID1");
+        assertEquals(0L, _driver.getFileSize("fileID1"));
+        assertEquals(0, read("fileID1", 0).length);
+        assertEquals(0L, _driver.getLiveBytes());
+    }
+
+    /**
+     * ̃Xg[œǂݍݒ̃t@ĆAׂẴXg[
+     * ܂œǂݍ݃bN邱ƂeXg܂B
+     */
+    public void testReadLockedByStreams()
+        throws Exception
+    {
+        write("fileID1", newData(3000));
+        InputStream is1 = _driver.getInputStream("fileID1");
+        InputStream is2 = _driver.getInputStream("fileID1", 1000L);
+        assertTrue(_driver.isReadLocked("fileID1"));
+
+        is1.close();
+        is1.close();
+        assertTrue(_driver.isReadLocked("fileID1"));
+        try {
+            _driver.deleteSectors("fileID1");
+            fail("SectorException was not thrown.");
+        } catch (SectorException e) {
+        }
+
+        is2.close();
+        assertFalse(_driver.isReadLocked("fileID1"));
+        _driver.deleteSectors("fileID1");
+        assertEquals(0L, _driver.getFileSize("fileID1"));
+    }
+
+    /**
+     * `l̓ǂݍ݂Ɏs]A܂łɓǂݍ񂾃f[^
+     * ŁA݃bN邱ƂeXg܂B
+     */
+    public void testTransferFailure()
+        throws Exception
+    {
+        byte[] data = newData(5000);
+        try {
+            _driver.transferFrom("fileID1",
+                    newBrokenChannel(data, 0, data.length));
+            fail("SectorException was not thrown.");
+        } catch (SectorException e) {
+        }
+        assertFalse(_driver.isWriteLocked("fileID1"));
+        assertEquals((long) data.length, _driver.getFileSize("fileID1"));
+        assertEquals(data, read("fileID1", 0));
+    }
+
+    /**
+     * ̃ZN^[tłȂꍇƖt̏ꍇ̒ǋLeXg܂B
+     */
+    public void testAppend()
+        throws Exception
+    {
+        byte[] data = newData(2500);
+        write("fileID1", copy(data, 0, 500));
+
+        OutputStream os = _driver.getOutputStream("fileID1", true);
+        os.write(data, 500, 1548);
+        os.close();
+        os = _driver.getOutputStream("fileID1", true);
+        os.write(data, 2048, 452);
+        os.close();
+
+        assertEquals((long) data.length, _driver.getFileSize("fileID1"));
+        assertEquals((long) data.length, _driver.getLiveBytes());
+        assertEquals(data, read("fileID1", 0));
+    }
+
+    /**
+     * wʒu̓ǂݍ݂ƁAǂݍ݈ʒüړeXg܂B
+     */
+    public void testSeek()
+        throws Exception
+    {
+        byte[] data = newData(5000);
+        write("fileID1", data);
+
+        assertEquals(copy(data, 3000, 2000), read("fileID1", 3000));
+        assertEquals(0, read("fileID1", 6000).length);
+
+        SegmentInputStream is =
+            (SegmentInputStream) _driver.getInputStream("fileID1", 1023);
+        assertEquals(data[1023] & 0xff, is.read());
+        is.seek(10);
+        assertEquals(data[10] & 0xff, is.read());
+        assertEquals(3989L, is.skip(3989));
+        assertEquals(4000L, is.getPosition());
+        assertEquals(data[4000] & 0xff, is.read());
+        assertEquals(999L, is.skip(10000));
+        assertEquals(-1, is.read());
+        is.close();
+    }
+
+    /**
+     * ZOg̑ɂ̍č\zƁAr܂ŏꂽR[h
+     * ؂l߂eXg܂B
+     */
+    public void testRecovery()
+        throws Exception
+    {
+        byte[] data1 = newData(10000);
+        byte[] data2 = newData(3000);
+        write("fileID1", data1);
+        write("fileID2", data2);
+        write("fileID3", newData(100));
+        _driver.deleteSectors("fileID3");
+        long usedBytes = _driver.getUsedBytes();
+
+        // append a torn record to the last segment.
+        File[] files = _DIRECTORY.listFiles();
+        File last = files[0];
+        for (int idx = 1; idx < files.length; idx++)
+            if (files[idx].getName().compareTo(last.getName()) > 0)
+                last = files[idx];
+        FileOutputStream fos = new FileOutputStream(last, true);
+        fos.write(new byte[] {0x50, 0x55, 0x54, 0x31, 0, 7, 'f'});
+        fos.close();
+
+        _driver = newDriver();
+        assertEquals(usedBytes, _driver.getUsedBytes());
+        assertEquals(data1, read("fileID1", 0));
+        assertEquals(data2, read("fileID2", 0));
+        assertEquals(0L, _driver.getFileSize("fileID3"));
+        assertEquals((long) (data1.length + data2.length),
+                _driver.getLiveBytes());
+    }
+
+    /**
+     * 폜ꂽZN^[ZOg̃RpNVƁǍ
+     * ̍č\zeXg܂B
+     */
+    public void testCompaction()
+        throws Exception
+    {
+        byte[][] data = new byte[10][];
+        for (int idx = 0; idx < data.length; idx++) {
+            data[idx] = newData(3000 + idx);
+            write("fileID" + idx, data[idx]);
+        }
+        for (int idx = 0; idx < data.length; idx++)
+            if (idx % 3 != 0)
+                _driver.deleteSectors("fileID" + idx);
+        int segmentCount = _driver.getSegmentCount();
+        long usedBytes = _driver.getUsedBytes();
+
+        assertTrue(_driver.compact() > 0);
+        assertTrue(_driver.getSegmentCount() < segmentCount);
+        assertTrue(_driver.getUsedBytes() < usedBytes);
+        assertTrue(_driver.getReclaimedBytes() > 0);
+        assertTrue(_driver.getCompactionBytes() > 0);
+        assertTrue(_driver.getWriteAmplification() > 1.0);
+
+        long liveBytes = _driver.getLiveBytes();
+        _driver = newDriver();
+        assertEquals(liveBytes, _driver.getLiveBytes());
+        for (int idx = 0; idx < data.length; idx++) {
+            if (idx % 3 == 0)
+                assertEquals(data[idx], read("fileID" + idx, 0));
+            else
+                assertEquals(0L, _driver.getFileSize("fileID" + idx));
+        }
+    }
+
+    /**
+     * ÂZOgɃZN^[c폜ς݃t@CAW̌Jz
+     * č\zȂƂeXg܂B
+     */
+    public void testCompactionCarriesTombstones()
+        throws Exception
+    {
+        byte[] live = newData(6000);
+        write("live", live);
+        write("deleted", newData(1500));
+        write("filler", newData(6000));
+        _driver.deleteSectors("deleted");
+        _driver.deleteSectors("filler");
+        write("next", newData(3000));
+
+        assertEquals(1, _driver.compact());
+        _driver = newDriver();
+        assertEquals(0L, _driver.getFileSize("deleted"));
+        assertEquals(live, read("live", 0));
+        assertEquals((long) live.length + 3000, _driver.getLiveBytes());
+    }
+
+    /**
+     * RpNVOɊJXg[Ō܂œǂ߂邱ƁAy
+     * Xg[̃N[YɃZOg폜邱ƂeXg܂B
+     */
+    public void testCompactionWithOpenStream()
+        throws Exception
+    {
+        byte[] data = newData(4000);
+        write("fileID1", data);
+        write("fileID2", newData(4000));
+        write("fileID3", newData(4000));
+        _driver.deleteSectors("fileID2");
+        _driver.deleteSectors("fileID3");
+
+        InputStream is = _driver.getInputStream("fileID1");
+        assertTrue(_driver.compact() > 0);
+        long reclaimedBytes = _driver.getReclaimedBytes();
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        byte[] buf = new byte[700];
+        int count = 0;
+        while ((count = is.read(buf, 0, buf.length)) != -1)
+            actual.write(buf, 0, count);
+        is.close();
+        assertEquals(data, actual.toByteArray());
+        assertTrue(_driver.getReclaimedBytes() > reclaimedBytes);
+        assertEquals(data, read("fileID1", 0));
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    private SegmentSectorDriver newDriver()
+        throws Exception
+    {
+        SegmentSectorDriver driver = new SegmentSectorDriver();
+        driver.initDriver();
+        return driver;
+    }
+
+    private void write(String fileID, byte[] data)
+        throws Exception
+    {
+        OutputStream os = _driver.getOutputStream(fileID);
+        os.write(data, 0, 100);
+        for (int idx = 100; idx < 200 && idx < data.length; idx++)
+            os.write(data[idx]);
+        if (data.length > 200)
+            os.write(data, 200, data.length - 200);
+        os.close();
+    }
+
+    private byte[] read(String fileID, long offset)
+        throws Exception
+    {
+        InputStream is = _driver.getInputStream(fileID, offset);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        byte[] buf = new byte[700];
+        int count = 0;
+        while ((count = is.read(buf, 0, buf.length)) != -1)
+            actual.write(buf, 0, count);
+        is.close();
+        return actual.toByteArray();
+    }
+}
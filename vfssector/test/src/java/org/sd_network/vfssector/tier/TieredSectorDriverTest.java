@@ -0,0 +1,240 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfssector.tier;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.sd_network.util.Config;
+import org.sd_network.vfssector.VfsSectorTestCase;
+
+/**
+ * TieredSectorDriver̒P̃eXgP[X`܂B
+ * zbgwMemorySectorDriverAR[hwSegmentSectorDriver
+ * gp܂B
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class TieredSectorDriverTest
+    extends VfsSectorTestCase
+{
+    /** R[hw̃ZOgt@C쐬fBNg */
+    private static final File _DIRECTORY = new File("test/db/tier");
+
+    /** eXgŐݒ肷vpeB */
+    private static final String[][] _PROPERTIES = new String[][] {
+        {"org.sd_network.vfssector.tier.HotDriver",
+            "org.sd_network.vfssector.memory.MemorySectorDriver"},
+        {"org.sd_network.vfssector.tier.ColdDriver",
+            "org.sd_network.vfssector.segment.SegmentSectorDriver"},
+        {"org.sd_network.vfssector.tier.DemotionInterval", "0"},
+        {"org.sd_network.vfssector.tier.IdleSeconds", "0"},
+        {"org.sd_network.vfssector.tier.PromotionThreshold", "2"},
+        {"org.sd_network.vfssector.memory.AvailableBytes", "1048576"},
+        {"org.sd_network.vfssector.memory.ChunkSize", "1024"},
+        {"org.sd_network.vfssector.segment.Directory",
+            _DIRECTORY.getPath()},
+        {"org.sd_network.vfssector.segment.AvailableBytes", "1073741824"},
+        {"org.sd_network.vfssector.segment.CompactionInterval", "0"}};
+
+    /** eXgΏۂSectorDriver */
+    private TieredSectorDriver _driver;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors and Initializations.
+
+    public void setUp()
+        throws Exception
+    {
+        super.setUp();
+        Config config = Config.getInstance();
+        for (int idx = 0; idx < _PROPERTIES.length; idx++)
+            config.setProperty(_PROPERTIES[idx][0], _PROPERTIES[idx][1]);
+        _driver = new TieredSectorDriver();
+        _driver.initDriver();
+    }
+
+    public void tearDown()
+        throws Exception
+    {
+        File[] files = _DIRECTORY.listFiles();
+        if (files != null)
+            for (int idx = 0; idx < files.length; idx++)
+                files[idx].delete();
+        Config config = Config.getInstance();
+        for (int idx = 0; idx < _PROPERTIES.length; idx++)
+            config.remove(_PROPERTIES[idx][0]);
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Test Cases.
+
+    /**
+     * R[hwւ̍~iƁAANZXpxɂzbgwւ̏i
+     * eXg܂B
+     */
+    public void testDemoteAndPromote()
+        throws Exception
+    {
+        byte[] data = newData(5000);
+        write("fileID1", data, false);
+        assertEquals((long) data.length, _driver.getFileSize("fileID1"));
+
+        assertEquals(1, _driver.demote());
+        assertEquals(1L, _driver.getDemotedFileCount());
+        assertEquals(data, read("fileID1"));
+        assertEquals(1L, _driver.getColdHits());
+        assertEquals(0L, _driver.getHotHits());
+
+        // the second access reaches the promotion threshold.
+        assertEquals(data, read("fileID1"));
+        assertEquals(1L, _driver.getPromotedFileCount());
+        assertEquals(1L, _driver.getHotHits());
+        assertEquals(0.5, _driver.getHotHitRate(), 0.0);
+        assertEquals(2L * data.length, _driver.getMigratedBytes());
+        assertTrue(_driver.getMigrationBytesPerSecond() > 0);
+    }
+
+    /**
+     * ǂݍݒ̃t@C̈ړ~AōĎs邱Ƃ
+     * eXg܂B
+     */
+    public void testDemotionWhileReading()
+        throws Exception
+    {
+        byte[] data = newData(3000);
+        write("fileID1", data, false);
+
+        InputStream is = _driver.getInputStream("fileID1");
+        assertEquals(0, _driver.demote());
+        assertEquals(data[0] & 0xff, is.read());
+        is.close();
+        assertEquals(data, read("fileID1"));
+        assertEquals(2L, _driver.getHotHits());
+
+        assertEquals(1, _driver.demote());
+        assertEquals(1L, _driver.getDemotedFileCount());
+        assertEquals(data, read("fileID1"));
+    }
+
+    /**
+     * R[hw̃t@Cւ̒ǋLƁAuɂzbgwւ
+     * ݂eXg܂B
+     */
+    public void testWriteColdFile()
+        throws Exception
+    {
+        byte[] data = newData(4000);
+        write("fileID1", copy(data, 0, 1000), false);
+        assertEquals(1, _driver.demote());
+        assertEquals(0, _driver.demote());
+
+        write("fileID1", copy(data, 1000, 3000), true);
+        // decay the access count, not to promote by the next read.
+        assertEquals(0, _driver.demote());
+        assertEquals(data, read("fileID1"));
+        assertEquals(1L, _driver.getColdHits());
+
+        byte[] replaced = newData(100);
+        write("fileID1", replaced, false);
+        assertEquals(replaced, read("fileID1"));
+        assertEquals(1L, _driver.getHotHits());
+        assertEquals(0L, _driver.getPromotedFileCount());
+
+        _driver.deleteSectors("fileID1");
+        assertEquals(0L, _driver.getFileSize("fileID1"));
+    }
+
+    /**
+     * ċNAANZXĂȂzbgw̃t@C~i邱Ƃ
+     * eXg܂Bzbgwɂ́At@Cꗗł
+     * SegmentSectorDrivergp܂B
+     */
+    public void testDemoteAfterRestart()
+        throws Exception
+    {
+        Config config = Config.getInstance();
+        config.setProperty("org.sd_network.vfssector.tier.HotDriver",
+                "org.sd_network.vfssector.segment.SegmentSectorDriver");
+        config.setProperty("org.sd_network.vfssector.tier.ColdDriver",
+                "org.sd_network.vfssector.memory.MemorySectorDriver");
+        _driver = new TieredSectorDriver();
+        _driver.initDriver();
+        byte[] data = newData(2000);
+        write("fileID1", data, false);
+
+        // ċNhCo[́Azbgw̃t@CmĂB
+        _driver = new TieredSectorDriver();
+        _driver.initDriver();
+        assertEquals(1, _driver.getStateCount());
+        assertEquals(1, _driver.demote());
+        assertEquals(1L, _driver.getDemotedFileCount());
+        assertEquals(data, read("fileID1"));
+        assertEquals(1L, _driver.getColdHits());
+    }
+
+    /**
+     * gĂȂR[hw̃t@CƁA݂Ȃt@C̏Ԃ
+     * ~i̎sŔj邱ƂeXg܂B
+     */
+    public void testIdleStatesDropped()
+        throws Exception
+    {
+        byte[] data = newData(1000);
+        write("fileID1", data, false);
+        assertEquals(1, _driver.demote());
+        assertEquals(0L, _driver.getFileSize("fileID2"));
+        assertEquals(2, _driver.getStateCount());
+
+        // ݂Ȃt@C͈ړȂB
+        assertEquals(0, _driver.demote());
+        assertEquals(0, _driver.getStateCount());
+        assertEquals(1L, _driver.getDemotedFileCount());
+
+        // jꂽt@ĆÃANZXōĂуR[hwɌB
+        assertEquals(data, read("fileID1"));
+        assertEquals(1L, _driver.getColdHits());
+        assertEquals(1, _driver.getStateCount());
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    private void write(String fileID, byte[] data, boolean append)
+        throws Exception
+    {
+        OutputStream os = _driver.getOutputStream(fileID, append);
+        os.write(data, 0, data.length);
+        os.close();
+    }
+
+    private byte[] read(String fileID)
+        throws Exception
+    {
+        InputStream is = _driver.getInputStream(fileID);
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        byte[] buf = new byte[700];
+        int count = 0;
+        while ((count = is.read(buf, 0, buf.length)) != -1)
+            actual.write(buf, 0, count);
+        is.close();
+        return actual.toByteArray();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs.sector;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * An extension of {@link SectorDriver} that runs operations
+ * asynchronously.
+ *
+ * <p> Each method starts the operation on threads owned by the driver and
+ * returns at once. The result is given by the returned
+ * {@link CompletableFuture}. A failure completes it exceptionally with
+ * SectorException, which {@link CompletableFuture#get()} reports as the
+ * cause of {@link ExecutionException}. So a caller can issue many
+ * operations from one thread, and chain operations by the methods of
+ * CompletableFuture such as <tt>thenCompose</tt>, without waiting in its
+ * own thread.
+ *
+ * <p> Locks of the files are the same as {@link SectorDriver}: an operation
+ * fails if it conflicts with a stream or another operation of the file.
+ *
+ * <p> A blocking SectorDriver is made asynchronous by
+ * {@link AsyncSectorDriverAdapter}.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public interface AsyncSectorDriver
+    extends SectorDriver
+{
+    /**
+     * Read bytes of the file from the specified offset.
+     *
+     * @param fileID    ID of the file.
+     * @param offset    number of bytes from the beginning of the file.
+     * @param length    maximum number of bytes to read.
+     *
+     * @return  Future of a buffer whose remaining bytes are the read data.
+     *          It has less than <tt>length</tt> bytes if the end of the
+     *          file is reached.
+     */
+    public CompletableFuture<ByteBuffer> readAsync(String fileID,
+            long offset, int length);
+
+    /**
+     * Write the remaining bytes of the buffer to the file. The buffer must
+     * not be modified until the operation completes.
+     *
+     * @param fileID    ID of the file.
+     * @param src       the data to write.
+     * @param append    if true, the data is appended to the file.
+     *                  Otherwise the file is replaced by the data.
+     *
+     * @return  Future of number of bytes written.
+     */
+    public CompletableFuture<Long> writeAsync(String fileID, ByteBuffer src,
+            boolean append);
+
+    /**
+     * Delete the sectors of the file.
+     *
+     * @param fileID    ID of the file.
+     *
+     * @return  Future that completes when the sectors are deleted.
+     */
+    public CompletableFuture<Void> deleteAsync(String fileID);
+
+    /**
+     * Stop the threads of this driver after the operations already
+     * started are completed. Operations started after this method fail.
+     */
+    public void shutdown();
+}
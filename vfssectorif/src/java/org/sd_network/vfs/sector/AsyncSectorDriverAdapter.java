@@ -0,0 +1,305 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs.sector;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link AsyncSectorDriver} that runs the blocking methods of a
+ * {@link SectorDriver} on its own pool of threads.
+ *
+ * <p> The methods of SectorDriver are delegated as they are. The delegate
+ * must be initialized before it is given, or by {@link #initDriver()} of
+ * this adapter. The number of operations that block at the same time is
+ * limited by the number of threads, and further operations wait in the
+ * queue of the pool. Functions chained to the returned futures by the
+ * non-async methods of CompletableFuture run on the thread of the pool
+ * that completed the operation, so they must not block for long.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public class AsyncSectorDriverAdapter
+    implements AsyncSectorDriver
+{
+    /** Number of bytes written at a time from a buffer without array. */
+    private static final int _WRITE_BUFFER_SIZE = 65536;
+
+    /** Number of adapters created, used for names of the threads. */
+    private static final AtomicInteger _adapterCount = new AtomicInteger();
+
+    ////////////////////////////////////////////////////////////
+    // Private fields.
+
+    /** The blocking driver. */
+    private final SectorDriver _driver;
+
+    /** The threads that run the operations. */
+    private final ExecutorService _executor;
+
+    ////////////////////////////////////////////////////////////
+    // Constructors.
+
+    /**
+     * Create an adapter of the specified driver.
+     *
+     * @param driver    the blocking driver.
+     * @param threads   number of threads that run the operations.
+     */
+    public AsyncSectorDriverAdapter(SectorDriver driver, int threads) {
+        if (driver == null)
+            throw new NullPointerException("driver");
+        if (threads <= 0)
+            throw new IllegalArgumentException("threads is not positive.");
+
+        _driver = driver;
+        final String prefix = "vfs-sector-async-" +
+            _adapterCount.incrementAndGet() + "-";
+        _executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactory() {
+                    private final AtomicInteger _count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(
+                                r, prefix + _count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Implements AsyncSectorDriver.
+
+    public CompletableFuture<ByteBuffer> readAsync(final String fileID,
+            final long offset, final int length)
+    {
+        if (length < 0)
+            throw new IllegalArgumentException("length is negative.");
+
+        return submit(new Callable<ByteBuffer>() {
+            public ByteBuffer call()
+                throws SectorException, IOException
+            {
+                InputStream is = _driver.getInputStream(fileID, offset);
+                try {
+                    // the file does not change while the stream is open,
+                    // so the buffer is not larger than the rest of it.
+                    long rest = _driver.getFileSize(fileID) - offset;
+                    byte[] data = new byte[
+                        (int) Math.max(0L, Math.min(length, rest))];
+                    int count = 0;
+                    int n = 0;
+                    while (count < data.length && (n = is.read(
+                                    data, count, data.length - count)) != -1)
+                        count += n;
+                    return ByteBuffer.wrap(data, 0, count);
+                } finally {
+                    is.close();
+                }
+            }
+        });
+    }
+
+    public CompletableFuture<Long> writeAsync(final String fileID,
+            final ByteBuffer src, final boolean append)
+    {
+        if (src == null)
+            throw new NullPointerException("src");
+
+        return submit(new Callable<Long>() {
+            public Long call()
+                throws SectorException, IOException
+            {
+                ByteBuffer data = src.duplicate();
+                long count = data.remaining();
+                OutputStream os = _driver.getOutputStream(fileID, append);
+                try {
+                    if (data.hasArray()) {
+                        os.write(data.array(),
+                                data.arrayOffset() + data.position(),
+                                data.remaining());
+                    } else {
+                        byte[] buf = new byte[
+                            Math.min(_WRITE_BUFFER_SIZE, data.remaining())];
+                        while (data.hasRemaining()) {
+                            int n = Math.min(buf.length, data.remaining());
+                            data.get(buf, 0, n);
+                            os.write(buf, 0, n);
+                        }
+                    }
+                } finally {
+                    os.close();
+                }
+                return Long.valueOf(count);
+            }
+        });
+    }
+
+    public CompletableFuture<Void> deleteAsync(final String fileID) {
+        return submit(new Callable<Void>() {
+            public Void call()
+                throws SectorException
+            {
+                _driver.deleteSectors(fileID);
+                return null;
+            }
+        });
+    }
+
+    public void shutdown() {
+        _executor.shutdown();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Implements SectorDriver.
+
+    public OutputStream getOutputStream(String fileID)
+        throws SectorException
+    {
+        return _driver.getOutputStream(fileID);
+    }
+
+    public OutputStream getOutputStream(String fileID, boolean append)
+        throws SectorException
+    {
+        return _driver.getOutputStream(fileID, append);
+    }
+
+    public OutputStream getOutputStream(String fileID, long sizeHint)
+        throws SectorException
+    {
+        return _driver.getOutputStream(fileID, sizeHint);
+    }
+
+    public InputStream getInputStream(String fileID)
+        throws SectorException
+    {
+        return _driver.getInputStream(fileID);
+    }
+
+    public InputStream getInputStream(String fileID, long offset)
+        throws SectorException
+    {
+        return _driver.getInputStream(fileID, offset);
+    }
+
+    public long transferTo(String fileID, WritableByteChannel target)
+        throws SectorException
+    {
+        return _driver.transferTo(fileID, target);
+    }
+
+    public long transferFrom(String fileID, ReadableByteChannel src)
+        throws SectorException
+    {
+        return _driver.transferFrom(fileID, src);
+    }
+
+    public long transferFrom(String fileID, ReadableByteChannel src,
+            boolean append)
+        throws SectorException
+    {
+        return _driver.transferFrom(fileID, src, append);
+    }
+
+    public boolean isWriteLocked(String fileID) {
+        return _driver.isWriteLocked(fileID);
+    }
+
+    public boolean isReadLocked(String fileID) {
+        return _driver.isReadLocked(fileID);
+    }
+
+    public void deleteSectors(String fileID)
+        throws SectorException
+    {
+        _driver.deleteSectors(fileID);
+    }
+
+    public void initDriver()
+        throws SectorException
+    {
+        _driver.initDriver();
+    }
+
+    public long getFileSize(String fileID)
+        throws SectorException
+    {
+        return _driver.getFileSize(fileID);
+    }
+
+    public long getAvailableBytes()
+        throws SectorException
+    {
+        return _driver.getAvailableBytes();
+    }
+
+    public long getUsedBytes()
+        throws SectorException
+    {
+        return _driver.getUsedBytes();
+    }
+
+    ////////////////////////////////////////////////////////////
+    // Private methods.
+
+    /**
+     * Run the operation on the pool. The returned future is completed by
+     * the result of the operation, or exceptionally by SectorException if
+     * the operation failed. If the pool is shut down, the returned future
+     * fails at once.
+     */
+    private <V> CompletableFuture<V> submit(final Callable<V> operation) {
+        final CompletableFuture<V> future = new CompletableFuture<V>();
+        try {
+            _executor.execute(new Runnable() {
+                public void run() {
+                    if (future.isDone())
+                        return;
+                    try {
+                        future.complete(operation.call());
+                    } catch (SectorException e) {
+                        future.completeExceptionally(e);
+                    } catch (Exception e) {
+                        future.completeExceptionally(
+                                new SectorException(e));
+                    } catch (Error e) {
+                        future.completeExceptionally(e);
+                        throw e;
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(
+                    new SectorException("SectorDriver is shut down."));
+        }
+        return future;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2007 Masatoshi sato.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sd_network.vfs.sector;
+
+import java.util.List;
+
+/**
+ * An extension of {@link SectorDriver} that can list the files it stores.
+ *
+ * <p> A driver that keeps track of its files in memory, such as a driver
+ * that builds an index of its storage at initialization, implements this
+ * so that a driver composed of other drivers can find the files stored
+ * before a restart without waiting for each of them to be accessed.
+ *
+ * <p> $Id$
+ *
+ * @author Masatoshi Sato
+ */
+public interface ListableSectorDriver
+    extends SectorDriver
+{
+    /**
+     * Return IDs of the files that have data in this driver. The list is
+     * a snapshot, so files written or deleted while it is built may or may
+     * not be included.
+     *
+     * @return  list of file IDs.
+     *
+     * @throws  SectorException
+     *          Throws if the files could not be listed.
+     */
+    public List<String> getFileIDs()
+        throws SectorException;
+}
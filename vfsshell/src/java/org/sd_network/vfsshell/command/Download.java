@@ -33,7 +33,6 @@ import org.sd_network.vfs.SessionException;
 import org.sd_network.vfs.VfsContext;
 import org.sd_network.vfs.VfsIOException;
 import org.sd_network.vfs.VfsService;
-import org.sd_network.vfs.db.SystemInfo;
 import org.sd_network.vfs.db.VfsFile;
 import org.sd_network.vfsshell.CommandHandlerBase;
 import org.sd_network.vfsshell.Session;
@@ -81,7 +80,6 @@ public class Download
             return;
         }
 
-        SystemInfo systemInfo = vfsService.getSystemInfo();
         String parentFileID = session.getCurrentDirectory().getID();
         String fileSessionID = null;
         try {
@@ -95,15 +93,11 @@ public class Download
             fileSessionID = vfsService.createFileSession(
                 sessionID, vfsFile.getID(), FileSession.Mode.READ);
 
-            byte[] buf = new byte[systemInfo.getBytesPerRead()];
             FileOutputStream fos = null;
             try {
                 fos = new FileOutputStream(file);
-                int count = 0;
-                while ((count = vfsService.readData(sessionID, fileSessionID, buf, buf.length)) != -1)
-                {
-                    fos.write(buf, 0, count);
-                }
+                vfsService.transferTo(
+                        sessionID, fileSessionID, fos.getChannel());
             } catch (IOException e) {
                 e.printStackTrace(System.err);
             } finally {
@@ -33,7 +33,6 @@ import org.sd_network.vfs.SessionException;
 import org.sd_network.vfs.VfsContext;
 import org.sd_network.vfs.VfsIOException;
 import org.sd_network.vfs.VfsService;
-import org.sd_network.vfs.db.SystemInfo;
 import org.sd_network.vfs.db.VfsFile;
 import org.sd_network.vfsshell.CommandHandlerBase;
 import org.sd_network.vfsshell.Session;
@@ -91,7 +90,6 @@ public class Upload
             return;
         }
 
-        SystemInfo systemInfo = vfsService.getSystemInfo();
         String parentFileID = session.getCurrentDirectory().getID();
         String fileSessionID = null;
         try {
@@ -105,16 +103,14 @@ public class Upload
                 return;
             }
 
-            fileSessionID = vfsService.createFileSession(
-                    sessionID, vfsFile.getID(), FileSession.Mode.WRITE);
+            fileSessionID = vfsService.createFileSession(sessionID,
+                    vfsFile.getID(), FileSession.Mode.WRITE, file.length());
 
-            byte[] buf = new byte[systemInfo.getBytesPerWrite()];
             FileInputStream fis = null;
             try {
                 fis = new FileInputStream(file);
-                int count = 0;
-                while ((count = fis.read(buf)) != -1)
-                    vfsService.writeData(sessionID, fileSessionID, buf, count);
+                vfsService.transferFrom(
+                        sessionID, fileSessionID, fis.getChannel());
             } catch (IOException e) {
                 e.printStackTrace(System.err);
             } finally {